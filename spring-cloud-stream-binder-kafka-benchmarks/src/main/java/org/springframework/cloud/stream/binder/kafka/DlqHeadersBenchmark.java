@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+
+/**
+ * The headers added to a record sent to the DLQ by the error handler of a consumer
+ * binding, with the stack trace of the failure, or its fingerprint when the stack traces
+ * are sent to a separate topic. The benchmark is in the package of the binder to use its
+ * package private methods.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DlqHeadersBenchmark {
+
+	private static final int STACK_DEPTH = 60;
+
+	@Param({ "stackTrace", "fingerprint" })
+	private String stackTraces;
+
+	private KafkaConsumerProperties properties;
+
+	private ConsumerRecord<Object, Object> record;
+
+	private Throwable throwable;
+
+	@Setup
+	public void setup() {
+		this.properties = new KafkaConsumerProperties();
+		if ("fingerprint".equals(this.stackTraces)) {
+			this.properties.setDlqStackTraceTopic("stack-traces");
+		}
+		RecordHeaders recordHeaders = new RecordHeaders();
+		recordHeaders.add(new RecordHeader("contentType", "\"application/json\"".getBytes()));
+		recordHeaders.add(new RecordHeader("traceId", "463ac35c9f6413ad48485a3953bb6124".getBytes()));
+		this.record = new ConsumerRecord<>("orders", 3, 1234567L, System.currentTimeMillis(),
+				TimestampType.CREATE_TIME, 0L, 8, 256, "customer-42".getBytes(), new byte[256],
+				recordHeaders);
+		this.throwable = fail(STACK_DEPTH);
+	}
+
+	@Benchmark
+	public Headers addDlqHeaders() {
+		Headers headers = new RecordHeaders(this.record.headers().toArray());
+		String fingerprint = this.properties.getDlqStackTraceTopic() != null
+				? StackTraces.fingerprint(this.throwable)
+				: null;
+		KafkaMessageChannelBinder.addDlqHeaders(headers, this.record, this.throwable, fingerprint,
+				this.properties);
+		return headers;
+	}
+
+	private static Throwable fail(int depth) {
+		if (depth > 0) {
+			return fail(depth - 1);
+		}
+		return new IllegalStateException("Failed to handle the order",
+				new IllegalArgumentException("Unknown customer: customer-42"));
+	}
+
+}
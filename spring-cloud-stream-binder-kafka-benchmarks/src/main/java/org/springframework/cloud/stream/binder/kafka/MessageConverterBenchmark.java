@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties.StandardHeaders;
+import org.springframework.kafka.support.converter.MessagingMessageConverter;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeType;
+
+/**
+ * The inbound conversion of a typical record to a message, by a
+ * {@link MessagingMessageConverter} configured as the binder configures the converter of
+ * a consumer binding, after which the content type is read as the message converters of
+ * the binding do. The benchmark is in the package of the binder to use its package
+ * private header mapper.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageConverterBenchmark {
+
+	@Param({ "none", "both" })
+	private StandardHeaders standardHeaders;
+
+	@Param({ "false", "true" })
+	private boolean lazyHeaders;
+
+	private MessagingMessageConverter converter;
+
+	private ConsumerRecord<Object, Object> record;
+
+	@Setup
+	public void setup() {
+		this.converter = new MessagingMessageConverter();
+		this.converter.setGenerateMessageId(StandardHeaders.id.equals(this.standardHeaders)
+				|| StandardHeaders.both.equals(this.standardHeaders));
+		this.converter.setGenerateTimestamp(StandardHeaders.timestamp.equals(this.standardHeaders)
+				|| StandardHeaders.both.equals(this.standardHeaders));
+		BinderHeaderMapper headerMapper = new BinderHeaderMapper();
+		this.converter.setHeaderMapper(this.lazyHeaders ? new LazyHeaderMapper(headerMapper) : headerMapper);
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(MessageHeaders.CONTENT_TYPE, MimeType.valueOf("application/json"));
+		headers.put("correlationId", UUID.randomUUID());
+		headers.put("sequenceNumber", 42);
+		headers.put("sequenceSize", 100);
+		headers.put("traceId", "463ac35c9f6413ad48485a3953bb6124");
+		headers.put("spanId", "a2fb4a1d1a96d312");
+		headers.put("sampled", Boolean.TRUE);
+		headers.put("eventTime", System.currentTimeMillis());
+		RecordHeaders recordHeaders = new RecordHeaders();
+		new BinderHeaderMapper().fromHeaders(new MessageHeaders(headers), recordHeaders);
+		this.record = new ConsumerRecord<>("orders", 3, 1234567L, System.currentTimeMillis(),
+				TimestampType.CREATE_TIME, 0L, 8, 256, "customer-42".getBytes(), new byte[256],
+				recordHeaders);
+	}
+
+	@Benchmark
+	public void toMessage(Blackhole blackhole) {
+		Message<?> message = this.converter.toMessage(this.record, null, null, null);
+		blackhole.consume(message.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+		blackhole.consume(message);
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.binder.kafka.BinderHeaderMapper;
+import org.springframework.cloud.stream.binder.kafka.properties.HeaderEncoding;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeType;
+
+/**
+ * Outbound and inbound mapping, by the {@link BinderHeaderMapper}, of the headers of a
+ * typical record; each mapper instance maps many records, as a binding does.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinderHeaderMapperBenchmark {
+
+	@Param({ "json", "binary" })
+	private HeaderEncoding headerEncoding;
+
+	private BinderHeaderMapper outbound;
+
+	private BinderHeaderMapper inbound;
+
+	private MessageHeaders messageHeaders;
+
+	private Headers recordHeaders;
+
+	@Setup
+	public void setup() {
+		this.outbound = new BinderHeaderMapper();
+		this.inbound = new BinderHeaderMapper();
+		this.outbound.setHeaderEncoding(this.headerEncoding);
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(MessageHeaders.CONTENT_TYPE, MimeType.valueOf("application/json"));
+		headers.put("correlationId", UUID.randomUUID());
+		headers.put("sequenceNumber", 42);
+		headers.put("sequenceSize", 100);
+		headers.put("traceId", "463ac35c9f6413ad48485a3953bb6124");
+		headers.put("spanId", "a2fb4a1d1a96d312");
+		headers.put("sampled", Boolean.TRUE);
+		headers.put("eventTime", System.currentTimeMillis());
+		this.messageHeaders = new MessageHeaders(headers);
+		this.recordHeaders = new RecordHeaders();
+		this.outbound.fromHeaders(this.messageHeaders, this.recordHeaders);
+	}
+
+	@Benchmark
+	public Headers fromHeaders() {
+		Headers target = new RecordHeaders();
+		this.outbound.fromHeaders(this.messageHeaders, target);
+		return target;
+	}
+
+	@Benchmark
+	public Map<String, Object> toHeaders() {
+		Map<String, Object> target = new HashMap<>();
+		this.inbound.toHeaders(this.recordHeaders, target);
+		return target;
+	}
+
+}
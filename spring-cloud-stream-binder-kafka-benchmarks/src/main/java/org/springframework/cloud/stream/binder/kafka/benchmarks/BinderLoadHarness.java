@@ -0,0 +1,347 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.KafkaMessageChannelBinder;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * A load harness driving a producer binding and a consumer binding created by the
+ * {@link KafkaMessageChannelBinder}, against an embedded broker or an external cluster,
+ * and reporting the throughput and the end-to-end latency of the messages.
+ * <p>
+ * Each payload starts with the time the message was due to be sent, so that the latency
+ * includes the time a message waits when the producer falls behind the requested rate.
+ * The warm-up messages are not measured. Run it with
+ * {@code java -cp benchmarks.jar org.springframework.cloud.stream.binder.kafka.benchmarks.BinderLoadHarness}
+ * and options such as {@code --messages=1000000 --messageSize=1024 --rate=50000}; the
+ * {@code producer.} and {@code consumer.} options are added to the Kafka configuration of
+ * the bindings, for example {@code --producer.linger.ms=5}.
+ *
+ * @since 3.1
+ */
+public final class BinderLoadHarness {
+
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+	static {
+		DEFAULTS.put("brokers", "");
+		DEFAULTS.put("messages", "1000000");
+		DEFAULTS.put("warmup", "10000");
+		DEFAULTS.put("messageSize", "1024");
+		DEFAULTS.put("headers", "0");
+		DEFAULTS.put("rate", "0");
+		DEFAULTS.put("partitions", "4");
+		DEFAULTS.put("concurrency", "1");
+		DEFAULTS.put("batchMode", "false");
+		DEFAULTS.put("bufferSize", "16384");
+		DEFAULTS.put("batchTimeout", "0");
+		DEFAULTS.put("compressionType", "none");
+		DEFAULTS.put("timeout", "300");
+	}
+
+	private final Map<String, String> options;
+
+	private final Map<String, String> producerConfiguration;
+
+	private final Map<String, String> consumerConfiguration;
+
+	private final int messages;
+
+	private final int warmup;
+
+	private final int messageSize;
+
+	private final long[] latencies;
+
+	private final AtomicInteger received = new AtomicInteger();
+
+	private final AtomicLong lastReceived = new AtomicLong();
+
+	private final CountDownLatch warmedUp = new CountDownLatch(1);
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private BinderLoadHarness(Map<String, String> options, Map<String, String> producerConfiguration,
+			Map<String, String> consumerConfiguration) {
+
+		this.options = options;
+		this.producerConfiguration = producerConfiguration;
+		this.consumerConfiguration = consumerConfiguration;
+		this.messages = intOption("messages");
+		this.warmup = intOption("warmup");
+		this.messageSize = Math.max(intOption("messageSize"), Long.BYTES);
+		this.latencies = new long[this.messages];
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+		Map<String, String> producerConfiguration = new HashMap<>();
+		Map<String, String> consumerConfiguration = new HashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (!arg.startsWith("--") || separator < 0) {
+				throw new IllegalArgumentException("Options must be --name=value; known names: "
+						+ DEFAULTS.keySet() + ", producer.*, consumer.*");
+			}
+			String name = arg.substring(2, separator);
+			String value = arg.substring(separator + 1);
+			if (name.startsWith("producer.")) {
+				producerConfiguration.put(name.substring("producer.".length()), value);
+			}
+			else if (name.startsWith("consumer.")) {
+				consumerConfiguration.put(name.substring("consumer.".length()), value);
+			}
+			else if (DEFAULTS.containsKey(name)) {
+				options.put(name, value);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+		new BinderLoadHarness(options, producerConfiguration, consumerConfiguration).run();
+		// the client threads of the unbound bindings may outlive the harness
+		System.exit(0);
+	}
+
+	private void run() throws Exception {
+		EmbeddedKafkaBroker broker = null;
+		String brokers = this.options.get("brokers");
+		if (brokers.isEmpty()) {
+			broker = new EmbeddedKafkaBroker(1, false, intOption("partitions"));
+			broker.afterPropertiesSet();
+			brokers = broker.getBrokersAsString();
+		}
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(Config.class);
+		try {
+			KafkaMessageChannelBinder binder = createBinder(brokers, context);
+			String topic = "harness-" + System.currentTimeMillis();
+			DirectChannel input = new DirectChannel();
+			input.subscribe(this::received);
+			Binding<MessageChannel> consumerBinding = binder.bindConsumer(topic, "harness", input,
+					consumerProperties());
+			DirectChannel output = new DirectChannel();
+			Binding<MessageChannel> producerBinding = binder.bindProducer(topic, output, producerProperties());
+			try {
+				Map<String, Object> headers = headers();
+				sendWarmup(output, headers);
+				long start = System.nanoTime();
+				send(output, headers);
+				long sent = System.nanoTime();
+				if (!this.done.await(intOption("timeout"), TimeUnit.SECONDS)) {
+					System.out.println("Timed out with " + this.received.get() + " messages received");
+				}
+				report(start, sent);
+			}
+			finally {
+				producerBinding.unbind();
+				consumerBinding.unbind();
+			}
+		}
+		finally {
+			context.close();
+			if (broker != null) {
+				broker.destroy();
+			}
+		}
+	}
+
+	private KafkaMessageChannelBinder createBinder(String brokers, AnnotationConfigApplicationContext context)
+			throws Exception {
+
+		KafkaProperties kafkaProperties = new KafkaProperties();
+		kafkaProperties.setBootstrapServers(Collections.singletonList(brokers));
+		// as the KafkaBinderEnvironmentPostProcessor does
+		kafkaProperties.getConsumer().setKeyDeserializer(ByteArrayDeserializer.class);
+		kafkaProperties.getConsumer().setValueDeserializer(ByteArrayDeserializer.class);
+		kafkaProperties.getProducer().setKeySerializer(ByteArraySerializer.class);
+		kafkaProperties.getProducer().setValueSerializer(ByteArraySerializer.class);
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				kafkaProperties);
+		configurationProperties.setBrokers(brokers);
+		configurationProperties.setMinPartitionCount(intOption("partitions"));
+		KafkaTopicProvisioner provisioner = new KafkaTopicProvisioner(configurationProperties, kafkaProperties);
+		provisioner.afterPropertiesSet();
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties, provisioner);
+		binder.setApplicationContext(context);
+		binder.afterPropertiesSet();
+		return binder;
+	}
+
+	private ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties() {
+		ExtendedConsumerProperties<KafkaConsumerProperties> properties = new ExtendedConsumerProperties<>(
+				new KafkaConsumerProperties());
+		properties.setInstanceCount(1);
+		properties.setInstanceIndex(0);
+		properties.setConcurrency(intOption("concurrency"));
+		properties.setBatchMode(Boolean.parseBoolean(this.options.get("batchMode")));
+		properties.getExtension().setStartOffset(KafkaConsumerProperties.StartOffset.earliest);
+		properties.getExtension().getConfiguration().putAll(this.consumerConfiguration);
+		return properties;
+	}
+
+	private ExtendedProducerProperties<KafkaProducerProperties> producerProperties() {
+		ExtendedProducerProperties<KafkaProducerProperties> properties = new ExtendedProducerProperties<>(
+				new KafkaProducerProperties());
+		properties.getExtension().setBufferSize(intOption("bufferSize"));
+		properties.getExtension().setBatchTimeout(intOption("batchTimeout"));
+		properties.getExtension().setCompressionType(
+				KafkaProducerProperties.CompressionType.valueOf(this.options.get("compressionType")));
+		properties.getExtension().getConfiguration().putAll(this.producerConfiguration);
+		return properties;
+	}
+
+	private Map<String, Object> headers() {
+		Map<String, Object> headers = new HashMap<>();
+		for (int i = 0; i < intOption("headers"); i++) {
+			headers.put("header" + i, "value-" + i);
+		}
+		return headers;
+	}
+
+	private void sendWarmup(MessageChannel output, Map<String, Object> headers) throws InterruptedException {
+		for (int i = 0; i < this.warmup || this.warmedUp.getCount() > 0; i++) {
+			output.send(message(-1L, headers));
+			if (i >= this.warmup) {
+				// until the partitions are assigned
+				this.warmedUp.await(100, TimeUnit.MILLISECONDS);
+			}
+		}
+		// let the warm-up messages drain
+		Thread.sleep(1000);
+	}
+
+	private void send(MessageChannel output, Map<String, Object> headers) {
+		int rate = intOption("rate");
+		long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		long due = System.nanoTime();
+		for (int i = 0; i < this.messages; i++) {
+			if (interval > 0) {
+				due += interval;
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			else {
+				due = System.nanoTime();
+			}
+			output.send(message(due, headers));
+		}
+	}
+
+	private Message<byte[]> message(long due, Map<String, Object> headers) {
+		byte[] payload = new byte[this.messageSize];
+		ByteBuffer.wrap(payload).putLong(due);
+		return MessageBuilder.withPayload(payload).copyHeaders(headers).build();
+	}
+
+	private void received(Message<?> message) {
+		long now = System.nanoTime();
+		if (message.getPayload() instanceof List) {
+			for (Object payload : (List<?>) message.getPayload()) {
+				received((byte[]) payload, now);
+			}
+		}
+		else {
+			received((byte[]) message.getPayload(), now);
+		}
+	}
+
+	private void received(byte[] payload, long now) {
+		long due = ByteBuffer.wrap(payload).getLong(0);
+		if (due < 0) {
+			this.warmedUp.countDown();
+			return;
+		}
+		int index = this.received.getAndIncrement();
+		if (index < this.latencies.length) {
+			this.latencies[index] = now - due;
+		}
+		if (index == this.messages - 1) {
+			this.lastReceived.set(now);
+			this.done.countDown();
+		}
+	}
+
+	private void report(long start, long sent) {
+		int count = Math.min(this.received.get(), this.messages);
+		long end = this.lastReceived.get() != 0 ? this.lastReceived.get() : System.nanoTime();
+		double seconds = (end - start) / 1e9;
+		System.out.println("options: " + this.options + " producer: " + this.producerConfiguration
+				+ " consumer: " + this.consumerConfiguration);
+		System.out.printf("sent:     %d msgs in %.3f s, %.0f msgs/s%n", this.messages, (sent - start) / 1e9,
+				this.messages / ((sent - start) / 1e9));
+		System.out.printf("received: %d msgs in %.3f s, %.0f msgs/s, %.2f MB/s%n", count, seconds,
+				count / seconds, count * (double) this.messageSize / seconds / (1024 * 1024));
+		if (count == 0) {
+			return;
+		}
+		long[] sorted = Arrays.copyOf(this.latencies, count);
+		Arrays.sort(sorted);
+		System.out.printf("latency:  p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+				percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999),
+				sorted[sorted.length - 1] / 1e6);
+	}
+
+	private static double percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+
+	private int intOption(String name) {
+		return Integer.parseInt(this.options.get(name));
+	}
+
+	@Configuration
+	@EnableIntegration
+	static class Config {
+
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.InMemoryKafkaBinder;
+import org.springframework.cloud.stream.binder.kafka.InMemoryTopics;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Records sent by a producer binding and handled by a consumer binding of the
+ * {@link InMemoryKafkaBinder}, without a broker: the outbound and inbound conversions,
+ * the header mapping and, when the handler fails, the error handling of the binding and
+ * the records sent to the DLQ. The throughput is the one of the records.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InMemoryBindingBenchmark {
+
+	private static final int RECORDS = 1000;
+
+	@Param({ "1", "4" })
+	private int partitions;
+
+	@Param({ "handled", "dlq" })
+	private String outcome;
+
+	private final AtomicLong handled = new AtomicLong();
+
+	private long sent;
+
+	private AnnotationConfigApplicationContext context;
+
+	private Binding<MessageChannel> consumerBinding;
+
+	private Binding<MessageChannel> producerBinding;
+
+	private DirectChannel output;
+
+	private Message<byte[]> message;
+
+	@Setup
+	public void setup() throws Exception {
+		this.context = new AnnotationConfigApplicationContext(Config.class);
+		KafkaBinderConfigurationProperties configurationProperties = new KafkaBinderConfigurationProperties(
+				new KafkaProperties());
+		configurationProperties.setMinPartitionCount(this.partitions);
+		InMemoryKafkaBinder binder = new InMemoryKafkaBinder(configurationProperties,
+				new InMemoryTopics(this.partitions, 10 * RECORDS));
+		binder.setApplicationContext(this.context);
+		binder.afterPropertiesSet();
+		boolean dlq = "dlq".equals(this.outcome);
+		DirectChannel input = new DirectChannel();
+		input.subscribe(message -> {
+			this.handled.incrementAndGet();
+			if (dlq) {
+				throw new IllegalStateException("Failed to handle the record");
+			}
+		});
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = new ExtendedConsumerProperties<>(
+				new KafkaConsumerProperties());
+		consumerProperties.setInstanceCount(1);
+		consumerProperties.setConcurrency(this.partitions);
+		consumerProperties.setMaxAttempts(1);
+		consumerProperties.getExtension().setEnableDlq(dlq);
+		this.consumerBinding = binder.bindConsumer("benchmark", "benchmark", input, consumerProperties);
+		this.output = new DirectChannel();
+		this.producerBinding = binder.bindProducer("benchmark", this.output,
+				new ExtendedProducerProperties<>(new KafkaProducerProperties()));
+		this.message = MessageBuilder.withPayload(new byte[256])
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+				.setHeader("traceId", "463ac35c9f6413ad48485a3953bb6124")
+				.setHeader("spanId", "a2fb4a1d1a96d312")
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.producerBinding.unbind();
+		this.consumerBinding.unbind();
+		this.context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public void sendAndHandle() {
+		for (int i = 0; i < RECORDS; i++) {
+			this.output.send(this.message);
+		}
+		this.sent += RECORDS;
+		while (this.handled.get() < this.sent) {
+			Thread.yield();
+		}
+	}
+
+	@Configuration
+	@EnableIntegration
+	static class Config {
+
+	}
+
+}
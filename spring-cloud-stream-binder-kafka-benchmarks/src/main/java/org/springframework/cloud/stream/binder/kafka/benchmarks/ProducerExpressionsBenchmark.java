@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.binder.kafka.KafkaExpressionEvaluatingInterceptor;
+import org.springframework.cloud.stream.binder.kafka.MessageExpressions;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.ExpressionUtils;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+
+/**
+ * The producer path of a binding whose message key expression references the payload:
+ * the key interception before the payload is converted, then the evaluation of the
+ * topic, key and partition expressions by the producer message handler. The
+ * {@code interpreted} variant copies the message with a {@link MessageBuilder} and
+ * interprets the SpEL expressions, as the binder used to; the {@code binder} variant uses
+ * the {@link KafkaExpressionEvaluatingInterceptor} and {@link MessageExpressions}.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerExpressionsBenchmark {
+
+	private static final String KEY_EXPRESSION = "payload.customerId";
+
+	@Param({ "interpreted", "binder" })
+	private String variant;
+
+	private EvaluationContext evaluationContext;
+
+	private Expression messageKeyExpression;
+
+	private KafkaExpressionEvaluatingInterceptor interceptor;
+
+	private Expression topicExpression;
+
+	private Expression keyExpression;
+
+	private Expression partitionExpression;
+
+	private Message<Order> message;
+
+	@Setup
+	public void setup() {
+		SpelExpressionParser parser = new SpelExpressionParser();
+		this.evaluationContext = ExpressionUtils.createStandardEvaluationContext();
+		this.messageKeyExpression = parser.parseExpression(KEY_EXPRESSION);
+		if ("binder".equals(this.variant)) {
+			this.interceptor = new KafkaExpressionEvaluatingInterceptor(this.messageKeyExpression,
+					this.evaluationContext);
+			this.topicExpression = MessageExpressions.header(KafkaHeaders.TOPIC, "orders");
+			this.keyExpression = MessageExpressions.header(KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER,
+					null);
+			this.partitionExpression = MessageExpressions.header(BinderHeaders.PARTITION_HEADER, null);
+		}
+		else {
+			this.topicExpression = parser.parseExpression("headers['" + KafkaHeaders.TOPIC + "'] ?: 'orders'");
+			this.keyExpression = parser.parseExpression("headers['"
+					+ KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER + "']");
+			this.partitionExpression = parser.parseExpression("headers['" + BinderHeaders.PARTITION_HEADER + "']");
+		}
+		this.message = MessageBuilder.withPayload(new Order("customer-42", 100))
+				.setHeader(BinderHeaders.PARTITION_HEADER, 3)
+				.setHeader("traceId", "463ac35c9f6413ad48485a3953bb6124")
+				.setHeader("spanId", "a2fb4a1d1a96d312")
+				.build();
+	}
+
+	@Benchmark
+	public void send(Blackhole blackhole) {
+		Message<?> intercepted;
+		if (this.interceptor != null) {
+			intercepted = this.interceptor.preSend(this.message, null);
+		}
+		else {
+			intercepted = MessageBuilder.fromMessage(this.message)
+					.setHeader(KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER,
+							this.messageKeyExpression.getValue(this.evaluationContext, this.message))
+					.build();
+		}
+		blackhole.consume(this.topicExpression.getValue(this.evaluationContext, intercepted, String.class));
+		blackhole.consume(this.keyExpression.getValue(this.evaluationContext, intercepted));
+		blackhole.consume(this.partitionExpression.getValue(this.evaluationContext, intercepted, Integer.class));
+	}
+
+	/**
+	 * A payload whose key is one of its properties.
+	 */
+	public static class Order {
+
+		private final String customerId;
+
+		private final int quantity;
+
+		public Order(String customerId, int quantity) {
+			this.customerId = customerId;
+			this.quantity = quantity;
+		}
+
+		public String getCustomerId() {
+			return this.customerId;
+		}
+
+		public int getQuantity() {
+			return this.quantity;
+		}
+
+	}
+
+}
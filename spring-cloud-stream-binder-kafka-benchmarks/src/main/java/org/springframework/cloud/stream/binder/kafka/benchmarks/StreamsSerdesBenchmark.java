@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.cloud.stream.binder.kafka.streams.serde.CollectionSerde;
+import org.springframework.cloud.stream.binder.kafka.streams.serde.MessageConverterDelegateSerde;
+import org.springframework.cloud.stream.converter.CompositeMessageConverterFactory;
+
+/**
+ * Serialization and deserialization of JSON values by the serdes provided by the Kafka
+ * Streams binder: a {@link CollectionSerde} of the values aggregated by a topology, and
+ * the {@link MessageConverterDelegateSerde} delegating to the message converters.
+ *
+ * @since 3.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamsSerdesBenchmark {
+
+	private static final int COLLECTION_SIZE = 10;
+
+	private CollectionSerde<Reading> collectionSerde;
+
+	private MessageConverterDelegateSerde<Reading> delegateSerde;
+
+	private Collection<Reading> readings;
+
+	private byte[] serializedReadings;
+
+	private Reading reading;
+
+	private byte[] serializedReading;
+
+	@Setup
+	public void setup() {
+		this.collectionSerde = new CollectionSerde<>(Reading.class, ArrayList.class);
+		this.delegateSerde = new MessageConverterDelegateSerde<>(
+				new CompositeMessageConverterFactory(Collections.emptyList(), new ObjectMapper())
+						.getMessageConverterForAllRegistered());
+		Map<String, Object> configs = new HashMap<>();
+		configs.put("valueClass", Reading.class);
+		this.delegateSerde.configure(configs, false);
+		List<Reading> readings = new ArrayList<>();
+		for (int i = 0; i < COLLECTION_SIZE; i++) {
+			readings.add(new Reading("sensor-" + i, System.currentTimeMillis(), 20.5 + i));
+		}
+		this.readings = readings;
+		this.serializedReadings = this.collectionSerde.serializer().serialize("readings", readings);
+		this.reading = readings.get(0);
+		this.serializedReading = this.delegateSerde.serializer().serialize("readings", this.reading);
+	}
+
+	@Benchmark
+	public byte[] collectionSerialize() {
+		return this.collectionSerde.serializer().serialize("readings", this.readings);
+	}
+
+	@Benchmark
+	public Collection<Reading> collectionDeserialize() {
+		return this.collectionSerde.deserializer().deserialize("readings", this.serializedReadings);
+	}
+
+	@Benchmark
+	public byte[] delegateSerialize() {
+		return this.delegateSerde.serializer().serialize("readings", this.reading);
+	}
+
+	@Benchmark
+	public Reading delegateDeserialize() {
+		return this.delegateSerde.deserializer().deserialize("readings", this.serializedReading);
+	}
+
+	/**
+	 * A value of a topology.
+	 */
+	public static class Reading {
+
+		private String sensorId;
+
+		private long time;
+
+		private double temperature;
+
+		public Reading() {
+		}
+
+		public Reading(String sensorId, long time, double temperature) {
+			this.sensorId = sensorId;
+			this.time = time;
+			this.temperature = temperature;
+		}
+
+		public String getSensorId() {
+			return this.sensorId;
+		}
+
+		public void setSensorId(String sensorId) {
+			this.sensorId = sensorId;
+		}
+
+		public long getTime() {
+			return this.time;
+		}
+
+		public void setTime(long time) {
+			this.time = time;
+		}
+
+		public double getTemperature() {
+			return this.temperature;
+		}
+
+		public void setTemperature(double temperature) {
+			this.temperature = temperature;
+		}
+
+	}
+
+}
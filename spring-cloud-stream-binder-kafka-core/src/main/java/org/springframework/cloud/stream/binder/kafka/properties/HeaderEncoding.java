@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.properties;
+
+/**
+ * Encoding of the message headers mapped to and from Kafka record headers by the binder.
+ *
+ * @since 3.1
+ */
+public enum HeaderEncoding {
+
+	/**
+	 * Non-String header values are JSON encoded and their types are carried by an
+	 * additional {@code spring_json_header_types} header, as understood by any Spring for
+	 * Apache Kafka consumer.
+	 */
+	json,
+
+	/**
+	 * Header values are encoded with a leading type tag byte followed by a fixed-width
+	 * binary value for numbers, booleans, UUIDs and dates, or the UTF-8 bytes of strings;
+	 * no type header is added. Only binder consumers configured with this encoding can
+	 * decode the headers; they also decode the {@link #json} encoding.
+	 */
+	binary
+
+}
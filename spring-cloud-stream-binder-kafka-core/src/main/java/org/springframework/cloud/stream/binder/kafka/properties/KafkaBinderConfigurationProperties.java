@@ -17,6 +17,7 @@
 package org.springframework.cloud.stream.binder.kafka.properties;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -39,6 +40,7 @@ import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerPro
 import org.springframework.expression.Expression;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.PatternMatchUtils;
 import org.springframework.util.StringUtils;
 
 /**
@@ -63,6 +65,8 @@ public class KafkaBinderConfigurationProperties {
 
 	private final Transaction transaction = new Transaction();
 
+	private final Metrics metrics = new Metrics();
+
 	private final KafkaProperties kafkaProperties;
 
 	/**
@@ -116,6 +120,31 @@ public class KafkaBinderConfigurationProperties {
 	 */
 	private Duration authorizationExceptionRetryInterval;
 
+	/**
+	 * How long the topic metadata retrieved by the binder is cached before being
+	 * retrieved again.
+	 */
+	private Duration metadataCacheTtl = Duration.ofSeconds(30);
+
+	/**
+	 * Whether the topics of all the bindings of the application are
+	 * provisioned together, with batched requests, when the binder is initialized.
+	 */
+	private boolean bulkProvisioning;
+
+	/**
+	 * The maximum number of bindings of the application whose topics are provisioned,
+	 * and whose partitions are retrieved, concurrently when the binder is initialized;
+	 * the bindings themselves are still created one by one. 1 disables the preparation.
+	 */
+	private int bindingPreparationConcurrency = 1;
+
+	/**
+	 * Whether the non-transactional producer bindings, and dead letter queues, with the
+	 * same effective producer configuration share a single producer.
+	 */
+	private boolean shareProducerFactories;
+
 	public KafkaBinderConfigurationProperties(KafkaProperties kafkaProperties) {
 		Assert.notNull(kafkaProperties, "'kafkaProperties' cannot be null");
 		this.kafkaProperties = kafkaProperties;
@@ -129,6 +158,10 @@ public class KafkaBinderConfigurationProperties {
 		return this.transaction;
 	}
 
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
 	public String getKafkaConnectionString() {
 		return toConnectionString(this.brokers, this.defaultBrokerPort);
 	}
@@ -363,6 +396,67 @@ public class KafkaBinderConfigurationProperties {
 		this.authorizationExceptionRetryInterval = authorizationExceptionRetryInterval;
 	}
 
+	/**
+	 * @return how long the topic metadata is cached
+	 *
+	 * How long the topic metadata retrieved by the binder is cached before being
+	 * retrieved again.
+	 * @since 3.1
+	 */
+	public Duration getMetadataCacheTtl() {
+		return this.metadataCacheTtl;
+	}
+
+	public void setMetadataCacheTtl(Duration metadataCacheTtl) {
+		this.metadataCacheTtl = metadataCacheTtl;
+	}
+
+	/**
+	 * @return whether the topics of the bindings are provisioned together
+	 *
+	 * Whether the topics of all the bindings of the application are
+	 * provisioned together, with batched requests, when the binder is initialized.
+	 * @since 3.1
+	 */
+	public boolean isBulkProvisioning() {
+		return this.bulkProvisioning;
+	}
+
+	public void setBulkProvisioning(boolean bulkProvisioning) {
+		this.bulkProvisioning = bulkProvisioning;
+	}
+
+	/**
+	 * @return the maximum number of bindings prepared concurrently
+	 *
+	 * The maximum number of bindings of the application whose topics are provisioned,
+	 * and whose partitions are retrieved, concurrently when the binder is initialized;
+	 * the bindings themselves are still created one by one. 1 disables the preparation.
+	 * @since 3.1
+	 */
+	public int getBindingPreparationConcurrency() {
+		return this.bindingPreparationConcurrency;
+	}
+
+	public void setBindingPreparationConcurrency(int bindingPreparationConcurrency) {
+		this.bindingPreparationConcurrency = bindingPreparationConcurrency;
+	}
+
+	/**
+	 * @return whether producers are shared by the bindings with the same configuration
+	 *
+	 * Whether the non-transactional producer bindings, and dead letter queues, with the
+	 * same effective producer configuration share a single producer.
+	 * @since 3.1
+	 */
+	public boolean isShareProducerFactories() {
+		return this.shareProducerFactories;
+	}
+
+	public void setShareProducerFactories(boolean shareProducerFactories) {
+		this.shareProducerFactories = shareProducerFactories;
+	}
+
 	/**
 	 * Domain class that models transaction capabilities in Kafka.
 	 */
@@ -386,6 +480,149 @@ public class KafkaBinderConfigurationProperties {
 
 	}
 
+	/**
+	 * Properties of the metrics exposed by the binder.
+	 *
+	 * @since 3.1
+	 */
+	public static class Metrics {
+
+		/**
+		 * The tag of the binding name of a Kafka client metric of a client created by the
+		 * binder.
+		 */
+		public static final String BINDING_TAG = "binding.name";
+
+		/**
+		 * The tag of the destination of a Kafka client metric of a client created by the
+		 * binder.
+		 */
+		public static final String DESTINATION_TAG = "binding.destination";
+
+		/**
+		 * The tag of the role of a Kafka client metric of a client created by the binder,
+		 * such as consumer, producer or dlq.
+		 */
+		public static final String ROLE_TAG = "binding.role";
+
+		/**
+		 * Interval between two collections of the consumer lag reported by the
+		 * spring.cloud.stream.binder.kafka.offset metric.
+		 */
+		private Duration lagRefreshInterval = Duration.ofSeconds(10);
+
+		/**
+		 * Whether to also report the consumer lag of each partition, with the
+		 * spring.cloud.stream.binder.kafka.offset.partition metric.
+		 */
+		private boolean perPartitionLag;
+
+		/**
+		 * Names of the Kafka client metrics to register for the clients created by the binder, as simple
+		 * patterns such as kafka.consumer.fetch.manager.*; all the metrics when empty.
+		 */
+		private List<String> clientMetricsIncludes = new ArrayList<>();
+
+		/**
+		 * Names of the Kafka client metrics not to register for the clients created by the binder, as simple
+		 * patterns; applied after clientMetricsIncludes.
+		 */
+		private List<String> clientMetricsExcludes = new ArrayList<>();
+
+		/**
+		 * Whether to register the Kafka client metrics of each topic partition, for the clients created by the
+		 * binder.
+		 */
+		private boolean clientPartitionMetrics = true;
+
+		/**
+		 * The percentiles published by the spring.cloud.stream.binder.kafka.records.* latency timers, such as
+		 * 0.99; none when empty.
+		 */
+		private double[] latencyPercentiles = { 0.5, 0.95, 0.99 };
+
+		/**
+		 * Whether the spring.cloud.stream.binder.kafka.records.* latency timers publish a percentile histogram,
+		 * which monitoring systems supporting it can aggregate across instances.
+		 */
+		private boolean latencyPercentileHistogram;
+
+		public Duration getLagRefreshInterval() {
+			return this.lagRefreshInterval;
+		}
+
+		public void setLagRefreshInterval(Duration lagRefreshInterval) {
+			this.lagRefreshInterval = lagRefreshInterval;
+		}
+
+		public boolean isPerPartitionLag() {
+			return this.perPartitionLag;
+		}
+
+		public void setPerPartitionLag(boolean perPartitionLag) {
+			this.perPartitionLag = perPartitionLag;
+		}
+
+		public List<String> getClientMetricsIncludes() {
+			return this.clientMetricsIncludes;
+		}
+
+		public void setClientMetricsIncludes(List<String> clientMetricsIncludes) {
+			this.clientMetricsIncludes = clientMetricsIncludes;
+		}
+
+		public List<String> getClientMetricsExcludes() {
+			return this.clientMetricsExcludes;
+		}
+
+		public void setClientMetricsExcludes(List<String> clientMetricsExcludes) {
+			this.clientMetricsExcludes = clientMetricsExcludes;
+		}
+
+		public boolean isClientPartitionMetrics() {
+			return this.clientPartitionMetrics;
+		}
+
+		public void setClientPartitionMetrics(boolean clientPartitionMetrics) {
+			this.clientPartitionMetrics = clientPartitionMetrics;
+		}
+
+		public double[] getLatencyPercentiles() {
+			return this.latencyPercentiles;
+		}
+
+		public void setLatencyPercentiles(double[] latencyPercentiles) {
+			this.latencyPercentiles = latencyPercentiles;
+		}
+
+		public boolean isLatencyPercentileHistogram() {
+			return this.latencyPercentileHistogram;
+		}
+
+		public void setLatencyPercentileHistogram(boolean latencyPercentileHistogram) {
+			this.latencyPercentileHistogram = latencyPercentileHistogram;
+		}
+
+		/**
+		 * Return whether a Kafka client metric of a client created by the binder is
+		 * registered.
+		 * @param name the metric name.
+		 * @param partitionMetric whether the metric is the one of a topic partition.
+		 * @return true if the metric is registered.
+		 */
+		public boolean isClientMetricEnabled(String name, boolean partitionMetric) {
+			if (partitionMetric && !this.clientPartitionMetrics) {
+				return false;
+			}
+			if (!this.clientMetricsIncludes.isEmpty() && !PatternMatchUtils
+					.simpleMatch(StringUtils.toStringArray(this.clientMetricsIncludes), name)) {
+				return false;
+			}
+			return !PatternMatchUtils.simpleMatch(StringUtils.toStringArray(this.clientMetricsExcludes), name);
+		}
+
+	}
+
 	/**
 	 * An combination of {@link ProducerProperties} and {@link KafkaProducerProperties} so
 	 * that common and kafka-specific properties can be set for the transactional
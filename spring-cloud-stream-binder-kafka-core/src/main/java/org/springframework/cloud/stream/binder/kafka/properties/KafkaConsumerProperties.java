@@ -16,9 +16,14 @@
 
 package org.springframework.cloud.stream.binder.kafka.properties;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.springframework.expression.Expression;
+
 /**
  * Extended consumer properties for Kafka binder.
  *
@@ -147,6 +152,100 @@ public class KafkaConsumerProperties {
 	 */
 	private KafkaProducerProperties dlqProducerProperties = new KafkaProducerProperties();
 
+	/**
+	 * Maximum number of records being sent to the DLQ at any time; when reached, the consumer waits for
+	 * a send to complete before sending another record.
+	 */
+	private int dlqMaxInFlight = 1000;
+
+	/**
+	 * Maximum number of stack frames of the exception, and of each of its causes, in the stack trace header of the
+	 * records sent to the DLQ.
+	 */
+	private Integer dlqStackTraceMaxFrames;
+
+	/**
+	 * Maximum number of bytes of the stack trace header of the records sent to the DLQ.
+	 */
+	private Integer dlqStackTraceMaxBytes;
+
+	/**
+	 * When set, the records sent to the DLQ carry a fingerprint of the stack trace instead of the stack trace itself;
+	 * each distinct stack trace is sent once to this topic, keyed by its fingerprint.
+	 */
+	private String dlqStackTraceTopic;
+
+	/**
+	 * Topic level properties of the stack trace topic, which is compacted unless its cleanup.policy is set.
+	 */
+	private KafkaTopicProperties dlqStackTraceTopicProperties = new KafkaTopicProperties();
+
+	/**
+	 * Delays of the retry topics of the binding; when set, a record that fails is sent to the first retry topic and
+	 * redelivered once its delay has elapsed, then to the next one, and so on, instead of being retried on the
+	 * consumer thread; a record that fails after the last retry topic is handled as when retries are exhausted.
+	 */
+	private List<Duration> retryTopicDelays = new ArrayList<>();
+
+	/**
+	 * When true, and maxAttempts is greater than 1, a record that fails pauses its partition for the back off
+	 * interval, and is then redelivered, instead of being retried on the consumer thread; the consumer keeps
+	 * consuming the other partitions in the meantime.
+	 */
+	private boolean pausePartitionOnRetry;
+
+	/**
+	 * When greater than 1, the records of a consumer are processed by this number of threads instead of the consumer
+	 * thread; the records with the same key are processed in order, and the offset committed for a partition is the
+	 * one of its last record whose predecessors have all been processed.
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * The number of records of a consumer that are processed or waiting to be processed by the parallel threads
+	 * above which the partitions of the consumer are paused, until the number of records drops below it.
+	 */
+	private int maxInFlightRecords = 1000;
+
+	/**
+	 * When true, and autoCommitOffset is false, the records may be acknowledged in any order and from any thread;
+	 * the offset committed for a partition is the one of its last record whose predecessors have all been
+	 * acknowledged.
+	 */
+	private boolean outOfOrderAcks;
+
+	/**
+	 * The minimum interval, in milliseconds, between two commits of the acknowledged offsets, when the records are
+	 * processed in parallel or acknowledged out of order.
+	 */
+	private long ackCommitInterval = 1000;
+
+	/**
+	 * When true, in batch mode, the records of a batch are received as a single ColumnarBatch payload, with
+	 * parallel arrays of their topics, partitions, offsets, timestamps, keys and values, and their headers mapped
+	 * on demand.
+	 */
+	private boolean columnarBatch;
+
+	/**
+	 * When true, in batch mode, with autoCommitOffset and without transactions, only the record that fails a batch
+	 * is retried and recovered; the batch is bisected to find it unless the listener throws a
+	 * BatchListenerFailedException, so the records of the halves that succeed are processed more than once.
+	 */
+	private boolean isolatePoisonRecords;
+
+	/**
+	 * When true, only the contentType header of an inbound record is mapped to the message headers; the other Kafka
+	 * headers are exposed by a map in the kafka_lazyHeaders header, which maps a header when it is first requested.
+	 */
+	private boolean lazyHeaders;
+
+	/**
+	 * A SpEL expression evaluated against each inbound record before it is converted to a message, with the headers
+	 * and record properties; the records for which it does not evaluate to true are acknowledged and discarded.
+	 */
+	private Expression recordFilterExpression;
+
 	/**
 	 * @deprecated No longer used by the binder.
 	 */
@@ -390,6 +489,235 @@ public class KafkaConsumerProperties {
 		this.dlqProducerProperties = dlqProducerProperties;
 	}
 
+	/**
+	 * @return the maximum number of records being sent to the DLQ
+	 *
+	 * Maximum number of records being sent to the DLQ at any time; when reached, the consumer waits for
+	 * a send to complete before sending another record.
+	 * @since 3.1
+	 */
+	public int getDlqMaxInFlight() {
+		return this.dlqMaxInFlight;
+	}
+
+	public void setDlqMaxInFlight(int dlqMaxInFlight) {
+		this.dlqMaxInFlight = dlqMaxInFlight;
+	}
+
+	/**
+	 * @return the maximum number of stack frames in the DLQ stack trace header
+	 *
+	 * Maximum number of stack frames of the exception, and of each of its causes, in the stack trace header of the
+	 * records sent to the DLQ.
+	 * @since 3.1
+	 */
+	public Integer getDlqStackTraceMaxFrames() {
+		return this.dlqStackTraceMaxFrames;
+	}
+
+	public void setDlqStackTraceMaxFrames(Integer dlqStackTraceMaxFrames) {
+		this.dlqStackTraceMaxFrames = dlqStackTraceMaxFrames;
+	}
+
+	/**
+	 * @return the maximum number of bytes of the DLQ stack trace header
+	 *
+	 * Maximum number of bytes of the stack trace header of the records sent to the DLQ.
+	 * @since 3.1
+	 */
+	public Integer getDlqStackTraceMaxBytes() {
+		return this.dlqStackTraceMaxBytes;
+	}
+
+	public void setDlqStackTraceMaxBytes(Integer dlqStackTraceMaxBytes) {
+		this.dlqStackTraceMaxBytes = dlqStackTraceMaxBytes;
+	}
+
+	/**
+	 * @return the topic receiving the distinct stack traces of the records sent to the DLQ
+	 *
+	 * When set, the records sent to the DLQ carry a fingerprint of the stack trace instead of the stack trace itself;
+	 * each distinct stack trace is sent once to this topic, keyed by its fingerprint.
+	 * @since 3.1
+	 */
+	public String getDlqStackTraceTopic() {
+		return this.dlqStackTraceTopic;
+	}
+
+	public void setDlqStackTraceTopic(String dlqStackTraceTopic) {
+		this.dlqStackTraceTopic = dlqStackTraceTopic;
+	}
+
+	/**
+	 * @return the topic properties of the stack trace topic
+	 *
+	 * Topic level properties of the stack trace topic, which is compacted unless its cleanup.policy is set.
+	 * @since 3.1
+	 */
+	public KafkaTopicProperties getDlqStackTraceTopicProperties() {
+		return this.dlqStackTraceTopicProperties;
+	}
+
+	public void setDlqStackTraceTopicProperties(KafkaTopicProperties dlqStackTraceTopicProperties) {
+		this.dlqStackTraceTopicProperties = dlqStackTraceTopicProperties;
+	}
+
+	/**
+	 * @return the delays of the retry topics
+	 *
+	 * When set, a record that fails is sent to the first retry topic and redelivered once its delay has elapsed,
+	 * then to the next one, and so on, instead of being retried on the consumer thread; a record that fails after
+	 * the last retry topic is handled as when retries are exhausted.
+	 * @since 3.1
+	 */
+	public List<Duration> getRetryTopicDelays() {
+		return this.retryTopicDelays;
+	}
+
+	public void setRetryTopicDelays(List<Duration> retryTopicDelays) {
+		this.retryTopicDelays = retryTopicDelays;
+	}
+
+	/**
+	 * @return whether a failed record pauses its partition between retries
+	 *
+	 * When true, and maxAttempts is greater than 1, a record that fails pauses its partition for the back off
+	 * interval, and is then redelivered, instead of being retried on the consumer thread; the consumer keeps
+	 * consuming the other partitions in the meantime.
+	 * @since 3.1
+	 */
+	public boolean isPausePartitionOnRetry() {
+		return this.pausePartitionOnRetry;
+	}
+
+	public void setPausePartitionOnRetry(boolean pausePartitionOnRetry) {
+		this.pausePartitionOnRetry = pausePartitionOnRetry;
+	}
+
+	/**
+	 * @return the number of threads processing the records of a consumer
+	 *
+	 * When greater than 1, the records of a consumer are processed by this number of threads instead of the consumer
+	 * thread; the records with the same key are processed in order, and the offset committed for a partition is the
+	 * one of its last record whose predecessors have all been processed.
+	 * @since 3.1
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the maximum number of records in flight in the parallel threads
+	 *
+	 * The number of records of a consumer that are processed or waiting to be processed by the parallel threads
+	 * above which the partitions of the consumer are paused, until the number of records drops below it.
+	 * @since 3.1
+	 */
+	public int getMaxInFlightRecords() {
+		return this.maxInFlightRecords;
+	}
+
+	public void setMaxInFlightRecords(int maxInFlightRecords) {
+		this.maxInFlightRecords = maxInFlightRecords;
+	}
+
+	/**
+	 * @return whether the records may be acknowledged out of order
+	 *
+	 * When true, and autoCommitOffset is false, the records may be acknowledged in any order and from any thread;
+	 * the offset committed for a partition is the one of its last record whose predecessors have all been
+	 * acknowledged.
+	 * @since 3.1
+	 */
+	public boolean isOutOfOrderAcks() {
+		return this.outOfOrderAcks;
+	}
+
+	public void setOutOfOrderAcks(boolean outOfOrderAcks) {
+		this.outOfOrderAcks = outOfOrderAcks;
+	}
+
+	/**
+	 * @return the minimum interval between two commits of the acknowledged offsets
+	 *
+	 * The minimum interval, in milliseconds, between two commits of the acknowledged offsets, when the records are
+	 * processed in parallel or acknowledged out of order.
+	 * @since 3.1
+	 */
+	public long getAckCommitInterval() {
+		return this.ackCommitInterval;
+	}
+
+	public void setAckCommitInterval(long ackCommitInterval) {
+		this.ackCommitInterval = ackCommitInterval;
+	}
+
+	/**
+	 * @return whether the records of a batch are received as a ColumnarBatch
+	 *
+	 * When true, in batch mode, the records of a batch are received as a single ColumnarBatch payload, with
+	 * parallel arrays of their topics, partitions, offsets, timestamps, keys and values, and their headers mapped
+	 * on demand.
+	 * @since 3.1
+	 */
+	public boolean isColumnarBatch() {
+		return this.columnarBatch;
+	}
+
+	public void setColumnarBatch(boolean columnarBatch) {
+		this.columnarBatch = columnarBatch;
+	}
+
+	/**
+	 * @return whether the records that fail a batch are isolated
+	 *
+	 * When true, in batch mode, with autoCommitOffset and without transactions, only the record that fails a batch
+	 * is retried and recovered; the batch is bisected to find it unless the listener throws a
+	 * BatchListenerFailedException, so the records of the halves that succeed are processed more than once.
+	 * @since 3.1
+	 */
+	public boolean isIsolatePoisonRecords() {
+		return this.isolatePoisonRecords;
+	}
+
+	public void setIsolatePoisonRecords(boolean isolatePoisonRecords) {
+		this.isolatePoisonRecords = isolatePoisonRecords;
+	}
+
+	/**
+	 * @return whether the headers of inbound records are mapped on demand
+	 *
+	 * When true, only the contentType header of an inbound record is mapped to the message headers; the other Kafka
+	 * headers are exposed by a map in the kafka_lazyHeaders header, which maps a header when it is first requested.
+	 * @since 3.1
+	 */
+	public boolean isLazyHeaders() {
+		return this.lazyHeaders;
+	}
+
+	public void setLazyHeaders(boolean lazyHeaders) {
+		this.lazyHeaders = lazyHeaders;
+	}
+
+	/**
+	 * @return the expression filtering the inbound records
+	 *
+	 * A SpEL expression evaluated against each inbound record before it is converted to a message, with the headers
+	 * and record properties; the records for which it does not evaluate to true are acknowledged and discarded.
+	 * @since 3.1
+	 */
+	public Expression getRecordFilterExpression() {
+		return this.recordFilterExpression;
+	}
+
+	public void setRecordFilterExpression(Expression recordFilterExpression) {
+		this.recordFilterExpression = recordFilterExpression;
+	}
+
 	/**
 	 * @return standard headers
 	 *
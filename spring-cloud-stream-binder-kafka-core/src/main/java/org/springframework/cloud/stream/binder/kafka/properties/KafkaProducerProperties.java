@@ -71,6 +71,11 @@ public class KafkaProducerProperties {
 	 */
 	private String[] headerPatterns;
 
+	/**
+	 * How the mapped headers are encoded in the Kafka record headers.
+	 */
+	private HeaderEncoding headerEncoding = HeaderEncoding.json;
+
 	/**
 	 * Map with a key/value pair containing generic Kafka producer properties.
 	 */
@@ -200,6 +205,20 @@ public class KafkaProducerProperties {
 		this.headerPatterns = headerPatterns;
 	}
 
+	/**
+	 * @return the header encoding
+	 *
+	 * How the mapped headers are encoded in the Kafka record headers.
+	 * @since 3.1
+	 */
+	public HeaderEncoding getHeaderEncoding() {
+		return this.headerEncoding;
+	}
+
+	public void setHeaderEncoding(HeaderEncoding headerEncoding) {
+		this.headerEncoding = headerEncoding;
+	}
+
 	/**
 	 * @return map of configuration
 	 *
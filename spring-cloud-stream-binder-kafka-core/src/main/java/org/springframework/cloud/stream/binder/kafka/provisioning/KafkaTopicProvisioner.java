@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2018 the original author or authors.
+ * Copyright 2014-2020 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,15 +16,20 @@
 
 package org.springframework.cloud.stream.binder.kafka.provisioning;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,16 +38,17 @@ import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.admin.CreatePartitionsResult;
 import org.apache.kafka.clients.admin.CreateTopicsResult;
-import org.apache.kafka.clients.admin.DescribeTopicsResult;
-import org.apache.kafka.clients.admin.ListTopicsResult;
 import org.apache.kafka.clients.admin.NewPartitions;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.admin.TopicDescription;
 import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartitionInfo;
 import org.apache.kafka.common.errors.TopicExistsException;
 import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.cloud.stream.binder.BinderException;
@@ -57,6 +63,7 @@ import org.springframework.cloud.stream.provisioning.ConsumerDestination;
 import org.springframework.cloud.stream.provisioning.ProducerDestination;
 import org.springframework.cloud.stream.provisioning.ProvisioningException;
 import org.springframework.cloud.stream.provisioning.ProvisioningProvider;
+import org.springframework.lang.Nullable;
 import org.springframework.retry.RetryOperations;
 import org.springframework.retry.backoff.ExponentialBackOffPolicy;
 import org.springframework.retry.policy.SimpleRetryPolicy;
@@ -68,6 +75,11 @@ import org.springframework.util.StringUtils;
 
 /**
  * Kafka implementation for {@link ProvisioningProvider}.
+ * <p>
+ * A single {@link AdminClient} is used for the lifetime of the provisioner, and the
+ * topic descriptions it retrieves are cached for
+ * {@link KafkaBinderConfigurationProperties#getMetadataCacheTtl()}, so that the
+ * metadata of many bindings is retrieved with few round trips.
  *
  * @author Soby Chacko
  * @author Gary Russell
@@ -80,7 +92,7 @@ public class KafkaTopicProvisioner implements
 		// @checkstyle:off
 		ProvisioningProvider<ExtendedConsumerProperties<KafkaConsumerProperties>, ExtendedProducerProperties<KafkaProducerProperties>>,
 		// @checkstyle:on
-		InitializingBean {
+		InitializingBean, DisposableBean {
 
 	private static final Log logger = LogFactory.getLog(KafkaTopicProvisioner.class);
 
@@ -92,8 +104,12 @@ public class KafkaTopicProvisioner implements
 
 	private final Map<String, Object> adminClientProperties;
 
+	private final Map<String, CachedTopicDescription> topicDescriptions = new ConcurrentHashMap<>();
+
 	private RetryOperations metadataRetryOperations;
 
+	private AdminClient adminClient;
+
 	/**
 	 * Create an instance.
 	 * @param kafkaBinderConfigurationProperties the binder configuration properties.
@@ -136,6 +152,15 @@ public class KafkaTopicProvisioner implements
 		}
 	}
 
+	@Override
+	public synchronized void destroy() {
+		if (this.adminClient != null) {
+			this.adminClient.close(Duration.ofSeconds(this.operationTimeout));
+			this.adminClient = null;
+		}
+		this.topicDescriptions.clear();
+	}
+
 	@Override
 	public ProducerDestination provisionProducerDestination(final String name,
 			ExtendedProducerProperties<KafkaProducerProperties> properties) {
@@ -144,35 +169,32 @@ public class KafkaTopicProvisioner implements
 			logger.info("Using kafka topic for outbound: " + name);
 		}
 		KafkaTopicUtils.validateTopicName(name);
-		try (AdminClient adminClient = AdminClient.create(this.adminClientProperties)) {
-			createTopic(adminClient, name, properties.getPartitionCount(), false,
-					properties.getExtension().getTopic());
-			int partitions = 0;
-			Map<String, TopicDescription> topicDescriptions = new HashMap<>();
-			if (this.configurationProperties.isAutoCreateTopics()) {
-				this.metadataRetryOperations.execute(context -> {
-					try {
-						if (logger.isDebugEnabled()) {
-							logger.debug("Attempting to retrieve the description for the topic: " + name);
-						}
-						DescribeTopicsResult describeTopicsResult = adminClient
-								.describeTopics(Collections.singletonList(name));
-						KafkaFuture<Map<String, TopicDescription>> all = describeTopicsResult
-								.all();
-						topicDescriptions.putAll(all.get(this.operationTimeout, TimeUnit.SECONDS));
+		createTopic(name, properties.getPartitionCount(), false,
+				properties.getExtension().getTopic());
+		int partitions = 0;
+		Map<String, TopicDescription> topicDescriptions = new HashMap<>();
+		if (this.configurationProperties.isAutoCreateTopics()) {
+			this.metadataRetryOperations.execute(context -> {
+				try {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Attempting to retrieve the description for the topic: " + name);
 					}
-					catch (Exception ex) {
-						throw new ProvisioningException("Problems encountered with partitions finding", ex);
+					topicDescriptions.putAll(describeTopics(Collections.singletonList(name)));
+					if (topicDescriptions.isEmpty()) {
+						throw new UnknownTopicOrPartitionException(name);
 					}
-					return null;
-				});
-			}
-			TopicDescription topicDescription = topicDescriptions.get(name);
-			if (topicDescription != null) {
-				partitions = topicDescription.partitions().size();
-			}
-			return new KafkaProducerDestination(name, partitions);
+				}
+				catch (Exception ex) {
+					throw new ProvisioningException("Problems encountered with partitions finding", ex);
+				}
+				return null;
+			});
 		}
+		TopicDescription topicDescription = topicDescriptions.get(name);
+		if (topicDescription != null) {
+			partitions = topicDescription.partitions().size();
+		}
+		return new KafkaProducerDestination(name, partitions);
 	}
 
 	@Override
@@ -198,6 +220,8 @@ public class KafkaTopicProvisioner implements
 		if (properties.getExtension().isDestinationIsPattern()) {
 			Assert.isTrue(!properties.getExtension().isEnableDlq(),
 					"enableDLQ is not allowed when listening to topic patterns");
+			Assert.isTrue(properties.getExtension().getRetryTopicDelays().isEmpty(),
+					"retryTopicDelays is not allowed when listening to topic patterns");
 			if (logger.isDebugEnabled()) {
 				logger.debug("Listening to a topic pattern - " + name
 						+ " - no provisioning performed");
@@ -208,35 +232,34 @@ public class KafkaTopicProvisioner implements
 		boolean anonymous = !StringUtils.hasText(group);
 		Assert.isTrue(!anonymous || !properties.getExtension().isEnableDlq(),
 				"DLQ support is not available for anonymous subscriptions");
+		Assert.isTrue(!anonymous || properties.getExtension().getRetryTopicDelays().isEmpty(),
+				"Retry topics are not available for anonymous subscriptions");
 		if (properties.getInstanceCount() == 0) {
 			throw new IllegalArgumentException("Instance count cannot be zero");
 		}
 		int partitionCount = properties.getInstanceCount() * properties.getConcurrency();
 		ConsumerDestination consumerDestination = new KafkaConsumerDestination(name);
-		try (AdminClient adminClient = createAdminClient()) {
-			createTopic(adminClient, name, partitionCount,
-					properties.getExtension().isAutoRebalanceEnabled(),
-					properties.getExtension().getTopic());
-			if (this.configurationProperties.isAutoCreateTopics()) {
-				DescribeTopicsResult describeTopicsResult = adminClient
-						.describeTopics(Collections.singletonList(name));
-				KafkaFuture<Map<String, TopicDescription>> all = describeTopicsResult
-						.all();
-				try {
-					Map<String, TopicDescription> topicDescriptions = all
-							.get(this.operationTimeout, TimeUnit.SECONDS);
-					TopicDescription topicDescription = topicDescriptions.get(name);
-					int partitions = topicDescription.partitions().size();
-					consumerDestination = createDlqIfNeedBe(adminClient, name, group,
-							properties, anonymous, partitions);
-					if (consumerDestination == null) {
-						consumerDestination = new KafkaConsumerDestination(name,
-								partitions);
-					}
+		createTopic(name, partitionCount,
+				properties.getExtension().isAutoRebalanceEnabled(),
+				properties.getExtension().getTopic());
+		if (this.configurationProperties.isAutoCreateTopics()) {
+			try {
+				TopicDescription topicDescription = describeTopics(Collections.singletonList(name))
+						.get(name);
+				if (topicDescription == null) {
+					throw new UnknownTopicOrPartitionException(name);
 				}
-				catch (Exception ex) {
-					throw new ProvisioningException("provisioning exception", ex);
+				int partitions = topicDescription.partitions().size();
+				consumerDestination = createDlqIfNeedBe(name, group,
+						properties, anonymous, partitions);
+				if (consumerDestination == null) {
+					consumerDestination = new KafkaConsumerDestination(name,
+							partitions);
 				}
+				createRetryTopicsIfNeedBe(name, group, properties, partitions);
+			}
+			catch (Exception ex) {
+				throw new ProvisioningException("provisioning exception", ex);
 			}
 		}
 		return consumerDestination;
@@ -246,6 +269,257 @@ public class KafkaTopicProvisioner implements
 		return AdminClient.create(this.adminClientProperties);
 	}
 
+	/**
+	 * Return the {@link AdminClient} of the provisioner, creating it on first use; it is
+	 * closed when the provisioner is destroyed.
+	 * @return the admin client.
+	 * @since 3.1
+	 */
+	public synchronized AdminClient getAdminClient() {
+		if (this.adminClient == null) {
+			this.adminClient = createAdminClient();
+		}
+		return this.adminClient;
+	}
+
+	/**
+	 * Describe topics, with a single request for all the topics whose cached
+	 * description is missing or older than the metadata cache TTL.
+	 * @param topics the topics.
+	 * @return the descriptions of the topics that exist.
+	 * @throws Exception if the topics cannot be described.
+	 * @since 3.1
+	 */
+	public Map<String, TopicDescription> describeTopics(Collection<String> topics) throws Exception {
+		Map<String, TopicDescription> descriptions = new HashMap<>();
+		List<String> toDescribe = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		long ttl = this.configurationProperties.getMetadataCacheTtl().toMillis();
+		for (String topic : topics) {
+			CachedTopicDescription cached = this.topicDescriptions.get(topic);
+			if (cached != null && now - cached.timestamp < ttl) {
+				descriptions.put(topic, cached.description);
+			}
+			else {
+				toDescribe.add(topic);
+			}
+		}
+		if (!toDescribe.isEmpty()) {
+			Map<String, KafkaFuture<TopicDescription>> futures = getAdminClient()
+					.describeTopics(toDescribe).values();
+			for (Map.Entry<String, KafkaFuture<TopicDescription>> future : futures.entrySet()) {
+				try {
+					TopicDescription description = future.getValue()
+							.get(this.operationTimeout, TimeUnit.SECONDS);
+					this.topicDescriptions.put(future.getKey(),
+							new CachedTopicDescription(description, now));
+					descriptions.put(future.getKey(), description);
+				}
+				catch (ExecutionException ex) {
+					if (!(ex.getCause() instanceof UnknownTopicOrPartitionException)) {
+						throw ex;
+					}
+					this.topicDescriptions.remove(future.getKey());
+				}
+			}
+		}
+		return descriptions;
+	}
+
+	/**
+	 * Return the partitions of a topic, from the cached topic description when it is
+	 * recent enough.
+	 * @param topic the topic.
+	 * @return the partitions.
+	 * @throws UnknownTopicOrPartitionException if the topic does not exist.
+	 * @throws Exception if the topic cannot be described.
+	 * @since 3.1
+	 */
+	public List<PartitionInfo> getPartitionInfos(String topic) throws Exception {
+		TopicDescription description = describeTopics(Collections.singletonList(topic)).get(topic);
+		if (description == null) {
+			throw new UnknownTopicOrPartitionException(topic);
+		}
+		List<PartitionInfo> partitions = new ArrayList<>();
+		for (TopicPartitionInfo partition : description.partitions()) {
+			partitions.add(new PartitionInfo(topic, partition.partition(),
+					partition.leader() != null ? partition.leader() : Node.noNode(),
+					partition.replicas().toArray(new Node[0]),
+					partition.isr().toArray(new Node[0])));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Provision many topics at once: the topics are described with a single request,
+	 * then the missing topics are created with a single request and partitions are
+	 * added to the existing topics that need more, with a single request too.
+	 * <p>
+	 * Unlike the provisioning of a binding destination, a topic that cannot be
+	 * provisioned does not fail the others, nor is its provisioning retried; its
+	 * failure is reported in its result. When
+	 * {@link KafkaBinderConfigurationProperties#isAutoCreateTopics()} is false, the
+	 * topics are only described and missing topics are reported as failed.
+	 * @param requests the topics; requests for the same topic are merged.
+	 * @return the results, by topic.
+	 * @since 3.1
+	 */
+	public Map<String, TopicProvisioningResult> provisionTopics(
+			Collection<TopicProvisioningRequest> requests) {
+
+		Map<String, TopicProvisioningRequest> topics = new LinkedHashMap<>();
+		for (TopicProvisioningRequest request : requests) {
+			KafkaTopicUtils.validateTopicName(request.getName());
+			topics.merge(request.getName(), request, TopicProvisioningRequest::merge);
+		}
+		Map<String, TopicProvisioningResult> results = new LinkedHashMap<>();
+		if (topics.isEmpty()) {
+			return results;
+		}
+		Map<String, TopicDescription> descriptions;
+		try {
+			descriptions = describeTopics(topics.keySet());
+		}
+		catch (Exception ex) {
+			throw new ProvisioningException("Failed to describe topics " + topics.keySet(), ex);
+		}
+		boolean autoCreateTopics = this.configurationProperties.isAutoCreateTopics();
+		List<NewTopic> newTopics = new ArrayList<>();
+		Map<String, NewPartitions> newPartitions = new HashMap<>();
+		for (TopicProvisioningRequest request : topics.values()) {
+			String topic = request.getName();
+			TopicDescription description = descriptions.get(topic);
+			if (description == null) {
+				if (autoCreateTopics) {
+					newTopics.add(newTopic(topic, Math.max(this.configurationProperties
+							.getMinPartitionCount(), request.getPartitionCount()),
+							request.getProperties()));
+				}
+				else {
+					results.put(topic, new TopicProvisioningResult(topic,
+							TopicProvisioningResult.Status.FAILED, 0,
+							new UnknownTopicOrPartitionException(topic)));
+				}
+				continue;
+			}
+			int partitionSize = description.partitions().size();
+			int effectivePartitionCount = effectivePartitionCount(request.getPartitionCount());
+			if (autoCreateTopics && partitionSize < effectivePartitionCount) {
+				if (this.configurationProperties.isAutoAddPartitions()) {
+					newPartitions.put(topic, NewPartitions.increaseTo(effectivePartitionCount));
+					continue;
+				}
+				if (!request.isTolerateLowerPartitionsOnBroker()) {
+					results.put(topic, new TopicProvisioningResult(topic,
+							TopicProvisioningResult.Status.FAILED, partitionSize,
+							new ProvisioningException("The number of expected partitions was: "
+									+ request.getPartitionCount() + ", but " + partitionSize
+									+ (partitionSize > 1 ? " have " : " has ")
+									+ "been found instead.")));
+					continue;
+				}
+				logger.warn("The number of expected partitions of topic " + topic + " was: "
+						+ request.getPartitionCount() + ", but " + partitionSize
+						+ (partitionSize > 1 ? " have " : " has ") + "been found instead.");
+			}
+			results.put(topic, new TopicProvisioningResult(topic,
+					TopicProvisioningResult.Status.EXISTING, partitionSize, null));
+		}
+		if (!newTopics.isEmpty()) {
+			Map<String, Integer> partitions = new HashMap<>();
+			newTopics.forEach(newTopic -> partitions.put(newTopic.name(),
+					newTopic.replicasAssignments() != null
+							? newTopic.replicasAssignments().size()
+							: newTopic.numPartitions()));
+			getAdminClient().createTopics(newTopics).values().forEach((topic, future) -> {
+				Throwable exception = await(future);
+				invalidate(topic);
+				if (exception instanceof TopicExistsException) {
+					logger.warn("Attempt to create topic: " + topic + ". Topic already exists.");
+					results.put(topic, new TopicProvisioningResult(topic,
+							TopicProvisioningResult.Status.EXISTING, partitions.get(topic), null));
+				}
+				else {
+					results.put(topic, result(topic, TopicProvisioningResult.Status.CREATED,
+							partitions.get(topic), exception));
+				}
+			});
+		}
+		if (!newPartitions.isEmpty()) {
+			getAdminClient().createPartitions(newPartitions).values().forEach((topic, future) -> {
+				Throwable exception = await(future);
+				invalidate(topic);
+				results.put(topic, result(topic, TopicProvisioningResult.Status.PARTITIONS_ADDED,
+						newPartitions.get(topic).totalCount(), exception));
+			});
+		}
+		return results;
+	}
+
+	private int effectivePartitionCount(int partitionCount) {
+		// only consider minPartitionCount for resizing if autoAddPartitions is true
+		return this.configurationProperties.isAutoAddPartitions()
+				? Math.max(this.configurationProperties.getMinPartitionCount(), partitionCount)
+				: partitionCount;
+	}
+
+	private NewTopic newTopic(String topicName, int partitionCount,
+			KafkaTopicProperties topicProperties) {
+
+		NewTopic newTopic;
+		Map<Integer, List<Integer>> replicasAssignments = topicProperties
+				.getReplicasAssignments();
+		if (replicasAssignments != null && replicasAssignments.size() > 0) {
+			newTopic = new NewTopic(topicName, replicasAssignments);
+		}
+		else {
+			newTopic = new NewTopic(topicName, partitionCount,
+					topicProperties.getReplicationFactor() != null
+							? topicProperties.getReplicationFactor()
+							: this.configurationProperties.getReplicationFactor());
+		}
+		if (topicProperties.getProperties().size() > 0) {
+			newTopic.configs(topicProperties.getProperties());
+		}
+		return newTopic;
+	}
+
+	@Nullable
+	private Throwable await(KafkaFuture<?> future) {
+		try {
+			future.get(this.operationTimeout, TimeUnit.SECONDS);
+			return null;
+		}
+		catch (ExecutionException ex) {
+			return ex.getCause();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return ex;
+		}
+		catch (TimeoutException ex) {
+			return ex;
+		}
+	}
+
+	private static TopicProvisioningResult result(String topic,
+			TopicProvisioningResult.Status status, int partitions, @Nullable Throwable exception) {
+		if (exception != null) {
+			logger.error("Failed to provision topic " + topic, exception);
+			return new TopicProvisioningResult(topic, TopicProvisioningResult.Status.FAILED, 0,
+					exception);
+		}
+		return new TopicProvisioningResult(topic, status, partitions, null);
+	}
+
+	/**
+	 * Remove a topic from the metadata cache, after its partitions changed.
+	 * @param topic the topic.
+	 */
+	private void invalidate(String topic) {
+		this.topicDescriptions.remove(topic);
+	}
+
 	/**
 	 * In general, binder properties supersede boot kafka properties. The one exception is
 	 * the bootstrap servers. In that case, we should only override the boot properties if
@@ -284,7 +558,7 @@ public class KafkaTopicProvisioner implements
 		});
 	}
 
-	private ConsumerDestination createDlqIfNeedBe(AdminClient adminClient, String name,
+	private ConsumerDestination createDlqIfNeedBe(String name,
 			String group, ExtendedConsumerProperties<KafkaConsumerProperties> properties,
 			boolean anonymous, int partitions) {
 
@@ -296,9 +570,15 @@ public class KafkaTopicProvisioner implements
 					? partitions
 					: properties.getExtension().getDlqPartitions();
 			try {
-				createTopicAndPartitions(adminClient, dlqTopic, dlqPartitions,
+				createTopicAndPartitions(dlqTopic, dlqPartitions,
 						properties.getExtension().isAutoRebalanceEnabled(),
 						properties.getExtension().getTopic());
+				String stackTraceTopic = properties.getExtension().getDlqStackTraceTopic();
+				if (StringUtils.hasText(stackTraceTopic)) {
+					createTopicAndPartitions(stackTraceTopic, 1,
+							properties.getExtension().isAutoRebalanceEnabled(),
+							KafkaTopicUtils.stackTraceTopicProperties(properties.getExtension()));
+				}
 			}
 			catch (Throwable throwable) {
 				if (throwable instanceof Error) {
@@ -313,10 +593,30 @@ public class KafkaTopicProvisioner implements
 		return null;
 	}
 
-	private void createTopic(AdminClient adminClient, String name, int partitionCount,
+	private void createRetryTopicsIfNeedBe(String name, String group,
+			ExtendedConsumerProperties<KafkaConsumerProperties> properties, int partitions) {
+
+		for (Duration delay : properties.getExtension().getRetryTopicDelays()) {
+			try {
+				createTopicAndPartitions(KafkaTopicUtils.retryTopicName(name, group, delay),
+						partitions, properties.getExtension().isAutoRebalanceEnabled(),
+						properties.getExtension().getTopic());
+			}
+			catch (Throwable throwable) {
+				if (throwable instanceof Error) {
+					throw (Error) throwable;
+				}
+				else {
+					throw new ProvisioningException("provisioning exception", throwable);
+				}
+			}
+		}
+	}
+
+	private void createTopic(String name, int partitionCount,
 			boolean tolerateLowerPartitionsOnBroker, KafkaTopicProperties properties) {
 		try {
-			createTopicIfNecessary(adminClient, name, partitionCount,
+			createTopicIfNecessary(name, partitionCount,
 					tolerateLowerPartitionsOnBroker, properties);
 		}
 		// TODO: Remove catching Throwable. See this thread:
@@ -334,12 +634,12 @@ public class KafkaTopicProvisioner implements
 		}
 	}
 
-	private void createTopicIfNecessary(AdminClient adminClient, final String topicName,
+	private void createTopicIfNecessary(final String topicName,
 			final int partitionCount, boolean tolerateLowerPartitionsOnBroker,
 			KafkaTopicProperties properties) throws Throwable {
 
 		if (this.configurationProperties.isAutoCreateTopics()) {
-			createTopicAndPartitions(adminClient, topicName, partitionCount,
+			createTopicAndPartitions(topicName, partitionCount,
 					tolerateLowerPartitionsOnBroker, properties);
 		}
 		else {
@@ -350,7 +650,6 @@ public class KafkaTopicProvisioner implements
 	/**
 	 * Creates a Kafka topic if needed, or try to increase its partition count to the
 	 * desired number.
-	 * @param adminClient kafka admin client
 	 * @param topicName topic name
 	 * @param partitionCount partition count
 	 * @param tolerateLowerPartitionsOnBroker whether lower partitions count on broker is
@@ -358,29 +657,15 @@ public class KafkaTopicProvisioner implements
 	 * @param topicProperties kafka topic properties
 	 * @throws Throwable from topic creation
 	 */
-	private void createTopicAndPartitions(AdminClient adminClient, final String topicName,
+	private void createTopicAndPartitions(final String topicName,
 			final int partitionCount, boolean tolerateLowerPartitionsOnBroker,
 			KafkaTopicProperties topicProperties) throws Throwable {
 
-		ListTopicsResult listTopicsResult = adminClient.listTopics();
-		KafkaFuture<Set<String>> namesFutures = listTopicsResult.names();
-
-		Set<String> names = namesFutures.get(this.operationTimeout, TimeUnit.SECONDS);
-		if (names.contains(topicName)) {
-			// only consider minPartitionCount for resizing if autoAddPartitions is true
-			int effectivePartitionCount = this.configurationProperties
-					.isAutoAddPartitions()
-							? Math.max(
-									this.configurationProperties.getMinPartitionCount(),
-									partitionCount)
-							: partitionCount;
-			DescribeTopicsResult describeTopicsResult = adminClient
-					.describeTopics(Collections.singletonList(topicName));
-			KafkaFuture<Map<String, TopicDescription>> topicDescriptionsFuture = describeTopicsResult
-					.all();
-			Map<String, TopicDescription> topicDescriptions = topicDescriptionsFuture
-					.get(this.operationTimeout, TimeUnit.SECONDS);
-			TopicDescription topicDescription = topicDescriptions.get(topicName);
+		AdminClient adminClient = getAdminClient();
+		TopicDescription topicDescription = describeTopics(Collections.singletonList(topicName))
+				.get(topicName);
+		if (topicDescription != null) {
+			int effectivePartitionCount = effectivePartitionCount(partitionCount);
 			int partitionSize = topicDescription.partitions().size();
 			if (partitionSize < effectivePartitionCount) {
 				if (this.configurationProperties.isAutoAddPartitions()) {
@@ -388,6 +673,7 @@ public class KafkaTopicProvisioner implements
 							.createPartitions(Collections.singletonMap(topicName,
 									NewPartitions.increaseTo(effectivePartitionCount)));
 					partitions.all().get(this.operationTimeout, TimeUnit.SECONDS);
+					invalidate(topicName);
 				}
 				else if (tolerateLowerPartitionsOnBroker) {
 					logger.warn("The number of expected partitions was: "
@@ -414,27 +700,12 @@ public class KafkaTopicProvisioner implements
 					this.configurationProperties.getMinPartitionCount(), partitionCount);
 			this.metadataRetryOperations.execute((context) -> {
 
-				NewTopic newTopic;
-				Map<Integer, List<Integer>> replicasAssignments = topicProperties
-						.getReplicasAssignments();
-				if (replicasAssignments != null && replicasAssignments.size() > 0) {
-					newTopic = new NewTopic(topicName,
-							topicProperties.getReplicasAssignments());
-				}
-				else {
-					newTopic = new NewTopic(topicName, effectivePartitionCount,
-							topicProperties.getReplicationFactor() != null
-									? topicProperties.getReplicationFactor()
-									: this.configurationProperties
-											.getReplicationFactor());
-				}
-				if (topicProperties.getProperties().size() > 0) {
-					newTopic.configs(topicProperties.getProperties());
-				}
+				NewTopic newTopic = newTopic(topicName, effectivePartitionCount, topicProperties);
 				CreateTopicsResult createTopicsResult = adminClient
 						.createTopics(Collections.singletonList(newTopic));
 				try {
 					createTopicsResult.all().get(this.operationTimeout, TimeUnit.SECONDS);
+					invalidate(topicName);
 				}
 				catch (Exception ex) {
 					if (ex instanceof ExecutionException) {
@@ -491,22 +762,18 @@ public class KafkaTopicProvisioner implements
 				// In some cases, the above partition query may not throw an UnknownTopic..Exception for various reasons.
 				// For that, we are forcing another query to ensure that the topic is present on the server.
 				if (CollectionUtils.isEmpty(partitions)) {
-					try (AdminClient adminClient = AdminClient
-							.create(this.adminClientProperties)) {
-						final DescribeTopicsResult describeTopicsResult = adminClient
-							.describeTopics(Collections.singletonList(topicName));
-
-						describeTopicsResult.all().get();
+					Map<String, TopicDescription> descriptions;
+					try {
+						descriptions = describeTopics(Collections.singletonList(topicName));
 					}
 					catch (ExecutionException ex) {
-						if (ex.getCause() instanceof UnknownTopicOrPartitionException) {
-							throw (UnknownTopicOrPartitionException) ex.getCause();
-						}
-						else {
-							logger.warn("No partitions have been retrieved for the topic "
-									+ "(" + topicName
-									+ "). This will affect the health check.");
-						}
+						descriptions = null;
+						logger.warn("No partitions have been retrieved for the topic "
+								+ "(" + topicName
+								+ "). This will affect the health check.");
+					}
+					if (descriptions != null && !descriptions.containsKey(topicName)) {
+						throw new UnknownTopicOrPartitionException(topicName);
 					}
 				}
 				// do a sanity check on the partition set
@@ -536,6 +803,19 @@ public class KafkaTopicProvisioner implements
 		}
 	}
 
+	private static final class CachedTopicDescription {
+
+		private final TopicDescription description;
+
+		private final long timestamp;
+
+		CachedTopicDescription(TopicDescription description, long timestamp) {
+			this.description = description;
+			this.timestamp = timestamp;
+		}
+
+	}
+
 	private static final class KafkaProducerDestination implements ProducerDestination {
 
 		private final String producerDestinationName;
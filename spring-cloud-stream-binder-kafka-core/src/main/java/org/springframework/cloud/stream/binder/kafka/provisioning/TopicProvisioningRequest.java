@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.provisioning;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaTopicProperties;
+import org.springframework.util.Assert;
+
+/**
+ * A topic to provision with
+ * {@link KafkaTopicProvisioner#provisionTopics(java.util.Collection)}.
+ *
+ * @since 3.1
+ */
+public class TopicProvisioningRequest {
+
+	private final String name;
+
+	private final int partitionCount;
+
+	private final boolean tolerateLowerPartitionsOnBroker;
+
+	private final KafkaTopicProperties properties;
+
+	/**
+	 * Create an instance.
+	 * @param name the topic name.
+	 * @param partitionCount the minimum number of partitions of the topic.
+	 * @param tolerateLowerPartitionsOnBroker whether an existing topic with fewer
+	 * partitions is tolerated when partitions cannot be added.
+	 * @param properties the properties of the topic when it is created.
+	 */
+	public TopicProvisioningRequest(String name, int partitionCount,
+			boolean tolerateLowerPartitionsOnBroker, KafkaTopicProperties properties) {
+		Assert.hasText(name, "'name' cannot be empty");
+		Assert.notNull(properties, "'properties' cannot be null");
+		this.name = name;
+		this.partitionCount = partitionCount;
+		this.tolerateLowerPartitionsOnBroker = tolerateLowerPartitionsOnBroker;
+		this.properties = properties;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public int getPartitionCount() {
+		return this.partitionCount;
+	}
+
+	public boolean isTolerateLowerPartitionsOnBroker() {
+		return this.tolerateLowerPartitionsOnBroker;
+	}
+
+	public KafkaTopicProperties getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Merge two requests for the same topic; the merged request has the largest
+	 * partition count, tolerates fewer partitions only if both requests do, and the
+	 * properties of this request.
+	 * @param other the other request.
+	 * @return the merged request.
+	 */
+	TopicProvisioningRequest merge(TopicProvisioningRequest other) {
+		return new TopicProvisioningRequest(this.name,
+				Math.max(this.partitionCount, other.partitionCount),
+				this.tolerateLowerPartitionsOnBroker && other.tolerateLowerPartitionsOnBroker,
+				this.properties);
+	}
+
+	@Override
+	public String toString() {
+		return "TopicProvisioningRequest{" + "name='" + this.name + '\''
+				+ ", partitionCount=" + this.partitionCount + '}';
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.provisioning;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * The outcome of the provisioning of a topic by
+ * {@link KafkaTopicProvisioner#provisionTopics(java.util.Collection)}.
+ *
+ * @since 3.1
+ */
+public class TopicProvisioningResult {
+
+	private final String topic;
+
+	private final Status status;
+
+	private final int partitions;
+
+	private final Throwable exception;
+
+	TopicProvisioningResult(String topic, Status status, int partitions,
+			@Nullable Throwable exception) {
+		this.topic = topic;
+		this.status = status;
+		this.partitions = partitions;
+		this.exception = exception;
+	}
+
+	public String getTopic() {
+		return this.topic;
+	}
+
+	public Status getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * @return the number of partitions of the topic, or 0 if provisioning failed.
+	 */
+	public int getPartitions() {
+		return this.partitions;
+	}
+
+	/**
+	 * @return the reason why provisioning failed, or null.
+	 */
+	@Nullable
+	public Throwable getException() {
+		return this.exception;
+	}
+
+	@Override
+	public String toString() {
+		return "TopicProvisioningResult{" + "topic='" + this.topic + '\''
+				+ ", status=" + this.status + ", partitions=" + this.partitions
+				+ (this.exception != null ? ", exception=" + this.exception : "") + '}';
+	}
+
+	/**
+	 * Provisioning outcomes.
+	 */
+	public enum Status {
+
+		/**
+		 * The topic already existed with enough partitions, or fewer partitions were
+		 * tolerated.
+		 */
+		EXISTING,
+
+		/**
+		 * The topic was created.
+		 */
+		CREATED,
+
+		/**
+		 * Partitions were added to the topic.
+		 */
+		PARTITIONS_ADDED,
+
+		/**
+		 * The topic could not be provisioned; see
+		 * {@link TopicProvisioningResult#getException()}.
+		 */
+		FAILED
+
+	}
+
+}
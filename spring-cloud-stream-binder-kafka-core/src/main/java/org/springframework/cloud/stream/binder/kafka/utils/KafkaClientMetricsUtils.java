@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.config.MeterFilter;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties.Metrics;
+
+/**
+ * Utility methods related to the Kafka client metrics of the clients created by the
+ * binders, shared by the message channel and the Kafka Streams binders.
+ *
+ * @since 3.1
+ */
+public final class KafkaClientMetricsUtils {
+
+	private static final String PARTITION_TAG = "partition";
+
+	private static final String NO_BINDING = "none";
+
+	private KafkaClientMetricsUtils() {
+
+	}
+
+	/**
+	 * Return the tags of the metrics of a client created by a binder.
+	 * @param binding the name of the binding of the client.
+	 * @param destination the destination of the client.
+	 * @param role the role of the client.
+	 * @return the tags.
+	 */
+	public static List<Tag> tags(String binding, String destination, String role) {
+		return Arrays.asList(Tag.of(Metrics.BINDING_TAG, binding), Tag.of(Metrics.DESTINATION_TAG, destination),
+				Tag.of(Metrics.ROLE_TAG, role));
+	}
+
+	/**
+	 * Return the tags of the metrics of a client created by a binder, but not for a
+	 * single binding; its binding name tag is {@code none}.
+	 * @param destination the destination of the client.
+	 * @param role the role of the client.
+	 * @return the tags.
+	 */
+	public static List<Tag> tags(String destination, String role) {
+		return tags(NO_BINDING, destination, role);
+	}
+
+	/**
+	 * Return a filter denying the metrics of the clients created by the binders that are
+	 * not enabled by the metrics properties; the other metrics are not affected. The
+	 * filter is meant to be registered once with the registry, as a {@link MeterFilter}
+	 * bean.
+	 * @param metrics the metrics properties.
+	 * @return the filter.
+	 */
+	public static MeterFilter meterFilter(Metrics metrics) {
+		return MeterFilter.deny(id -> id.getTag(Metrics.ROLE_TAG) != null
+				&& !metrics.isClientMetricEnabled(id.getName(), id.getTag(PARTITION_TAG) != null));
+	}
+
+}
@@ -17,6 +17,12 @@
 package org.springframework.cloud.stream.binder.kafka.utils;
 
 import java.io.UnsupportedEncodingException;
+import java.time.Duration;
+
+import org.apache.kafka.common.config.TopicConfig;
+
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaTopicProperties;
 
 /**
  * Utility methods releated to Kafka topics.
@@ -51,4 +57,50 @@ public final class KafkaTopicUtils {
 		}
 	}
 
+	/**
+	 * Return the name of the retry topic of a destination and a group for a retry
+	 * delay: {@code <destination>.<group>.retry-<delay>}, with the delay rendered in the
+	 * largest unit that divides it, for instance {@code orders.billing.retry-5s}.
+	 * @param destination the destination.
+	 * @param group the consumer group.
+	 * @param delay the retry delay.
+	 * @return the retry topic name.
+	 * @since 3.1
+	 */
+	public static String retryTopicName(String destination, String group, Duration delay) {
+		long millis = delay.toMillis();
+		String suffix;
+		if (millis % 3_600_000 == 0) {
+			suffix = millis / 3_600_000 + "h";
+		}
+		else if (millis % 60_000 == 0) {
+			suffix = millis / 60_000 + "m";
+		}
+		else if (millis % 1000 == 0) {
+			suffix = millis / 1000 + "s";
+		}
+		else {
+			suffix = millis + "ms";
+		}
+		return destination + "." + group + ".retry-" + suffix;
+	}
+
+	/**
+	 * Return the topic properties of the stack trace topic of a consumer binding: its
+	 * {@code dlqStackTraceTopicProperties}, with a {@code compact} cleanup policy unless
+	 * another one is set, since only the last stack trace of each fingerprint is needed.
+	 * @param properties the consumer properties.
+	 * @return the topic properties.
+	 * @since 3.1
+	 */
+	public static KafkaTopicProperties stackTraceTopicProperties(KafkaConsumerProperties properties) {
+		KafkaTopicProperties configured = properties.getDlqStackTraceTopicProperties();
+		KafkaTopicProperties topicProperties = new KafkaTopicProperties();
+		topicProperties.setReplicationFactor(configured.getReplicationFactor());
+		topicProperties.setReplicasAssignments(configured.getReplicasAssignments());
+		topicProperties.getProperties().put(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT);
+		topicProperties.getProperties().putAll(configured.getProperties());
+		return topicProperties;
+	}
+
 }
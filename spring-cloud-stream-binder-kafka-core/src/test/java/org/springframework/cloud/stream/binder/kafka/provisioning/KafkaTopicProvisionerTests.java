@@ -16,24 +16,47 @@
 
 package org.springframework.cloud.stream.binder.kafka.provisioning;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.kafka.clients.CommonClientConfigs;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.CreatePartitionsResult;
+import org.apache.kafka.clients.admin.CreateTopicsResult;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.NewPartitions;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
 import org.apache.kafka.common.config.SslConfigs;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
 import org.apache.kafka.common.network.SslChannelBuilder;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaTopicProperties;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.kafka.test.utils.KafkaTestUtils;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author Gary Russell
@@ -115,4 +138,110 @@ public class KafkaTopicProvisionerTests {
 		}
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void topicMetadataIsCachedAndRetrievedInOneRequest() throws Exception {
+		KafkaProperties bootConfig = new KafkaProperties();
+		KafkaBinderConfigurationProperties binderConfig = new KafkaBinderConfigurationProperties(
+				bootConfig);
+		binderConfig.setMetadataCacheTtl(Duration.ofMinutes(1));
+		AdminClient adminClient = mock(AdminClient.class);
+		given(adminClient.describeTopics(any(Collection.class))).willAnswer(invocation -> {
+			Collection<String> topics = invocation.getArgument(0);
+			Map<String, KafkaFuture<TopicDescription>> futures = new HashMap<>();
+			topics.forEach(topic -> futures.put(topic, KafkaFuture.completedFuture(
+					new TopicDescription(topic, false, Collections.singletonList(
+							new TopicPartitionInfo(0, Node.noNode(), Collections.emptyList(),
+									Collections.emptyList()))))));
+			DescribeTopicsResult result = mock(DescribeTopicsResult.class);
+			given(result.values()).willReturn(futures);
+			return result;
+		});
+		KafkaTopicProvisioner provisioner = provisioner(binderConfig, bootConfig, adminClient);
+		assertThat(provisioner.describeTopics(Arrays.asList("foo", "bar"))).containsOnlyKeys("foo", "bar");
+		assertThat(provisioner.getPartitionInfos("foo")).hasSize(1);
+		assertThat(provisioner.describeTopics(Arrays.asList("bar", "baz"))).containsOnlyKeys("bar", "baz");
+		verify(adminClient).describeTopics(Arrays.asList("foo", "bar"));
+		verify(adminClient).describeTopics(Collections.singletonList("baz"));
+		verify(adminClient, times(2)).describeTopics(any(Collection.class));
+		provisioner.destroy();
+		verify(adminClient).close(any(Duration.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void topicsAreProvisionedWithBatchedRequests() throws Exception {
+		KafkaProperties bootConfig = new KafkaProperties();
+		KafkaBinderConfigurationProperties binderConfig = new KafkaBinderConfigurationProperties(
+				bootConfig);
+		binderConfig.setAutoAddPartitions(true);
+		AdminClient adminClient = mock(AdminClient.class);
+		given(adminClient.describeTopics(any(Collection.class))).willAnswer(invocation -> {
+			Map<String, KafkaFuture<TopicDescription>> futures = new HashMap<>();
+			futures.put("existing", KafkaFuture.completedFuture(new TopicDescription("existing",
+					false, Collections.singletonList(new TopicPartitionInfo(0, Node.noNode(),
+							Collections.emptyList(), Collections.emptyList())))));
+			futures.put("small", KafkaFuture.completedFuture(new TopicDescription("small",
+					false, Collections.singletonList(new TopicPartitionInfo(0, Node.noNode(),
+							Collections.emptyList(), Collections.emptyList())))));
+			KafkaFutureImpl<TopicDescription> missing = new KafkaFutureImpl<>();
+			missing.completeExceptionally(new UnknownTopicOrPartitionException("missing"));
+			futures.put("missing", missing);
+			futures.put("other", missing);
+			DescribeTopicsResult result = mock(DescribeTopicsResult.class);
+			given(result.values()).willReturn(futures);
+			return result;
+		});
+		CreateTopicsResult createTopicsResult = mock(CreateTopicsResult.class);
+		Map<String, KafkaFuture<Void>> created = new HashMap<>();
+		created.put("missing", KafkaFuture.completedFuture(null));
+		KafkaFutureImpl<Void> exists = new KafkaFutureImpl<>();
+		exists.completeExceptionally(new TopicExistsException("other"));
+		created.put("other", exists);
+		given(createTopicsResult.values()).willReturn(created);
+		given(adminClient.createTopics(any(Collection.class))).willReturn(createTopicsResult);
+		CreatePartitionsResult createPartitionsResult = mock(CreatePartitionsResult.class);
+		given(createPartitionsResult.values()).willReturn(
+				Collections.singletonMap("small", KafkaFuture.completedFuture(null)));
+		given(adminClient.createPartitions(any(Map.class))).willReturn(createPartitionsResult);
+		KafkaTopicProvisioner provisioner = provisioner(binderConfig, bootConfig, adminClient);
+
+		Map<String, TopicProvisioningResult> results = provisioner.provisionTopics(Arrays.asList(
+				new TopicProvisioningRequest("existing", 1, false, new KafkaTopicProperties()),
+				new TopicProvisioningRequest("small", 2, false, new KafkaTopicProperties()),
+				new TopicProvisioningRequest("small", 3, false, new KafkaTopicProperties()),
+				new TopicProvisioningRequest("missing", 2, false, new KafkaTopicProperties()),
+				new TopicProvisioningRequest("other", 1, false, new KafkaTopicProperties())));
+		assertThat(results.get("existing").getStatus()).isEqualTo(TopicProvisioningResult.Status.EXISTING);
+		assertThat(results.get("existing").getPartitions()).isEqualTo(1);
+		assertThat(results.get("small").getStatus()).isEqualTo(TopicProvisioningResult.Status.PARTITIONS_ADDED);
+		assertThat(results.get("small").getPartitions()).isEqualTo(3);
+		assertThat(results.get("missing").getStatus()).isEqualTo(TopicProvisioningResult.Status.CREATED);
+		assertThat(results.get("missing").getPartitions()).isEqualTo(2);
+		assertThat(results.get("other").getStatus()).isEqualTo(TopicProvisioningResult.Status.EXISTING);
+		verify(adminClient).describeTopics(any(Collection.class));
+		ArgumentCaptor<Collection<NewTopic>> newTopics = ArgumentCaptor.forClass(Collection.class);
+		verify(adminClient).createTopics(newTopics.capture());
+		assertThat(newTopics.getValue()).extracting(NewTopic::name).containsExactly("missing", "other");
+		ArgumentCaptor<Map<String, NewPartitions>> newPartitions = ArgumentCaptor.forClass(Map.class);
+		verify(adminClient).createPartitions(newPartitions.capture());
+		assertThat(newPartitions.getValue()).containsOnlyKeys("small");
+		assertThat(newPartitions.getValue().get("small").totalCount()).isEqualTo(3);
+	}
+
+	private static KafkaTopicProvisioner provisioner(KafkaBinderConfigurationProperties binderConfig,
+			KafkaProperties bootConfig, AdminClient adminClient) {
+
+		KafkaTopicProvisioner provisioner = new KafkaTopicProvisioner(binderConfig, bootConfig) {
+
+			@Override
+			AdminClient createAdminClient() {
+				return adminClient;
+			}
+
+		};
+		provisioner.afterPropertiesSet();
+		return provisioner;
+	}
+
 }
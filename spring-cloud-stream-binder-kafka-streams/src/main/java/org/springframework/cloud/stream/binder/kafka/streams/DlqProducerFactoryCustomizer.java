@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.streams;
+
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * Called by the binder to customize the producer factories of the dead letter topics.
+ *
+ * @since 3.1
+ */
+interface DlqProducerFactoryCustomizer {
+
+	/**
+	 * Customize a producer factory, before it creates any producer.
+	 * @param pf the factory.
+	 * @param destination the input topics of the binding whose records it sends.
+	 */
+	void configure(ProducerFactory<?, ?> pf, String destination);
+
+}
@@ -29,6 +29,7 @@ import io.micrometer.core.instrument.ImmutableTag;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.binder.kafka.KafkaStreamsMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsConfig;
@@ -52,6 +53,7 @@ import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
 import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
 import org.springframework.cloud.stream.binder.BinderConfiguration;
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
 import org.springframework.cloud.stream.binder.kafka.streams.function.FunctionDetectorCondition;
 import org.springframework.cloud.stream.binder.kafka.streams.properties.KafkaStreamsBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.kafka.streams.properties.KafkaStreamsExtendedBindingProperties;
@@ -432,6 +434,20 @@ public class KafkaStreamsBinderSupportAutoConfiguration {
 		@ConditionalOnBean(MeterRegistry.class)
 		protected class KafkaMicrometer {
 
+			@Bean
+			@ConditionalOnMissingBean(name = "binderDlqProducerFactoryCustomizer")
+			public DlqProducerFactoryCustomizer binderDlqProducerFactoryCustomizer(MeterRegistry meterRegistry) {
+				return new KafkaStreamsDlqMetrics(meterRegistry);
+			}
+
+			@Bean
+			@ConditionalOnMissingBean(name = "kafkaStreamsBinderClientMetricsFilter")
+			public MeterFilter kafkaStreamsBinderClientMetricsFilter(
+					KafkaStreamsBinderConfigurationProperties configurationProperties) {
+
+				return KafkaClientMetricsUtils.meterFilter(configurationProperties.getMetrics());
+			}
+
 			@Bean
 			@ConditionalOnMissingBean(name = "binderStreamsListener")
 			public StreamsListener binderStreamsListener(MeterRegistry meterRegistry) {
@@ -482,6 +498,14 @@ public class KafkaStreamsBinderSupportAutoConfiguration {
 		@ConditionalOnBean(MeterRegistry.class)
 		protected class KafkaMicrometer {
 
+			@Bean
+			@ConditionalOnMissingBean(name = "binderDlqProducerFactoryCustomizer")
+			public DlqProducerFactoryCustomizer binderDlqProducerFactoryCustomizer(ConfigurableApplicationContext context) {
+				MeterRegistry meterRegistry = context.getBean("outerContext", ApplicationContext.class)
+						.getBean(MeterRegistry.class);
+				return new KafkaStreamsDlqMetrics(meterRegistry);
+			}
+
 			@Bean
 			@ConditionalOnMissingBean(name = "binderStreamsListener")
 			public StreamsListener binderStreamsListener(ConfigurableApplicationContext context) {
@@ -100,6 +100,8 @@ final class KafkaStreamsBinderUtils {
 					new ExtendedProducerProperties<>(
 							extendedConsumerProperties.getExtension().getDlqProducerProperties()),
 					binderConfigurationProperties);
+			context.getBeanProvider(DlqProducerFactoryCustomizer.class)
+					.ifUnique(customizer -> customizer.configure(producerFactory, name));
 			KafkaTemplate<byte[], byte[]> kafkaTemplate = new KafkaTemplate<>(producerFactory);
 
 
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.streams;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.MicrometerProducerListener;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * Registers the Kafka client metrics of the DLQ producers, tagged as the clients of the
+ * message channel binder are; they are restricted by the meter filter of the binder
+ * configuration.
+ *
+ * @since 3.1
+ */
+class KafkaStreamsDlqMetrics implements DlqProducerFactoryCustomizer {
+
+	private static final String DLQ_ROLE = "dlq";
+
+	private final MeterRegistry meterRegistry;
+
+	KafkaStreamsDlqMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public void configure(ProducerFactory<?, ?> pf, String destination) {
+		if (pf instanceof DefaultKafkaProducerFactory) {
+			((DefaultKafkaProducerFactory<?, ?>) pf).addListener(new MicrometerProducerListener<>(
+					this.meterRegistry, KafkaClientMetricsUtils.tags(destination, DLQ_ROLE)));
+		}
+	}
+
+}
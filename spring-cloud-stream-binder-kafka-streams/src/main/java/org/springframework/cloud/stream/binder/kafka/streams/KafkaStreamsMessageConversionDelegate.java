@@ -58,6 +58,8 @@ public class KafkaStreamsMessageConversionDelegate {
 
 	private static final ThreadLocal<KeyValue<Object, Object>> keyValueThreadLocal = new ThreadLocal<>();
 
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
 	private final CompositeMessageConverter compositeMessageConverter;
 
 	private final SendToDlqAndContinue sendToDlqAndContinue;
@@ -122,7 +124,7 @@ public class KafkaStreamsMessageConversionDelegate {
 					final Header header;
 					try {
 						header = new RecordHeader(MessageHeaders.CONTENT_TYPE,
-									new ObjectMapper().writeValueAsBytes(perRecordContentTypeHolder.contentType));
+									OBJECT_MAPPER.writeValueAsBytes(perRecordContentTypeHolder.contentType));
 						this.context.headers().add(header);
 					}
 					catch (Exception e) {
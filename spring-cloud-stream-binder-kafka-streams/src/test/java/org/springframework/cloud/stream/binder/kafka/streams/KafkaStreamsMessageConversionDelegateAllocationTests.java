@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.streams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.management.ThreadMXBean;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Predicate;
+import org.apache.kafka.streams.kstream.ValueMapper;
+import org.apache.kafka.streams.processor.Processor;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.ProcessorSupplier;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import org.springframework.cloud.stream.config.BindingProperties;
+import org.springframework.cloud.stream.converter.CompositeMessageConverterFactory;
+import org.springframework.messaging.MessageHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Budgets of the bytes allocated for each record by the conversions of the
+ * {@link KafkaStreamsMessageConversionDelegate}, with the JSON content type: the
+ * predicates, mappers and processors it adds to the streams are captured and run on the
+ * test thread, once warmed up. The budgets are the measured allocations plus a small
+ * margin, so that a change allocating more for every record fails the build.
+ *
+ * @since 3.1
+ */
+public class KafkaStreamsMessageConversionDelegateAllocationTests {
+
+	/*
+	 * Measured with a two property JSON payload: 6,650 to 6,720 bytes per inbound record
+	 * and 20,200 to 20,560 bytes per outbound record on Java 8 (3,920 and 20,180 bytes on
+	 * Java 17), most of the outbound ones by the message converter; the budgets are about
+	 * 15% above the Java 8 ones.
+	 */
+	private static final int INBOUND_BUDGET = 7_700;
+
+	private static final int OUTBOUND_BUDGET = 23_500;
+
+	private static final int WARMUP = 20_000;
+
+	private static final int RECORDS = 20_000;
+
+	private final RecordHeaders headers = new RecordHeaders();
+
+	private final Reading reading = new Reading("sensor-1", 21.5);
+
+	private ThreadMXBean threads;
+
+	private KafkaStreamsBindingInformationCatalogue catalogue;
+
+	private KafkaStreamsMessageConversionDelegate delegate;
+
+	@Before
+	public void setup() {
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean instanceof ThreadMXBean
+				&& ((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+		this.threads = (ThreadMXBean) threadMXBean;
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+		this.catalogue = new KafkaStreamsBindingInformationCatalogue();
+		this.delegate = new KafkaStreamsMessageConversionDelegate(
+				new CompositeMessageConverterFactory(Collections.emptyList(), new ObjectMapper())
+						.getMessageConverterForAllRegistered(),
+				null, this.catalogue, null);
+	}
+
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void testInboundAllocationPerRecord() throws Exception {
+		KStream stream = mock(KStream.class);
+		KStream converted = mock(KStream.class);
+		KStream failed = mock(KStream.class);
+		when(stream.branch(any(Predicate.class), any(Predicate.class)))
+				.thenReturn(new KStream[] { converted, failed });
+		this.delegate.deserializeOnInbound(Reading.class, stream);
+		ArgumentCaptor<ProcessorSupplier> contentTypeSupplier = ArgumentCaptor.forClass(ProcessorSupplier.class);
+		verify(stream).process(contentTypeSupplier.capture());
+		ArgumentCaptor<Predicate> predicates = ArgumentCaptor.forClass(Predicate.class);
+		verify(stream).branch(predicates.capture(), predicates.capture());
+		ArgumentCaptor<ValueMapper> mapper = ArgumentCaptor.forClass(ValueMapper.class);
+		verify(converted).mapValues(mapper.capture());
+		Processor contentTypeProcessor = processor(contentTypeSupplier.getValue());
+		Predicate isConverted = predicates.getAllValues().get(0);
+		ValueMapper valueMapper = mapper.getValue();
+		this.headers.add(MessageHeaders.CONTENT_TYPE, "\"application/json\"".getBytes(StandardCharsets.UTF_8));
+		byte[] value = new ObjectMapper().writeValueAsBytes(this.reading);
+		Object result = null;
+		for (int i = 0; i < WARMUP; i++) {
+			contentTypeProcessor.process("key", value);
+			assertThat(isConverted.test("key", value)).isTrue();
+			result = valueMapper.apply(value);
+		}
+		long start = allocatedBytes();
+		for (int i = 0; i < RECORDS; i++) {
+			contentTypeProcessor.process("key", value);
+			isConverted.test("key", value);
+			result = valueMapper.apply(value);
+		}
+		long allocated = allocatedBytes() - start;
+		assertThat(result).isInstanceOf(Reading.class);
+		assertThat(((Reading) result).getId()).isEqualTo("sensor-1");
+		assertThat(allocated / RECORDS).isLessThanOrEqualTo(INBOUND_BUDGET);
+	}
+
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void testOutboundAllocationPerRecord() {
+		KStream stream = mock(KStream.class);
+		KStream filtered = mock(KStream.class);
+		KStream mapped = mock(KStream.class);
+		when(stream.filter(any(Predicate.class))).thenReturn(filtered);
+		when(filtered.mapValues(any(ValueMapper.class))).thenReturn(mapped);
+		BindingProperties bindingProperties = new BindingProperties();
+		bindingProperties.setContentType("application/json");
+		this.catalogue.registerBindingProperties(stream, bindingProperties);
+		this.delegate.serializeOnOutbound(stream);
+		ArgumentCaptor<Predicate> predicate = ArgumentCaptor.forClass(Predicate.class);
+		verify(stream).filter(predicate.capture());
+		ArgumentCaptor<ValueMapper> mapper = ArgumentCaptor.forClass(ValueMapper.class);
+		verify(filtered).mapValues(mapper.capture());
+		ArgumentCaptor<ProcessorSupplier> headerSupplier = ArgumentCaptor.forClass(ProcessorSupplier.class);
+		verify(mapped).process(headerSupplier.capture());
+		Predicate isPresent = predicate.getValue();
+		ValueMapper valueMapper = mapper.getValue();
+		Processor headerProcessor = processor(headerSupplier.getValue());
+		Object value = null;
+		for (int i = 0; i < WARMUP; i++) {
+			assertThat(isPresent.test("key", this.reading)).isTrue();
+			value = valueMapper.apply(this.reading);
+			headerProcessor.process("key", value);
+		}
+		long start = allocatedBytes();
+		for (int i = 0; i < RECORDS; i++) {
+			isPresent.test("key", this.reading);
+			value = valueMapper.apply(this.reading);
+			headerProcessor.process("key", value);
+		}
+		long allocated = allocatedBytes() - start;
+		assertThat(value).isInstanceOf(byte[].class);
+		assertThat(this.headers.lastHeader(MessageHeaders.CONTENT_TYPE).value())
+				.isEqualTo("\"application/json\"".getBytes(StandardCharsets.UTF_8));
+		assertThat(allocated / RECORDS).isLessThanOrEqualTo(OUTBOUND_BUDGET);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Processor processor(ProcessorSupplier supplier) {
+		Processor processor = supplier.get();
+		processor.init((ProcessorContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ProcessorContext.class },
+				(proxy, method, args) -> "headers".equals(method.getName()) ? this.headers : null));
+		return processor;
+	}
+
+	private long allocatedBytes() {
+		return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static class Reading {
+
+		private String id;
+
+		private double temperature;
+
+		Reading() {
+		}
+
+		Reading(String id, double temperature) {
+			this.id = id;
+			this.temperature = temperature;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		public void setId(String id) {
+			this.id = id;
+		}
+
+		public double getTemperature() {
+			return this.temperature;
+		}
+
+		public void setTemperature(double temperature) {
+			this.temperature = temperature;
+		}
+
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Binary encoding of header values used by the {@link BinderHeaderMapper} when the
+ * {@link org.springframework.cloud.stream.binder.kafka.properties.HeaderEncoding#binary}
+ * encoding is selected.
+ * <p>
+ * The records with binary encoded headers carry a flag header whose value is the version
+ * of the encoding followed by the names of the encoded headers, each prefixed with its
+ * length on two bytes; the other headers of these records were not added by the mapper.
+ * <p>
+ * Each value starts with a type tag byte, followed by the big-endian, fixed-width value
+ * of numbers, booleans, UUIDs and dates, or the UTF-8 bytes of a string, or the bytes
+ * of a {@code byte[]}. Any other type is tagged as JSON and followed by its class name,
+ * prefixed with its length on two bytes, then by its JSON representation.
+ *
+ * @since 3.1
+ */
+final class BinaryHeaderCodec {
+
+	/**
+	 * Header flagging records whose headers are binary encoded; its value is the
+	 * version of the encoding followed by the names of the encoded headers.
+	 */
+	static final String BINARY_HEADERS = "spring_binary_headers";
+
+	static final byte VERSION = 1;
+
+	static final byte STRING = 1;
+
+	static final byte BYTES = 2;
+
+	static final byte BOOLEAN = 3;
+
+	static final byte BYTE = 4;
+
+	static final byte SHORT = 5;
+
+	static final byte INTEGER = 6;
+
+	static final byte LONG = 7;
+
+	static final byte FLOAT = 8;
+
+	static final byte DOUBLE = 9;
+
+	static final byte UUID_TYPE = 10;
+
+	static final byte DATE = 11;
+
+	static final byte INSTANT = 12;
+
+	static final byte JSON = 13;
+
+	private BinaryHeaderCodec() {
+	}
+
+	/**
+	 * Encode the value of the flag header for a list of encoded header names.
+	 * @param names the header names.
+	 * @return the encoded value.
+	 */
+	static byte[] encodeNames(List<String> names) {
+		byte[][] encodedNames = new byte[names.size()][];
+		int length = 1;
+		for (int i = 0; i < encodedNames.length; i++) {
+			encodedNames[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+			length += 2 + encodedNames[i].length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length).put(VERSION);
+		for (byte[] name : encodedNames) {
+			buffer.putShort((short) name.length).put(name);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decode the names of the encoded headers from the value of the flag header.
+	 * @param value the value of the flag header.
+	 * @return the header names or null if the value is not of a known version.
+	 */
+	@Nullable
+	static Set<String> decodeNames(byte[] value) {
+		if (value.length == 0 || value[0] != VERSION) {
+			return null;
+		}
+		Set<String> names = new HashSet<>();
+		ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+		while (buffer.remaining() >= 2) {
+			int length = buffer.getShort() & 0xFFFF;
+			if (length > buffer.remaining()) {
+				return null;
+			}
+			names.add(new String(value, buffer.position(), length, StandardCharsets.UTF_8));
+			buffer.position(buffer.position() + length);
+		}
+		return buffer.hasRemaining() ? null : names;
+	}
+
+	/**
+	 * Encode a value of one of the types with a fixed-width or raw encoding.
+	 * @param value the value.
+	 * @return the encoded value or null if the value must be JSON encoded.
+	 */
+	@Nullable
+	static byte[] encode(Object value) {
+		if (value instanceof String) {
+			return tagged(STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+		}
+		if (value instanceof byte[]) {
+			return tagged(BYTES, (byte[]) value);
+		}
+		if (value instanceof Boolean) {
+			return new byte[] { BOOLEAN, (byte) (((Boolean) value) ? 1 : 0) };
+		}
+		if (value instanceof Integer) {
+			return ByteBuffer.allocate(5).put(INTEGER).putInt((Integer) value).array();
+		}
+		if (value instanceof Long) {
+			return ByteBuffer.allocate(9).put(LONG).putLong((Long) value).array();
+		}
+		if (value instanceof UUID) {
+			UUID uuid = (UUID) value;
+			return ByteBuffer.allocate(17).put(UUID_TYPE).putLong(uuid.getMostSignificantBits())
+					.putLong(uuid.getLeastSignificantBits()).array();
+		}
+		if (value instanceof Double) {
+			return ByteBuffer.allocate(9).put(DOUBLE).putDouble((Double) value).array();
+		}
+		if (value instanceof Float) {
+			return ByteBuffer.allocate(5).put(FLOAT).putFloat((Float) value).array();
+		}
+		if (value instanceof Short) {
+			return ByteBuffer.allocate(3).put(SHORT).putShort((Short) value).array();
+		}
+		if (value instanceof Byte) {
+			return new byte[] { BYTE, (Byte) value };
+		}
+		if (value instanceof Instant) {
+			Instant instant = (Instant) value;
+			return ByteBuffer.allocate(13).put(INSTANT).putLong(instant.getEpochSecond())
+					.putInt(instant.getNano()).array();
+		}
+		if (value != null && value.getClass().equals(Date.class)) {
+			return ByteBuffer.allocate(9).put(DATE).putLong(((Date) value).getTime()).array();
+		}
+		return null;
+	}
+
+	/**
+	 * Encode a JSON value.
+	 * @param className the class name of the value.
+	 * @param json the JSON representation of the value.
+	 * @return the encoded value.
+	 */
+	static byte[] encodeJson(String className, byte[] json) {
+		byte[] name = className.getBytes(StandardCharsets.UTF_8);
+		return ByteBuffer.allocate(3 + name.length + json.length).put(JSON).putShort((short) name.length)
+				.put(name).put(json).array();
+	}
+
+	/**
+	 * Decode a value encoded with a fixed-width or raw encoding.
+	 * @param value the encoded value.
+	 * @return the decoded value or null if the value is not encoded with one of these
+	 * encodings.
+	 */
+	@Nullable
+	static Object decode(byte[] value) {
+		if (value.length == 0) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+		switch (value[0]) {
+			case STRING:
+				return new String(value, 1, value.length - 1, StandardCharsets.UTF_8);
+			case BOOLEAN:
+				return value.length == 2 ? value[1] != 0 : null;
+			case BYTE:
+				return value.length == 2 ? value[1] : null;
+			case SHORT:
+				return value.length == 3 ? buffer.getShort() : null;
+			case INTEGER:
+				return value.length == 5 ? buffer.getInt() : null;
+			case LONG:
+				return value.length == 9 ? buffer.getLong() : null;
+			case FLOAT:
+				return value.length == 5 ? buffer.getFloat() : null;
+			case DOUBLE:
+				return value.length == 9 ? buffer.getDouble() : null;
+			case UUID_TYPE:
+				return value.length == 17 ? new UUID(buffer.getLong(), buffer.getLong()) : null;
+			case DATE:
+				return value.length == 9 ? new Date(buffer.getLong()) : null;
+			case INSTANT:
+				return value.length == 13 ? Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()) : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Return the class name of a JSON encoded value.
+	 * @param value the encoded value.
+	 * @return the class name or null if the value is not JSON encoded.
+	 */
+	@Nullable
+	static String jsonClassName(byte[] value) {
+		if (value.length < 3 || value[0] != JSON) {
+			return null;
+		}
+		int length = ((value[1] & 0xFF) << 8) | (value[2] & 0xFF);
+		if (3 + length > value.length) {
+			return null;
+		}
+		return new String(value, 3, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the offset of the JSON representation in a JSON encoded value.
+	 * @param value the encoded value.
+	 * @return the offset.
+	 */
+	static int jsonOffset(byte[] value) {
+		return 3 + (((value[1] & 0xFF) << 8) | (value[2] & 0xFF));
+	}
+
+	static boolean isBytes(byte[] value) {
+		return value.length > 0 && value[0] == BYTES;
+	}
+
+	private static byte[] tagged(byte tag, byte[] bytes) {
+		byte[] tagged = new byte[bytes.length + 1];
+		tagged[0] = tag;
+		System.arraycopy(bytes, 0, tagged, 1, bytes.length);
+		return tagged;
+	}
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017-2019 the original author or authors.
+ * Copyright 2017-2020 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,14 +17,18 @@
 package org.springframework.cloud.stream.binder.kafka;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -39,6 +43,7 @@ import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeader;
 
 import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.binder.kafka.properties.HeaderEncoding;
 import org.springframework.integration.IntegrationMessageHeaderAccessor;
 import org.springframework.kafka.support.AbstractKafkaHeaderMapper;
 import org.springframework.kafka.support.JacksonUtils;
@@ -59,6 +64,19 @@ import org.springframework.util.MimeType;
  * messaging.
  * Header types are added to a special header {@link #JSON_TYPES}.
  *
+ * Since a mapper is used by a single binding, where the same headers are typically
+ * mapped for every record, the outcome of the pattern matching for each header name,
+ * the classes resolved for inbound JSON types and the encoded and decoded
+ * {@link #JSON_TYPES} header for each set of header names and types are cached, up to
+ * 1000 entries each.
+ *
+ * With the {@link HeaderEncoding#binary} outbound encoding, header values are instead
+ * encoded with a type tag byte followed by a compact binary value and no
+ * {@link #JSON_TYPES} header is added; the names of the encoded headers are listed in a
+ * flag header instead. Inbound, the listed headers of the records that carry the flag
+ * header are decoded, whatever the encoding of the mapper, and the other headers are
+ * mapped as they are.
+ *
  * @author Gary Russell
  * @author Artem Bilan
  * @author Soby Chacko
@@ -78,8 +96,12 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 
 	private static final String NEVER_NATIVE_HEADERS_PRESENT = NEGATE + BinderHeaders.NATIVE_HEADERS_PRESENT;
 
+	private static final String NEVER_LAZY_HEADERS = NEGATE + BinderHeaderMapper.LAZY_HEADERS;
+
 	private static final String JAVA_LANG_STRING = "java.lang.String";
 
+	private static final int CACHE_LIMIT = 1000;
+
 	private static final List<String> DEFAULT_TRUSTED_PACKAGES =
 			Arrays.asList(
 					"java.lang",
@@ -99,14 +121,35 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 	 */
 	public static final String JSON_TYPES = "spring_json_header_types";
 
+	/**
+	 * Header name for the Kafka headers of an inbound record, mapped on demand, when the
+	 * headers are mapped lazily; never mapped to outbound records.
+	 * @since 3.1
+	 */
+	public static final String LAZY_HEADERS = "kafka_lazyHeaders";
+
 	private final ObjectMapper objectMapper;
 
 	private final Set<String> trustedPackages = new LinkedHashSet<>(DEFAULT_TRUSTED_PACKAGES);
 
 	private final Set<String> toStringClasses = new LinkedHashSet<>(DEFAULT_TO_STRING_CLASSES);
 
+	private final Map<String, Boolean> headerMatches = new ConcurrentHashMap<>();
+
+	private final Map<String, Class<?>> resolvedTypes = new ConcurrentHashMap<>();
+
+	private final Map<Map<String, String>, byte[]> encodedJsonTypes = new ConcurrentHashMap<>();
+
+	private final Map<ByteBuffer, Map<String, String>> decodedJsonTypes = new ConcurrentHashMap<>();
+
+	private final Map<List<String>, byte[]> encodedBinaryHeaders = new ConcurrentHashMap<>();
+
+	private final Map<ByteBuffer, Set<String>> decodedBinaryHeaders = new ConcurrentHashMap<>();
+
 	private boolean encodeStrings;
 
+	private HeaderEncoding headerEncoding = HeaderEncoding.json;
+
 	/**
 	 * Construct an instance with the default object mapper and default header patterns
 	 * for outbound headers; all inbound headers are mapped. The default pattern list is
@@ -136,6 +179,7 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 				NEVER_TIMESTAMP,
 				NEVER_DELIVERY_ATTEMPT,
 				NEVER_NATIVE_HEADERS_PRESENT,
+				NEVER_LAZY_HEADERS,
 				"*");
 	}
 
@@ -217,6 +261,17 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		this.encodeStrings = encodeStrings;
 	}
 
+	/**
+	 * Set the encoding of the outbound headers; inbound headers are decoded according to
+	 * the encoding of each record, whatever this encoding.
+	 * @param headerEncoding the encoding (default json).
+	 * @since 3.1
+	 */
+	public void setHeaderEncoding(HeaderEncoding headerEncoding) {
+		Assert.notNull(headerEncoding, "'headerEncoding' must not be null");
+		this.headerEncoding = headerEncoding;
+	}
+
 	/**
 	 * Add packages to the trusted packages list (default {@code java.util, java.lang}) used
 	 * when constructing objects from JSON.
@@ -251,6 +306,10 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 
 	@Override
 	public void fromHeaders(MessageHeaders headers, Headers target) {
+		if (HeaderEncoding.binary.equals(this.headerEncoding)) {
+			fromHeadersBinary(headers, target);
+			return;
+		}
 		final Map<String, String> jsonHeaders = new HashMap<>();
 		final ObjectMapper headerObjectMapper = getObjectMapper();
 		headers.forEach((key, rawValue) -> {
@@ -285,7 +344,7 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		});
 		if (jsonHeaders.size() > 0) {
 			try {
-				target.add(new RecordHeader(JSON_TYPES, headerObjectMapper.writeValueAsBytes(jsonHeaders)));
+				target.add(new RecordHeader(JSON_TYPES, encodeJsonTypes(jsonHeaders)));
 			}
 			catch (IllegalStateException | JsonProcessingException e) {
 				logger.error(e, "Could not add json types header");
@@ -293,8 +352,69 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		}
 	}
 
+	private void fromHeadersBinary(MessageHeaders headers, Headers target) {
+		List<String> mapped = null;
+		for (Map.Entry<String, Object> header : headers.entrySet()) {
+			String key = header.getKey();
+			Object rawValue = header.getValue();
+			if (matches(key, rawValue)) {
+				Object valueToAdd = headerValueToAddOut(key, rawValue);
+				if (this.toStringClasses.contains(valueToAdd.getClass().getName())) {
+					valueToAdd = valueToAdd.toString();
+				}
+				try {
+					byte[] encoded = BinaryHeaderCodec.encode(valueToAdd);
+					if (encoded == null) {
+						encoded = BinaryHeaderCodec.encodeJson(valueToAdd.getClass().getName(),
+								getObjectMapper().writeValueAsBytes(valueToAdd));
+					}
+					target.add(new RecordHeader(key, encoded));
+					if (mapped == null) {
+						mapped = new ArrayList<>();
+					}
+					mapped.add(key);
+				}
+				catch (Exception e) {
+					logger.debug(e, () -> "Could not map " + key + " with type " + rawValue.getClass().getName());
+				}
+			}
+		}
+		if (mapped != null) {
+			byte[] encoded = this.encodedBinaryHeaders.get(mapped);
+			if (encoded == null) {
+				encoded = BinaryHeaderCodec.encodeNames(mapped);
+				cache(this.encodedBinaryHeaders, mapped, encoded);
+			}
+			target.add(new RecordHeader(BinaryHeaderCodec.BINARY_HEADERS, encoded));
+		}
+	}
+
+	@Override
+	protected boolean matches(String header) {
+		Boolean matches = this.headerMatches.get(header);
+		if (matches == null) {
+			matches = super.matches(header);
+			cache(this.headerMatches, header, matches);
+		}
+		return matches;
+	}
+
+	private byte[] encodeJsonTypes(Map<String, String> jsonHeaders) throws JsonProcessingException {
+		byte[] encoded = this.encodedJsonTypes.get(jsonHeaders);
+		if (encoded == null) {
+			encoded = getObjectMapper().writeValueAsBytes(jsonHeaders);
+			cache(this.encodedJsonTypes, jsonHeaders, encoded);
+		}
+		return encoded;
+	}
+
 	@Override
 	public void toHeaders(Headers source, final Map<String, Object> headers) {
+		Set<String> binaryHeaders = decodeBinaryHeaders(source);
+		if (binaryHeaders != null) {
+			toHeadersBinary(source, binaryHeaders, headers);
+			return;
+		}
 		final Map<String, String> jsonTypes = decodeJsonTypes(source);
 		source.forEach(header -> {
 			if (!(header.key().equals(JSON_TYPES))) {
@@ -309,13 +429,80 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		});
 	}
 
+	@Nullable
+	private Set<String> decodeBinaryHeaders(Headers source) {
+		Header header = source.lastHeader(BinaryHeaderCodec.BINARY_HEADERS);
+		if (header == null || header.value() == null) {
+			return null;
+		}
+		ByteBuffer key = ByteBuffer.wrap(header.value());
+		Set<String> names = this.decodedBinaryHeaders.get(key);
+		if (names == null) {
+			names = BinaryHeaderCodec.decodeNames(header.value());
+			if (names == null) {
+				logger.error(() -> "Could not decode the binary headers of version " + header.value()[0]);
+				return null;
+			}
+			cache(this.decodedBinaryHeaders, key, names);
+		}
+		return names;
+	}
+
+	private void toHeadersBinary(Headers source, Set<String> binaryHeaders, Map<String, Object> headers) {
+		for (Header header : source) {
+			String key = header.key();
+			byte[] value = header.value();
+			if (key.equals(BinaryHeaderCodec.BINARY_HEADERS) || key.equals(JSON_TYPES)) {
+				continue;
+			}
+			if (value == null || !binaryHeaders.contains(key)) {
+				headers.put(key, headerValueToAddIn(header));
+				continue;
+			}
+			Object decoded = BinaryHeaderCodec.decode(value);
+			if (decoded != null) {
+				headers.put(key, decoded);
+			}
+			else if (BinaryHeaderCodec.isBytes(value)) {
+				headers.put(key, headerValueToAddIn(new RecordHeader(key, Arrays.copyOfRange(value, 1, value.length))));
+			}
+			else {
+				String className = BinaryHeaderCodec.jsonClassName(value);
+				if (className != null) {
+					populateBinaryJsonValueHeader(key, value, className, headers);
+				}
+				else {
+					logger.error(() -> "Could not decode the binary header: " + key);
+					headers.put(key, headerValueToAddIn(header));
+				}
+			}
+		}
+	}
+
+	private void populateBinaryJsonValueHeader(String key, byte[] value, String className,
+			Map<String, Object> headers) {
+
+		int offset = BinaryHeaderCodec.jsonOffset(value);
+		if (!trusted(className)) {
+			headers.put(key, new NonTrustedHeaderType(Arrays.copyOfRange(value, offset, value.length), className));
+			return;
+		}
+		try {
+			headers.put(key, decodeValue(value, offset, value.length - offset, resolveType(className)));
+		}
+		catch (Exception | LinkageError e) {
+			logger.error(e, () -> "Could not decode json type: " + className + " for key: " + key);
+			headers.put(key, value);
+		}
+	}
+
 	private void populateJsonValueHeader(Header header, String requestedType, Map<String, Object> headers) {
 		Class<?> type = Object.class;
 		boolean trusted = false;
 		try {
 			trusted = trusted(requestedType);
 			if (trusted) {
-				type = ClassUtils.forName(requestedType, null);
+				type = resolveType(requestedType);
 			}
 		}
 		catch (Exception e) {
@@ -344,15 +531,19 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 	}
 
 	private Object decodeValue(Header h, Class<?> type) throws IOException, LinkageError {
+		return decodeValue(h.value(), 0, h.value().length, type);
+	}
+
+	private Object decodeValue(byte[] bytes, int offset, int length, Class<?> type) throws IOException, LinkageError {
 		ObjectMapper headerObjectMapper = getObjectMapper();
-		Object value = headerObjectMapper.readValue(h.value(), type);
+		Object value = headerObjectMapper.readValue(bytes, offset, length, type);
 		if (type.equals(NonTrustedHeaderType.class)) {
 			// Upstream NTHT propagated; may be trusted here...
 			NonTrustedHeaderType nth = (NonTrustedHeaderType) value;
 			if (trusted(nth.getUntrustedType())) {
 				try {
 					value = headerObjectMapper.readValue(nth.getHeaderValue(),
-							ClassUtils.forName(nth.getUntrustedType(), null));
+							resolveType(nth.getUntrustedType()));
 				}
 				catch (Exception e) {
 					logger.error(e, () -> "Could not decode header: " + nth);
@@ -362,23 +553,42 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		return value;
 	}
 
+	private Class<?> resolveType(String typeName) throws ClassNotFoundException, LinkageError {
+		Class<?> type = this.resolvedTypes.get(typeName);
+		if (type == null) {
+			type = ClassUtils.forName(typeName, null);
+			cache(this.resolvedTypes, typeName, type);
+		}
+		return type;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Nullable
 	private Map<String, String> decodeJsonTypes(Headers source) {
 		Map<String, String> types = null;
 		Header jsonTypes = source.lastHeader(JSON_TYPES);
 		if (jsonTypes != null) {
-			ObjectMapper headerObjectMapper = getObjectMapper();
-			try {
-				types = headerObjectMapper.readValue(jsonTypes.value(), Map.class);
-			}
-			catch (IOException e) {
-				logger.error(e, () -> "Could not decode json types: " + new String(jsonTypes.value()));
+			types = this.decodedJsonTypes.get(ByteBuffer.wrap(jsonTypes.value()));
+			if (types == null) {
+				ObjectMapper headerObjectMapper = getObjectMapper();
+				try {
+					types = Collections.unmodifiableMap(headerObjectMapper.readValue(jsonTypes.value(), Map.class));
+					cache(this.decodedJsonTypes, ByteBuffer.wrap(jsonTypes.value().clone()), types);
+				}
+				catch (IOException e) {
+					logger.error(e, () -> "Could not decode json types: " + new String(jsonTypes.value()));
+				}
 			}
 		}
 		return types;
 	}
 
+	private static <K, V> void cache(Map<K, V> cache, K key, V value) {
+		if (cache.size() < CACHE_LIMIT) {
+			cache.putIfAbsent(key, value);
+		}
+	}
+
 	protected boolean trusted(String requestedType) {
 		if (requestedType.equals(NonTrustedHeaderType.class.getName())) {
 			return true;
@@ -407,6 +617,7 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 	 */
 	public static String[] addNeverHeaderPatterns(List<String> patterns) {
 		List<String> patternsToUse = new LinkedList<>(patterns);
+		patternsToUse.add(0, NEVER_LAZY_HEADERS);
 		patternsToUse.add(0, NEVER_NATIVE_HEADERS_PRESENT);
 		patternsToUse.add(0, NEVER_DELIVERY_ATTEMPT);
 		patternsToUse.add(0, NEVER_TIMESTAMP);
@@ -424,6 +635,7 @@ public class BinderHeaderMapper extends AbstractKafkaHeaderMapper {
 		headers.remove(MessageHeaders.TIMESTAMP);
 		headers.remove(IntegrationMessageHeaderAccessor.DELIVERY_ATTEMPT);
 		headers.remove(BinderHeaders.NATIVE_HEADERS_PRESENT);
+		headers.remove(LAZY_HEADERS);
 	}
 
 	/**
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.RecoveringBatchErrorHandler;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * A batch listener that identifies the record that fails a batch, so that the
+ * {@link RecoveringBatchErrorHandler} of the container commits the records before it,
+ * retries or recovers it alone, and redelivers the records after it.
+ * <p>
+ * When the listener does not identify the failed record itself, by throwing a
+ * {@link BatchListenerFailedException}, the batch is bisected: the halves of the failed
+ * part are handed to the listener again until the failure is narrowed down to a single
+ * record. The records of the halves that succeed are therefore processed twice, as when
+ * a batch is redelivered. The failed record is handed to the listener alone when it is
+ * redelivered, so that the batches that contain it are not bisected again while it is
+ * retried.
+ * <p>
+ * Used only when the {@code isolatePoisonRecords} consumer property is enabled, with
+ * {@code autoCommitOffset} and without transactions.
+ *
+ * @since 3.1
+ */
+final class BisectingBatchListener implements BatchAcknowledgingConsumerAwareMessageListener<Object, Object> {
+
+	private static final Log logger = LogFactory.getLog(BisectingBatchListener.class);
+
+	private final BatchAcknowledgingConsumerAwareMessageListener<Object, Object> delegate;
+
+	/*
+	 * The offset of the last failed record of each partition.
+	 */
+	private final Map<TopicPartition, Long> failed = new ConcurrentHashMap<>();
+
+	@SuppressWarnings("unchecked")
+	BisectingBatchListener(Object delegate) {
+		Assert.isInstanceOf(BatchAcknowledgingConsumerAwareMessageListener.class, delegate,
+				"Poison record isolation requires a batch listener");
+		this.delegate = (BatchAcknowledgingConsumerAwareMessageListener<Object, Object>) delegate;
+	}
+
+	@Override
+	public void onMessage(List<ConsumerRecord<Object, Object>> records, @Nullable Acknowledgment acknowledgment,
+			Consumer<?, ?> consumer) {
+
+		int from = 0;
+		int retried = this.failed.isEmpty() ? -1 : indexOfFailed(records);
+		if (retried >= 0) {
+			if (retried > 0) {
+				process(records, 0, retried, acknowledgment, consumer);
+			}
+			process(records, retried, retried + 1, acknowledgment, consumer);
+			from = retried + 1;
+		}
+		if (from < records.size()) {
+			process(records, from, records.size(), acknowledgment, consumer);
+		}
+	}
+
+	private int indexOfFailed(List<ConsumerRecord<Object, Object>> records) {
+		for (int i = 0; i < records.size(); i++) {
+			ConsumerRecord<Object, Object> record = records.get(i);
+			TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+			Long offset = this.failed.get(topicPartition);
+			if (offset != null && offset <= record.offset()) {
+				// the failed record is redelivered, or was recovered
+				this.failed.remove(topicPartition);
+				if (offset == record.offset()) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Hand records to the listener; when it fails, bisect the records until a single
+	 * record fails, and throw a {@link BatchListenerFailedException} with its index.
+	 */
+	private void process(List<ConsumerRecord<Object, Object>> records, int from, int to,
+			@Nullable Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+
+		RuntimeException failure = invoke(records, from, to, acknowledgment, consumer);
+		int start = from;
+		int end = to;
+		// the records before start are processed, and the records from start to end fail
+		while (failure != null) {
+			if (end - start == 1) {
+				ConsumerRecord<Object, Object> record = records.get(start);
+				this.failed.put(new TopicPartition(record.topic(), record.partition()), record.offset());
+				throw new BatchListenerFailedException("Failed to process " + record.topic() + "-"
+						+ record.partition() + "@" + record.offset(), failure, start);
+			}
+			int middle = (start + end) >>> 1;
+			RuntimeException halfFailure = invoke(records, start, middle, acknowledgment, consumer);
+			if (halfFailure != null) {
+				end = middle;
+			}
+			else {
+				start = middle;
+				halfFailure = invoke(records, start, end, acknowledgment, consumer);
+				if (halfFailure == null) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("The failure did not recur when the batch was bisected", failure);
+					}
+					start = end;
+					end = to;
+					halfFailure = start < end ? invoke(records, start, end, acknowledgment, consumer) : null;
+				}
+			}
+			failure = halfFailure;
+		}
+	}
+
+	@Nullable
+	private RuntimeException invoke(List<ConsumerRecord<Object, Object>> records, int from, int to,
+			@Nullable Acknowledgment acknowledgment, Consumer<?, ?> consumer) {
+
+		try {
+			this.delegate.onMessage(from == 0 && to == records.size() ? records : records.subList(from, to),
+					acknowledgment, consumer);
+			return null;
+		}
+		catch (RuntimeException ex) {
+			BatchListenerFailedException identified = batchListenerFailedException(ex);
+			if (identified == null) {
+				return ex;
+			}
+			if (from == 0 || identified.getRecord() != null) {
+				throw ex;
+			}
+			// the index is relative to the records handed to the listener
+			throw new BatchListenerFailedException(identified.getMessage(), ex, from + identified.getIndex());
+		}
+	}
+
+	@Nullable
+	private static BatchListenerFailedException batchListenerFailedException(Throwable exception) {
+		Throwable cause = exception;
+		while (cause != null && !(cause instanceof BatchListenerFailedException)) {
+			cause = cause.getCause() != cause ? cause.getCause() : null;
+		}
+		return (BatchListenerFailedException) cause;
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+
+import org.springframework.kafka.support.KafkaHeaderMapper;
+
+/**
+ * The records of a batch as parallel arrays, one element per record in the order the
+ * records were polled: the payload of the messages of the consumer bindings with
+ * {@code columnarBatch} enabled.
+ * <p>
+ * The arrays are not copied: they must not be modified. The keys and values are the
+ * ones deserialized by the consumer, {@code byte[]} unless native decoding is used. The
+ * headers of a record are mapped only when they are first requested. A batch is not
+ * meant to be shared between threads.
+ *
+ * @since 3.1
+ */
+public final class ColumnarBatch {
+
+	private final String[] topics;
+
+	private final int[] partitions;
+
+	private final long[] offsets;
+
+	private final long[] timestamps;
+
+	private final Object[] keys;
+
+	private final Object[] values;
+
+	private final Headers[] rawHeaders;
+
+	private final KafkaHeaderMapper headerMapper;
+
+	private Map<String, Object>[] headers;
+
+	ColumnarBatch(List<? extends ConsumerRecord<?, ?>> records, KafkaHeaderMapper headerMapper) {
+		int size = records.size();
+		this.topics = new String[size];
+		this.partitions = new int[size];
+		this.offsets = new long[size];
+		this.timestamps = new long[size];
+		this.keys = new Object[size];
+		this.values = new Object[size];
+		this.rawHeaders = new Headers[size];
+		int i = 0;
+		for (ConsumerRecord<?, ?> record : records) {
+			this.topics[i] = record.topic();
+			this.partitions[i] = record.partition();
+			this.offsets[i] = record.offset();
+			this.timestamps[i] = record.timestamp();
+			this.keys[i] = record.key();
+			this.values[i] = record.value();
+			this.rawHeaders[i] = record.headers();
+			i++;
+		}
+		this.headerMapper = headerMapper;
+	}
+
+	/**
+	 * @return the number of records.
+	 */
+	public int size() {
+		return this.offsets.length;
+	}
+
+	/**
+	 * @return the topics of the records.
+	 */
+	public String[] getTopics() {
+		return this.topics;
+	}
+
+	/**
+	 * @return the partitions of the records.
+	 */
+	public int[] getPartitions() {
+		return this.partitions;
+	}
+
+	/**
+	 * @return the offsets of the records.
+	 */
+	public long[] getOffsets() {
+		return this.offsets;
+	}
+
+	/**
+	 * @return the timestamps of the records.
+	 */
+	public long[] getTimestamps() {
+		return this.timestamps;
+	}
+
+	/**
+	 * @return the keys of the records.
+	 */
+	public Object[] getKeys() {
+		return this.keys;
+	}
+
+	/**
+	 * @return the values of the records.
+	 */
+	public Object[] getValues() {
+		return this.values;
+	}
+
+	/**
+	 * Return the Kafka headers of a record, as they were received.
+	 * @param index the index of the record.
+	 * @return the headers.
+	 */
+	public Headers getRawHeaders(int index) {
+		return this.rawHeaders[index];
+	}
+
+	/**
+	 * Return the headers of a record: a read only view that maps each header with the
+	 * header mapper of the binding when it is first requested.
+	 * @param index the index of the record.
+	 * @return the headers.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Map<String, Object> getHeaders(int index) {
+		if (this.headers == null) {
+			this.headers = new Map[this.offsets.length];
+		}
+		Map<String, Object> headers = this.headers[index];
+		if (headers == null) {
+			headers = new LazyHeaders(this.rawHeaders[index], this.headerMapper);
+			this.headers[index] = headers;
+		}
+		return headers;
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarBatch [size=" + size() + "]";
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.converter.BatchMessageConverter;
+import org.springframework.kafka.support.converter.MessageConverter;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * Converts the records of a batch to a single message whose payload is a
+ * {@link ColumnarBatch}, without creating a message, nor mapping the headers, for each
+ * record.
+ *
+ * @since 3.1
+ */
+final class ColumnarBatchMessageConverter implements BatchMessageConverter {
+
+	private final KafkaHeaderMapper headerMapper;
+
+	ColumnarBatchMessageConverter(KafkaHeaderMapper headerMapper) {
+		this.headerMapper = headerMapper;
+	}
+
+	@Override
+	public Message<?> toMessage(List<ConsumerRecord<?, ?>> records, @Nullable Acknowledgment acknowledgment,
+			Consumer<?, ?> consumer, Type payloadType) {
+
+		MessageBuilder<ColumnarBatch> builder = MessageBuilder
+				.withPayload(new ColumnarBatch(records, this.headerMapper))
+				.setHeader(KafkaHeaders.CONSUMER, consumer);
+		if (acknowledgment != null) {
+			builder.setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment);
+		}
+		String groupId = MessageConverter.getGroupId();
+		if (groupId != null) {
+			builder.setHeader(KafkaHeaders.GROUP_ID, groupId);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public List<ProducerRecord<?, ?>> fromMessage(Message<?> message, String defaultTopic) {
+		throw new UnsupportedOperationException("Columnar batches are only received");
+	}
+
+}
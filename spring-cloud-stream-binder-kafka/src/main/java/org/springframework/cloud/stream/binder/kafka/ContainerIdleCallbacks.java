@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerProperties;
+
+/**
+ * Invokes a callback on the consumer threads of a container when they receive no
+ * records, so that the work deferred to the consumer threads is done when the container
+ * is idle too.
+ *
+ * @since 3.1
+ */
+final class ContainerIdleCallbacks {
+
+	private ContainerIdleCallbacks() {
+	}
+
+	/**
+	 * Invoke a callback on the consumer thread when it has received no records for an
+	 * interval, and then at that interval; the container idle event interval and the poll
+	 * timeout are reduced to the interval accordingly, and the container idle events are
+	 * still published at the container idle event interval. Can be called more than once
+	 * for a container.
+	 * @param container the container.
+	 * @param interval the interval, in milliseconds.
+	 * @param callback the callback, receiving the consumer.
+	 */
+	static void register(AbstractMessageListenerContainer<?, ?> container, long interval,
+			java.util.function.Consumer<Consumer<?, ?>> callback) {
+
+		ContainerProperties containerProperties = container.getContainerProperties();
+		long idleEventInterval = containerProperties.getIdleEventInterval();
+		long checkInterval = Math.min(idleEventInterval, interval);
+		containerProperties.setIdleEventInterval(checkInterval);
+		containerProperties.setPollTimeout(Math.min(containerProperties.getPollTimeout(), checkInterval));
+		ApplicationEventPublisher publisher = container.getApplicationEventPublisher();
+		container.setApplicationEventPublisher(event -> {
+			if (event instanceof ListenerContainerIdleEvent) {
+				ListenerContainerIdleEvent idleEvent = (ListenerContainerIdleEvent) event;
+				callback.accept(idleEvent.getConsumer());
+				long idleTime = idleEvent.getIdleTime();
+				if (idleTime / idleEventInterval == (idleTime - checkInterval) / idleEventInterval) {
+					return;
+				}
+			}
+			if (publisher != null) {
+				publisher.publishEvent(event);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaExtendedBindingProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaTopicProperties;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.cloud.stream.binder.kafka.provisioning.TopicProvisioningRequest;
+import org.springframework.cloud.stream.binder.kafka.provisioning.TopicProvisioningResult;
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaTopicUtils;
+import org.springframework.cloud.stream.binding.Bindable;
+import org.springframework.cloud.stream.config.BinderProperties;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * Provisions the topics of all the Kafka bindings of the application, before the
+ * bindings are created one by one by the binding service; the provisioning of each
+ * binding then finds its topics, and their descriptions in the metadata cache of the
+ * {@link KafkaTopicProvisioner}. The topics are either provisioned together, with
+ * batched requests, or binding by binding, concurrently.
+ * <p>
+ * The bindings are the inputs and outputs of the {@link Bindable} beans, which the
+ * binding service binds, and their properties are resolved by the
+ * {@link BindingServiceProperties} bean, as the binding service does, defaults included.
+ * The topics of the bindings created later, such as dynamic destinations, and the topics
+ * that fail to be provisioned here, are provisioned with their binding; so are all the
+ * topics when these beans are not visible from the context of the binder.
+ * <p>
+ * When more than one Kafka binder is configured, a binder cannot tell which of the
+ * declared bindings are its own, since it does not know its configuration name; no
+ * binding is then provisioned here, rather than the bindings of another binder being
+ * provisioned on the wrong cluster.
+ *
+ * @since 3.1
+ */
+final class DeclaredTopicsProvisioner {
+
+	private static final Log logger = LogFactory.getLog(DeclaredTopicsProvisioner.class);
+
+	private static final String KAFKA = "kafka";
+
+	private final KafkaTopicProvisioner provisioner;
+
+	private final KafkaExtendedBindingProperties extendedBindingProperties;
+
+	DeclaredTopicsProvisioner(KafkaTopicProvisioner provisioner,
+			KafkaExtendedBindingProperties extendedBindingProperties) {
+		this.provisioner = provisioner;
+		this.extendedBindingProperties = extendedBindingProperties;
+	}
+
+	/**
+	 * Provision the topics of the bindings of an application context, with batched
+	 * requests: the binding destinations first, then their dead letter and retry topics,
+	 * so that these can have as many partitions as their destinations.
+	 * @param applicationContext the application context.
+	 * @return the results, by topic.
+	 */
+	Map<String, TopicProvisioningResult> provision(ApplicationContext applicationContext) {
+		List<TopicProvisioningRequest> destinations = new ArrayList<>();
+		List<DeclaredBinding> dependentBindings = new ArrayList<>();
+		for (DeclaredBinding binding : declaredBindings(applicationContext)) {
+			for (String topic : binding.topics()) {
+				destinations.add(new TopicProvisioningRequest(topic, binding.partitionCount,
+						binding.tolerateLowerPartitionsOnBroker(), binding.topicProperties()));
+			}
+			if (binding.hasDlq() || binding.hasRetryTopics()) {
+				dependentBindings.add(binding);
+			}
+		}
+		Map<String, TopicProvisioningResult> results = new LinkedHashMap<>(
+				this.provisioner.provisionTopics(destinations));
+		List<TopicProvisioningRequest> dependents = new ArrayList<>();
+		for (DeclaredBinding binding : dependentBindings) {
+			KafkaConsumerProperties extension = binding.consumer.getExtension();
+			for (String topic : binding.topics()) {
+				TopicProvisioningResult destination = results.get(topic);
+				if (destination == null
+						|| destination.getStatus() == TopicProvisioningResult.Status.FAILED) {
+					continue;
+				}
+				if (binding.hasDlq()) {
+					int dlqPartitions = extension.getDlqPartitions() != null
+							? extension.getDlqPartitions()
+							: destination.getPartitions();
+					dependents.add(new TopicProvisioningRequest(binding.dlqName(topic), dlqPartitions,
+							extension.isAutoRebalanceEnabled(), extension.getTopic()));
+					if (StringUtils.hasText(extension.getDlqStackTraceTopic())) {
+						dependents.add(new TopicProvisioningRequest(extension.getDlqStackTraceTopic(), 1,
+								extension.isAutoRebalanceEnabled(),
+								KafkaTopicUtils.stackTraceTopicProperties(extension)));
+					}
+				}
+				for (Duration delay : extension.getRetryTopicDelays()) {
+					dependents.add(new TopicProvisioningRequest(
+							KafkaTopicUtils.retryTopicName(topic, binding.group, delay),
+							destination.getPartitions(), extension.isAutoRebalanceEnabled(),
+							extension.getTopic()));
+				}
+			}
+		}
+		results.putAll(this.provisioner.provisionTopics(dependents));
+		if (logger.isInfoEnabled()) {
+			logger.info("Provisioned the topics of the declared bindings: " + results.values());
+		}
+		return results;
+	}
+
+	/**
+	 * Provision the topics of the bindings of an application context, and wait for
+	 * their partitions to be known, binding by binding, with at most {@code concurrency}
+	 * bindings prepared at the same time; return once all the bindings are prepared. A
+	 * binding that cannot be prepared is logged and left to be provisioned when it is
+	 * bound. Only the broker round trips are parallelised: the calling thread blocks
+	 * meanwhile, and the bindings are still created sequentially by the binding service.
+	 * @param applicationContext the application context.
+	 * @param concurrency the maximum number of bindings prepared concurrently.
+	 * @return the names of the bindings that were prepared.
+	 */
+	List<String> prepare(ApplicationContext applicationContext, int concurrency) {
+		List<DeclaredBinding> bindings = declaredBindings(applicationContext);
+		List<String> prepared = new ArrayList<>();
+		if (bindings.isEmpty()) {
+			return prepared;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(concurrency, bindings.size()),
+				new CustomizableThreadFactory("kafka-binding-preparation-"));
+		try {
+			Map<DeclaredBinding, Future<?>> futures = new LinkedHashMap<>();
+			for (DeclaredBinding binding : bindings) {
+				futures.put(binding, executor.submit(() -> prepare(binding)));
+			}
+			Set<String> failed = new HashSet<>();
+			for (Map.Entry<DeclaredBinding, Future<?>> future : futures.entrySet()) {
+				try {
+					future.getValue().get();
+				}
+				catch (ExecutionException ex) {
+					failed.add(future.getKey().name);
+					logger.warn("Failed to prepare binding " + future.getKey().name
+							+ "; it will be provisioned when bound: " + ex.getCause());
+					if (logger.isDebugEnabled()) {
+						logger.debug("Failed to prepare binding " + future.getKey().name, ex.getCause());
+					}
+				}
+			}
+			for (DeclaredBinding binding : bindings) {
+				if (!failed.contains(binding.name) && !prepared.contains(binding.name)) {
+					prepared.add(binding.name);
+				}
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Prepared the declared bindings: " + prepared);
+		}
+		return prepared;
+	}
+
+	private void prepare(DeclaredBinding binding) {
+		if (binding.consumer != null) {
+			this.provisioner.provisionConsumerDestination(binding.destination, binding.group,
+					binding.consumer);
+		}
+		else {
+			this.provisioner.provisionProducerDestination(binding.destination, binding.producer);
+		}
+		for (String topic : binding.topics()) {
+			this.provisioner.getPartitionsForTopic(binding.partitionCount,
+					binding.tolerateLowerPartitionsOnBroker(),
+					() -> this.provisioner.getPartitionInfos(topic), topic);
+		}
+	}
+
+	private List<DeclaredBinding> declaredBindings(ApplicationContext applicationContext) {
+		List<DeclaredBinding> declaredBindings = new ArrayList<>();
+		BindingServiceProperties bindingServiceProperties = applicationContext
+				.getBeanProvider(BindingServiceProperties.class).getIfAvailable();
+		if (bindingServiceProperties == null) {
+			return declaredBindings;
+		}
+		if (kafkaBinders(bindingServiceProperties) > 1) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Several Kafka binders are configured; the declared bindings are provisioned "
+						+ "when they are bound");
+			}
+			return declaredBindings;
+		}
+		Set<String> inputs = new LinkedHashSet<>();
+		Set<String> outputs = new LinkedHashSet<>();
+		for (Bindable bindable : BeanFactoryUtils
+				.beansOfTypeIncludingAncestors(applicationContext, Bindable.class).values()) {
+			inputs.addAll(bindable.getInputs());
+			outputs.addAll(bindable.getOutputs());
+		}
+		for (String name : inputs) {
+			if (!isKafkaBinding(name, bindingServiceProperties)) {
+				continue;
+			}
+			ExtendedConsumerProperties<KafkaConsumerProperties> consumer =
+					new ExtendedConsumerProperties<>(
+							this.extendedBindingProperties.getExtendedConsumerProperties(name));
+			BeanUtils.copyProperties(bindingServiceProperties.getConsumerProperties(name), consumer);
+			if (consumer.getExtension().isDestinationIsPattern()) {
+				continue;
+			}
+			String destination = bindingServiceProperties.getBindingDestination(name);
+			String group = bindingServiceProperties.getGroup(name);
+			if (consumer.isMultiplex()) {
+				declaredBindings.add(new DeclaredBinding(name, destination, group, consumer, null));
+			}
+			else {
+				// as the binding service, one binding for each destination
+				for (String target : StringUtils.commaDelimitedListToStringArray(destination)) {
+					declaredBindings.add(new DeclaredBinding(name, target, group, consumer, null));
+				}
+			}
+		}
+		for (String name : outputs) {
+			if (!isKafkaBinding(name, bindingServiceProperties)) {
+				continue;
+			}
+			ExtendedProducerProperties<KafkaProducerProperties> producer =
+					new ExtendedProducerProperties<>(
+							this.extendedBindingProperties.getExtendedProducerProperties(name));
+			BeanUtils.copyProperties(bindingServiceProperties.getProducerProperties(name), producer);
+			declaredBindings.add(new DeclaredBinding(name,
+					bindingServiceProperties.getBindingDestination(name), null, null, producer));
+		}
+		return declaredBindings;
+	}
+
+	private static boolean isKafkaBinding(String name,
+			BindingServiceProperties bindingServiceProperties) {
+		String binder = bindingServiceProperties.getBinder(name);
+		if (binder == null) {
+			return true;
+		}
+		return KAFKA.equals(binderType(binder, bindingServiceProperties.getBinders().get(binder)));
+	}
+
+	private static long kafkaBinders(BindingServiceProperties bindingServiceProperties) {
+		return bindingServiceProperties.getBinders().entrySet().stream()
+				.filter(binder -> KAFKA.equals(binderType(binder.getKey(), binder.getValue())))
+				.count();
+	}
+
+	private static String binderType(String binder, @Nullable BinderProperties binderProperties) {
+		return binderProperties != null && binderProperties.getType() != null
+				? binderProperties.getType()
+				: binder;
+	}
+
+	/**
+	 * A consumer or producer binding of the application, for a single destination unless
+	 * it is multiplexed.
+	 */
+	private static final class DeclaredBinding {
+
+		private final String name;
+
+		private final String destination;
+
+		private final String group;
+
+		private final ExtendedConsumerProperties<KafkaConsumerProperties> consumer;
+
+		private final ExtendedProducerProperties<KafkaProducerProperties> producer;
+
+		private final int partitionCount;
+
+		DeclaredBinding(String name, String destination, @Nullable String group,
+				@Nullable ExtendedConsumerProperties<KafkaConsumerProperties> consumer,
+				@Nullable ExtendedProducerProperties<KafkaProducerProperties> producer) {
+			this.name = name;
+			this.destination = destination;
+			this.group = group;
+			this.consumer = consumer;
+			this.producer = producer;
+			this.partitionCount = consumer != null
+					? consumer.getInstanceCount() * consumer.getConcurrency()
+					: producer.getPartitionCount();
+		}
+
+		String[] topics() {
+			if (this.consumer != null && this.consumer.isMultiplex()) {
+				return StringUtils.trimArrayElements(
+						StringUtils.commaDelimitedListToStringArray(this.destination));
+			}
+			return new String[] { this.destination };
+		}
+
+		boolean tolerateLowerPartitionsOnBroker() {
+			return this.consumer != null && this.consumer.getExtension().isAutoRebalanceEnabled();
+		}
+
+		KafkaTopicProperties topicProperties() {
+			return this.consumer != null
+					? this.consumer.getExtension().getTopic()
+					: this.producer.getExtension().getTopic();
+		}
+
+		boolean hasDlq() {
+			return this.consumer != null && this.consumer.getExtension().isEnableDlq()
+					&& StringUtils.hasText(this.group);
+		}
+
+		boolean hasRetryTopics() {
+			return this.consumer != null
+					&& !this.consumer.getExtension().getRetryTopicDelays().isEmpty()
+					&& StringUtils.hasText(this.group);
+		}
+
+		String dlqName(String topic) {
+			return StringUtils.hasText(this.consumer.getExtension().getDlqName())
+					? this.consumer.getExtension().getDlqName()
+					: "error." + topic + "." + this.group;
+		}
+
+	}
+
+}
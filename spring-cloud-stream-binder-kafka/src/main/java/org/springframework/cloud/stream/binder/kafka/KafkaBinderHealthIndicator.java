@@ -16,7 +16,6 @@
 
 package org.springframework.cloud.stream.binder.kafka;
 
-import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -28,17 +27,21 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.common.PartitionInfo;
 
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * Health indicator for Kafka.
+ * <p>
+ * The partitions in use are checked with the {@link KafkaTopicProvisioner} of the
+ * binder, whose {@link org.apache.kafka.clients.admin.AdminClient} and topic
+ * descriptions are shared with the other binder components.
  *
  * @author Ilayaperumal Gopinathan
  * @author Marius Bogoevici
@@ -57,16 +60,23 @@ public class KafkaBinderHealthIndicator implements HealthIndicator, DisposableBe
 
 	private final KafkaMessageChannelBinder binder;
 
-	private final ConsumerFactory<?, ?> consumerFactory;
-
 	private int timeout = DEFAULT_TIMEOUT;
 
-	private Consumer<?, ?> metadataConsumer;
+	public KafkaBinderHealthIndicator(KafkaMessageChannelBinder binder) {
+		this.binder = binder;
+	}
 
+	/**
+	 * Create an instance.
+	 * @param binder the binder.
+	 * @param consumerFactory not used.
+	 * @deprecated the metadata is now retrieved with the binder's provisioner; use
+	 * {@link #KafkaBinderHealthIndicator(KafkaMessageChannelBinder)}.
+	 */
+	@Deprecated
 	public KafkaBinderHealthIndicator(KafkaMessageChannelBinder binder,
 			ConsumerFactory<?, ?> consumerFactory) {
-		this.binder = binder;
-		this.consumerFactory = consumerFactory;
+		this(binder);
 	}
 
 	/**
@@ -99,57 +109,50 @@ public class KafkaBinderHealthIndicator implements HealthIndicator, DisposableBe
 		}
 	}
 
-	private synchronized  Consumer<?, ?> initMetadataConsumer() {
-		if (this.metadataConsumer == null) {
-			this.metadataConsumer = this.consumerFactory.createConsumer();
-		}
-		return this.metadataConsumer;
-	}
-
 	private Health buildHealthStatus() {
 		try {
-			initMetadataConsumer();
-			synchronized (this.metadataConsumer) {
-				Set<String> downMessages = new HashSet<>();
-				final Map<String, KafkaMessageChannelBinder.TopicInformation> topicsInUse = KafkaBinderHealthIndicator.this.binder
-						.getTopicsInUse();
-				if (topicsInUse.isEmpty()) {
-					try {
-						this.metadataConsumer.listTopics(Duration.ofSeconds(this.timeout));
-					}
-					catch (Exception e) {
-						return Health.down().withDetail("No topic information available",
-								"Kafka broker is not reachable").build();
-					}
-					return Health.unknown().withDetail("No bindings found",
-							"Kafka binder may not be bound to destinations on the broker").build();
+			KafkaTopicProvisioner provisioner = this.binder.getTopicProvisioner();
+			Set<String> downMessages = new HashSet<>();
+			final Map<String, KafkaMessageChannelBinder.TopicInformation> topicsInUse = KafkaBinderHealthIndicator.this.binder
+					.getTopicsInUse();
+			if (topicsInUse.isEmpty()) {
+				try {
+					provisioner.getAdminClient().listTopics().names().get(this.timeout, TimeUnit.SECONDS);
+				}
+				catch (Exception e) {
+					return Health.down().withDetail("No topic information available",
+							"Kafka broker is not reachable").build();
 				}
-				else {
-					for (String topic : topicsInUse.keySet()) {
-						KafkaMessageChannelBinder.TopicInformation topicInformation = topicsInUse
-								.get(topic);
-						if (!topicInformation.isTopicPattern()) {
-							List<PartitionInfo> partitionInfos = this.metadataConsumer
-									.partitionsFor(topic);
-							for (PartitionInfo partitionInfo : partitionInfos) {
-								if (topicInformation.getPartitionInfos()
-										.contains(partitionInfo)
-										&& partitionInfo.leader().id() == -1) {
-									downMessages.add(partitionInfo.toString());
-								}
+				return Health.unknown().withDetail("No bindings found",
+						"Kafka binder may not be bound to destinations on the broker").build();
+			}
+			else {
+				for (String topic : topicsInUse.keySet()) {
+					KafkaMessageChannelBinder.TopicInformation topicInformation = topicsInUse
+							.get(topic);
+					if (!topicInformation.isTopicPattern()) {
+						Set<Integer> partitionsInUse = new HashSet<>();
+						for (PartitionInfo partitionInfo : topicInformation.getPartitionInfos()) {
+							partitionsInUse.add(partitionInfo.partition());
+						}
+						List<PartitionInfo> partitionInfos = provisioner.getPartitionInfos(topic);
+						for (PartitionInfo partitionInfo : partitionInfos) {
+							if (partitionsInUse.contains(partitionInfo.partition())
+									&& partitionInfo.leader().id() == -1) {
+								downMessages.add(partitionInfo.toString());
 							}
 						}
 					}
 				}
-				if (downMessages.isEmpty()) {
-					return Health.up().build();
-				}
-				else {
-					return Health.down()
-							.withDetail("Following partitions in use have no leaders: ",
-									downMessages.toString())
-							.build();
-				}
+			}
+			if (downMessages.isEmpty()) {
+				return Health.up().build();
+			}
+			else {
+				return Health.down()
+						.withDetail("Following partitions in use have no leaders: ",
+								downMessages.toString())
+						.build();
 			}
 		}
 		catch (Exception ex) {
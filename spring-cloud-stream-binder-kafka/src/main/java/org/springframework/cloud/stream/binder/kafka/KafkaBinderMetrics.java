@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2018 the original author or authors.
+ * Copyright 2016-2020 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,40 +16,60 @@
 
 package org.springframework.cloud.stream.binder.kafka;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.kafka.KafkaClientMetrics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.kafka.clients.consumer.Consumer;
-import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.TopicPartitionInfo;
 
 import org.springframework.cloud.stream.binder.BindingCreatedEvent;
+import org.springframework.cloud.stream.binder.kafka.config.ClientFactoryCustomizer;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.kafka.core.ConsumerFactory;
-import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.lang.Nullable;
-import org.springframework.util.ObjectUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
 
 /**
  * Metrics for Kafka binder.
+ * <p>
+ * The consumer lag of all the consumer bindings is collected in the background, on a
+ * single thread, using batched requests of the {@link AdminClient} of the binder's
+ * {@link KafkaTopicProvisioner}, whose topic descriptions it shares; the gauges only
+ * read the most recently collected values.
+ * <p>
+ * Besides the lag itself, the consumption rate (committed messages per second between
+ * two successive samples) and the estimated time to drain the lag at that rate are
+ * exposed for each topic, as well as, optionally, the lag of each partition.
+ * <p>
+ * For consumer bindings with a DLQ, the number of records being sent to the DLQ, the
+ * time taken to send them and the number of failed sends are exposed too.
  *
  * @author Henryk Konsek
  * @author Soby Chacko
@@ -60,48 +80,143 @@ import org.springframework.util.ObjectUtils;
  * @author Gary Russell
  */
 public class KafkaBinderMetrics
-		implements MeterBinder, ApplicationListener<BindingCreatedEvent> {
+		implements MeterBinder, ApplicationListener<BindingCreatedEvent>, SmartLifecycle {
 
 	private static final int DEFAULT_TIMEOUT = 60;
 
+	private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(10);
+
 	private static final Log LOG = LogFactory.getLog(KafkaBinderMetrics.class);
 
 	static final String METRIC_NAME = "spring.cloud.stream.binder.kafka.offset";
 
+	static final String STALENESS_METRIC_NAME = METRIC_NAME + ".staleness";
+
+	static final String PARTITION_METRIC_NAME = METRIC_NAME + ".partition";
+
+	static final String CONSUMPTION_RATE_METRIC_NAME = METRIC_NAME + ".consumption.rate";
+
+	static final String TIME_TO_DRAIN_METRIC_NAME = METRIC_NAME + ".time.to.drain";
+
+	static final String DLQ_PENDING_METRIC_NAME = "spring.cloud.stream.binder.kafka.dlq.pending";
+
+	static final String DLQ_SEND_METRIC_NAME = "spring.cloud.stream.binder.kafka.dlq.send";
+
+	static final String DLQ_SEND_FAILURES_METRIC_NAME = DLQ_SEND_METRIC_NAME + ".failures";
+
+	static final String PARTITION_PAUSED_METRIC_NAME = "spring.cloud.stream.binder.kafka.partition.paused";
+
+	static final String PENDING_ACKS_METRIC_NAME = "spring.cloud.stream.binder.kafka.acks.pending";
+
+	static final String FILTERED_RECORDS_METRIC_NAME = "spring.cloud.stream.binder.kafka.records.filtered";
+
+	static final String DELIVERED_RECORDS_METRIC_NAME = "spring.cloud.stream.binder.kafka.records.delivered";
+
+	static final String RECORD_AGE_METRIC_NAME = "spring.cloud.stream.binder.kafka.records.age";
+
+	static final String RECORD_HANDLING_METRIC_NAME = "spring.cloud.stream.binder.kafka.records.handling";
+
+	static final String RECORD_ACK_METRIC_NAME = "spring.cloud.stream.binder.kafka.records.ack";
+
 	private final KafkaMessageChannelBinder binder;
 
 	private final KafkaBinderConfigurationProperties binderConfigurationProperties;
 
-	private ConsumerFactory<?, ?> defaultConsumerFactory;
-
 	private final MeterRegistry meterRegistry;
 
-	private Map<String, Consumer<?, ?>> metadataConsumers;
+	private final Map<String, ConsumerLag> consumerLags = new ConcurrentHashMap<>();
 
 	private int timeout = DEFAULT_TIMEOUT;
 
+	private Duration refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+	private boolean perPartitionLag;
+
+	private double[] latencyPercentiles = new double[0];
+
+	private boolean latencyPercentileHistogram;
+
+	private KafkaClientMetrics adminClientMetrics;
+
+	private ScheduledExecutorService scheduler;
+
 	public KafkaBinderMetrics(KafkaMessageChannelBinder binder,
 			KafkaBinderConfigurationProperties binderConfigurationProperties,
-			ConsumerFactory<?, ?> defaultConsumerFactory,
 			@Nullable MeterRegistry meterRegistry) {
 
 		this.binder = binder;
 		this.binderConfigurationProperties = binderConfigurationProperties;
-		this.defaultConsumerFactory = defaultConsumerFactory;
 		this.meterRegistry = meterRegistry;
-		this.metadataConsumers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Construct an instance.
+	 * @param binder the binder.
+	 * @param binderConfigurationProperties the binder configuration properties.
+	 * @param defaultConsumerFactory not used.
+	 * @param meterRegistry the meter registry.
+	 * @deprecated the consumer lag is now collected with an {@link AdminClient}; use
+	 * {@link #KafkaBinderMetrics(KafkaMessageChannelBinder, KafkaBinderConfigurationProperties, MeterRegistry)}.
+	 */
+	@Deprecated
+	public KafkaBinderMetrics(KafkaMessageChannelBinder binder,
+			KafkaBinderConfigurationProperties binderConfigurationProperties,
+			ConsumerFactory<?, ?> defaultConsumerFactory,
+			@Nullable MeterRegistry meterRegistry) {
+
+		this(binder, binderConfigurationProperties, meterRegistry);
 	}
 
 	public KafkaBinderMetrics(KafkaMessageChannelBinder binder,
 			KafkaBinderConfigurationProperties binderConfigurationProperties) {
 
-		this(binder, binderConfigurationProperties, null, null);
+		this(binder, binderConfigurationProperties, null);
 	}
 
+	/**
+	 * Set the timeout in seconds for each of the requests used to collect the
+	 * consumer lag.
+	 * @param timeout the timeout - default 60.
+	 */
 	public void setTimeout(int timeout) {
 		this.timeout = timeout;
 	}
 
+	/**
+	 * Set the interval between two collections of the consumer lag.
+	 * @param refreshInterval the interval - default 10 seconds.
+	 */
+	public void setRefreshInterval(Duration refreshInterval) {
+		Assert.isTrue(refreshInterval != null && !refreshInterval.isNegative()
+				&& !refreshInterval.isZero(), "'refreshInterval' must be positive");
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Set to true to register a lag gauge for each partition of the consumer topics,
+	 * in addition to the gauge summing up the lag of all the partitions.
+	 * @param perPartitionLag true to register the per-partition gauges - default false.
+	 */
+	public void setPerPartitionLag(boolean perPartitionLag) {
+		this.perPartitionLag = perPartitionLag;
+	}
+
+	/**
+	 * Set the percentiles published by the record latency timers.
+	 * @param latencyPercentiles the percentiles, such as 0.99 - default none.
+	 */
+	public void setLatencyPercentiles(double... latencyPercentiles) {
+		this.latencyPercentiles = latencyPercentiles != null ? latencyPercentiles : new double[0];
+	}
+
+	/**
+	 * Set to true to publish a percentile histogram with the record latency timers.
+	 * @param latencyPercentileHistogram true to publish the histogram - default false.
+	 */
+	public void setLatencyPercentileHistogram(boolean latencyPercentileHistogram) {
+		this.latencyPercentileHistogram = latencyPercentileHistogram;
+	}
+
 	@Override
 	public void bindTo(MeterRegistry registry) {
 		for (Map.Entry<String, KafkaMessageChannelBinder.TopicInformation> topicInfo : this.binder
@@ -115,86 +230,303 @@ public class KafkaBinderMetrics
 			String group = topicInfo.getValue().getConsumerGroup();
 
 			Gauge.builder(METRIC_NAME, this,
-					(o) -> computeUnconsumedMessages(topic, group)).tag("group", group)
+					(o) -> o.getUnconsumedMessages(topic, group)).tag("group", group)
 					.tag("topic", topic)
 					.description("Unconsumed messages for a particular group and topic")
 					.register(registry);
+			Gauge.builder(STALENESS_METRIC_NAME, this,
+					(o) -> o.getStaleness(topic, group)).tag("group", group)
+					.tag("topic", topic)
+					.description("Seconds elapsed since the unconsumed messages for a "
+							+ "particular group and topic were last collected")
+					.baseUnit("seconds")
+					.register(registry);
+			Gauge.builder(CONSUMPTION_RATE_METRIC_NAME, this,
+					(o) -> o.getConsumptionRate(topic, group)).tag("group", group)
+					.tag("topic", topic)
+					.description("Messages per second committed by a particular group on a topic, "
+							+ "between the two most recent collections of the unconsumed messages")
+					.register(registry);
+			Gauge.builder(TIME_TO_DRAIN_METRIC_NAME, this,
+					(o) -> o.getTimeToDrain(topic, group)).tag("group", group)
+					.tag("topic", topic)
+					.description("Estimated seconds for a particular group to consume the unconsumed "
+							+ "messages of a topic at the current consumption rate")
+					.baseUnit("seconds")
+					.register(registry);
+			if (this.perPartitionLag && !topicInfo.getValue().isTopicPattern()) {
+				for (PartitionInfo partitionInfo : topicInfo.getValue().getPartitionInfos()) {
+					int partition = partitionInfo.partition();
+					Gauge.builder(PARTITION_METRIC_NAME, this,
+							(o) -> o.getUnconsumedMessages(topic, group, partition)).tag("group", group)
+							.tag("topic", topic)
+							.tag("partition", String.valueOf(partition))
+							.description("Unconsumed messages for a particular group and topic partition")
+							.register(registry);
+				}
+			}
+			PartitionPausingErrorHandler pausingErrorHandler = this.binder.getPausingErrorHandlers()
+					.get(topic);
+			if (pausingErrorHandler != null) {
+				for (PartitionInfo partitionInfo : topicInfo.getValue().getPartitionInfos()) {
+					TopicPartition partition = new TopicPartition(topic, partitionInfo.partition());
+					FunctionTimer.builder(PARTITION_PAUSED_METRIC_NAME, pausingErrorHandler,
+							(o) -> o.getPauseCount(partition), (o) -> o.getPausedTime(partition),
+							TimeUnit.MILLISECONDS).tag("group", group)
+							.tag("topic", topic)
+							.tag("partition", String.valueOf(partition.partition()))
+							.description("Pauses of a particular group and topic partition after "
+									+ "failed records, and the time it has been paused")
+							.register(registry);
+				}
+			}
+			OffsetTracker offsetTracker = this.binder.getOffsetTrackers().get(topic);
+			if (offsetTracker != null) {
+				for (PartitionInfo partitionInfo : topicInfo.getValue().getPartitionInfos()) {
+					TopicPartition partition = new TopicPartition(topic, partitionInfo.partition());
+					Gauge.builder(PENDING_ACKS_METRIC_NAME, offsetTracker,
+							(o) -> o.getPendingCount(partition)).tag("group", group)
+							.tag("topic", topic)
+							.tag("partition", String.valueOf(partition.partition()))
+							.description("Records of a particular group and topic partition that are "
+									+ "not acknowledged, and hold back the committed offset")
+							.register(registry);
+				}
+			}
+			RecordHeaderFilter recordFilter = this.binder.getRecordFilters().get(topic);
+			if (recordFilter != null) {
+				FunctionCounter.builder(FILTERED_RECORDS_METRIC_NAME, recordFilter,
+						RecordHeaderFilter::getFilteredCount).tag("group", group)
+						.tag("topic", topic)
+						.description("Records of a particular group and topic discarded by the record filter "
+								+ "before they are converted")
+						.register(registry);
+				FunctionCounter.builder(DELIVERED_RECORDS_METRIC_NAME, recordFilter,
+						RecordHeaderFilter::getDeliveredCount).tag("group", group)
+						.tag("topic", topic)
+						.description("Records of a particular group and topic accepted by the record filter")
+						.register(registry);
+			}
+			RecordLatencies recordLatencies = this.binder.getRecordLatencies().get(topic);
+			if (recordLatencies != null) {
+				Timer age = latencyTimer(RECORD_AGE_METRIC_NAME).tag("group", group)
+						.tag("topic", topic)
+						.description("Time elapsed since the timestamp of the records of a particular group and "
+								+ "topic when they are handed to the binding")
+						.register(registry);
+				Timer handling = latencyTimer(RECORD_HANDLING_METRIC_NAME).tag("group", group)
+						.tag("topic", topic)
+						.description("Time taken by the binding to handle the records, or batches, of a particular "
+								+ "group and topic")
+						.register(registry);
+				Timer ack = latencyTimer(RECORD_ACK_METRIC_NAME).tag("group", group)
+						.tag("topic", topic)
+						.description("Time from the hand-off of the records, or batches, of a particular group and "
+								+ "topic to the binding until they are acknowledged")
+						.register(registry);
+				recordLatencies.setRecorders((millis) -> age.record(millis, TimeUnit.MILLISECONDS),
+						(nanos) -> handling.record(nanos, TimeUnit.NANOSECONDS),
+						(nanos) -> ack.record(nanos, TimeUnit.NANOSECONDS));
+			}
+		}
+		for (Map.Entry<String, KafkaMessageChannelBinder.DlqInformation> dlqInfo : this.binder
+				.getDlqsInUse().entrySet()) {
+
+			String topic = dlqInfo.getKey();
+			String group = dlqInfo.getValue().getConsumerGroup();
+
+			Gauge.builder(DLQ_PENDING_METRIC_NAME, dlqInfo.getValue(),
+					KafkaMessageChannelBinder.DlqInformation::getPending).tag("group", group)
+					.tag("topic", topic)
+					.description("Records of a particular group and topic being sent to the DLQ")
+					.register(registry);
+			FunctionTimer.builder(DLQ_SEND_METRIC_NAME, dlqInfo.getValue(),
+					KafkaMessageChannelBinder.DlqInformation::getSendCount,
+					KafkaMessageChannelBinder.DlqInformation::getSendTime, TimeUnit.NANOSECONDS)
+					.tag("group", group)
+					.tag("topic", topic)
+					.description("Sends to the DLQ of records of a particular group and topic")
+					.register(registry);
+			FunctionCounter.builder(DLQ_SEND_FAILURES_METRIC_NAME, dlqInfo.getValue(),
+					KafkaMessageChannelBinder.DlqInformation::getFailureCount).tag("group", group)
+					.tag("topic", topic)
+					.description("Failed sends to the DLQ of records of a particular group and topic")
+					.register(registry);
 		}
 	}
 
-	private long computeUnconsumedMessages(String topic, String group) {
-		ExecutorService exec = Executors.newSingleThreadExecutor();
-		Future<Long> future = exec.submit(() -> {
+	private Timer.Builder latencyTimer(String name) {
+		return Timer.builder(name).publishPercentiles(this.latencyPercentiles)
+				.publishPercentileHistogram(this.latencyPercentileHistogram);
+	}
 
-			long lag = 0;
-			try {
-				Consumer<?, ?> metadataConsumer = this.metadataConsumers.computeIfAbsent(
-						group,
-						(g) -> createConsumerFactory().createConsumer(g, "monitoring"));
-				synchronized (metadataConsumer) {
-					List<PartitionInfo> partitionInfos = metadataConsumer
-							.partitionsFor(topic);
-					List<TopicPartition> topicPartitions = new LinkedList<>();
-					for (PartitionInfo partitionInfo : partitionInfos) {
-						topicPartitions.add(new TopicPartition(partitionInfo.topic(),
-								partitionInfo.partition()));
-					}
+	private double getUnconsumedMessages(String topic, String group) {
+		ConsumerLag consumerLag = this.consumerLags.get(topic);
+		if (consumerLag == null || !consumerLag.group.equals(group)) {
+			return 0L;
+		}
+		return consumerLag.total;
+	}
+
+	private double getUnconsumedMessages(String topic, String group, int partition) {
+		ConsumerLag consumerLag = this.consumerLags.get(topic);
+		if (consumerLag == null || !consumerLag.group.equals(group)) {
+			return 0L;
+		}
+		Long lag = consumerLag.partitionLags.get(partition);
+		return lag == null ? 0L : lag;
+	}
 
-					Map<TopicPartition, Long> endOffsets = metadataConsumer
-							.endOffsets(topicPartitions);
-
-					for (Map.Entry<TopicPartition, Long> endOffset : endOffsets
-							.entrySet()) {
-						OffsetAndMetadata current = metadataConsumer
-								.committed(endOffset.getKey());
-						lag += endOffset.getValue();
-						if (current != null) {
-							lag -= current.offset();
-						}
+	private double getConsumptionRate(String topic, String group) {
+		ConsumerLag consumerLag = this.consumerLags.get(topic);
+		if (consumerLag == null || !consumerLag.group.equals(group)) {
+			return Double.NaN;
+		}
+		return consumerLag.consumptionRate;
+	}
+
+	private double getTimeToDrain(String topic, String group) {
+		ConsumerLag consumerLag = this.consumerLags.get(topic);
+		if (consumerLag == null || !consumerLag.group.equals(group)) {
+			return Double.NaN;
+		}
+		if (consumerLag.total == 0) {
+			return 0;
+		}
+		// NaN until two samples are available, infinite if the consumer is stuck
+		return consumerLag.total / consumerLag.consumptionRate;
+	}
+
+	private double getStaleness(String topic, String group) {
+		ConsumerLag consumerLag = this.consumerLags.get(topic);
+		if (consumerLag == null || !consumerLag.group.equals(group)) {
+			return Double.NaN;
+		}
+		return (System.currentTimeMillis() - consumerLag.timestamp) / 1000.0;
+	}
+
+	/**
+	 * Collect the consumer lag of all the consumer topics in use by the binder. The
+	 * partitions and their end offsets are fetched with a single request each for all
+	 * the topics; committed offsets are fetched with one request per consumer group.
+	 * The consumption rate is derived from the committed offsets of the previous
+	 * collection.
+	 */
+	void refreshConsumerLag() {
+		Map<String, List<String>> topicsByGroup = new HashMap<>();
+		for (Map.Entry<String, KafkaMessageChannelBinder.TopicInformation> topicInfo : this.binder
+				.getTopicsInUse().entrySet()) {
+
+			if (topicInfo.getValue().isConsumerTopic() && !topicInfo.getValue().isTopicPattern()) {
+				topicsByGroup.computeIfAbsent(topicInfo.getValue().getConsumerGroup(),
+						(g) -> new ArrayList<>()).add(topicInfo.getKey());
+			}
+		}
+		if (topicsByGroup.isEmpty()) {
+			return;
+		}
+		List<String> topics = new ArrayList<>();
+		topicsByGroup.values().forEach(topics::addAll);
+		try {
+			KafkaTopicProvisioner provisioner = this.binder.getTopicProvisioner();
+			AdminClient admin = provisioner.getAdminClient();
+			bindAdminClientMetrics(admin);
+			Map<String, List<TopicPartition>> partitionsByTopic = describePartitions(provisioner, topics);
+			Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+			partitionsByTopic.values().forEach((tps) -> tps.forEach((tp) -> latest.put(tp, OffsetSpec.latest())));
+			if (latest.isEmpty()) {
+				return;
+			}
+			Map<TopicPartition, ListOffsetsResultInfo> endOffsets = admin.listOffsets(latest).all()
+					.get(this.timeout, TimeUnit.SECONDS);
+			for (Map.Entry<String, List<String>> groupTopics : topicsByGroup.entrySet()) {
+				String group = groupTopics.getKey();
+				Map<TopicPartition, OffsetAndMetadata> committed;
+				try {
+					committed = admin.listConsumerGroupOffsets(group).partitionsToOffsetAndMetadata()
+							.get(this.timeout, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (Exception ex) {
+					LOG.debug("Cannot fetch the committed offsets for group: " + group, ex);
+					continue;
+				}
+				long timestamp = System.currentTimeMillis();
+				for (String topic : groupTopics.getValue()) {
+					List<TopicPartition> partitions = partitionsByTopic.get(topic);
+					if (partitions != null) {
+						this.consumerLags.put(topic, new ConsumerLag(group,
+								computeLag(partitions, endOffsets, committed),
+								committedOffsets(partitions, committed), timestamp,
+								this.consumerLags.get(topic)));
 					}
 				}
 			}
-			catch (Exception ex) {
-				LOG.debug("Cannot generate metric for topic: " + topic, ex);
-			}
-			return lag;
-		});
-		try {
-			return future.get(this.timeout, TimeUnit.SECONDS);
 		}
 		catch (InterruptedException ex) {
 			Thread.currentThread().interrupt();
-			return 0L;
 		}
-		catch (ExecutionException | TimeoutException ex) {
-			return 0L;
+		catch (Exception ex) {
+			LOG.debug("Cannot collect the consumer lag for topics: " + topics, ex);
 		}
-		finally {
-			exec.shutdownNow();
+	}
+
+	private static Map<String, List<TopicPartition>> describePartitions(KafkaTopicProvisioner provisioner,
+			List<String> topics) throws Exception {
+
+		Map<String, List<TopicPartition>> partitionsByTopic = new HashMap<>();
+		for (Map.Entry<String, TopicDescription> description : provisioner.describeTopics(topics).entrySet()) {
+			List<TopicPartition> partitions = new ArrayList<>();
+			for (TopicPartitionInfo partitionInfo : description.getValue().partitions()) {
+				partitions.add(new TopicPartition(description.getKey(), partitionInfo.partition()));
+			}
+			partitionsByTopic.put(description.getKey(), partitions);
 		}
+		return partitionsByTopic;
 	}
 
-	private synchronized  ConsumerFactory<?, ?> createConsumerFactory() {
-		if (this.defaultConsumerFactory == null) {
-			Map<String, Object> props = new HashMap<>();
-			props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
-					ByteArrayDeserializer.class);
-			props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
-					ByteArrayDeserializer.class);
-			Map<String, Object> mergedConfig = this.binderConfigurationProperties
-					.mergedConsumerConfiguration();
-			if (!ObjectUtils.isEmpty(mergedConfig)) {
-				props.putAll(mergedConfig);
+	private static Map<Integer, Long> computeLag(List<TopicPartition> partitions,
+			Map<TopicPartition, ListOffsetsResultInfo> endOffsets,
+			Map<TopicPartition, OffsetAndMetadata> committed) {
+
+		Map<Integer, Long> lags = new HashMap<>();
+		for (TopicPartition partition : partitions) {
+			ListOffsetsResultInfo endOffset = endOffsets.get(partition);
+			if (endOffset != null) {
+				long lag = endOffset.offset();
+				OffsetAndMetadata current = committed == null ? null : committed.get(partition);
+				if (current != null) {
+					lag -= current.offset();
+				}
+				lags.put(partition.partition(), lag);
 			}
-			if (!props.containsKey(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG)) {
-				props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,
-						this.binderConfigurationProperties
-								.getKafkaConnectionString());
+		}
+		return lags;
+	}
+
+	private static Map<Integer, Long> committedOffsets(List<TopicPartition> partitions,
+			Map<TopicPartition, OffsetAndMetadata> committed) {
+
+		Map<Integer, Long> offsets = new HashMap<>();
+		for (TopicPartition partition : partitions) {
+			OffsetAndMetadata current = committed == null ? null : committed.get(partition);
+			if (current != null) {
+				offsets.put(partition.partition(), current.offset());
 			}
-			this.defaultConsumerFactory = new DefaultKafkaConsumerFactory<>(
-					props);
 		}
-		return this.defaultConsumerFactory;
+		return offsets;
+	}
+
+	private synchronized void bindAdminClientMetrics(AdminClient admin) {
+		if (this.adminClientMetrics == null && this.meterRegistry != null) {
+			// the client metrics of the other binder clients are registered by the ClientFactoryCustomizer
+			this.adminClientMetrics = new KafkaClientMetrics(admin, KafkaClientMetricsUtils
+					.tags(ClientFactoryCustomizer.NO_DESTINATION, ClientFactoryCustomizer.METADATA));
+			this.adminClientMetrics.bindTo(this.meterRegistry);
+		}
 	}
 
 	@Override
@@ -204,6 +536,85 @@ public class KafkaBinderMetrics
 			// it multiple times
 			this.bindTo(this.meterRegistry);
 		}
+		synchronized (this) {
+			if (this.scheduler != null) {
+				// collect the lag of the new binding without waiting for the next run
+				this.scheduler.execute(this::refreshConsumerLag);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void start() {
+		if (this.scheduler == null) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(
+					new CustomizableThreadFactory("kafka-binder-metrics-"));
+			this.scheduler.scheduleWithFixedDelay(this::refreshConsumerLag, 0,
+					this.refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+		if (this.adminClientMetrics != null) {
+			this.adminClientMetrics.close();
+			this.adminClientMetrics = null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isRunning() {
+		return this.scheduler != null;
+	}
+
+	/**
+	 * The most recently collected lag of a consumer topic.
+	 */
+	private static final class ConsumerLag {
+
+		private final String group;
+
+		private final Map<Integer, Long> partitionLags;
+
+		private final Map<Integer, Long> committedOffsets;
+
+		private final long total;
+
+		private final long timestamp;
+
+		private final double consumptionRate;
+
+		ConsumerLag(String group, Map<Integer, Long> partitionLags, Map<Integer, Long> committedOffsets,
+				long timestamp, @Nullable ConsumerLag previous) {
+
+			this.group = group;
+			this.partitionLags = partitionLags;
+			this.committedOffsets = committedOffsets;
+			this.total = partitionLags.values().stream().mapToLong(Long::longValue).sum();
+			this.timestamp = timestamp;
+			this.consumptionRate = consumptionRate(previous);
+		}
+
+		private double consumptionRate(@Nullable ConsumerLag previous) {
+			if (previous == null || !previous.group.equals(this.group)
+					|| this.timestamp <= previous.timestamp) {
+				return Double.NaN;
+			}
+			long consumed = 0;
+			for (Map.Entry<Integer, Long> offset : this.committedOffsets.entrySet()) {
+				// a partition committed for the first time only counts from the next sample
+				Long previousOffset = previous.committedOffsets.get(offset.getKey());
+				if (previousOffset != null && offset.getValue() > previousOffset) {
+					consumed += offset.getValue() - previousOffset;
+				}
+			}
+			return consumed * 1000.0 / (this.timestamp - previous.timestamp);
+		}
+
 	}
 
 }
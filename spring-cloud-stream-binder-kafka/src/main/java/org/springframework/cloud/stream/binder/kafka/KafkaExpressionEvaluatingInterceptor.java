@@ -16,9 +16,12 @@
 
 package org.springframework.cloud.stream.binder.kafka;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
-import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.MutableMessage;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.support.ChannelInterceptor;
@@ -51,18 +54,32 @@ public class KafkaExpressionEvaluatingInterceptor implements ChannelInterceptor
 	public KafkaExpressionEvaluatingInterceptor(Expression messageKeyExpression, EvaluationContext evaluationContext) {
 		Assert.notNull(messageKeyExpression != null, "A message key expression is required");
 		Assert.notNull(evaluationContext, "the 'evaluationContext' cannot be null");
-		this.messageKeyExpression = messageKeyExpression;
+		this.messageKeyExpression = MessageExpressions.compile(messageKeyExpression);
 		this.evaluationContext = evaluationContext;
 	}
 
+	/**
+	 * Return a message with the evaluated key header. Its headers are copied once, and it
+	 * keeps the id and timestamp of the original message.
+	 * @param message the message.
+	 * @param channel the channel.
+	 * @return the message with the key header.
+	 */
 	@Override
 	public Message<?> preSend(Message<?> message, MessageChannel channel) {
-		MessageBuilder<?> builder = MessageBuilder.fromMessage(message);
-		if (this.messageKeyExpression != null) {
-			builder.setHeader(MESSAGE_KEY_HEADER,
-					this.messageKeyExpression.getValue(this.evaluationContext, message));
+		if (this.messageKeyExpression == null) {
+			return message;
+		}
+		Object key = this.messageKeyExpression.getValue(this.evaluationContext, message);
+		Map<String, Object> headers = new HashMap<>((int) ((message.getHeaders().size() + 1) / 0.75f) + 1);
+		headers.putAll(message.getHeaders());
+		if (key != null) {
+			headers.put(MESSAGE_KEY_HEADER, key);
+		}
+		else {
+			headers.remove(MESSAGE_KEY_HEADER);
 		}
-		return builder.build();
+		return new MutableMessage<>(message.getPayload(), headers);
 	}
 
 }
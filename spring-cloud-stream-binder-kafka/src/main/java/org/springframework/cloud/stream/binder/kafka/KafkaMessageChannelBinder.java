@@ -16,21 +16,26 @@
 
 package org.springframework.cloud.stream.binder.kafka;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -44,6 +49,7 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
 import org.apache.kafka.common.header.Headers;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.header.internals.RecordHeaders;
@@ -79,7 +85,6 @@ import org.springframework.cloud.stream.provisioning.ProducerDestination;
 import org.springframework.context.Lifecycle;
 import org.springframework.expression.Expression;
 import org.springframework.expression.common.LiteralExpression;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.integration.IntegrationMessageHeaderAccessor;
 import org.springframework.integration.StaticMessageHeaderAccessor;
 import org.springframework.integration.acks.AcknowledgmentCallback;
@@ -92,6 +97,7 @@ import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandle
 import org.springframework.integration.kafka.support.RawRecordHeaderErrorMessageStrategy;
 import org.springframework.integration.support.ErrorMessageStrategy;
 import org.springframework.integration.support.MessageBuilder;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
@@ -103,6 +109,8 @@ import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ConsumerProperties;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
+import org.springframework.kafka.listener.RecoveringBatchErrorHandler;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.kafka.support.KafkaHeaderMapper;
 import org.springframework.kafka.support.KafkaHeaders;
@@ -122,6 +130,8 @@ import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.ChannelInterceptor;
 import org.springframework.messaging.support.ErrorMessage;
 import org.springframework.messaging.support.InterceptableChannel;
+import org.springframework.retry.policy.NeverRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
@@ -165,6 +175,11 @@ public class KafkaMessageChannelBinder extends
 	 */
 	public static final String X_EXCEPTION_STACKTRACE = "x-exception-stacktrace";
 
+	/**
+	 * Kafka header for x-exception-fingerprint.
+	 */
+	public static final String X_EXCEPTION_FINGERPRINT = "x-exception-fingerprint";
+
 	/**
 	 * Kafka header for x-exception-message.
 	 */
@@ -195,16 +210,33 @@ public class KafkaMessageChannelBinder extends
 	 */
 	public static final String X_ORIGINAL_TIMESTAMP_TYPE = "x-original-timestamp-type";
 
+	/**
+	 * Kafka header for x-retry-due.
+	 */
+	public static final String X_RETRY_DUE = "x-retry-due";
+
 	private static final ThreadLocal<String> bindingNameHolder = new ThreadLocal<>();
 
 	private static final Pattern interceptorNeededPattern = Pattern.compile("(payload|#root|#this)");
 
-	private static final SpelExpressionParser PARSER = new SpelExpressionParser();
+	private static final int MAX_SENT_STACK_TRACES = 1000;
 
 	private final KafkaBinderConfigurationProperties configurationProperties;
 
 	private final Map<String, TopicInformation> topicsInUse = new ConcurrentHashMap<>();
 
+	private final Map<String, DlqInformation> dlqsInUse = new ConcurrentHashMap<>();
+
+	private final Map<String, SharedProducerFactory> sharedProducerFactories = new ConcurrentHashMap<>();
+
+	private final Map<String, PartitionPausingErrorHandler> pausingErrorHandlers = new ConcurrentHashMap<>();
+
+	private final Map<String, OffsetTracker> offsetTrackers = new ConcurrentHashMap<>();
+
+	private final Map<String, RecordHeaderFilter> recordFilters = new ConcurrentHashMap<>();
+
+	private final Map<String, RecordLatencies> recordLatencies = new ConcurrentHashMap<>();
+
 	private final KafkaTransactionManager<byte[], byte[]> transactionManager;
 
 	private final TransactionTemplate transactionTemplate;
@@ -295,12 +327,42 @@ public class KafkaMessageChannelBinder extends
 
 	public void setClientFactoryCustomizer(ClientFactoryCustomizer customizer) {
 		this.clientFactoryCustomizer = customizer;
+		if (this.transactionManager != null) {
+			// created by the constructor
+			customizeProducerFactory(this.transactionManager.getProducerFactory(), ClientFactoryCustomizer.NO_BINDING,
+					ClientFactoryCustomizer.NO_DESTINATION, ClientFactoryCustomizer.PRODUCER);
+		}
+	}
+
+	@Override
+	protected void onInit() throws Exception {
+		super.onInit();
+		if (getApplicationContext() == null) {
+			return;
+		}
+		DeclaredTopicsProvisioner declaredTopicsProvisioner = new DeclaredTopicsProvisioner(
+				this.provisioningProvider, this.extendedBindingProperties);
+		if (this.configurationProperties.isBulkProvisioning()) {
+			declaredTopicsProvisioner.provision(getApplicationContext());
+		}
+		if (this.configurationProperties.getBindingPreparationConcurrency() > 1) {
+			declaredTopicsProvisioner.prepare(getApplicationContext(),
+					this.configurationProperties.getBindingPreparationConcurrency());
+		}
 	}
 
 	Map<String, TopicInformation> getTopicsInUse() {
 		return this.topicsInUse;
 	}
 
+	Map<String, DlqInformation> getDlqsInUse() {
+		return this.dlqsInUse;
+	}
+
+	KafkaTopicProvisioner getTopicProvisioner() {
+		return this.provisioningProvider;
+	}
+
 	@Override
 	public KafkaConsumerProperties getExtendedConsumerProperties(String channelName) {
 		bindingNameHolder.set(channelName);
@@ -309,9 +371,19 @@ public class KafkaMessageChannelBinder extends
 
 	@Override
 	public KafkaProducerProperties getExtendedProducerProperties(String channelName) {
+		bindingNameHolder.set(channelName);
 		return this.extendedBindingProperties.getExtendedProducerProperties(channelName);
 	}
 
+	/**
+	 * Return the name of the binding being created, as set when the binding service
+	 * retrieves its extended properties, to tag the metrics of its clients.
+	 */
+	private static String bindingName() {
+		String bindingName = bindingNameHolder.get();
+		return bindingName != null ? bindingName : ClientFactoryCustomizer.NO_BINDING;
+	}
+
 	@Override
 	public String getDefaultsPrefix() {
 		return this.extendedBindingProperties.getDefaultsPrefix();
@@ -357,19 +429,33 @@ public class KafkaMessageChannelBinder extends
 		 */
 		KafkaAwareTransactionManager<byte[], byte[]> transMan = transactionManager(
 				producerProperties.getExtension().getTransactionManager());
+		SharedProducerFactory sharedProducerFactory = transMan == null
+				? getSharedProducerFactory(producerProperties, destination.getName() + ".producer",
+						ClientFactoryCustomizer.PRODUCER)
+				: null;
 		final ProducerFactory<byte[], byte[]> producerFB = transMan != null
 				? transMan.getProducerFactory()
-				: getProducerFactory(null, producerProperties, destination.getName() + ".producer");
+				: sharedProducerFactory != null
+						? sharedProducerFactory.producerFactory
+						: customizeProducerFactory(getProducerFactory(null, producerProperties,
+								destination.getName() + ".producer"), bindingName(), destination.getName(),
+								ClientFactoryCustomizer.PRODUCER);
 		Collection<PartitionInfo> partitions = provisioningProvider.getPartitionsForTopic(
 				producerProperties.getPartitionCount(), false, () -> {
-					Producer<byte[], byte[]> producer = producerFB.createProducer();
-					List<PartitionInfo> partitionsFor = producer
-							.partitionsFor(destination.getName());
-					producer.close();
-					if (transMan == null) {
-						((DisposableBean) producerFB).destroy();
+					try {
+						return provisioningProvider.getPartitionInfos(destination.getName());
+					}
+					catch (UnknownTopicOrPartitionException ex) {
+						// a producer metadata request lets the broker create the topic, if enabled
+						Producer<byte[], byte[]> producer = producerFB.createProducer();
+						List<PartitionInfo> partitionsFor = producer
+								.partitionsFor(destination.getName());
+						producer.close();
+						if (transMan == null && sharedProducerFactory == null) {
+							((DisposableBean) producerFB).destroy();
+						}
+						return partitionsFor;
 					}
-					return partitionsFor;
 				}, destination.getName());
 		this.topicsInUse.put(destination.getName(),
 				new TopicInformation(null, partitions, false));
@@ -401,7 +487,8 @@ public class KafkaMessageChannelBinder extends
 			kafkaTemplate.setTransactionIdPrefix(configurationProperties.getTransaction().getTransactionIdPrefix());
 		}
 		ProducerConfigurationMessageHandler handler = new ProducerConfigurationMessageHandler(
-				kafkaTemplate, destination.getName(), producerProperties, producerFB);
+				kafkaTemplate, destination.getName(), producerProperties, producerFB,
+				sharedProducerFactory);
 		if (errorChannel != null) {
 			handler.setSendFailureChannel(errorChannel);
 		}
@@ -436,13 +523,16 @@ public class KafkaMessageChannelBinder extends
 		}
 		else if (mapper == null) {
 			String[] headerPatterns = producerProperties.getExtension().getHeaderPatterns();
+			BinderHeaderMapper headerMapper;
 			if (headerPatterns != null && headerPatterns.length > 0) {
-				mapper = new BinderHeaderMapper(
+				headerMapper = new BinderHeaderMapper(
 						BinderHeaderMapper.addNeverHeaderPatterns(Arrays.asList(headerPatterns)));
 			}
 			else {
-				mapper = new BinderHeaderMapper();
+				headerMapper = new BinderHeaderMapper();
 			}
+			headerMapper.setHeaderEncoding(producerProperties.getExtension().getHeaderEncoding());
+			mapper = headerMapper;
 		}
 		else {
 			KafkaHeaderMapper userHeaderMapper = mapper;
@@ -462,6 +552,7 @@ public class KafkaMessageChannelBinder extends
 
 		}
 		handler.setHeaderMapper(mapper);
+		bindingNameHolder.remove();
 		return handler;
 	}
 
@@ -540,12 +631,83 @@ public class KafkaMessageChannelBinder extends
 			producerFactory.setPhysicalCloseTimeout(kafkaProducerProperties.getCloseTimeout());
 		}
 		producerFactory.setBeanName(beanName);
+		return producerFactory;
+	}
+
+	/**
+	 * Let the {@link ClientFactoryCustomizer} customize a producer factory, before it
+	 * creates any producer.
+	 * @param producerFactory the factory.
+	 * @param destination the destination of its producers.
+	 * @param role the role of its producers.
+	 * @return the factory.
+	 */
+	private <F extends ProducerFactory<?, ?>> F customizeProducerFactory(F producerFactory, String binding,
+			String destination, String role) {
+
 		if (this.clientFactoryCustomizer != null) {
-			this.clientFactoryCustomizer.configure(producerFactory);
+			this.clientFactoryCustomizer.configure(producerFactory, binding, destination, role);
 		}
 		return producerFactory;
 	}
 
+	private <F extends ConsumerFactory<?, ?>> F customizeConsumerFactory(F consumerFactory, String binding,
+			String destination, String role) {
+
+		if (this.clientFactoryCustomizer != null) {
+			this.clientFactoryCustomizer.configure(consumerFactory, binding, destination, role);
+		}
+		return consumerFactory;
+	}
+
+	/**
+	 * Return the producer factory shared by the non-transactional bindings with the same
+	 * effective producer configuration and role, when producer factories are shared.
+	 * @param producerProperties the producer properties.
+	 * @param beanName the bean name of the factory, if it is created.
+	 * @param role the role of the producers, part of the sharing key so that the client
+	 * metrics of the factory are tagged with it; it is not tied to a destination.
+	 * @return the shared factory, or null if producer factories are not shared.
+	 */
+	@Nullable
+	private SharedProducerFactory getSharedProducerFactory(
+			ExtendedProducerProperties<KafkaProducerProperties> producerProperties, String beanName,
+			String role) {
+		if (!this.configurationProperties.isShareProducerFactories()) {
+			return null;
+		}
+		DefaultKafkaProducerFactory<byte[], byte[]> producerFactory = getProducerFactory(null,
+				producerProperties, beanName);
+		Map<String, String> key = new TreeMap<>();
+		producerFactory.getConfigurationProperties().forEach((name, value) -> key.put(name,
+				value instanceof Class ? ((Class<?>) value).getName() : String.valueOf(value)));
+		key.put("closeTimeout", String.valueOf(producerProperties.getExtension().getCloseTimeout()));
+		key.put("role", role);
+		return this.sharedProducerFactories.computeIfAbsent(key.toString(),
+				k -> new SharedProducerFactory(customizeProducerFactory(producerFactory,
+						ClientFactoryCustomizer.NO_BINDING, ClientFactoryCustomizer.NO_DESTINATION, role)));
+	}
+
+	Map<String, PartitionPausingErrorHandler> getPausingErrorHandlers() {
+		return this.pausingErrorHandlers;
+	}
+
+	Map<String, OffsetTracker> getOffsetTrackers() {
+		return this.offsetTrackers;
+	}
+
+	Map<String, RecordHeaderFilter> getRecordFilters() {
+		return this.recordFilters;
+	}
+
+	Map<String, RecordLatencies> getRecordLatencies() {
+		return this.recordLatencies;
+	}
+
+	Map<String, SharedProducerFactory> getSharedProducerFactories() {
+		return this.sharedProducerFactories;
+	}
+
 	@Override
 	protected boolean useNativeEncoding(
 			ExtendedProducerProperties<KafkaProducerProperties> producerProperties) {
@@ -568,8 +730,9 @@ public class KafkaMessageChannelBinder extends
 				"DLQ support is not available for anonymous subscriptions");
 		String consumerGroup = anonymous ? "anonymous." + UUID.randomUUID().toString()
 				: group;
-		final ConsumerFactory<?, ?> consumerFactory = createKafkaConsumerFactory(
-				anonymous, consumerGroup, extendedConsumerProperties, destination.getName() + ".consumer");
+		final ConsumerFactory<?, ?> consumerFactory = customizeConsumerFactory(createKafkaConsumerFactory(
+				anonymous, consumerGroup, extendedConsumerProperties, destination.getName() + ".consumer"),
+				bindingName(), destination.getName(), ClientFactoryCustomizer.CONSUMER);
 		int partitionCount = extendedConsumerProperties.getInstanceCount()
 				* extendedConsumerProperties.getConcurrency();
 
@@ -602,6 +765,22 @@ public class KafkaMessageChannelBinder extends
 		for (int i = 0; i < topics.length; i++) {
 			topics[i] = topics[i].trim();
 		}
+		KafkaAwareTransactionManager<byte[], byte[]> transMan = transactionManager(
+				extendedConsumerProperties.getExtension().getTransactionManager());
+		RetryTopics retryTopics = null;
+		if (!extendedConsumerProperties.getExtension().getRetryTopicDelays().isEmpty()) {
+			Assert.isTrue(!anonymous && groupManagement && !usingPatterns
+					&& !extendedConsumerProperties.isMultiplex()
+					&& !extendedConsumerProperties.isBatchMode()
+					&& !extendedConsumerProperties.isUseNativeDecoding() && transMan == null,
+					"Retry topics require a group, auto rebalancing, a single destination, "
+							+ "record mode, no native decoding and no transactions");
+			retryTopics = new RetryTopics(destination.getName(), group,
+					extendedConsumerProperties.getExtension().getRetryTopicDelays(),
+					createRetryTopicsTemplate(destination, extendedConsumerProperties.getExtension()));
+			topics = StringUtils.concatenateStringArrays(topics,
+					StringUtils.toStringArray(retryTopics.getTopics()));
+		}
 		if (!usingPatterns && !groupManagement) {
 				Assert.isTrue(!CollectionUtils.isEmpty(listenedPartitions),
 						"A list of partitions must be provided");
@@ -615,8 +794,6 @@ public class KafkaMessageChannelBinder extends
 								? new ContainerProperties(Pattern.compile(topics[0]))
 								: new ContainerProperties(topics)
 						: new ContainerProperties(topicPartitionOffsets);
-		KafkaAwareTransactionManager<byte[], byte[]> transMan = transactionManager(
-				extendedConsumerProperties.getExtension().getTransactionManager());
 		if (transMan != null) {
 			containerProperties.setTransactionManager(transMan);
 		}
@@ -635,6 +812,23 @@ public class KafkaMessageChannelBinder extends
 		}
 		resetOffsetsForAutoRebalance(extendedConsumerProperties, consumerFactory, containerProperties);
 		containerProperties.setAuthorizationExceptionRetryInterval(this.configurationProperties.getAuthorizationExceptionRetryInterval());
+		final OffsetTracker offsetTracker = createOffsetTracker(extendedConsumerProperties, transMan,
+				retryTopics);
+		final ParallelRecordListener parallelListener = extendedConsumerProperties.getExtension()
+				.getParallelism() > 1
+				? createParallelListener(destination, extendedConsumerProperties, containerProperties,
+						offsetTracker)
+				: null;
+		// the records that fail a batch are identified when enabled, unless the application acknowledges the batches
+		final boolean isolatePoisonRecords = extendedConsumerProperties.isBatchMode() && transMan == null
+				&& extendedConsumerProperties.getExtension().isAutoCommitOffset()
+				&& extendedConsumerProperties.getExtension().isIsolatePoisonRecords();
+		// the failed records are retried by the container, which pauses their partition meanwhile
+		final boolean pausePartitionOnRetry = retryTopics == null && !extendedConsumerProperties.isBatchMode()
+				&& extendedConsumerProperties.getMaxAttempts() > 1 && transMan == null
+				&& extendedConsumerProperties.getExtension().isPausePartitionOnRetry();
+		final RecordLatencies recordLatencies = new RecordLatencies(
+				!extendedConsumerProperties.getExtension().isAutoCommitOffset());
 		@SuppressWarnings("rawtypes")
 		final ConcurrentMessageListenerContainer<?, ?> messageListenerContainer = new ConcurrentMessageListenerContainer(
 				consumerFactory, containerProperties) {
@@ -644,6 +838,49 @@ public class KafkaMessageChannelBinder extends
 				super.stop(callback);
 			}
 
+			@Override
+			public void setupMessageListener(Object messageListener) {
+				// called once by the channel adapter; the latencies are measured around its listener only
+				super.setupMessageListener(recordLatencies.listener(messageListener));
+			}
+
+			@Override
+			protected void doStart() {
+				if (offsetTracker != null) {
+					offsetTracker.clear();
+					// the listener is set by the channel adapter when it is initialized
+					Object messageListener = getContainerProperties().getMessageListener();
+					if (parallelListener != null && messageListener != parallelListener) {
+						parallelListener.setDelegate(messageListener);
+						getContainerProperties().setMessageListener(parallelListener);
+					}
+					else if (parallelListener == null
+							&& !(messageListener instanceof OffsetTracker.TrackingListener)) {
+						getContainerProperties().setMessageListener(offsetTracker.trackingListener(
+								messageListener, isAutoCommitOnError(extendedConsumerProperties)));
+					}
+				}
+				if (isolatePoisonRecords) {
+					Object messageListener = getContainerProperties().getMessageListener();
+					if (!(messageListener instanceof BisectingBatchListener)
+							&& getGenericErrorHandler() instanceof RecoveringBatchErrorHandler) {
+						getContainerProperties().setMessageListener(new BisectingBatchListener(messageListener));
+					}
+				}
+				if (parallelListener != null) {
+					parallelListener.start();
+				}
+				super.doStart();
+			}
+
+			@Override
+			protected void doStop(Runnable callback) {
+				if (parallelListener != null) {
+					parallelListener.stop();
+				}
+				super.doStop(callback);
+			}
+
 		};
 		messageListenerContainer.setConcurrency(concurrency);
 		// these won't be needed if the container is made a bean
@@ -657,14 +894,29 @@ public class KafkaMessageChannelBinder extends
 		}
 		messageListenerContainer.setBeanName(destination + ".container");
 		// end of these won't be needed...
-		if (!extendedConsumerProperties.getExtension().isAutoCommitOffset()) {
+		this.recordLatencies.put(destination.getName(), recordLatencies);
+		if (offsetTracker != null) {
+			// the offsets are committed by the tracker once the records are acknowledged
+			offsetTracker.configure(messageListenerContainer);
+			if (parallelListener != null) {
+				parallelListener.configure(messageListenerContainer);
+				messageListenerContainer.getContainerProperties().setConsumerRebalanceListener(
+						parallelListener.rebalanceListener((ConsumerAwareRebalanceListener)
+								messageListenerContainer.getContainerProperties().getConsumerRebalanceListener()));
+			}
+			this.offsetTrackers.put(destination.getName(), offsetTracker);
+		}
+		else if (!extendedConsumerProperties.getExtension().isAutoCommitOffset()) {
 			messageListenerContainer.getContainerProperties()
 					.setAckMode(ContainerProperties.AckMode.MANUAL);
 			messageListenerContainer.getContainerProperties().setAckOnError(false);
 		}
 		else {
-			messageListenerContainer.getContainerProperties()
-					.setAckOnError(isAutoCommitOnError(extendedConsumerProperties));
+			if (!pausePartitionOnRetry && !isolatePoisonRecords) {
+				// otherwise the container error handler decides whether the failed record is acknowledged
+				messageListenerContainer.getContainerProperties()
+						.setAckOnError(isAutoCommitOnError(extendedConsumerProperties));
+			}
 			if (extendedConsumerProperties.getExtension().isAckEachRecord()) {
 				messageListenerContainer.getContainerProperties()
 						.setAckMode(ContainerProperties.AckMode.RECORD);
@@ -679,10 +931,46 @@ public class KafkaMessageChannelBinder extends
 						extendedConsumerProperties.isBatchMode() ? ListenerMode.batch : ListenerMode.record);
 		MessagingMessageConverter messageConverter = getMessageConverter(extendedConsumerProperties);
 		kafkaMessageDrivenChannelAdapter.setMessageConverter(messageConverter);
+		if (extendedConsumerProperties.getExtension().isColumnarBatch()) {
+			Assert.isTrue(extendedConsumerProperties.isBatchMode(), "Columnar batches require batch mode");
+			kafkaMessageDrivenChannelAdapter.setBatchMessageConverter(
+					new ColumnarBatchMessageConverter(getHeaderMapper(extendedConsumerProperties)));
+		}
+		if (extendedConsumerProperties.getExtension().getRecordFilterExpression() != null) {
+			// the records are filtered before they are converted, and the discarded ones are acknowledged
+			RecordHeaderFilter recordFilter = new RecordHeaderFilter(
+					extendedConsumerProperties.getExtension().getRecordFilterExpression(),
+					getEvaluationContext(), getHeaderMapper(extendedConsumerProperties));
+			@SuppressWarnings("unchecked")
+			KafkaMessageDrivenChannelAdapter<Object, Object> filteringAdapter =
+					(KafkaMessageDrivenChannelAdapter<Object, Object>) kafkaMessageDrivenChannelAdapter;
+			filteringAdapter.setRecordFilterStrategy(recordFilter);
+			filteringAdapter.setAckDiscarded(true);
+			this.recordFilters.put(destination.getName(), recordFilter);
+		}
 		kafkaMessageDrivenChannelAdapter.setBeanFactory(this.getBeanFactory());
 		ErrorInfrastructure errorInfrastructure = registerErrorInfrastructure(destination,
 				consumerGroup, extendedConsumerProperties);
-		if (!extendedConsumerProperties.isBatchMode()
+		if (retryTopics != null) {
+			// the retries are delayed by the retry topics instead of the consumer thread
+			RetryTemplate retryTemplate = new RetryTemplate();
+			retryTemplate.setRetryPolicy(new NeverRetryPolicy());
+			kafkaMessageDrivenChannelAdapter.setRetryTemplate(retryTemplate);
+			kafkaMessageDrivenChannelAdapter
+					.setRecoveryCallback(retryTopics.recoverer(errorInfrastructure.getRecoverer()));
+			retryTopics.configure(messageListenerContainer);
+		}
+		else if (pausePartitionOnRetry) {
+			// the listener exceptions reach the container, which pauses the partition
+			PartitionPausingErrorHandler errorHandler = PartitionPausingErrorHandler.withBackOff(
+					createBackOff(extendedConsumerProperties),
+					new SeekToCurrentErrorHandler(createRecoverer(messageConverter, errorInfrastructure,
+							"Retries exhausted"), new FixedBackOff(0L, 0L)));
+			errorHandler.configure(messageListenerContainer, PartitionPausingErrorHandler
+					.resumeCheckInterval(extendedConsumerProperties.getBackOffInitialInterval()), null);
+			this.pausingErrorHandlers.put(destination.getName(), errorHandler);
+		}
+		else if (!extendedConsumerProperties.isBatchMode()
 				&& extendedConsumerProperties.getMaxAttempts() > 1
 				&& transMan == null) {
 
@@ -693,37 +981,114 @@ public class KafkaMessageChannelBinder extends
 		}
 		else if (!extendedConsumerProperties.isBatchMode() && transMan != null) {
 			messageListenerContainer.setAfterRollbackProcessor(new DefaultAfterRollbackProcessor<>(
-					(record, exception) -> {
-						MessagingException payload =
-								new MessagingException(messageConverter.toMessage(record, null, null, null),
-										"Transaction rollback limit exceeded", exception);
-						try {
-							errorInfrastructure.getErrorChannel()
-									.send(new ErrorMessage(
-											payload,
-												Collections.singletonMap(IntegrationMessageHeaderAccessor.SOURCE_DATA,
-													record)));
-						}
-						catch (Exception e) {
-							/*
-							 * When there is no DLQ, the FinalRethrowingErrorMessageHandler will re-throw
-							 * the payload; that will subvert the recovery and cause a re-seek of the failed
-							 * record, so we ignore that here.
-							 */
-							if (!e.equals(payload)) {
-								throw e;
-							}
-						}
-					}, createBackOff(extendedConsumerProperties)));
+					createRecoverer(messageConverter, errorInfrastructure,
+							"Transaction rollback limit exceeded"),
+					createBackOff(extendedConsumerProperties)));
+		}
+		else if (isolatePoisonRecords) {
+			// the listener exceptions reach the container, which retries and recovers the failed record;
+			// the handler commits the records before it and, once recovered, the failed record itself
+			messageListenerContainer.setBatchErrorHandler(new RecoveringBatchErrorHandler(
+					createRecoverer(messageConverter, errorInfrastructure, "Retries exhausted"),
+					createBackOff(extendedConsumerProperties)));
 		}
 		else {
 			kafkaMessageDrivenChannelAdapter.setErrorChannel(errorInfrastructure.getErrorChannel());
 		}
 		this.getContainerCustomizer().configure(messageListenerContainer, destination.getName(), group);
 		this.ackModeInfo.put(destination, messageListenerContainer.getContainerProperties().getAckMode());
+		bindingNameHolder.remove();
 		return kafkaMessageDrivenChannelAdapter;
 	}
 
+	/**
+	 * Create a tracker committing the offsets of the records acknowledged in any order,
+	 * when the records are processed in parallel or the application acknowledges them out
+	 * of order.
+	 */
+	@Nullable
+	private OffsetTracker createOffsetTracker(
+			ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties,
+			@Nullable KafkaAwareTransactionManager<byte[], byte[]> transMan,
+			@Nullable RetryTopics retryTopics) {
+
+		KafkaConsumerProperties extension = extendedConsumerProperties.getExtension();
+		if (extension.getParallelism() <= 1
+				&& !(extension.isOutOfOrderAcks() && !extension.isAutoCommitOffset())) {
+			return null;
+		}
+		Assert.isTrue(!extendedConsumerProperties.isBatchMode() && transMan == null && retryTopics == null,
+				"Parallel processing and out of order acknowledgments require record mode, "
+						+ "no transactions and no retry topics");
+		return new OffsetTracker(extension.getAckCommitInterval());
+	}
+
+	private ParallelRecordListener createParallelListener(ConsumerDestination destination,
+			ExtendedConsumerProperties<KafkaConsumerProperties> extendedConsumerProperties,
+			ContainerProperties containerProperties, OffsetTracker offsetTracker) {
+
+		KafkaConsumerProperties extension = extendedConsumerProperties.getExtension();
+		Assert.isTrue(!extension.isPausePartitionOnRetry(),
+				"Parallel processing cannot be used with partition pausing");
+		return new ParallelRecordListener(destination.getName() + ".parallel",
+				extension.getParallelism(), extension.getMaxInFlightRecords(), offsetTracker,
+				extension.isAutoCommitOffset(), isAutoCommitOnError(extendedConsumerProperties),
+				containerProperties.getShutdownTimeout());
+	}
+
+	/**
+	 * Create a recoverer of the records whose retries are exhausted, for the container
+	 * error handlers: it sends an error message to the error channel of the binding.
+	 * @param messageConverter the message converter of the binding.
+	 * @param errorInfrastructure the error infrastructure of the binding.
+	 * @param description the description of the error messages.
+	 * @return the recoverer.
+	 */
+	private BiConsumer<ConsumerRecord<?, ?>, Exception> createRecoverer(
+			MessagingMessageConverter messageConverter, ErrorInfrastructure errorInfrastructure,
+			String description) {
+
+		return (record, exception) -> {
+			MessagingException payload =
+					new MessagingException(messageConverter.toMessage(record, null, null, null),
+							description, exception);
+			try {
+				errorInfrastructure.getErrorChannel()
+						.send(new ErrorMessage(
+								payload,
+									Collections.singletonMap(IntegrationMessageHeaderAccessor.SOURCE_DATA,
+										record)));
+			}
+			catch (Exception e) {
+				/*
+				 * When there is no DLQ, the FinalRethrowingErrorMessageHandler will re-throw
+				 * the payload; that will subvert the recovery and cause a re-seek of the failed
+				 * record, so we ignore that here.
+				 */
+				if (!e.equals(payload)) {
+					throw e;
+				}
+			}
+		};
+	}
+
+	private KafkaTemplate<byte[], byte[]> createRetryTopicsTemplate(ConsumerDestination destination,
+			KafkaConsumerProperties properties) {
+
+		// the records are sent to the retry topics as they are sent to the DLQ
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties =
+				new ExtendedProducerProperties<>(properties.getDlqProducerProperties());
+		SharedProducerFactory sharedProducerFactory = getSharedProducerFactory(producerProperties,
+				destination.getName() + ".retry.producer", ClientFactoryCustomizer.RETRY);
+		if (sharedProducerFactory != null) {
+			sharedProducerFactory.acquire();
+			return new KafkaTemplate<>(sharedProducerFactory.producerFactory);
+		}
+		return new KafkaTemplate<>(customizeProducerFactory(getProducerFactory(null, producerProperties,
+				destination.getName() + ".retry.producer"), bindingName(), destination.getName(),
+				ClientFactoryCustomizer.RETRY));
+	}
+
 	/**
 	 * Configure a {@link BackOff} for the after rollback processor, based on the consumer
 	 * retry properties. If retry is disabled, return a {@link BackOff} that disables
@@ -764,8 +1129,8 @@ public class KafkaMessageChannelBinder extends
 
 		Assert.isTrue(!extendedConsumerProperties.getExtension().isResetOffsets(),
 				"'resetOffsets' cannot be set when a KafkaBindingRebalanceListener is provided");
+		// removed once the consumer endpoint is created, the DLQ producer being tagged with it too
 		final String bindingName = bindingNameHolder.get();
-		bindingNameHolder.remove();
 		Assert.notNull(bindingName, "'bindingName' cannot be null");
 		final KafkaBindingRebalanceListener userRebalanceListener = this.rebalanceListener;
 		containerProperties
@@ -916,8 +1281,9 @@ public class KafkaMessageChannelBinder extends
 				"DLQ support is not available for anonymous subscriptions");
 		String consumerGroup = anonymous ? "anonymous." + UUID.randomUUID().toString()
 				: group;
-		final ConsumerFactory<?, ?> consumerFactory = createKafkaConsumerFactory(
-				anonymous, consumerGroup, extendedConsumerProperties, destination.getName() + ".polled.consumer");
+		final ConsumerFactory<?, ?> consumerFactory = customizeConsumerFactory(createKafkaConsumerFactory(
+				anonymous, consumerGroup, extendedConsumerProperties, destination.getName() + ".polled.consumer"),
+				bindingName(), destination.getName(), ClientFactoryCustomizer.CONSUMER);
 		String[] topics = extendedConsumerProperties.isMultiplex()
 				? StringUtils.commaDelimitedListToStringArray(destination.getName())
 				: new String[] { destination.getName() };
@@ -976,8 +1342,10 @@ public class KafkaMessageChannelBinder extends
 		}
 
 		getMessageSourceCustomizer().configure(source, destination.getName(), group);
-		return new PolledConsumerResources(source, registerErrorInfrastructure(
+		PolledConsumerResources resources = new PolledConsumerResources(source, registerErrorInfrastructure(
 				destination, group, extendedConsumerProperties, true));
+		bindingNameHolder.remove();
+		return resources;
 	}
 
 	@Override
@@ -1015,7 +1383,10 @@ public class KafkaMessageChannelBinder extends
 						"Converter bean not present in application context", ex);
 			}
 		}
-		messageConverter.setHeaderMapper(getHeaderMapper(extendedConsumerProperties));
+		KafkaHeaderMapper headerMapper = getHeaderMapper(extendedConsumerProperties);
+		messageConverter.setHeaderMapper(extendedConsumerProperties.getExtension().isLazyHeaders()
+				? new LazyHeaderMapper(headerMapper)
+				: headerMapper);
 		return messageConverter;
 	}
 
@@ -1061,8 +1432,14 @@ public class KafkaMessageChannelBinder extends
 		return provisioningProvider.getPartitionsForTopic(partitionCount,
 				extendedConsumerProperties.getExtension().isAutoRebalanceEnabled(),
 				() -> {
-					try (Consumer<?, ?> consumer = consumerFactory.createConsumer()) {
-						return consumer.partitionsFor(topic);
+					try {
+						return provisioningProvider.getPartitionInfos(topic);
+					}
+					catch (UnknownTopicOrPartitionException ex) {
+						// a consumer metadata request lets the broker create the topic, if enabled
+						try (Consumer<?, ?> consumer = consumerFactory.createConsumer()) {
+							return consumer.partitionsFor(topic);
+						}
 					}
 				}, topic);
 	}
@@ -1084,16 +1461,44 @@ public class KafkaMessageChannelBinder extends
 					.getDlqProducerProperties();
 			KafkaAwareTransactionManager<byte[], byte[]> transMan = transactionManager(
 					properties.getExtension().getTransactionManager());
+			SharedProducerFactory sharedProducerFactory = transMan == null
+					? getSharedProducerFactory(new ExtendedProducerProperties<>(dlqProducerProperties),
+							destination.getName() + ".dlq.producer", ClientFactoryCustomizer.DLQ)
+					: null;
+			if (sharedProducerFactory != null) {
+				// released when the application stops, as an unshared DLQ producer factory
+				sharedProducerFactory.acquire();
+			}
 			ProducerFactory<?, ?> producerFactory = transMan != null
 					? transMan.getProducerFactory()
-					: getProducerFactory(null,
-							new ExtendedProducerProperties<>(dlqProducerProperties),
-							destination.getName() + ".dlq.producer");
+					: sharedProducerFactory != null
+							? sharedProducerFactory.producerFactory
+							: customizeProducerFactory(getProducerFactory(null,
+									new ExtendedProducerProperties<>(dlqProducerProperties),
+									destination.getName() + ".dlq.producer"),
+									bindingName(), destination.getName(), ClientFactoryCustomizer.DLQ);
 			final KafkaTemplate<?, ?> kafkaTemplate = new KafkaTemplate<>(
 					producerFactory);
 
+			String stackTraceTopic = kafkaConsumerProperties.getDlqStackTraceTopic();
+			boolean fingerprintStackTraces = StringUtils.hasText(stackTraceTopic);
+			KafkaTemplate<byte[], byte[]> stackTraceTemplate = null;
+			if (fingerprintStackTraces) {
+				// the binder serializes the stack traces, whatever the serializers of the DLQ producer
+				DefaultKafkaProducerFactory<byte[], byte[]> stackTraceProducerFactory = getProducerFactory(null,
+						new ExtendedProducerProperties<>(dlqProducerProperties),
+						destination.getName() + ".stacktrace.producer");
+				stackTraceProducerFactory.setKeySerializer(new ByteArraySerializer());
+				stackTraceProducerFactory.setValueSerializer(new ByteArraySerializer());
+				stackTraceTemplate = new KafkaTemplate<>(customizeProducerFactory(stackTraceProducerFactory,
+						bindingName(), destination.getName(), ClientFactoryCustomizer.DLQ));
+			}
+
+			DlqInformation dlqInformation = new DlqInformation(group);
+			this.dlqsInUse.put(destination.getName(), dlqInformation);
 			@SuppressWarnings("rawtypes")
-			DlqSender<?, ?> dlqSender = new DlqSender(kafkaTemplate);
+			DlqSender<?, ?> dlqSender = new DlqSender(kafkaTemplate, stackTraceTemplate, dlqInformation,
+					kafkaConsumerProperties.getDlqMaxInFlight());
 
 			return (message) -> {
 
@@ -1139,37 +1544,18 @@ public class KafkaMessageChannelBinder extends
 				AtomicReference<ConsumerRecord<?, ?>> recordToSend = new AtomicReference<>(
 						record);
 				Throwable throwable = null;
+				String fingerprint = null;
 				if (message.getPayload() instanceof Throwable) {
 
 					throwable = (Throwable) message.getPayload();
+					if (fingerprintStackTraces) {
+						fingerprint = StackTraces.fingerprint(throwable);
+					}
 
 					HeaderMode headerMode = properties.getHeaderMode();
 
 					if (headerMode == null || HeaderMode.headers.equals(headerMode)) {
-
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TOPIC,
-								record.topic().getBytes(StandardCharsets.UTF_8)));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_PARTITION,
-								ByteBuffer.allocate(Integer.BYTES)
-										.putInt(record.partition()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_OFFSET, ByteBuffer
-								.allocate(Long.BYTES).putLong(record.offset()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP,
-								ByteBuffer.allocate(Long.BYTES)
-										.putLong(record.timestamp()).array()));
-						kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP_TYPE,
-								record.timestampType().toString()
-										.getBytes(StandardCharsets.UTF_8)));
-						kafkaHeaders.add(new RecordHeader(X_EXCEPTION_FQCN, throwable
-								.getClass().getName().getBytes(StandardCharsets.UTF_8)));
-						String exceptionMessage = throwable.getMessage();
-						if (exceptionMessage != null) {
-							kafkaHeaders.add(new RecordHeader(X_EXCEPTION_MESSAGE,
-									exceptionMessage.getBytes(StandardCharsets.UTF_8)));
-						}
-						kafkaHeaders.add(new RecordHeader(X_EXCEPTION_STACKTRACE,
-								getStackTraceAsString(throwable)
-										.getBytes(StandardCharsets.UTF_8)));
+						addDlqHeaders(kafkaHeaders, record, throwable, fingerprint, kafkaConsumerProperties);
 					}
 					else if (HeaderMode.embeddedHeaders.equals(headerMode)) {
 						try {
@@ -1187,8 +1573,13 @@ public class KafkaMessageChannelBinder extends
 									throwable.getClass().getName());
 							messageValues.put(X_EXCEPTION_MESSAGE,
 									throwable.getMessage());
-							messageValues.put(X_EXCEPTION_STACKTRACE,
-									getStackTraceAsString(throwable));
+							if (fingerprint != null) {
+								messageValues.put(X_EXCEPTION_FINGERPRINT, fingerprint);
+							}
+							else {
+								messageValues.put(X_EXCEPTION_STACKTRACE,
+										getStackTraceAsString(throwable, kafkaConsumerProperties));
+							}
 
 							final String[] headersToEmbed = new ArrayList<>(
 									messageValues.keySet()).toArray(
@@ -1224,13 +1615,20 @@ public class KafkaMessageChannelBinder extends
 				}
 				if (this.transactionTemplate != null) {
 					Throwable throwable2 = throwable;
+					String fingerprint2 = fingerprint;
 					this.transactionTemplate.executeWithoutResult(status -> {
+						if (fingerprint2 != null) {
+							dlqSender.sendStackTrace(stackTraceTopic, fingerprint2, throwable2);
+						}
 						dlqSender.sendToDlq(recordToSend.get(), kafkaHeaders, dlqName, group, throwable2,
 								determinDlqPartitionFunction(properties.getExtension().getDlqPartitions()),
 								headers, this.ackModeInfo.get(destination));
 					});
 				}
 				else {
+					if (fingerprint != null) {
+						dlqSender.sendStackTrace(stackTraceTopic, fingerprint, throwable);
+					}
 					dlqSender.sendToDlq(recordToSend.get(), kafkaHeaders, dlqName, group, throwable,
 							determinDlqPartitionFunction(properties.getExtension().getDlqPartitions()), headers, this.ackModeInfo.get(destination));
 				}
@@ -1345,9 +1743,6 @@ public class KafkaMessageChannelBinder extends
 
 		DefaultKafkaConsumerFactory<Object, Object> factory = new DefaultKafkaConsumerFactory<>(props);
 		factory.setBeanName(beanName);
-		if (this.clientFactoryCustomizer != null) {
-			this.clientFactoryCustomizer.configure(factory);
-		}
 		return factory;
 	}
 
@@ -1388,11 +1783,53 @@ public class KafkaMessageChannelBinder extends
 		return original.substring(0, maxCharacters) + "...";
 	}
 
-	private String getStackTraceAsString(Throwable cause) {
-		StringWriter stringWriter = new StringWriter();
-		PrintWriter printWriter = new PrintWriter(stringWriter, true);
-		cause.printStackTrace(printWriter);
-		return stringWriter.getBuffer().toString();
+	/**
+	 * Add the headers describing a failed record and its failure to the headers of the
+	 * record sent to the DLQ.
+	 * @param kafkaHeaders the headers of the DLQ record.
+	 * @param record the failed record.
+	 * @param throwable the failure.
+	 * @param fingerprint the fingerprint of the stack trace, when the stack traces are
+	 * sent to a separate topic; otherwise the stack trace itself is added.
+	 * @param properties the consumer properties of the binding.
+	 */
+	static void addDlqHeaders(Headers kafkaHeaders, ConsumerRecord<?, ?> record, Throwable throwable,
+			@Nullable String fingerprint, KafkaConsumerProperties properties) {
+
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TOPIC,
+				record.topic().getBytes(StandardCharsets.UTF_8)));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_PARTITION,
+				ByteBuffer.allocate(Integer.BYTES)
+						.putInt(record.partition()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_OFFSET, ByteBuffer
+				.allocate(Long.BYTES).putLong(record.offset()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP,
+				ByteBuffer.allocate(Long.BYTES)
+						.putLong(record.timestamp()).array()));
+		kafkaHeaders.add(new RecordHeader(X_ORIGINAL_TIMESTAMP_TYPE,
+				record.timestampType().toString()
+						.getBytes(StandardCharsets.UTF_8)));
+		kafkaHeaders.add(new RecordHeader(X_EXCEPTION_FQCN, throwable
+				.getClass().getName().getBytes(StandardCharsets.UTF_8)));
+		String exceptionMessage = throwable.getMessage();
+		if (exceptionMessage != null) {
+			kafkaHeaders.add(new RecordHeader(X_EXCEPTION_MESSAGE,
+					exceptionMessage.getBytes(StandardCharsets.UTF_8)));
+		}
+		if (fingerprint != null) {
+			kafkaHeaders.add(new RecordHeader(X_EXCEPTION_FINGERPRINT,
+					fingerprint.getBytes(StandardCharsets.UTF_8)));
+		}
+		else {
+			kafkaHeaders.add(new RecordHeader(X_EXCEPTION_STACKTRACE,
+					getStackTraceAsString(throwable, properties)
+							.getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+	private static String getStackTraceAsString(Throwable cause, KafkaConsumerProperties properties) {
+		return StackTraces.format(cause, properties.getDlqStackTraceMaxFrames(),
+				properties.getDlqStackTraceMaxBytes());
 	}
 
 	private final class ProducerConfigurationMessageHandler
@@ -1402,29 +1839,36 @@ public class KafkaMessageChannelBinder extends
 
 		private final ProducerFactory<byte[], byte[]> producerFactory;
 
+		private final SharedProducerFactory sharedProducerFactory;
+
+		private boolean acquired;
+
 		ProducerConfigurationMessageHandler(KafkaTemplate<byte[], byte[]> kafkaTemplate,
 				String topic,
 				ExtendedProducerProperties<KafkaProducerProperties> producerProperties,
-				ProducerFactory<byte[], byte[]> producerFactory) {
+				ProducerFactory<byte[], byte[]> producerFactory,
+				@Nullable SharedProducerFactory sharedProducerFactory) {
 
 			super(kafkaTemplate);
+			// the expressions evaluated for each message read the headers directly or are compiled
 			if (producerProperties.getExtension().isUseTopicHeader()) {
-				setTopicExpression(PARSER.parseExpression("headers['" + KafkaHeaders.TOPIC + "'] ?: '" + topic + "'"));
+				setTopicExpression(MessageExpressions.header(KafkaHeaders.TOPIC, topic));
 			}
 			else {
 				setTopicExpression(new LiteralExpression(topic));
 			}
 			Expression messageKeyExpression = producerProperties.getExtension().getMessageKeyExpression();
 			if (expressionInterceptorNeeded(producerProperties)) {
-				messageKeyExpression = PARSER.parseExpression("headers['"
-						+ KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER
-						+ "']");
+				messageKeyExpression = MessageExpressions.header(
+						KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER, null);
+			}
+			else if (messageKeyExpression != null) {
+				messageKeyExpression = MessageExpressions.compile(messageKeyExpression);
 			}
 			setMessageKeyExpression(messageKeyExpression);
 			setBeanFactory(KafkaMessageChannelBinder.this.getBeanFactory());
 			if (producerProperties.isPartitioned()) {
-				setPartitionIdExpression(PARSER.parseExpression(
-						"headers['" + BinderHeaders.PARTITION_HEADER + "']"));
+				setPartitionIdExpression(MessageExpressions.header(BinderHeaders.PARTITION_HEADER, null));
 			}
 			if (producerProperties.getExtension().isSync()) {
 				setSync(true);
@@ -1433,10 +1877,11 @@ public class KafkaMessageChannelBinder extends
 				setSendTimeoutExpression(producerProperties.getExtension().getSendTimeoutExpression());
 			}
 			this.producerFactory = producerFactory;
+			this.sharedProducerFactory = sharedProducerFactory;
 		}
 
 		@Override
-		public void start() {
+		public synchronized void start() {
 			try {
 				super.onInit();
 			}
@@ -1444,11 +1889,21 @@ public class KafkaMessageChannelBinder extends
 				this.logger.error("Initialization errors: ", ex);
 				throw new RuntimeException(ex);
 			}
+			if (this.sharedProducerFactory != null && !this.acquired) {
+				this.sharedProducerFactory.acquire();
+				this.acquired = true;
+			}
 		}
 
 		@Override
-		public void stop() {
-			if (this.producerFactory instanceof Lifecycle) {
+		public synchronized void stop() {
+			if (this.sharedProducerFactory != null) {
+				if (this.acquired) {
+					this.sharedProducerFactory.release();
+					this.acquired = false;
+				}
+			}
+			else if (this.producerFactory instanceof Lifecycle) {
 				((Lifecycle) producerFactory).stop();
 			}
 			this.running = false;
@@ -1461,6 +1916,40 @@ public class KafkaMessageChannelBinder extends
 
 	}
 
+	/**
+	 * A producer factory shared by the bindings with the same producer configuration;
+	 * its producer is closed when the last of these bindings stops.
+	 */
+	static final class SharedProducerFactory {
+
+		private final DefaultKafkaProducerFactory<byte[], byte[]> producerFactory;
+
+		private int users;
+
+		SharedProducerFactory(DefaultKafkaProducerFactory<byte[], byte[]> producerFactory) {
+			this.producerFactory = producerFactory;
+		}
+
+		DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory() {
+			return this.producerFactory;
+		}
+
+		synchronized int getUsers() {
+			return this.users;
+		}
+
+		synchronized void acquire() {
+			this.users++;
+		}
+
+		synchronized void release() {
+			if (--this.users == 0) {
+				this.producerFactory.reset();
+			}
+		}
+
+	}
+
 	/**
 	 * Inner class to capture topic details.
 	 */
@@ -1497,8 +1986,79 @@ public class KafkaMessageChannelBinder extends
 
 	}
 
+	/**
+	 * Inner class to capture the state of the records sent to a DLQ.
+	 */
+	static class DlqInformation {
+
+		private final String consumerGroup;
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final AtomicLong sendCount = new AtomicLong();
+
+		private final AtomicLong sendTime = new AtomicLong();
+
+		private final AtomicLong failureCount = new AtomicLong();
+
+		DlqInformation(String consumerGroup) {
+			this.consumerGroup = consumerGroup;
+		}
+
+		String getConsumerGroup() {
+			return this.consumerGroup;
+		}
+
+		/**
+		 * @return the number of records being sent.
+		 */
+		int getPending() {
+			return this.pending.get();
+		}
+
+		/**
+		 * @return the number of completed sends, successful or not.
+		 */
+		long getSendCount() {
+			return this.sendCount.get();
+		}
+
+		/**
+		 * @return the total time, in nanoseconds, of the completed sends.
+		 */
+		long getSendTime() {
+			return this.sendTime.get();
+		}
+
+		long getFailureCount() {
+			return this.failureCount.get();
+		}
+
+		void sending() {
+			this.pending.incrementAndGet();
+		}
+
+		void sent(boolean success, long nanos) {
+			this.sendTime.addAndGet(nanos);
+			this.sendCount.incrementAndGet();
+			if (!success) {
+				this.failureCount.incrementAndGet();
+			}
+			this.pending.decrementAndGet();
+		}
+
+	}
+
 	/**
 	 * Helper class to send to DLQ.
+	 * <p>
+	 * Records are sent without waiting for the previous sends to complete, so that they
+	 * are batched by the producer, up to a maximum number of records in flight. With
+	 * manual acks, a record is acknowledged once it and all the records sent before it
+	 * have been sent, so that a committed offset never goes past a record that is still
+	 * being sent. Once a record of a partition could not be sent, the later records of
+	 * that partition are no longer acknowledged, so that a committed offset never goes
+	 * past that record either, until it is received again, after a rebalance or restart.
 	 *
 	 * @param <K> generic type for key
 	 * @param <V> generic type for value
@@ -1507,8 +2067,30 @@ public class KafkaMessageChannelBinder extends
 
 		private final KafkaTemplate<K, V> kafkaTemplate;
 
-		DlqSender(KafkaTemplate<K, V> kafkaTemplate) {
+		@Nullable
+		private final KafkaTemplate<byte[], byte[]> stackTraceTemplate;
+
+		private final DlqInformation dlqInformation;
+
+		private final Semaphore inFlight;
+
+		private final Deque<PendingDlqRecord> pending = new ArrayDeque<>();
+
+		private final Set<String> sentStackTraces = ConcurrentHashMap.newKeySet();
+
+		/**
+		 * The lowest offset, by partition, of the records that could not be sent.
+		 */
+		private final Map<TopicPartition, Long> failedOffsets = new HashMap<>();
+
+		DlqSender(KafkaTemplate<K, V> kafkaTemplate, @Nullable KafkaTemplate<byte[], byte[]> stackTraceTemplate,
+				DlqInformation dlqInformation, int maxInFlight) {
+
+			Assert.isTrue(maxInFlight > 0, "'dlqMaxInFlight' must be greater than 0");
 			this.kafkaTemplate = kafkaTemplate;
+			this.stackTraceTemplate = stackTraceTemplate;
+			this.dlqInformation = dlqInformation;
+			this.inFlight = new Semaphore(maxInFlight);
 		}
 
 		@SuppressWarnings("unchecked")
@@ -1521,12 +2103,35 @@ public class KafkaMessageChannelBinder extends
 					partitionFunction.apply(group, consumerRecord, throwable),
 					key, value, headers);
 
-			StringBuilder sb = new StringBuilder().append(" a message with key='")
-					.append(toDisplayString(ObjectUtils.nullSafeToString(key), 50))
-					.append("'").append(" and payload='")
-					.append(toDisplayString(ObjectUtils.nullSafeToString(value), 50))
-					.append("'").append(" received from ")
-					.append(consumerRecord.partition());
+			Acknowledgment acknowledgment = null;
+			if (ackMode == ContainerProperties.AckMode.MANUAL || ackMode == ContainerProperties.AckMode.MANUAL_IMMEDIATE) {
+				acknowledgment = messageHeaders.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class);
+			}
+			TopicPartition topicPartition = new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+			PendingDlqRecord pendingRecord = new PendingDlqRecord(topicPartition, consumerRecord.offset(),
+					acknowledgment);
+			synchronized (this.pending) {
+				Long failedOffset = this.failedOffsets.get(topicPartition);
+				if (failedOffset != null && consumerRecord.offset() <= failedOffset) {
+					// redelivered
+					this.failedOffsets.remove(topicPartition);
+				}
+			}
+			try {
+				this.inFlight.acquire();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				synchronized (this.pending) {
+					failed(pendingRecord);
+				}
+				throw new KafkaException("Interrupted while waiting to send to DLQ " + describe(consumerRecord), ex);
+			}
+			synchronized (this.pending) {
+				this.pending.add(pendingRecord);
+			}
+			this.dlqInformation.sending();
+			long start = System.nanoTime();
 			ListenableFuture<SendResult<K, V>> sentDlq = null;
 			try {
 				sentDlq = this.kafkaTemplate.send(producerRecord);
@@ -1535,28 +2140,129 @@ public class KafkaMessageChannelBinder extends
 					@Override
 					public void onFailure(Throwable ex) {
 						KafkaMessageChannelBinder.this.logger
-								.error("Error sending to DLQ " + sb.toString(), ex);
+								.error("Error sending to DLQ " + describe(consumerRecord), ex);
+						complete(pendingRecord, false, start);
 					}
 
 					@Override
 					public void onSuccess(SendResult<K, V> result) {
 						if (KafkaMessageChannelBinder.this.logger.isDebugEnabled()) {
 							KafkaMessageChannelBinder.this.logger
-									.debug("Sent to DLQ " + sb.toString());
-						}
-						if (ackMode == ContainerProperties.AckMode.MANUAL || ackMode == ContainerProperties.AckMode.MANUAL_IMMEDIATE) {
-							messageHeaders.get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class).acknowledge();
+									.debug("Sent to DLQ " + describe(consumerRecord));
 						}
+						complete(pendingRecord, true, start);
 					}
 				});
 			}
 			catch (Exception ex) {
 				if (sentDlq == null) {
 					KafkaMessageChannelBinder.this.logger
-							.error("Error sending to DLQ " + sb.toString(), ex);
+							.error("Error sending to DLQ " + describe(consumerRecord), ex);
+					complete(pendingRecord, false, start);
+				}
+			}
+
+		}
+
+		/**
+		 * Send a stack trace, unless it has already been sent, keyed by its fingerprint,
+		 * with the stack trace template.
+		 */
+		void sendStackTrace(String topic, String fingerprint, Throwable throwable) {
+			Assert.state(this.stackTraceTemplate != null, "No stack trace topic");
+			if (this.sentStackTraces.size() >= MAX_SENT_STACK_TRACES) {
+				this.sentStackTraces.clear();
+			}
+			if (!this.sentStackTraces.add(fingerprint)) {
+				return;
+			}
+			ProducerRecord<byte[], byte[]> producerRecord = new ProducerRecord<>(topic,
+					fingerprint.getBytes(StandardCharsets.UTF_8),
+					StackTraces.print(throwable).getBytes(StandardCharsets.UTF_8));
+			ListenableFuture<SendResult<byte[], byte[]>> sent = null;
+			try {
+				sent = this.stackTraceTemplate.send(producerRecord);
+				sent.addCallback(result -> { }, ex -> {
+					KafkaMessageChannelBinder.this.logger
+							.error("Error sending stack trace " + fingerprint + " to " + topic, ex);
+					this.sentStackTraces.remove(fingerprint);
+				});
+			}
+			catch (Exception ex) {
+				if (sent == null) {
+					KafkaMessageChannelBinder.this.logger
+							.error("Error sending stack trace " + fingerprint + " to " + topic, ex);
+					this.sentStackTraces.remove(fingerprint);
+				}
+			}
+		}
+
+		private void complete(PendingDlqRecord pendingRecord, boolean success, long start) {
+			this.dlqInformation.sent(success, System.nanoTime() - start);
+			synchronized (this.pending) {
+				pendingRecord.done = true;
+				pendingRecord.success = success;
+				while (!this.pending.isEmpty() && this.pending.peek().done) {
+					PendingDlqRecord head = this.pending.poll();
+					if (!head.success) {
+						failed(head);
+					}
+					else if (head.acknowledgment != null) {
+						Long failedOffset = this.failedOffsets.get(head.topicPartition);
+						if (failedOffset == null || head.offset < failedOffset) {
+							head.acknowledgment.acknowledge();
+						}
+					}
+				}
+			}
+			this.inFlight.release();
+		}
+
+		/**
+		 * Stop acknowledging the records of the partition of a record that could not be
+		 * sent, from its offset on; must be called while holding the pending lock.
+		 */
+		private void failed(PendingDlqRecord record) {
+			Long failedOffset = this.failedOffsets.get(record.topicPartition);
+			if (failedOffset == null || record.offset < failedOffset) {
+				this.failedOffsets.put(record.topicPartition, record.offset);
+				if (record.acknowledgment != null) {
+					KafkaMessageChannelBinder.this.logger.error("The records of " + record.topicPartition
+							+ " are no longer acknowledged from offset " + record.offset
+							+ ", which could not be sent to the DLQ, until it is received again");
 				}
 			}
+		}
+
+		private String describe(ConsumerRecord<?, ?> consumerRecord) {
+			return " a message with key='"
+					+ toDisplayString(ObjectUtils.nullSafeToString(consumerRecord.key()), 50)
+					+ "'" + " and payload='"
+					+ toDisplayString(ObjectUtils.nullSafeToString(consumerRecord.value()), 50)
+					+ "'" + " received from " + consumerRecord.partition();
+		}
+
+	}
+
+	/**
+	 * A record being sent to the DLQ.
+	 */
+	private static final class PendingDlqRecord {
+
+		private final TopicPartition topicPartition;
+
+		private final long offset;
+
+		private final Acknowledgment acknowledgment;
+
+		private boolean done;
+
+		private boolean success;
 
+		PendingDlqRecord(TopicPartition topicPartition, long offset, @Nullable Acknowledgment acknowledgment) {
+			this.topicPartition = topicPartition;
+			this.offset = offset;
+			this.acknowledgment = acknowledgment;
 		}
 
 	}
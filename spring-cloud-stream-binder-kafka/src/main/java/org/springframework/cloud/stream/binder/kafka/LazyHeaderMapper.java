@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Map;
+
+import org.apache.kafka.common.header.Headers;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * A header mapper that maps the headers of inbound records on demand: only the content
+ * type is mapped eagerly, and the other Kafka headers are exposed through a
+ * {@link LazyHeaders} view in the {@link BinderHeaderMapper#LAZY_HEADERS} header.
+ * Outbound headers are mapped by the delegate.
+ *
+ * @since 3.1
+ */
+final class LazyHeaderMapper implements KafkaHeaderMapper {
+
+	private final KafkaHeaderMapper delegate;
+
+	LazyHeaderMapper(KafkaHeaderMapper delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void fromHeaders(MessageHeaders headers, Headers target) {
+		this.delegate.fromHeaders(headers, target);
+	}
+
+	@Override
+	public void toHeaders(Headers source, Map<String, Object> headers) {
+		if (!source.iterator().hasNext()) {
+			return;
+		}
+		LazyHeaders lazyHeaders = new LazyHeaders(source, this.delegate);
+		// the content type is needed to convert the payload
+		Object contentType = lazyHeaders.get(MessageHeaders.CONTENT_TYPE);
+		if (contentType != null) {
+			headers.put(MessageHeaders.CONTENT_TYPE, contentType);
+		}
+		headers.put(BinderHeaders.NATIVE_HEADERS_PRESENT, Boolean.TRUE);
+		headers.put(BinderHeaderMapper.LAZY_HEADERS, lazyHeaders);
+	}
+
+}
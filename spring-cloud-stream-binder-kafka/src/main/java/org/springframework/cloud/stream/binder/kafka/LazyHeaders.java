@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+
+/**
+ * A read only view of the Kafka headers of a record, that maps a header with a
+ * {@link KafkaHeaderMapper} only when it is first requested; the mapped headers are
+ * retained. Iterating the view maps all the headers.
+ *
+ * @since 3.1
+ */
+final class LazyHeaders extends AbstractMap<String, Object> {
+
+	private static final Object ABSENT = new Object();
+
+	private final Headers source;
+
+	private final KafkaHeaderMapper headerMapper;
+
+	private final Map<String, Object> mapped = new ConcurrentHashMap<>();
+
+	private volatile Map<String, Object> all;
+
+	LazyHeaders(Headers source, KafkaHeaderMapper headerMapper) {
+		this.source = source;
+		this.headerMapper = headerMapper;
+	}
+
+	@Override
+	public Object get(Object key) {
+		Map<String, Object> all = this.all;
+		if (all != null) {
+			return all.get(key);
+		}
+		if (!(key instanceof String)) {
+			return null;
+		}
+		Object value = this.mapped.get(key);
+		if (value == null) {
+			value = map((String) key);
+			this.mapped.put((String) key, value == null ? ABSENT : value);
+		}
+		return value == ABSENT ? null : value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		Map<String, Object> all = this.all;
+		if (all == null) {
+			Map<String, Object> headers = new LinkedHashMap<>();
+			this.headerMapper.toHeaders(this.source, headers);
+			headers.remove(BinderHeaders.NATIVE_HEADERS_PRESENT);
+			all = Collections.unmodifiableMap(headers);
+			this.all = all;
+		}
+		return all.entrySet();
+	}
+
+	@Override
+	public String toString() {
+		// logging a message does not map its headers
+		Map<String, Object> all = this.all;
+		return all != null ? all.toString() : this.source.toString();
+	}
+
+	private Object map(String key) {
+		Header header = this.source.lastHeader(key);
+		if (header == null) {
+			return null;
+		}
+		// the mapper needs the headers describing how the others are encoded
+		Headers headers = new RecordHeaders();
+		addIfPresent(BinaryHeaderCodec.BINARY_HEADERS, headers);
+		addIfPresent(BinderHeaderMapper.JSON_TYPES, headers);
+		headers.add(header);
+		Map<String, Object> target = new HashMap<>(4);
+		this.headerMapper.toHeaders(headers, target);
+		return target.get(key);
+	}
+
+	private void addIfPresent(String key, Headers headers) {
+		Header header = this.source.lastHeader(key);
+		if (header != null) {
+			headers.add(header);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+
+/**
+ * Faster equivalents of the expressions evaluated for each message by the bindings: an
+ * expression reading a single header is replaced by a function reading it directly, and
+ * the other SpEL expressions are compiled to bytecode once they have been evaluated a
+ * few times; they fall back to interpretation when compilation is not possible.
+ *
+ * @since 3.1
+ */
+public final class MessageExpressions {
+
+	private static final Pattern HEADER_PATTERN = Pattern
+			.compile("^\\s*headers(?:\\s*\\[\\s*'([^']+)'\\s*\\]|\\.([\\w$]+))\\s*$");
+
+	private static final SpelExpressionParser COMPILING_PARSER = new SpelExpressionParser(
+			new SpelParserConfiguration(SpelCompilerMode.MIXED, MessageExpressions.class.getClassLoader()));
+
+	private MessageExpressions() {
+	}
+
+	/**
+	 * Return an expression evaluating to the same value as the provided one against a
+	 * message.
+	 * @param expression the expression.
+	 * @return the equivalent expression, or the provided one when it is not a SpEL
+	 * expression.
+	 */
+	public static Expression compile(Expression expression) {
+		if (expression instanceof SpelExpression) {
+			Matcher matcher = HEADER_PATTERN.matcher(expression.getExpressionString());
+			if (matcher.matches()) {
+				return header(matcher.group(1) != null ? matcher.group(1) : matcher.group(2), null);
+			}
+		}
+		return compileSpel(expression);
+	}
+
+	/**
+	 * Return a SpEL expression that is compiled once it has been evaluated a few times,
+	 * whatever its root object.
+	 * @param expression the expression.
+	 * @return the compiling expression, or the provided one when it is not a SpEL
+	 * expression.
+	 */
+	static Expression compileSpel(Expression expression) {
+		if (!(expression instanceof SpelExpression)) {
+			return expression;
+		}
+		return COMPILING_PARSER.parseExpression(expression.getExpressionString());
+	}
+
+	/**
+	 * Return an expression evaluating to a header of a message; with a default value,
+	 * it is equivalent to {@code headers['name'] ?: defaultValue}.
+	 * @param name the header name.
+	 * @param defaultValue the value when the header is not present or, as with the Elvis
+	 * operator, is an empty String; null to return the header as is.
+	 * @return the expression.
+	 */
+	public static Expression header(String name, @Nullable Object defaultValue) {
+		return new FunctionExpression<Message<?>>(message -> {
+			Object value = message.getHeaders().get(name);
+			return value == null || defaultValue != null && "".equals(value) ? defaultValue : value;
+		});
+	}
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Tracks the records received by the consumers of a container, which may be
+ * acknowledged in any order and from any thread, and commits, for each partition, the
+ * offset following its last record whose predecessors are all acknowledged.
+ * <p>
+ * The acknowledged offsets of a partition are kept in a bit set that starts at the
+ * lowest offset not acknowledged, and is compacted as that offset advances. The offsets
+ * are committed asynchronously by the consumer threads, at most once per commit
+ * interval, when they receive records or are idle, and synchronously when partitions
+ * are revoked; the container must not commit offsets itself, see
+ * {@link #configure(AbstractMessageListenerContainer)}.
+ *
+ * @since 3.1
+ */
+final class OffsetTracker {
+
+	private static final Log logger = LogFactory.getLog(OffsetTracker.class);
+
+	private static final int COMPACTION_THRESHOLD = 1024;
+
+	private static final long MIN_IDLE_COMMIT_INTERVAL = 100;
+
+	private final Map<TopicPartition, PartitionAcks> partitions = new ConcurrentHashMap<>();
+
+	private final Map<Consumer<?, ?>, Long> lastCommits = new ConcurrentHashMap<>();
+
+	private final long commitInterval;
+
+	/**
+	 * Create an instance.
+	 * @param commitInterval the minimum interval between two asynchronous commits of a
+	 * consumer, in milliseconds.
+	 */
+	OffsetTracker(long commitInterval) {
+		Assert.isTrue(commitInterval > 0, "'ackCommitInterval' must be positive");
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Configure a container so that its offsets are committed by this tracker: the
+	 * container uses {@code AckMode.MANUAL}, and its acknowledgments are not used; the
+	 * rebalance listener of the container must not be replaced afterwards.
+	 * @param container the container.
+	 */
+	void configure(AbstractMessageListenerContainer<?, ?> container) {
+		ContainerProperties containerProperties = container.getContainerProperties();
+		containerProperties.setAckMode(ContainerProperties.AckMode.MANUAL);
+		containerProperties.setConsumerRebalanceListener(
+				rebalanceListener(containerProperties.getConsumerRebalanceListener()));
+		ContainerIdleCallbacks.register(container, Math.max(this.commitInterval, MIN_IDLE_COMMIT_INTERVAL),
+				this::commitIfDue);
+	}
+
+	/**
+	 * Return a listener that tracks the records, and hands them to a listener with an
+	 * acknowledgment of this tracker; must be used by a container configured by this
+	 * tracker.
+	 * @param delegate the listener.
+	 * @param ackOnError whether the records are acknowledged when the listener throws an
+	 * exception.
+	 * @return the tracking listener.
+	 */
+	TrackingListener trackingListener(Object delegate, boolean ackOnError) {
+		return new TrackingListener(delegate, ackOnError);
+	}
+
+	/**
+	 * Stop tracking the records of all the partitions; must be called before the
+	 * container starts.
+	 */
+	void clear() {
+		this.partitions.clear();
+		this.lastCommits.clear();
+	}
+
+	/**
+	 * Track a record received by a consumer, and commit the acknowledged offsets of the
+	 * consumer if the commit interval has elapsed; must be called on the consumer thread,
+	 * in the order the records are received.
+	 * @param record the record.
+	 * @param consumer the consumer.
+	 */
+	void received(ConsumerRecord<?, ?> record, Consumer<?, ?> consumer) {
+		TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+		PartitionAcks acks = this.partitions.get(partition);
+		if (acks == null || acks.consumer != consumer) {
+			acks = new PartitionAcks(consumer);
+			this.partitions.put(partition, acks);
+		}
+		acks.received(record.offset());
+		commitIfDue(consumer);
+	}
+
+	/**
+	 * Return an acknowledgment of a record received by a consumer; the acknowledgment can
+	 * be used from any thread, more than once.
+	 * @param record the record.
+	 * @return the acknowledgment.
+	 */
+	Acknowledgment acknowledgment(ConsumerRecord<?, ?> record) {
+		PartitionAcks acks = this.partitions.get(new TopicPartition(record.topic(), record.partition()));
+		Assert.state(acks != null, "The record was not received");
+		long offset = record.offset();
+		return () -> acks.acknowledged(offset);
+	}
+
+	/**
+	 * Return the number of records of a partition that are not acknowledged.
+	 * @param partition the partition.
+	 * @return the number of records.
+	 */
+	long getPendingCount(TopicPartition partition) {
+		PartitionAcks acks = this.partitions.get(partition);
+		return acks == null ? 0 : acks.pending();
+	}
+
+	/**
+	 * Commit asynchronously the acknowledged offsets of a consumer if the commit interval
+	 * has elapsed since the last commit; must be called on the consumer thread.
+	 * @param consumer the consumer.
+	 */
+	void commitIfDue(Consumer<?, ?> consumer) {
+		long now = System.currentTimeMillis();
+		Long lastCommit = this.lastCommits.get(consumer);
+		if (lastCommit != null && now - lastCommit < this.commitInterval) {
+			return;
+		}
+		this.lastCommits.put(consumer, now);
+		Map<TopicPartition, OffsetAndMetadata> offsets = committable(consumer, this.partitions.keySet());
+		if (!offsets.isEmpty()) {
+			consumer.commitAsync(offsets, (committed, exception) -> {
+				if (exception != null) {
+					logger.warn("Failed to commit " + committed, exception);
+				}
+				else {
+					committed(committed);
+				}
+			});
+		}
+	}
+
+	private void commit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+		Map<TopicPartition, OffsetAndMetadata> offsets = committable(consumer, partitions);
+		if (!offsets.isEmpty()) {
+			try {
+				consumer.commitSync(offsets);
+				committed(offsets);
+			}
+			catch (RuntimeException ex) {
+				logger.warn("Failed to commit " + offsets, ex);
+			}
+		}
+	}
+
+	private Map<TopicPartition, OffsetAndMetadata> committable(Consumer<?, ?> consumer,
+			Collection<TopicPartition> partitions) {
+
+		Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+		for (TopicPartition partition : partitions) {
+			PartitionAcks acks = this.partitions.get(partition);
+			if (acks != null && acks.consumer == consumer) {
+				long watermark = acks.watermark();
+				if (watermark > acks.committed) {
+					offsets.put(partition, new OffsetAndMetadata(watermark));
+				}
+			}
+		}
+		return offsets;
+	}
+
+	private void committed(Map<TopicPartition, OffsetAndMetadata> offsets) {
+		offsets.forEach((partition, offset) -> {
+			PartitionAcks acks = this.partitions.get(partition);
+			if (acks != null) {
+				acks.committed = Math.max(acks.committed, offset.offset());
+			}
+		});
+	}
+
+	private ConsumerAwareRebalanceListener rebalanceListener(
+			@Nullable ConsumerRebalanceListener rebalanceListener) {
+
+		ConsumerAwareRebalanceListener delegate = rebalanceListener instanceof ConsumerAwareRebalanceListener
+				? (ConsumerAwareRebalanceListener) rebalanceListener
+				: new ConsumerAwareRebalanceListener() {
+
+					@Override
+					public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+						if (rebalanceListener != null) {
+							rebalanceListener.onPartitionsRevoked(partitions);
+						}
+					}
+
+					@Override
+					public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+						if (rebalanceListener != null) {
+							rebalanceListener.onPartitionsAssigned(partitions);
+						}
+					}
+
+				};
+		return new ConsumerAwareRebalanceListener() {
+
+			@Override
+			public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				commit(consumer, partitions);
+				delegate.onPartitionsRevokedBeforeCommit(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				partitions.forEach(OffsetTracker.this.partitions::remove);
+				delegate.onPartitionsRevokedAfterCommit(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+				partitions.forEach(OffsetTracker.this.partitions::remove);
+				delegate.onPartitionsLost(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+				delegate.onPartitionsAssigned(consumer, partitions);
+			}
+
+		};
+	}
+
+	/**
+	 * A listener that tracks the records, and hands them to a listener with an
+	 * acknowledgment of the tracker.
+	 */
+	final class TrackingListener implements AcknowledgingConsumerAwareMessageListener<Object, Object> {
+
+		private final AcknowledgingConsumerAwareMessageListener<Object, Object> delegate;
+
+		private final boolean ackOnError;
+
+		@SuppressWarnings("unchecked")
+		private TrackingListener(Object delegate, boolean ackOnError) {
+			Assert.isInstanceOf(AcknowledgingConsumerAwareMessageListener.class, delegate,
+					"Acknowledgment tracking requires a record listener");
+			this.delegate = (AcknowledgingConsumerAwareMessageListener<Object, Object>) delegate;
+			this.ackOnError = ackOnError;
+		}
+
+		@Override
+		public void onMessage(ConsumerRecord<Object, Object> record, @Nullable Acknowledgment acknowledgment,
+				Consumer<?, ?> consumer) {
+
+			received(record, consumer);
+			Acknowledgment trackerAcknowledgment = acknowledgment(record);
+			try {
+				this.delegate.onMessage(record, trackerAcknowledgment, consumer);
+			}
+			catch (RuntimeException ex) {
+				if (this.ackOnError) {
+					trackerAcknowledgment.acknowledge();
+				}
+				throw ex;
+			}
+		}
+
+	}
+
+	private static final class PartitionAcks {
+
+		private final Consumer<?, ?> consumer;
+
+		private BitSet acknowledged = new BitSet();
+
+		/*
+		 * The offset of the first bit.
+		 */
+		private long origin = -1;
+
+		/*
+		 * The lowest offset that is not acknowledged.
+		 */
+		private long watermark = -1;
+
+		/*
+		 * The offset following the last record received.
+		 */
+		private long next = -1;
+
+		private volatile long committed = -1;
+
+		PartitionAcks(Consumer<?, ?> consumer) {
+			this.consumer = consumer;
+		}
+
+		synchronized void received(long offset) {
+			if (this.origin < 0) {
+				// the consumer position: the committed offset, unless it was reset
+				this.committed = offset;
+			}
+			if (this.origin < 0 || offset < this.watermark) {
+				// first record, or redelivered after a seek
+				this.acknowledged.clear();
+				this.origin = offset;
+				this.watermark = offset;
+			}
+			else if (offset > this.next) {
+				// no record has these offsets (compaction, transaction markers)
+				this.acknowledged.set(index(this.next), index(offset));
+			}
+			else if (offset < this.next) {
+				// redelivered after a seek, and so are the records that follow it
+				this.acknowledged.clear(index(offset), index(this.next));
+			}
+			this.next = offset + 1;
+			advance();
+		}
+
+		synchronized void acknowledged(long offset) {
+			if (offset >= this.watermark && offset < this.next) {
+				this.acknowledged.set(index(offset));
+				advance();
+			}
+		}
+
+		synchronized long watermark() {
+			return this.watermark;
+		}
+
+		synchronized long pending() {
+			int from = index(this.watermark);
+			int to = index(this.next);
+			long pending = to - from;
+			for (int i = this.acknowledged.nextSetBit(from); i >= 0 && i < to;
+					i = this.acknowledged.nextSetBit(i + 1)) {
+				pending--;
+			}
+			return pending;
+		}
+
+		private void advance() {
+			int first = this.acknowledged.nextClearBit(index(this.watermark));
+			this.watermark = this.origin + first;
+			if (first >= COMPACTION_THRESHOLD) {
+				this.acknowledged = this.acknowledged.get(first, Math.max(first, this.acknowledged.length()));
+				this.origin = this.watermark;
+			}
+		}
+
+		private int index(long offset) {
+			return (int) (offset - this.origin);
+		}
+
+	}
+
+}
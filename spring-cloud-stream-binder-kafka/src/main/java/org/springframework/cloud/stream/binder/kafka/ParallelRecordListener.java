@@ -0,0 +1,472 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ErrorHandler;
+import org.springframework.kafka.listener.GenericErrorHandler;
+import org.springframework.kafka.listener.RemainingRecordsErrorHandler;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A record listener that hands the records received by the consumer thread to a number
+ * of single threaded lanes, and returns immediately: the records with the same key are
+ * always handed to the same lane, so that they are processed in order, and the records
+ * without a key are handed to the lane of their partition.
+ * <p>
+ * The consumer thread never waits for the lanes: when a consumer has the maximum number
+ * of records in flight, its partitions are paused until the lanes catch up; the records
+ * it has already fetched are still handed to the lanes.
+ * <p>
+ * The offsets are committed by an {@link OffsetTracker}: the records are acknowledged
+ * once processed or, when the listener is not auto acknowledging, when the application
+ * acknowledges them. A record whose processing fails is acknowledged when
+ * {@code ackOnError} is true; otherwise it is handed, on the consumer thread, to the
+ * error handler of the container, a {@link SeekToCurrentErrorHandler} by default. The
+ * record is acknowledged once handled if the error handler acknowledges after handling;
+ * if the error handler throws an exception, the partition is rewound to the record, and
+ * the records that follow it are redelivered.
+ *
+ * @since 3.1
+ */
+final class ParallelRecordListener implements AcknowledgingConsumerAwareMessageListener<Object, Object> {
+
+	private static final Log logger = LogFactory.getLog(ParallelRecordListener.class);
+
+	private static final long DRAIN_CHECK_INTERVAL = 10;
+
+	private static final long IDLE_CHECK_INTERVAL = 100;
+
+	private final String name;
+
+	private final int parallelism;
+
+	private final int maxInFlight;
+
+	private final OffsetTracker offsetTracker;
+
+	private final boolean autoAck;
+
+	private final boolean ackOnError;
+
+	private final long drainTimeout;
+
+	private final Map<Consumer<?, ?>, ConsumerState> consumers = new ConcurrentHashMap<>();
+
+	private final ErrorHandler defaultErrorHandler = new SeekToCurrentErrorHandler();
+
+	private AcknowledgingConsumerAwareMessageListener<Object, Object> delegate;
+
+	private AbstractMessageListenerContainer<?, ?> container;
+
+	private volatile ExecutorService[] lanes;
+
+	/**
+	 * Create an instance.
+	 * @param name the name of the lane threads.
+	 * @param parallelism the number of lanes.
+	 * @param maxInFlight the number of records of a consumer handed to the lanes and not
+	 * yet processed above which the partitions of the consumer are paused.
+	 * @param offsetTracker the tracker committing the offsets of the container.
+	 * @param autoAck whether the records are acknowledged once processed, instead of by
+	 * the application.
+	 * @param ackOnError whether the records whose processing fails are acknowledged,
+	 * instead of being handed to the error handler of the container.
+	 * @param drainTimeout how long to wait for the records in flight to be processed when
+	 * the container stops or partitions are revoked, in milliseconds.
+	 */
+	ParallelRecordListener(String name, int parallelism, int maxInFlight, OffsetTracker offsetTracker,
+			boolean autoAck, boolean ackOnError, long drainTimeout) {
+
+		Assert.isTrue(parallelism > 1, "'parallelism' must be greater than 1");
+		Assert.isTrue(maxInFlight > 0, "'maxInFlightRecords' must be positive");
+		this.name = name;
+		this.parallelism = parallelism;
+		this.maxInFlight = maxInFlight;
+		this.offsetTracker = offsetTracker;
+		this.autoAck = autoAck;
+		this.ackOnError = ackOnError;
+		this.drainTimeout = drainTimeout;
+	}
+
+	/**
+	 * Set the listener processing the records on the lanes; it receives no consumer, and
+	 * an acknowledgment only when this listener is not auto acknowledging.
+	 * @param delegate the listener.
+	 */
+	@SuppressWarnings("unchecked")
+	void setDelegate(Object delegate) {
+		Assert.isInstanceOf(AcknowledgingConsumerAwareMessageListener.class, delegate,
+				"Parallel processing requires a record listener");
+		this.delegate = (AcknowledgingConsumerAwareMessageListener<Object, Object>) delegate;
+	}
+
+	/**
+	 * Configure the container using this listener, so that its consumer threads resume
+	 * their partitions and handle the failed records when they receive no records; its
+	 * error handler is resolved when a record fails.
+	 * @param container the container.
+	 */
+	void configure(AbstractMessageListenerContainer<?, ?> container) {
+		this.container = container;
+		ContainerIdleCallbacks.register(container, IDLE_CHECK_INTERVAL, consumer -> {
+			ConsumerState state = this.consumers.get(consumer);
+			if (state != null) {
+				state.handleFailures();
+				state.pauseOrResume();
+			}
+		});
+	}
+
+	/**
+	 * Start the lanes; must be called before the container starts.
+	 */
+	void start() {
+		this.consumers.clear();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(this.name + "-");
+		ExecutorService[] lanes = new ExecutorService[this.parallelism];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+		}
+		this.lanes = lanes;
+	}
+
+	/**
+	 * Stop handing the records to the lanes, wait for the records in flight to be
+	 * processed, and stop the lanes; must be called before the container stops, so that
+	 * the records processed in the meantime are committed when the partitions are
+	 * revoked. The records received afterwards, and the failed records not yet handled,
+	 * are not acknowledged, and are redelivered when the container restarts.
+	 */
+	void stop() {
+		ExecutorService[] lanes = this.lanes;
+		if (lanes == null) {
+			return;
+		}
+		this.lanes = null;
+		if (!awaitDrained(null)) {
+			logger.warn(this.name + ": records are still being processed after "
+					+ this.drainTimeout + "ms; they will be redelivered");
+		}
+		Arrays.stream(lanes).forEach(ExecutorService::shutdown);
+	}
+
+	@Override
+	public void onMessage(ConsumerRecord<Object, Object> record, @Nullable Acknowledgment acknowledgment,
+			Consumer<?, ?> consumer) {
+
+		ConsumerState state = this.consumers.computeIfAbsent(consumer, ConsumerState::new);
+		state.handleFailures();
+		ExecutorService[] lanes = this.lanes;
+		if (lanes == null || state.isRewoundPast(record)) {
+			// stopping, or fetched before its partition was rewound: the record is redelivered
+			return;
+		}
+		this.offsetTracker.received(record, consumer);
+		Acknowledgment trackerAcknowledgment = this.offsetTracker.acknowledgment(record);
+		state.inFlight.incrementAndGet();
+		lanes[lane(record, lanes.length)].execute(() -> process(record, trackerAcknowledgment, state));
+		state.pauseOrResume();
+	}
+
+	private void process(ConsumerRecord<Object, Object> record, Acknowledgment acknowledgment,
+			ConsumerState state) {
+
+		try {
+			this.delegate.onMessage(record, this.autoAck ? null : acknowledgment, null);
+			if (this.autoAck) {
+				acknowledgment.acknowledge();
+			}
+		}
+		catch (RuntimeException ex) {
+			if (this.ackOnError) {
+				acknowledgment.acknowledge();
+			}
+			else {
+				state.failures.add(new FailedRecord(record, acknowledgment, ex));
+			}
+		}
+		finally {
+			state.inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wrap the rebalance listener of the container, so that the records in flight are
+	 * processed before the offsets of the revoked partitions are committed.
+	 * @param rebalanceListener the rebalance listener, committing the offsets.
+	 * @return the wrapping rebalance listener.
+	 */
+	ConsumerAwareRebalanceListener rebalanceListener(ConsumerAwareRebalanceListener rebalanceListener) {
+		return new ConsumerAwareRebalanceListener() {
+
+			@Override
+			public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				if (!awaitDrained(consumer)) {
+					logger.warn(ParallelRecordListener.this.name + ": records are still being processed after "
+							+ ParallelRecordListener.this.drainTimeout + "ms; the records of " + partitions
+							+ " may be redelivered to another consumer");
+				}
+				revoked(consumer, partitions);
+				rebalanceListener.onPartitionsRevokedBeforeCommit(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer,
+					Collection<TopicPartition> partitions) {
+
+				rebalanceListener.onPartitionsRevokedAfterCommit(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+				revoked(consumer, partitions);
+				rebalanceListener.onPartitionsLost(consumer, partitions);
+			}
+
+			@Override
+			public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+				rebalanceListener.onPartitionsAssigned(consumer, partitions);
+			}
+
+		};
+	}
+
+	private void revoked(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+		ConsumerState state = this.consumers.get(consumer);
+		if (state != null) {
+			// the failed records are not acknowledged, and are redelivered to the new owner
+			state.failures.removeIf(failed -> partitions.contains(failed.partition()));
+			state.rewound.keySet().removeAll(partitions);
+			state.paused.removeAll(partitions);
+		}
+	}
+
+	/**
+	 * Wait for the records in flight of a consumer, or of all the consumers, to be
+	 * processed.
+	 */
+	private boolean awaitDrained(@Nullable Consumer<?, ?> consumer) {
+		long deadline = System.currentTimeMillis() + this.drainTimeout;
+		while (inFlight(consumer) > 0) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(DRAIN_CHECK_INTERVAL);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int inFlight(@Nullable Consumer<?, ?> consumer) {
+		if (consumer == null) {
+			return this.consumers.values().stream().mapToInt(state -> state.inFlight.get()).sum();
+		}
+		ConsumerState state = this.consumers.get(consumer);
+		return state == null ? 0 : state.inFlight.get();
+	}
+
+	private static int lane(ConsumerRecord<?, ?> record, int lanes) {
+		Object key = record.key();
+		int hash;
+		if (key == null) {
+			hash = 31 * record.topic().hashCode() + record.partition();
+		}
+		else if (key instanceof byte[]) {
+			hash = Arrays.hashCode((byte[]) key);
+		}
+		else {
+			hash = key.hashCode();
+		}
+		return (hash & Integer.MAX_VALUE) % lanes;
+	}
+
+	/**
+	 * The records of a consumer in flight and failed; but for the counter and the queue
+	 * of failed records, only used by the consumer thread.
+	 */
+	private final class ConsumerState {
+
+		private final Consumer<?, ?> consumer;
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private final Queue<FailedRecord> failures = new ConcurrentLinkedQueue<>();
+
+		/*
+		 * The partitions rewound to a failed record, with the offset of the record.
+		 */
+		private final Map<TopicPartition, Long> rewound = new ConcurrentHashMap<>();
+
+		/*
+		 * The partitions paused because too many records are in flight.
+		 */
+		private final Set<TopicPartition> paused = ConcurrentHashMap.newKeySet();
+
+		ConsumerState(Consumer<?, ?> consumer) {
+			this.consumer = consumer;
+		}
+
+		void handleFailures() {
+			FailedRecord failed;
+			while ((failed = this.failures.poll()) != null) {
+				TopicPartition partition = failed.partition();
+				long offset = failed.record.offset();
+				Long rewoundOffset = this.rewound.get(partition);
+				if (rewoundOffset != null && offset >= rewoundOffset) {
+					// redelivered anyway
+					continue;
+				}
+				if (handle(failed)) {
+					if (errorHandler().isAckAfterHandle()) {
+						failed.acknowledgment.acknowledge();
+					}
+				}
+				else {
+					this.consumer.seek(partition, offset);
+					this.rewound.put(partition, offset);
+				}
+			}
+		}
+
+		private boolean handle(FailedRecord failed) {
+			ErrorHandler errorHandler = errorHandler();
+			try {
+				if (errorHandler instanceof RemainingRecordsErrorHandler) {
+					errorHandler.handle(failed.exception, Collections.singletonList(failed.record), this.consumer,
+							ParallelRecordListener.this.container);
+				}
+				else {
+					errorHandler.handle(failed.exception, failed.record, this.consumer);
+				}
+				return true;
+			}
+			catch (RuntimeException ex) {
+				logger.error("Failed to process " + failed.partition() + "@" + failed.record.offset()
+						+ "; it will be redelivered", ex);
+				return false;
+			}
+		}
+
+		private ErrorHandler errorHandler() {
+			GenericErrorHandler<?> errorHandler = ParallelRecordListener.this.container == null ? null
+					: ParallelRecordListener.this.container.getGenericErrorHandler();
+			return errorHandler instanceof ErrorHandler ? (ErrorHandler) errorHandler
+					: ParallelRecordListener.this.defaultErrorHandler;
+		}
+
+		/**
+		 * Whether a record was fetched before its partition was rewound to a record
+		 * preceding it; the position of the partition is still the offset of that record
+		 * until records are fetched again.
+		 */
+		boolean isRewoundPast(ConsumerRecord<?, ?> record) {
+			if (this.rewound.isEmpty()) {
+				return false;
+			}
+			TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+			Long offset = this.rewound.get(partition);
+			if (offset == null) {
+				return false;
+			}
+			if (record.offset() > offset && this.consumer.position(partition) == offset) {
+				return true;
+			}
+			this.rewound.remove(partition);
+			return false;
+		}
+
+		/**
+		 * Pause the partitions of the consumer when too many records are in flight, and
+		 * resume them once the lanes caught up, unless the container is paused.
+		 */
+		void pauseOrResume() {
+			if (this.inFlight.get() >= ParallelRecordListener.this.maxInFlight) {
+				Set<TopicPartition> partitions = new HashSet<>(this.consumer.assignment());
+				partitions.removeAll(this.consumer.paused());
+				if (!partitions.isEmpty()) {
+					this.consumer.pause(partitions);
+					this.paused.addAll(partitions);
+				}
+			}
+			else if (!this.paused.isEmpty()) {
+				this.paused.retainAll(this.consumer.assignment());
+				if (ParallelRecordListener.this.container == null
+						|| !ParallelRecordListener.this.container.isPauseRequested()) {
+					this.consumer.resume(this.paused);
+				}
+				this.paused.clear();
+			}
+		}
+
+	}
+
+	private static final class FailedRecord {
+
+		private final ConsumerRecord<Object, Object> record;
+
+		private final Acknowledgment acknowledgment;
+
+		private final RuntimeException exception;
+
+		FailedRecord(ConsumerRecord<Object, Object> record, Acknowledgment acknowledgment,
+				RuntimeException exception) {
+
+			this.record = record;
+			this.acknowledgment = acknowledgment;
+			this.exception = exception;
+		}
+
+		TopicPartition partition() {
+			return new TopicPartition(this.record.topic(), this.record.partition());
+		}
+
+	}
+
+}
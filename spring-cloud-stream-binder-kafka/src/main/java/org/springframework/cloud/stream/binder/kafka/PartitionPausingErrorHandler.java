@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ContainerAwareErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.RecordInterceptor;
+import org.springframework.lang.Nullable;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.BackOffExecution;
+
+/**
+ * A container error handler that pauses the partition of a failed record, instead of
+ * blocking the consumer thread, when a function returns how long the record has to wait
+ * before it is redelivered: the partitions of the failed and remaining records are
+ * re-sought so that these records are redelivered, and the consumer keeps polling the
+ * other partitions. The failures for which the function returns null are handled by a
+ * delegate.
+ * <p>
+ * The paused partitions are resumed on the consumer thread once their pause has elapsed,
+ * when the next record is received or when the container is idle; see
+ * {@link #configure(AbstractMessageListenerContainer, long, RecordInterceptor)}.
+ *
+ * @since 3.1
+ */
+final class PartitionPausingErrorHandler implements ContainerAwareErrorHandler {
+
+	private static final Log logger = LogFactory.getLog(PartitionPausingErrorHandler.class);
+
+	private static final long MIN_RESUME_CHECK_INTERVAL = 100;
+
+	private static final long MAX_RESUME_CHECK_INTERVAL = 1000;
+
+	private final Map<TopicPartition, PausedPartition> pausedPartitions = new ConcurrentHashMap<>();
+
+	private final Map<TopicPartition, PauseStatistics> pauseStatistics = new ConcurrentHashMap<>();
+
+	private final BiFunction<ConsumerRecord<?, ?>, Exception, Long> pauseFunction;
+
+	private final ContainerAwareErrorHandler delegate;
+
+	/**
+	 * Create an instance.
+	 * @param pauseFunction the function returning how long, in milliseconds, the partition
+	 * of a failed record is paused, or null when the failure is handled by the delegate.
+	 * @param delegate the error handler of the other failures.
+	 */
+	PartitionPausingErrorHandler(BiFunction<ConsumerRecord<?, ?>, Exception, Long> pauseFunction,
+			ContainerAwareErrorHandler delegate) {
+		this.pauseFunction = pauseFunction;
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Create an instance that pauses the partition of a failed record for the intervals
+	 * of a back off, then hands the record to a recovering error handler once the back
+	 * off is exhausted; the back off restarts when another record of the partition fails.
+	 * @param backOff the back off.
+	 * @param recoverer the error handler recovering the records.
+	 * @return the error handler.
+	 */
+	static PartitionPausingErrorHandler withBackOff(BackOff backOff,
+			ContainerAwareErrorHandler recoverer) {
+
+		Map<TopicPartition, FailedRecord> failedRecords = new ConcurrentHashMap<>();
+		return new PartitionPausingErrorHandler((record, exception) -> {
+			TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+			FailedRecord failed = failedRecords.get(partition);
+			if (failed == null || failed.offset != record.offset()) {
+				failed = new FailedRecord(record.offset(), backOff.start());
+				failedRecords.put(partition, failed);
+			}
+			long interval = failed.backOffExecution.nextBackOff();
+			if (interval == BackOffExecution.STOP) {
+				failedRecords.remove(partition);
+				return null;
+			}
+			return interval;
+		}, recoverer);
+	}
+
+	/**
+	 * Return the interval at which the paused partitions of a container are checked for
+	 * resumption, given the shortest pause: a tenth of it, between 100ms and 1s.
+	 * @param shortestPause the shortest pause, in milliseconds.
+	 * @return the interval, in milliseconds.
+	 */
+	static long resumeCheckInterval(long shortestPause) {
+		return Math.max(MIN_RESUME_CHECK_INTERVAL,
+				Math.min(MAX_RESUME_CHECK_INTERVAL, shortestPause / 10));
+	}
+
+	/**
+	 * Configure a container to use this error handler: the failed records are not
+	 * acknowledged while their partition is paused, and are acknowledged once recovered
+	 * when {@link #isAckAfterHandle()} is true. The paused partitions are resumed when
+	 * the next record is received or when the container is idle, which is checked at
+	 * {@code resumeCheckInterval}; the poll timeout is reduced accordingly. The
+	 * container idle events are still published every {@code idleEventInterval}.
+	 * @param container the container.
+	 * @param resumeCheckInterval the interval at which the paused partitions are checked
+	 * when the container is idle, in milliseconds.
+	 * @param recordInterceptor an interceptor invoked after the paused partitions are
+	 * checked, or null.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void configure(AbstractMessageListenerContainer<?, ?> container, long resumeCheckInterval,
+			@Nullable RecordInterceptor<Object, Object> recordInterceptor) {
+
+		container.setErrorHandler(this);
+		((AbstractMessageListenerContainer) container).setRecordInterceptor(record -> {
+			resumeDue();
+			return recordInterceptor != null
+					? recordInterceptor.intercept((ConsumerRecord<Object, Object>) record)
+					: record;
+		});
+		ContainerIdleCallbacks.register(container, resumeCheckInterval, this::resumeDue);
+	}
+
+	@Override
+	public void handle(Exception thrownException, List<ConsumerRecord<?, ?>> records,
+			Consumer<?, ?> consumer, MessageListenerContainer container) {
+
+		ConsumerRecord<?, ?> failed = records.get(0);
+		Long pause = this.pauseFunction.apply(failed, thrownException);
+		if (pause == null) {
+			this.delegate.handle(thrownException, records, consumer, container);
+			return;
+		}
+		Map<TopicPartition, Long> offsets = new LinkedHashMap<>();
+		for (ConsumerRecord<?, ?> record : records) {
+			offsets.putIfAbsent(new TopicPartition(record.topic(), record.partition()),
+					record.offset());
+		}
+		offsets.forEach(consumer::seek);
+		TopicPartition partition = new TopicPartition(failed.topic(), failed.partition());
+		consumer.pause(Collections.singleton(partition));
+		long now = System.currentTimeMillis();
+		PausedPartition previous = this.pausedPartitions.put(partition,
+				new PausedPartition(consumer, now, now + pause));
+		if (previous != null) {
+			resumed(partition, previous, now);
+		}
+		this.pauseStatistics.computeIfAbsent(partition, key -> new PauseStatistics()).pauses
+				.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Paused " + partition + " for " + pause + "ms at offset "
+					+ failed.offset());
+		}
+		// prevents the container from committing the offset of the failed record
+		throw new KafkaException("Paused " + partition + " after a failure",
+				KafkaException.Level.DEBUG, thrownException);
+	}
+
+	@Override
+	public boolean isAckAfterHandle() {
+		return this.delegate.isAckAfterHandle();
+	}
+
+	/**
+	 * Resume the partitions paused on a consumer whose pause has elapsed; must be called
+	 * on the consumer thread.
+	 * @param consumer the consumer.
+	 */
+	void resumeDue(Consumer<?, ?> consumer) {
+		if (this.pausedPartitions.isEmpty()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		this.pausedPartitions.forEach((partition, paused) -> {
+			if (paused.consumer == consumer && paused.resumeAt <= now
+					&& this.pausedPartitions.remove(partition, paused)) {
+				resumed(partition, paused, now);
+				// the partition may have been revoked since it was paused
+				if (consumer.assignment().contains(partition)) {
+					consumer.resume(Collections.singleton(partition));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Resume the partitions paused on the consumer of the calling thread whose pause has
+	 * elapsed.
+	 */
+	void resumeDue() {
+		if (this.pausedPartitions.isEmpty()) {
+			return;
+		}
+		Thread thread = Thread.currentThread();
+		this.pausedPartitions.values().stream()
+				.filter(paused -> paused.thread == thread)
+				.findFirst()
+				.ifPresent(paused -> resumeDue(paused.consumer));
+	}
+
+	/**
+	 * Return the number of times a partition was paused.
+	 * @param partition the partition.
+	 * @return the number of pauses.
+	 */
+	long getPauseCount(TopicPartition partition) {
+		PauseStatistics statistics = this.pauseStatistics.get(partition);
+		return statistics == null ? 0 : statistics.pauses.get();
+	}
+
+	/**
+	 * Return the time a partition has been paused, including its current pause.
+	 * @param partition the partition.
+	 * @return the paused time in milliseconds.
+	 */
+	long getPausedTime(TopicPartition partition) {
+		PauseStatistics statistics = this.pauseStatistics.get(partition);
+		if (statistics == null) {
+			return 0;
+		}
+		PausedPartition paused = this.pausedPartitions.get(partition);
+		return statistics.pausedTime.get()
+				+ (paused == null ? 0 : Math.max(0, System.currentTimeMillis() - paused.pausedAt));
+	}
+
+	private void resumed(TopicPartition partition, PausedPartition paused, long now) {
+		this.pauseStatistics.computeIfAbsent(partition, key -> new PauseStatistics()).pausedTime
+				.addAndGet(now - paused.pausedAt);
+	}
+
+	private static final class PausedPartition {
+
+		private final Consumer<?, ?> consumer;
+
+		private final Thread thread = Thread.currentThread();
+
+		private final long pausedAt;
+
+		private final long resumeAt;
+
+		PausedPartition(Consumer<?, ?> consumer, long pausedAt, long resumeAt) {
+			this.consumer = consumer;
+			this.pausedAt = pausedAt;
+			this.resumeAt = resumeAt;
+		}
+
+	}
+
+	private static final class PauseStatistics {
+
+		private final AtomicLong pauses = new AtomicLong();
+
+		private final AtomicLong pausedTime = new AtomicLong();
+
+	}
+
+	private static final class FailedRecord {
+
+		private final long offset;
+
+		private final BackOffExecution backOffExecution;
+
+		FailedRecord(long offset, BackOffExecution backOffExecution) {
+			this.offset = offset;
+			this.backOffExecution = backOffExecution;
+		}
+
+	}
+
+}
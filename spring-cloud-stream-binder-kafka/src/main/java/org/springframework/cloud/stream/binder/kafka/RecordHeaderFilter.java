@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+
+/**
+ * A filter discarding the records for which an expression does not evaluate to true,
+ * before they are converted to messages. The expression is evaluated against a
+ * {@link Record}, whose headers are mapped with the header mapper of the binding only
+ * when they are requested; it is compiled once it has been evaluated a few times.
+ * <p>
+ * The filtered and delivered records are counted.
+ *
+ * @since 3.1
+ */
+final class RecordHeaderFilter implements RecordFilterStrategy<Object, Object> {
+
+	private final Expression expression;
+
+	private final EvaluationContext evaluationContext;
+
+	private final KafkaHeaderMapper headerMapper;
+
+	private final LongAdder filtered = new LongAdder();
+
+	private final LongAdder delivered = new LongAdder();
+
+	RecordHeaderFilter(Expression expression, EvaluationContext evaluationContext,
+			KafkaHeaderMapper headerMapper) {
+
+		this.expression = MessageExpressions.compileSpel(expression);
+		this.evaluationContext = evaluationContext;
+		this.headerMapper = headerMapper;
+	}
+
+	@Override
+	public boolean filter(ConsumerRecord<Object, Object> consumerRecord) {
+		Record record = new Record(consumerRecord, this.headerMapper);
+		if (Boolean.TRUE.equals(this.expression.getValue(this.evaluationContext, record, Boolean.class))) {
+			this.delivered.increment();
+			return false;
+		}
+		this.filtered.increment();
+		return true;
+	}
+
+	long getFilteredCount() {
+		return this.filtered.sum();
+	}
+
+	long getDeliveredCount() {
+		return this.delivered.sum();
+	}
+
+	/**
+	 * The root object of the filter expression.
+	 */
+	public static final class Record {
+
+		private final ConsumerRecord<?, ?> record;
+
+		private final KafkaHeaderMapper headerMapper;
+
+		private Map<String, Object> headers;
+
+		Record(ConsumerRecord<?, ?> record, KafkaHeaderMapper headerMapper) {
+			this.record = record;
+			this.headerMapper = headerMapper;
+		}
+
+		/**
+		 * @return the headers of the record, each mapped when it is first requested.
+		 */
+		public Map<String, Object> getHeaders() {
+			if (this.headers == null) {
+				this.headers = new LazyHeaders(this.record.headers(), this.headerMapper);
+			}
+			return this.headers;
+		}
+
+		/**
+		 * @return the record, before its key and value are converted.
+		 */
+		public ConsumerRecord<?, ?> getRecord() {
+			return this.record;
+		}
+
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.BatchAcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * Measures the latencies of the records of a consumer binding, with the listener it
+ * wraps around the listener of the channel adapter: the age of the records when they are
+ * handed to the binding, the time the binding takes to handle them, and the time from
+ * their hand-off until they are acknowledged, by the application when it acknowledges the
+ * records, or once they are handled otherwise. In batch mode, the handling and
+ * acknowledgment latencies are the ones of the batches.
+ * <p>
+ * Nothing is measured until the recorders are set.
+ *
+ * @since 3.1
+ */
+final class RecordLatencies {
+
+	private final boolean applicationAcks;
+
+	private volatile Recorders recorders;
+
+	/**
+	 * Create an instance.
+	 * @param applicationAcks whether the application acknowledges the records.
+	 */
+	RecordLatencies(boolean applicationAcks) {
+		this.applicationAcks = applicationAcks;
+	}
+
+	/**
+	 * Set the recorders of the latencies.
+	 * @param age the recorder of the age of the records, in milliseconds.
+	 * @param handling the recorder of the handling time, in nanoseconds.
+	 * @param ack the recorder of the time until the acknowledgment, in nanoseconds.
+	 */
+	void setRecorders(LongConsumer age, LongConsumer handling, LongConsumer ack) {
+		this.recorders = new Recorders(age, handling, ack);
+	}
+
+	/**
+	 * Wrap a listener of the channel adapter.
+	 * @param delegate the record or batch listener.
+	 * @return the measuring listener.
+	 */
+	Object listener(Object delegate) {
+		if (delegate instanceof BatchAcknowledgingConsumerAwareMessageListener) {
+			return new BatchLatencyListener(delegate);
+		}
+		return new RecordLatencyListener(delegate);
+	}
+
+	private void recordAge(ConsumerRecord<?, ?> record, Recorders recorders, long now) {
+		if (record.timestamp() >= 0) {
+			recorders.age.accept(Math.max(now - record.timestamp(), 0L));
+		}
+	}
+
+	@Nullable
+	private Acknowledgment acknowledgment(@Nullable Acknowledgment acknowledgment, Recorders recorders,
+			long handOff) {
+
+		if (acknowledgment == null || !this.applicationAcks) {
+			return acknowledgment;
+		}
+		return () -> {
+			acknowledgment.acknowledge();
+			recorders.ack.accept(System.nanoTime() - handOff);
+		};
+	}
+
+	private void handled(Recorders recorders, long handlingTime) {
+		if (!this.applicationAcks) {
+			recorders.ack.accept(handlingTime);
+		}
+	}
+
+	private static final class Recorders {
+
+		private final LongConsumer age;
+
+		private final LongConsumer handling;
+
+		private final LongConsumer ack;
+
+		Recorders(LongConsumer age, LongConsumer handling, LongConsumer ack) {
+			this.age = age;
+			this.handling = handling;
+			this.ack = ack;
+		}
+
+	}
+
+	/**
+	 * Delegates the seek callbacks of the container to the listener of the channel
+	 * adapter.
+	 */
+	private abstract static class SeekAwareListener implements ConsumerSeekAware {
+
+		private final ConsumerSeekAware seekAware;
+
+		SeekAwareListener(Object delegate) {
+			this.seekAware = delegate instanceof ConsumerSeekAware ? (ConsumerSeekAware) delegate : null;
+		}
+
+		@Override
+		public void registerSeekCallback(ConsumerSeekCallback callback) {
+			if (this.seekAware != null) {
+				this.seekAware.registerSeekCallback(callback);
+			}
+		}
+
+		@Override
+		public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+			if (this.seekAware != null) {
+				this.seekAware.onPartitionsAssigned(assignments, callback);
+			}
+		}
+
+		@Override
+		public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+			if (this.seekAware != null) {
+				this.seekAware.onPartitionsRevoked(partitions);
+			}
+		}
+
+		@Override
+		public void onIdleContainer(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+			if (this.seekAware != null) {
+				this.seekAware.onIdleContainer(assignments, callback);
+			}
+		}
+
+	}
+
+	private final class RecordLatencyListener extends SeekAwareListener
+			implements AcknowledgingConsumerAwareMessageListener<Object, Object> {
+
+		private final AcknowledgingConsumerAwareMessageListener<Object, Object> delegate;
+
+		@SuppressWarnings("unchecked")
+		RecordLatencyListener(Object delegate) {
+			super(delegate);
+			Assert.isInstanceOf(AcknowledgingConsumerAwareMessageListener.class, delegate,
+					"Latency measurement requires a record or batch listener");
+			this.delegate = (AcknowledgingConsumerAwareMessageListener<Object, Object>) delegate;
+		}
+
+		@Override
+		public void onMessage(ConsumerRecord<Object, Object> record, @Nullable Acknowledgment acknowledgment,
+				@Nullable Consumer<?, ?> consumer) {
+
+			Recorders recorders = RecordLatencies.this.recorders;
+			if (recorders == null) {
+				this.delegate.onMessage(record, acknowledgment, consumer);
+				return;
+			}
+			recordAge(record, recorders, System.currentTimeMillis());
+			long handOff = System.nanoTime();
+			long handlingTime;
+			try {
+				this.delegate.onMessage(record, acknowledgment(acknowledgment, recorders, handOff), consumer);
+			}
+			finally {
+				handlingTime = System.nanoTime() - handOff;
+				recorders.handling.accept(handlingTime);
+			}
+			handled(recorders, handlingTime);
+		}
+
+	}
+
+	private final class BatchLatencyListener extends SeekAwareListener
+			implements BatchAcknowledgingConsumerAwareMessageListener<Object, Object> {
+
+		private final BatchAcknowledgingConsumerAwareMessageListener<Object, Object> delegate;
+
+		@SuppressWarnings("unchecked")
+		BatchLatencyListener(Object delegate) {
+			super(delegate);
+			this.delegate = (BatchAcknowledgingConsumerAwareMessageListener<Object, Object>) delegate;
+		}
+
+		@Override
+		public void onMessage(List<ConsumerRecord<Object, Object>> records, @Nullable Acknowledgment acknowledgment,
+				@Nullable Consumer<?, ?> consumer) {
+
+			Recorders recorders = RecordLatencies.this.recorders;
+			if (recorders == null) {
+				this.delegate.onMessage(records, acknowledgment, consumer);
+				return;
+			}
+			long now = System.currentTimeMillis();
+			for (ConsumerRecord<Object, Object> record : records) {
+				recordAge(record, recorders, now);
+			}
+			long handOff = System.nanoTime();
+			long handlingTime;
+			try {
+				this.delegate.onMessage(records, acknowledgment(acknowledgment, recorders, handOff), consumer);
+			}
+			finally {
+				handlingTime = System.nanoTime() - handOff;
+				recorders.handling.accept(handlingTime);
+			}
+			handled(recorders, handlingTime);
+		}
+
+	}
+
+}
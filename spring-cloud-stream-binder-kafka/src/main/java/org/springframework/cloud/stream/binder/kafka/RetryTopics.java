@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaTopicUtils;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.retry.RecoveryCallback;
+import org.springframework.util.Assert;
+
+/**
+ * The retry topics of a consumer binding: a record that fails is sent to the first
+ * retry topic with the time when it is due for redelivery, then to the next retry topic
+ * when it fails again, and so on; the record that fails after the last retry topic is
+ * handed to the recoverer of the binding, as if it had been consumed from the binding
+ * destination.
+ * <p>
+ * The retry topics are consumed by the container of the binding; when a record is not
+ * due yet, only the partition of its retry topic is paused, until the record is due, so
+ * that the container keeps consuming the binding destination at full rate.
+ *
+ * @since 3.1
+ */
+final class RetryTopics {
+
+	private final List<String> topics = new ArrayList<>();
+
+	private final List<Long> delays = new ArrayList<>();
+
+	private final KafkaTemplate<byte[], byte[]> kafkaTemplate;
+
+	private final PartitionPausingErrorHandler errorHandler = new PartitionPausingErrorHandler(
+			RetryTopics::notDueFor, new SeekToCurrentErrorHandler());
+
+	RetryTopics(String destination, String group, List<Duration> delays,
+			KafkaTemplate<byte[], byte[]> kafkaTemplate) {
+
+		for (Duration delay : delays) {
+			Assert.isTrue(!delay.isNegative() && !delay.isZero(), "Retry topic delays must be positive");
+			this.topics.add(KafkaTopicUtils.retryTopicName(destination, group, delay));
+			this.delays.add(delay.toMillis());
+		}
+		this.kafkaTemplate = kafkaTemplate;
+	}
+
+	List<String> getTopics() {
+		return this.topics;
+	}
+
+	/**
+	 * Configure the container of the binding to consume the retry topics: a record that
+	 * is not due is not acknowledged and pauses its partition until it is due.
+	 * @param container the container.
+	 */
+	void configure(AbstractMessageListenerContainer<?, ?> container) {
+		long shortestDelay = this.delays.stream().min(Long::compare).get();
+		this.errorHandler.configure(container,
+				PartitionPausingErrorHandler.resumeCheckInterval(shortestDelay), record -> {
+					if (this.topics.contains(record.topic())) {
+						long notDueFor = dueTime(record) - System.currentTimeMillis();
+						if (notDueFor > 0) {
+							throw new RetryNotDueException(notDueFor);
+						}
+					}
+					return record;
+				});
+	}
+
+	/**
+	 * Return a recovery callback that sends the failed records to their next retry topic,
+	 * and delegates the records that failed after the last retry topic to a recoverer.
+	 * @param exhaustedRecoverer the recoverer of the records whose retries are exhausted.
+	 * @return the recovery callback.
+	 */
+	RecoveryCallback<Object> recoverer(RecoveryCallback<?> exhaustedRecoverer) {
+		return context -> {
+			ConsumerRecord<?, ?> record = (ConsumerRecord<?, ?>) context
+					.getAttribute(KafkaHeaders.RAW_DATA);
+			Assert.state(record != null, "No raw record in the retry context");
+			int next = this.topics.indexOf(record.topic()) + 1;
+			if (next < this.topics.size()) {
+				send(record, next);
+				return null;
+			}
+			context.setAttribute(KafkaHeaders.RAW_DATA, original(record));
+			return exhaustedRecoverer.recover(context);
+		};
+	}
+
+	private void send(ConsumerRecord<?, ?> record, int tier) throws InterruptedException {
+		Assert.state((record.key() == null || record.key() instanceof byte[])
+				&& (record.value() == null || record.value() instanceof byte[]),
+				"Retry topics require byte[] keys and values");
+		Headers headers = new RecordHeaders(record.headers().toArray());
+		headers.remove(KafkaMessageChannelBinder.X_RETRY_DUE);
+		if (tier == 0) {
+			headers.add(new RecordHeader(KafkaMessageChannelBinder.X_ORIGINAL_TOPIC,
+					record.topic().getBytes(StandardCharsets.UTF_8)));
+			headers.add(new RecordHeader(KafkaMessageChannelBinder.X_ORIGINAL_PARTITION,
+					ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array()));
+			headers.add(new RecordHeader(KafkaMessageChannelBinder.X_ORIGINAL_OFFSET,
+					ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array()));
+			headers.add(new RecordHeader(KafkaMessageChannelBinder.X_ORIGINAL_TIMESTAMP,
+					ByteBuffer.allocate(Long.BYTES).putLong(record.timestamp()).array()));
+			headers.add(new RecordHeader(KafkaMessageChannelBinder.X_ORIGINAL_TIMESTAMP_TYPE,
+					record.timestampType().toString().getBytes(StandardCharsets.UTF_8)));
+		}
+		long due = System.currentTimeMillis() + this.delays.get(tier);
+		headers.add(new RecordHeader(KafkaMessageChannelBinder.X_RETRY_DUE,
+				ByteBuffer.allocate(Long.BYTES).putLong(due).array()));
+		try {
+			// the record is committed once it is safely in the retry topic
+			this.kafkaTemplate.send(new ProducerRecord<>(this.topics.get(tier), null,
+					(byte[]) record.key(), (byte[]) record.value(), headers)).get();
+		}
+		catch (ExecutionException ex) {
+			throw new KafkaException("Failed to send a record to retry topic "
+					+ this.topics.get(tier), ex.getCause());
+		}
+	}
+
+	/**
+	 * Restore the topic, partition, offset and timestamp a record had before it was sent
+	 * to the retry topics.
+	 */
+	private ConsumerRecord<?, ?> original(ConsumerRecord<?, ?> record) {
+		if (!this.topics.contains(record.topic())) {
+			return record;
+		}
+		Map<String, Header> originals = new HashMap<>();
+		Headers headers = new RecordHeaders();
+		for (Header header : record.headers()) {
+			if (header.key().startsWith("x-original-")) {
+				Header previous = originals.put(header.key(), header);
+				if (previous != null) {
+					headers.add(previous);
+				}
+			}
+			else if (!header.key().equals(KafkaMessageChannelBinder.X_RETRY_DUE)) {
+				headers.add(header);
+			}
+		}
+		return new ConsumerRecord<>(
+				new String(originals.get(KafkaMessageChannelBinder.X_ORIGINAL_TOPIC).value(),
+						StandardCharsets.UTF_8),
+				ByteBuffer.wrap(originals.get(KafkaMessageChannelBinder.X_ORIGINAL_PARTITION).value())
+						.getInt(),
+				ByteBuffer.wrap(originals.get(KafkaMessageChannelBinder.X_ORIGINAL_OFFSET).value())
+						.getLong(),
+				ByteBuffer.wrap(originals.get(KafkaMessageChannelBinder.X_ORIGINAL_TIMESTAMP).value())
+						.getLong(),
+				TimestampType.forName(new String(
+						originals.get(KafkaMessageChannelBinder.X_ORIGINAL_TIMESTAMP_TYPE).value(),
+						StandardCharsets.UTF_8)),
+				null, record.serializedKeySize(), record.serializedValueSize(),
+				record.key(), record.value(), headers);
+	}
+
+	private static long dueTime(ConsumerRecord<?, ?> record) {
+		Header due = record.headers().lastHeader(KafkaMessageChannelBinder.X_RETRY_DUE);
+		return due == null ? 0 : ByteBuffer.wrap(due.value()).getLong();
+	}
+
+	@Nullable
+	private static Long notDueFor(ConsumerRecord<?, ?> record, Exception exception) {
+		Throwable cause = exception;
+		while (cause != null && !(cause instanceof RetryNotDueException)) {
+			cause = cause.getCause();
+		}
+		return cause != null ? ((RetryNotDueException) cause).notDueFor : null;
+	}
+
+	@SuppressWarnings("serial")
+	private static final class RetryNotDueException extends RuntimeException {
+
+		private final long notDueFor;
+
+		RetryNotDueException(long notDueFor) {
+			super("Retry not due for " + notDueFor + "ms", null, false, false);
+			this.notDueFor = notDueFor;
+		}
+
+	}
+
+}
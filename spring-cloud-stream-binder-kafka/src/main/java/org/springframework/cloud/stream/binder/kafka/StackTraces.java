@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Rendering of the stack traces added to the records sent to a DLQ.
+ *
+ * @since 3.1
+ */
+final class StackTraces {
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private StackTraces() {
+	}
+
+	/**
+	 * Render the stack trace of a throwable and its causes.
+	 * @param throwable the throwable.
+	 * @param maxFrames the maximum number of frames rendered for the throwable and for
+	 * each of its causes, or null to render them all, as
+	 * {@link Throwable#printStackTrace()} does.
+	 * @param maxBytes the maximum number of UTF-8 bytes of the rendered stack trace, or
+	 * null for no limit.
+	 * @return the stack trace.
+	 */
+	static String format(Throwable throwable, @Nullable Integer maxFrames,
+			@Nullable Integer maxBytes) {
+
+		String stackTrace = maxFrames == null ? print(throwable) : print(throwable, maxFrames);
+		return maxBytes == null ? stackTrace : truncate(stackTrace, maxBytes);
+	}
+
+	/**
+	 * Compute a fingerprint of the stack trace of a throwable and its causes; the
+	 * messages of the throwables are not taken into account so that the same failure
+	 * with different data has the same fingerprint.
+	 * @param throwable the throwable.
+	 * @return the fingerprint.
+	 */
+	static String fingerprint(Throwable throwable) {
+		StringBuilder builder = new StringBuilder();
+		for (Throwable cause : causes(throwable)) {
+			builder.append(cause.getClass().getName()).append('\n');
+			for (StackTraceElement frame : cause.getStackTrace()) {
+				builder.append(frame).append('\n');
+			}
+		}
+		return DigestUtils.md5DigestAsHex(builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String print(Throwable throwable) {
+		StringWriter stringWriter = new StringWriter();
+		PrintWriter printWriter = new PrintWriter(stringWriter, true);
+		throwable.printStackTrace(printWriter);
+		return stringWriter.getBuffer().toString();
+	}
+
+	private static String print(Throwable throwable, int maxFrames) {
+		StringBuilder builder = new StringBuilder();
+		String prefix = "";
+		for (Throwable cause : causes(throwable)) {
+			builder.append(prefix).append(cause).append(LINE_SEPARATOR);
+			StackTraceElement[] frames = cause.getStackTrace();
+			int rendered = Math.min(frames.length, maxFrames);
+			for (int i = 0; i < rendered; i++) {
+				builder.append("\tat ").append(frames[i]).append(LINE_SEPARATOR);
+			}
+			if (frames.length > rendered) {
+				builder.append("\t... ").append(frames.length - rendered).append(" more")
+						.append(LINE_SEPARATOR);
+			}
+			prefix = "Caused by: ";
+		}
+		return builder.toString();
+	}
+
+	private static List<Throwable> causes(Throwable throwable) {
+		List<Throwable> causes = new ArrayList<>();
+		Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		Throwable cause = throwable;
+		while (cause != null && seen.add(cause)) {
+			causes.add(cause);
+			cause = cause.getCause();
+		}
+		return causes;
+	}
+
+	private static String truncate(String stackTrace, int maxBytes) {
+		byte[] bytes = stackTrace.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= maxBytes) {
+			return stackTrace;
+		}
+		String truncated = new String(bytes, 0, maxBytes, StandardCharsets.UTF_8);
+		// drop a character whose encoding was cut
+		if (truncated.endsWith("\uFFFD")) {
+			truncated = truncated.substring(0, truncated.length() - 1);
+		}
+		return truncated;
+	}
+
+}
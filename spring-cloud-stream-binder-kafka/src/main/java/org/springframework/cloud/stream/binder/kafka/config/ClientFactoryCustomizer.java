@@ -28,10 +28,95 @@ import org.springframework.kafka.core.ProducerFactory;
  */
 public interface ClientFactoryCustomizer {
 
+	/**
+	 * The role of the clients of the consumer bindings.
+	 */
+	String CONSUMER = "consumer";
+
+	/**
+	 * The role of the clients of the producer bindings.
+	 */
+	String PRODUCER = "producer";
+
+	/**
+	 * The role of the clients sending failed records to dead letter topics.
+	 */
+	String DLQ = "dlq";
+
+	/**
+	 * The role of the clients sending failed records to retry topics.
+	 */
+	String RETRY = "retry";
+
+	/**
+	 * The role of the clients fetching metadata for the health indicator and metrics.
+	 */
+	String METADATA = "metadata";
+
+	/**
+	 * The destination of the clients that are not created for a single destination.
+	 */
+	String NO_DESTINATION = "none";
+
+	/**
+	 * The binding name of the clients that are not created for a single binding.
+	 */
+	String NO_BINDING = "none";
+
 	default void configure(ProducerFactory<?, ?> pf) {
 	}
 
 	default void configure(ConsumerFactory<?, ?> cf) {
 	}
 
+	/**
+	 * Customize a producer factory created by the binder; by default, delegate to
+	 * {@link #configure(ProducerFactory)}.
+	 * @param pf the factory.
+	 * @param destination the destination of its clients, or {@link #NO_DESTINATION}.
+	 * @param role the role of its clients.
+	 * @since 3.1
+	 */
+	default void configure(ProducerFactory<?, ?> pf, String destination, String role) {
+		configure(pf);
+	}
+
+	/**
+	 * Customize a consumer factory created by the binder; by default, delegate to
+	 * {@link #configure(ConsumerFactory)}.
+	 * @param cf the factory.
+	 * @param destination the destination of its clients, or {@link #NO_DESTINATION}.
+	 * @param role the role of its clients.
+	 * @since 3.1
+	 */
+	default void configure(ConsumerFactory<?, ?> cf, String destination, String role) {
+		configure(cf);
+	}
+
+	/**
+	 * Customize a producer factory created by the binder; by default, delegate to
+	 * {@link #configure(ProducerFactory, String, String)}.
+	 * @param pf the factory.
+	 * @param binding the name of the binding of its clients, or {@link #NO_BINDING}.
+	 * @param destination the destination of its clients, or {@link #NO_DESTINATION}.
+	 * @param role the role of its clients.
+	 * @since 3.1
+	 */
+	default void configure(ProducerFactory<?, ?> pf, String binding, String destination, String role) {
+		configure(pf, destination, role);
+	}
+
+	/**
+	 * Customize a consumer factory created by the binder; by default, delegate to
+	 * {@link #configure(ConsumerFactory, String, String)}.
+	 * @param cf the factory.
+	 * @param binding the name of the binding of its clients, or {@link #NO_BINDING}.
+	 * @param destination the destination of its clients, or {@link #NO_DESTINATION}.
+	 * @param role the role of its clients.
+	 * @since 3.1
+	 */
+	default void configure(ConsumerFactory<?, ?> cf, String binding, String destination, String role) {
+		configure(cf, destination, role);
+	}
+
 }
@@ -19,7 +19,6 @@ package org.springframework.cloud.stream.binder.kafka.config;
 import java.io.IOException;
 
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.binder.MeterBinder;
 
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,12 +51,6 @@ import org.springframework.context.annotation.Import;
 import org.springframework.integration.kafka.inbound.KafkaMessageDrivenChannelAdapter;
 import org.springframework.integration.kafka.inbound.KafkaMessageSource;
 import org.springframework.integration.kafka.outbound.KafkaProducerMessageHandler;
-import org.springframework.kafka.core.ConsumerFactory;
-import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
-import org.springframework.kafka.core.DefaultKafkaProducerFactory;
-import org.springframework.kafka.core.MicrometerConsumerListener;
-import org.springframework.kafka.core.MicrometerProducerListener;
-import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.listener.AbstractMessageListenerContainer;
 import org.springframework.kafka.security.jaas.KafkaJaasLoginModuleInitializer;
 import org.springframework.kafka.support.LoggingProducerListener;
@@ -176,13 +169,19 @@ public class KafkaBinderConfiguration {
 		@Bean
 		@ConditionalOnBean(MeterRegistry.class)
 		@ConditionalOnMissingBean(KafkaBinderMetrics.class)
-		public MeterBinder kafkaBinderMetrics(
+		public KafkaBinderMetrics kafkaBinderMetrics(
 				KafkaMessageChannelBinder kafkaMessageChannelBinder,
 				KafkaBinderConfigurationProperties configurationProperties,
 				MeterRegistry meterRegistry) {
 
-			return new KafkaBinderMetrics(kafkaMessageChannelBinder,
-					configurationProperties, null, meterRegistry);
+			KafkaBinderMetrics metrics = new KafkaBinderMetrics(kafkaMessageChannelBinder,
+					configurationProperties, meterRegistry);
+			metrics.setRefreshInterval(configurationProperties.getMetrics().getLagRefreshInterval());
+			metrics.setPerPartitionLag(configurationProperties.getMetrics().isPerPartitionLag());
+			metrics.setLatencyPercentiles(configurationProperties.getMetrics().getLatencyPercentiles());
+			metrics.setLatencyPercentileHistogram(
+					configurationProperties.getMetrics().isLatencyPercentileHistogram());
+			return metrics;
 		}
 
 		@ConditionalOnClass(name = "org.springframework.kafka.core.MicrometerConsumerListener")
@@ -192,27 +191,7 @@ public class KafkaBinderConfiguration {
 			@Bean
 			@ConditionalOnMissingBean(name = "binderClientFactoryCustomizer")
 			public ClientFactoryCustomizer binderClientFactoryCustomizer(MeterRegistry meterRegistry) {
-
-				return new ClientFactoryCustomizer() {
-
-					@Override
-					public void configure(ProducerFactory<?, ?> pf) {
-						if (pf instanceof DefaultKafkaProducerFactory) {
-							((DefaultKafkaProducerFactory<?, ?>) pf)
-									.addListener(new MicrometerProducerListener<>(meterRegistry));
-						}
-					}
-
-					@Override
-					public void configure(ConsumerFactory<?, ?> cf) {
-						if (cf instanceof DefaultKafkaConsumerFactory) {
-							((DefaultKafkaConsumerFactory<?, ?>) cf)
-									.addListener(new MicrometerConsumerListener<>(meterRegistry));
-						}
-					}
-
-				};
-
+				return new MicrometerClientFactoryCustomizer(meterRegistry);
 			}
 
 		}
@@ -226,15 +205,21 @@ public class KafkaBinderConfiguration {
 	protected class KafkaBinderMetricsConfigurationWithMultiBinder {
 
 		@Bean
-		public MeterBinder kafkaBinderMetrics(
+		public KafkaBinderMetrics kafkaBinderMetrics(
 				KafkaMessageChannelBinder kafkaMessageChannelBinder,
 				KafkaBinderConfigurationProperties configurationProperties,
 				ConfigurableApplicationContext context) {
 
 			MeterRegistry meterRegistry = context.getBean("outerContext", ApplicationContext.class)
 					.getBean(MeterRegistry.class);
-			return new KafkaBinderMetrics(kafkaMessageChannelBinder,
-					configurationProperties, null, meterRegistry);
+			KafkaBinderMetrics metrics = new KafkaBinderMetrics(kafkaMessageChannelBinder,
+					configurationProperties, meterRegistry);
+			metrics.setRefreshInterval(configurationProperties.getMetrics().getLagRefreshInterval());
+			metrics.setPerPartitionLag(configurationProperties.getMetrics().isPerPartitionLag());
+			metrics.setLatencyPercentiles(configurationProperties.getMetrics().getLatencyPercentiles());
+			metrics.setLatencyPercentileHistogram(
+					configurationProperties.getMetrics().isLatencyPercentileHistogram());
+			return metrics;
 		}
 
 		@ConditionalOnClass(name = "org.springframework.kafka.core.MicrometerConsumerListener")
@@ -244,31 +229,9 @@ public class KafkaBinderConfiguration {
 			@Bean
 			@ConditionalOnMissingBean(name = "binderClientFactoryCustomizer")
 			public ClientFactoryCustomizer binderClientFactoryCustomizer(ConfigurableApplicationContext context) {
-
-
-				return new ClientFactoryCustomizer() {
-
-					MeterRegistry meterRegistry = context.getBean("outerContext", ApplicationContext.class)
-							.getBean(MeterRegistry.class);
-
-					@Override
-					public void configure(ProducerFactory<?, ?> pf) {
-						if (pf instanceof DefaultKafkaProducerFactory) {
-							((DefaultKafkaProducerFactory<?, ?>) pf)
-									.addListener(new MicrometerProducerListener<>(this.meterRegistry));
-						}
-					}
-
-					@Override
-					public void configure(ConsumerFactory<?, ?> cf) {
-						if (cf instanceof DefaultKafkaConsumerFactory) {
-							((DefaultKafkaConsumerFactory<?, ?>) cf)
-									.addListener(new MicrometerConsumerListener<>(this.meterRegistry));
-						}
-					}
-
-				};
-
+				MeterRegistry meterRegistry = context.getBean("outerContext", ApplicationContext.class)
+						.getBean(MeterRegistry.class);
+				return new MicrometerClientFactoryCustomizer(meterRegistry);
 			}
 
 		}
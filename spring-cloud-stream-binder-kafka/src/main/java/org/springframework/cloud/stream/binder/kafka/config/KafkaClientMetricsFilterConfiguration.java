@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.config;
+
+import io.micrometer.core.instrument.config.MeterFilter;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Declares the {@link MeterFilter} restricting the Kafka client metrics of the clients
+ * created by the binder in the application context, so that it is registered once with
+ * the meter registries, rather than by each binder context. The filter is configured
+ * by the {@code spring.cloud.stream.kafka.binder.metrics} properties of the
+ * application.
+ *
+ * @since 3.1
+ */
+@Configuration
+@ConditionalOnClass(name = { "io.micrometer.core.instrument.MeterRegistry",
+		"org.springframework.kafka.core.MicrometerConsumerListener" })
+public class KafkaClientMetricsFilterConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean(name = "kafkaBinderClientMetricsFilter")
+	public MeterFilter kafkaBinderClientMetricsFilter(Environment environment) {
+		KafkaBinderConfigurationProperties.Metrics metrics = Binder.get(environment)
+				.bind("spring.cloud.stream.kafka.binder.metrics", KafkaBinderConfigurationProperties.Metrics.class)
+				.orElseGet(KafkaBinderConfigurationProperties.Metrics::new);
+		return KafkaClientMetricsUtils.meterFilter(metrics);
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.core.MicrometerProducerListener;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * A {@link ClientFactoryCustomizer} registering the Kafka client metrics of the clients
+ * created by the binder, tagged with their binding name, destination and role; see
+ * {@link KafkaClientMetricsUtils#tags(String, String, String)}. The registered metrics are
+ * restricted by the {@link KafkaClientMetricsUtils#meterFilter meter filter} the binder
+ * declares once in the application context, rather than by the customizer.
+ *
+ * @since 3.1
+ */
+public class MicrometerClientFactoryCustomizer implements ClientFactoryCustomizer {
+
+	private final MeterRegistry meterRegistry;
+
+	public MicrometerClientFactoryCustomizer(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public void configure(ProducerFactory<?, ?> pf) {
+		configure(pf, NO_DESTINATION, PRODUCER);
+	}
+
+	@Override
+	public void configure(ConsumerFactory<?, ?> cf) {
+		configure(cf, NO_DESTINATION, CONSUMER);
+	}
+
+	@Override
+	public void configure(ProducerFactory<?, ?> pf, String destination, String role) {
+		configure(pf, NO_BINDING, destination, role);
+	}
+
+	@Override
+	public void configure(ConsumerFactory<?, ?> cf, String destination, String role) {
+		configure(cf, NO_BINDING, destination, role);
+	}
+
+	@Override
+	public void configure(ProducerFactory<?, ?> pf, String binding, String destination, String role) {
+		if (pf instanceof DefaultKafkaProducerFactory) {
+			((DefaultKafkaProducerFactory<?, ?>) pf).addListener(new MicrometerProducerListener<>(this.meterRegistry,
+					KafkaClientMetricsUtils.tags(binding, destination, role)));
+		}
+	}
+
+	@Override
+	public void configure(ConsumerFactory<?, ?> cf, String binding, String destination, String role) {
+		if (cf instanceof DefaultKafkaConsumerFactory) {
+			((DefaultKafkaConsumerFactory<?, ?>) cf).addListener(new MicrometerConsumerListener<>(this.meterRegistry,
+					KafkaClientMetricsUtils.tags(binding, destination, role)));
+		}
+	}
+
+}
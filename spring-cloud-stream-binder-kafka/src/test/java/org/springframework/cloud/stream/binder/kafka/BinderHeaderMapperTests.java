@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.binder.kafka.properties.HeaderEncoding;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.MimeType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 3.1
+ */
+public class BinderHeaderMapperTests {
+
+	@Test
+	public void testJsonTypesHeaderIsReusedForTheSameHeaderTypes() {
+		BinderHeaderMapper mapper = new BinderHeaderMapper();
+		Headers first = new RecordHeaders();
+		mapper.fromHeaders(headers("foo", 42), first);
+		Headers second = new RecordHeaders();
+		mapper.fromHeaders(headers("foo", 43), second);
+		assertThat(second.lastHeader(BinderHeaderMapper.JSON_TYPES).value())
+				.isSameAs(first.lastHeader(BinderHeaderMapper.JSON_TYPES).value());
+
+		Headers third = new RecordHeaders();
+		mapper.fromHeaders(headers("foo", 42L), third);
+		assertThat(new String(third.lastHeader(BinderHeaderMapper.JSON_TYPES).value()))
+				.contains("java.lang.Long");
+	}
+
+	@Test
+	public void testRoundTripWithCachedPlans() {
+		BinderHeaderMapper outbound = new BinderHeaderMapper();
+		BinderHeaderMapper inbound = new BinderHeaderMapper();
+		for (int i = 0; i < 3; i++) {
+			UUID uuid = UUID.randomUUID();
+			Map<String, Object> values = new HashMap<>();
+			values.put("int", i);
+			values.put("uuid", uuid);
+			values.put("string", "bar" + i);
+			values.put("contentType", MimeType.valueOf("application/json"));
+			Headers record = new RecordHeaders();
+			outbound.fromHeaders(new MessageHeaders(values), record);
+
+			Map<String, Object> mapped = new HashMap<>();
+			inbound.toHeaders(record, mapped);
+			assertThat(mapped).containsEntry("int", i);
+			assertThat(mapped).containsEntry("uuid", uuid);
+			assertThat(mapped).containsEntry("string", "bar" + i);
+			assertThat(mapped).containsEntry("contentType", "application/json");
+			assertThat(mapped).doesNotContainKeys(MessageHeaders.ID, MessageHeaders.TIMESTAMP,
+					BinderHeaderMapper.JSON_TYPES);
+		}
+	}
+
+	@Test
+	public void testUntrustedTypesAreNotResolved() {
+		BinderHeaderMapper outbound = new BinderHeaderMapper();
+		Headers record = new RecordHeaders();
+		outbound.fromHeaders(headers("foo", new Foo("bar")), record);
+
+		Map<String, Object> mapped = new HashMap<>();
+		new BinderHeaderMapper().toHeaders(record, mapped);
+		assertThat(mapped.get("foo")).isInstanceOf(BinderHeaderMapper.NonTrustedHeaderType.class);
+
+		BinderHeaderMapper trusting = new BinderHeaderMapper();
+		trusting.addTrustedPackages(Foo.class.getPackage().getName());
+		mapped.clear();
+		trusting.toHeaders(record, mapped);
+		assertThat(mapped.get("foo")).isEqualTo(new Foo("bar"));
+	}
+
+	@Test
+	public void testBinaryRoundTrip() {
+		BinderHeaderMapper outbound = new BinderHeaderMapper();
+		outbound.setHeaderEncoding(HeaderEncoding.binary);
+		BinderHeaderMapper inbound = new BinderHeaderMapper();
+		inbound.addTrustedPackages(Foo.class.getPackage().getName());
+		Map<String, Object> values = new HashMap<>();
+		values.put("string", "bar");
+		values.put("bytes", new byte[] { 1, 2, 3 });
+		values.put("boolean", true);
+		values.put("byte", (byte) 7);
+		values.put("short", (short) 42);
+		values.put("int", 42);
+		values.put("long", Long.MAX_VALUE);
+		values.put("float", 1.5f);
+		values.put("double", 2.5d);
+		values.put("uuid", UUID.randomUUID());
+		values.put("date", new Date());
+		values.put("instant", Instant.now());
+		values.put("foo", new Foo("bar"));
+		values.put("contentType", MimeType.valueOf("application/json"));
+		Headers record = new RecordHeaders();
+		outbound.fromHeaders(new MessageHeaders(values), record);
+		assertThat(record.lastHeader(BinderHeaderMapper.JSON_TYPES)).isNull();
+		assertThat(record.lastHeader(BinaryHeaderCodec.BINARY_HEADERS)).isNotNull();
+
+		Map<String, Object> mapped = new HashMap<>();
+		inbound.toHeaders(record, mapped);
+		values.put("contentType", "application/json");
+		assertThat(mapped).containsOnlyKeys(values.keySet().toArray(new String[0]));
+		values.forEach((key, value) -> assertThat(mapped.get(key)).isEqualTo(value));
+	}
+
+	@Test
+	public void testBinaryEncodingIsSmaller() {
+		Map<String, Object> values = new HashMap<>();
+		values.put("contentType", MimeType.valueOf("application/json"));
+		values.put("correlationId", UUID.randomUUID());
+		values.put("sequenceNumber", 42);
+		values.put("eventTime", System.currentTimeMillis());
+		BinderHeaderMapper json = new BinderHeaderMapper();
+		Headers jsonRecord = new RecordHeaders();
+		json.fromHeaders(new MessageHeaders(values), jsonRecord);
+		BinderHeaderMapper binary = new BinderHeaderMapper();
+		binary.setHeaderEncoding(HeaderEncoding.binary);
+		Headers binaryRecord = new RecordHeaders();
+		binary.fromHeaders(new MessageHeaders(values), binaryRecord);
+		// the names of the binary encoded headers are listed in the flag header
+		assertThat(size(binaryRecord)).isLessThan(size(jsonRecord) * 3 / 4);
+	}
+
+	@Test
+	public void testInboundDecodesJsonBinaryAndForeignHeaders() {
+		Headers record = new RecordHeaders();
+		new BinderHeaderMapper().fromHeaders(headers("foo", 42), record);
+		record.add("foreign", "bar".getBytes());
+		BinderHeaderMapper inbound = new BinderHeaderMapper();
+		Map<String, Object> mapped = new HashMap<>();
+		inbound.toHeaders(record, mapped);
+		assertThat(mapped).containsEntry("foo", 42);
+		assertThat((byte[]) mapped.get("foreign")).isEqualTo("bar".getBytes());
+
+		BinderHeaderMapper outbound = new BinderHeaderMapper();
+		outbound.setHeaderEncoding(HeaderEncoding.binary);
+		record = new RecordHeaders();
+		outbound.fromHeaders(headers("foo", 42), record);
+		record.add("foreign", "bar".getBytes());
+		byte[] integerLike = { BinaryHeaderCodec.INTEGER, 0, 0, 0, 1 };
+		record.add("integerLike", integerLike);
+		mapped.clear();
+		inbound.toHeaders(record, mapped);
+		assertThat(mapped).containsEntry("foo", 42);
+		assertThat((byte[]) mapped.get("foreign")).isEqualTo("bar".getBytes());
+		assertThat((byte[]) mapped.get("integerLike")).isEqualTo(integerLike);
+		assertThat(mapped).doesNotContainKey(BinaryHeaderCodec.BINARY_HEADERS);
+	}
+
+	@Test
+	public void testBinaryUntrustedType() {
+		BinderHeaderMapper outbound = new BinderHeaderMapper();
+		outbound.setHeaderEncoding(HeaderEncoding.binary);
+		Headers record = new RecordHeaders();
+		outbound.fromHeaders(headers("foo", new Foo("bar")), record);
+		BinderHeaderMapper inbound = new BinderHeaderMapper();
+		Map<String, Object> mapped = new HashMap<>();
+		inbound.toHeaders(record, mapped);
+		assertThat(mapped.get("foo")).isInstanceOf(BinderHeaderMapper.NonTrustedHeaderType.class);
+		assertThat(((BinderHeaderMapper.NonTrustedHeaderType) mapped.get("foo")).getUntrustedType())
+				.isEqualTo(Foo.class.getName());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLazyHeadersAreMappedOnDemand() {
+		for (HeaderEncoding encoding : HeaderEncoding.values()) {
+			BinderHeaderMapper outbound = new BinderHeaderMapper();
+			outbound.setHeaderEncoding(encoding);
+			Map<String, Object> values = new HashMap<>();
+			values.put("int", 42);
+			values.put("string", "bar");
+			values.put("contentType", MimeType.valueOf("application/json"));
+			Headers record = new RecordHeaders();
+			outbound.fromHeaders(new MessageHeaders(values), record);
+
+			List<String> mappedKeys = new ArrayList<>();
+			BinderHeaderMapper inbound = new BinderHeaderMapper() {
+
+				@Override
+				public void toHeaders(Headers source, Map<String, Object> headers) {
+					source.forEach(header -> mappedKeys.add(header.key()));
+					super.toHeaders(source, headers);
+				}
+
+			};
+			Map<String, Object> mapped = new HashMap<>();
+			new LazyHeaderMapper(inbound).toHeaders(record, mapped);
+			assertThat(mapped).containsOnlyKeys("contentType", BinderHeaders.NATIVE_HEADERS_PRESENT,
+					BinderHeaderMapper.LAZY_HEADERS);
+			assertThat(mapped).containsEntry("contentType", "application/json");
+			assertThat(mappedKeys).doesNotContain("int", "string");
+
+			Map<String, Object> lazyHeaders = (Map<String, Object>) mapped.get(BinderHeaderMapper.LAZY_HEADERS);
+			assertThat(lazyHeaders.get("int")).isEqualTo(42);
+			assertThat(lazyHeaders.get("int")).isEqualTo(42);
+			assertThat(mappedKeys).containsOnlyOnce("int").doesNotContain("string");
+			assertThat(lazyHeaders.get("missing")).isNull();
+			assertThat(lazyHeaders).containsOnlyKeys("int", "string", "contentType");
+			assertThat(lazyHeaders).containsEntry("string", "bar");
+
+			Headers forwarded = new RecordHeaders();
+			outbound.fromHeaders(new MessageHeaders(mapped), forwarded);
+			assertThat(forwarded.lastHeader(BinderHeaderMapper.LAZY_HEADERS)).isNull();
+			assertThat(forwarded.lastHeader(BinderHeaders.NATIVE_HEADERS_PRESENT)).isNull();
+		}
+	}
+
+	private static int size(Headers headers) {
+		int size = 0;
+		for (Header header : headers) {
+			size += header.key().length() + header.value().length;
+		}
+		return size;
+	}
+
+	private static MessageHeaders headers(String name, Object value) {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(name, value);
+		return new MessageHeaders(headers);
+	}
+
+	public static class Foo {
+
+		private String bar;
+
+		public Foo() {
+		}
+
+		Foo(String bar) {
+			this.bar = bar;
+		}
+
+		public String getBar() {
+			return this.bar;
+		}
+
+		public void setBar(String bar) {
+			this.bar = bar;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Foo && this.bar.equals(((Foo) other).bar);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.bar.hashCode();
+		}
+
+	}
+
+}
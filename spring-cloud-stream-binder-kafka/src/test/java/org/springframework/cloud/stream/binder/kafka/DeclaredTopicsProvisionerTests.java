@@ -0,0 +1,251 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.stream.binder.BinderException;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBindingProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaExtendedBindingProperties;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.cloud.stream.binder.kafka.provisioning.TopicProvisioningRequest;
+import org.springframework.cloud.stream.binder.kafka.provisioning.TopicProvisioningResult;
+import org.springframework.cloud.stream.binding.Bindable;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * @since 3.1
+ */
+public class DeclaredTopicsProvisionerTests {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDestinationsThenDlqsAreProvisioned() {
+		KafkaTopicProvisioner provisioner = mock(KafkaTopicProvisioner.class);
+		List<List<TopicProvisioningRequest>> batches = new ArrayList<>();
+		given(provisioner.provisionTopics(any(Collection.class))).willAnswer(invocation -> {
+			List<TopicProvisioningRequest> requests = new ArrayList<>(invocation.getArgument(0));
+			batches.add(requests);
+			Map<String, TopicProvisioningResult> results = new LinkedHashMap<>();
+			requests.forEach(request -> results.put(request.getName(), created(4)));
+			return results;
+		});
+		KafkaExtendedBindingProperties extendedBindingProperties = new KafkaExtendedBindingProperties();
+		KafkaConsumerProperties consumer = new KafkaConsumerProperties();
+		consumer.setEnableDlq(true);
+		KafkaBindingProperties binding = new KafkaBindingProperties();
+		binding.setConsumer(consumer);
+		Map<String, KafkaBindingProperties> bindings = new HashMap<>();
+		bindings.put("process-in-0", binding);
+		bindings.put("defaulted", binding);
+		extendedBindingProperties.setBindings(bindings);
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("spring.cloud.stream.instance-count", "2")
+				.withProperty("spring.cloud.stream.default.group", "dflt")
+				.withProperty("spring.cloud.stream.bindings.process-in-0.destination", "foo,bar")
+				.withProperty("spring.cloud.stream.bindings.process-in-0.group", "grp")
+				.withProperty("spring.cloud.stream.bindings.process-in-0.consumer.multiplex", "true")
+				.withProperty("spring.cloud.stream.bindings.process-in-0.consumer.concurrency", "3")
+				.withProperty("spring.cloud.stream.bindings.process-out-0.destination", "baz")
+				.withProperty("spring.cloud.stream.bindings.output.producer.partition-count", "5")
+				.withProperty("spring.cloud.stream.bindings.other-in-0.binder", "rabbit")
+				.withProperty("spring.cloud.stream.bindings.unknown.destination", "qux")
+				.withProperty("spring.cloud.stream.bindings.unused-in-0.destination", "quux");
+		ApplicationContext context = context(environment,
+				Arrays.asList("process-in-0", "other-in-0", "defaulted"),
+				Arrays.asList("process-out-0", "output"));
+
+		Map<String, TopicProvisioningResult> results = new DeclaredTopicsProvisioner(provisioner,
+				extendedBindingProperties).provision(context);
+
+		assertThat(batches).hasSize(2);
+		assertThat(batches.get(0)).extracting(TopicProvisioningRequest::getName)
+				.containsExactlyInAnyOrder("foo", "bar", "baz", "output", "defaulted");
+		assertThat(batches.get(0)).filteredOn(request -> request.getName().equals("foo"))
+				.extracting(TopicProvisioningRequest::getPartitionCount).containsExactly(6);
+		assertThat(batches.get(0)).filteredOn(request -> request.getName().equals("output"))
+				.extracting(TopicProvisioningRequest::getPartitionCount).containsExactly(5);
+		// the group of the binding without properties is the default group
+		assertThat(batches.get(1)).extracting(TopicProvisioningRequest::getName)
+				.containsExactlyInAnyOrder("error.foo.grp", "error.bar.grp", "error.defaulted.dflt");
+		assertThat(batches.get(1)).extracting(TopicProvisioningRequest::getPartitionCount)
+				.containsExactly(4, 4, 4);
+		assertThat(results).containsOnlyKeys("foo", "bar", "baz", "output", "defaulted",
+				"error.foo.grp", "error.bar.grp", "error.defaulted.dflt");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testNothingProvisionedWithSeveralKafkaBinders() {
+		KafkaTopicProvisioner provisioner = mock(KafkaTopicProvisioner.class);
+		List<TopicProvisioningRequest> requests = new ArrayList<>();
+		given(provisioner.provisionTopics(any(Collection.class))).willAnswer(invocation -> {
+			requests.addAll(invocation.getArgument(0));
+			return Collections.emptyMap();
+		});
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("spring.cloud.stream.binders.east.type", "kafka")
+				.withProperty("spring.cloud.stream.binders.west.type", "kafka")
+				.withProperty("spring.cloud.stream.bindings.first-in-0.binder", "east")
+				.withProperty("spring.cloud.stream.bindings.first-in-0.destination", "foo")
+				.withProperty("spring.cloud.stream.bindings.second-in-0.binder", "west")
+				.withProperty("spring.cloud.stream.bindings.second-in-0.destination", "bar");
+		ApplicationContext context = context(environment, Arrays.asList("first-in-0", "second-in-0"),
+				Collections.emptyList());
+
+		Map<String, TopicProvisioningResult> results = new DeclaredTopicsProvisioner(provisioner,
+				new KafkaExtendedBindingProperties()).provision(context);
+
+		assertThat(results).isEmpty();
+		assertThat(requests).isEmpty();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBindingsArePreparedConcurrently() {
+		KafkaTopicProvisioner provisioner = mock(KafkaTopicProvisioner.class);
+		CountDownLatch latch = new CountDownLatch(5);
+		Answer<Object> concurrently = invocation -> {
+			latch.countDown();
+			assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+			return null;
+		};
+		willAnswer(concurrently).given(provisioner).provisionConsumerDestination(any(), any(),
+				any(ExtendedConsumerProperties.class));
+		willAnswer(concurrently).given(provisioner).provisionProducerDestination(any(),
+				any(ExtendedProducerProperties.class));
+		given(provisioner.getPartitionsForTopic(anyInt(), anyBoolean(), any(), eq("bad")))
+				.willThrow(new BinderException("bad"));
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("spring.cloud.stream.bindings.first-in-0.destination", "foo")
+				.withProperty("spring.cloud.stream.bindings.second-in-0.destination", "bad")
+				.withProperty("spring.cloud.stream.bindings.third-in-0.destination", "qux,quux")
+				.withProperty("spring.cloud.stream.bindings.first-out-0.destination", "bar");
+		ApplicationContext context = context(environment,
+				Arrays.asList("first-in-0", "second-in-0", "third-in-0"),
+				Collections.singletonList("first-out-0"));
+
+		List<String> prepared = new DeclaredTopicsProvisioner(provisioner,
+				new KafkaExtendedBindingProperties()).prepare(context, 5);
+
+		assertThat(prepared).containsExactly("first-in-0", "third-in-0", "first-out-0");
+		verify(provisioner).getPartitionsForTopic(eq(1), eq(true), any(), eq("foo"));
+		verify(provisioner).getPartitionsForTopic(eq(1), eq(false), any(), eq("bar"));
+		// not multiplexed: one binding, and one provisioning, for each destination
+		verify(provisioner).provisionConsumerDestination(eq("qux"), any(),
+				any(ExtendedConsumerProperties.class));
+		verify(provisioner).provisionConsumerDestination(eq("quux"), any(),
+				any(ExtendedConsumerProperties.class));
+	}
+
+	@Test
+	public void testNothingPreparedWithSeveralKafkaBinders() {
+		KafkaTopicProvisioner provisioner = mock(KafkaTopicProvisioner.class);
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("spring.cloud.stream.binders.east.type", "kafka")
+				.withProperty("spring.cloud.stream.binders.west.type", "kafka")
+				.withProperty("spring.cloud.stream.bindings.first-in-0.binder", "east")
+				.withProperty("spring.cloud.stream.bindings.first-in-0.destination", "foo")
+				.withProperty("spring.cloud.stream.bindings.first-out-0.binder", "west")
+				.withProperty("spring.cloud.stream.bindings.first-out-0.destination", "bar");
+		ApplicationContext context = context(environment, Collections.singletonList("first-in-0"),
+				Collections.singletonList("first-out-0"));
+
+		List<String> prepared = new DeclaredTopicsProvisioner(provisioner,
+				new KafkaExtendedBindingProperties()).prepare(context, 4);
+
+		assertThat(prepared).isEmpty();
+		verifyNoInteractions(provisioner);
+	}
+
+	@Test
+	public void testNothingProvisionedWithoutBindingServiceProperties() {
+		KafkaTopicProvisioner provisioner = mock(KafkaTopicProvisioner.class);
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.refresh();
+
+		assertThat(new DeclaredTopicsProvisioner(provisioner, new KafkaExtendedBindingProperties())
+				.prepare(context, 4)).isEmpty();
+		verifyNoInteractions(provisioner);
+	}
+
+	private static ApplicationContext context(MockEnvironment environment, Collection<String> inputs,
+			Collection<String> outputs) {
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.setEnvironment(environment);
+		BindingServiceProperties bindingServiceProperties = Binder.get(environment)
+				.bind("spring.cloud.stream", BindingServiceProperties.class)
+				.orElseGet(BindingServiceProperties::new);
+		bindingServiceProperties.setApplicationContext(context);
+		context.getBeanFactory().registerSingleton("bindingServiceProperties", bindingServiceProperties);
+		context.getBeanFactory().registerSingleton("bindable", new Bindable() {
+
+			@Override
+			public Set<String> getInputs() {
+				return new LinkedHashSet<>(inputs);
+			}
+
+			@Override
+			public Set<String> getOutputs() {
+				return new LinkedHashSet<>(outputs);
+			}
+
+		});
+		context.refresh();
+		return context;
+	}
+
+	private static TopicProvisioningResult created(int partitions) {
+		TopicProvisioningResult result = mock(TopicProvisioningResult.class);
+		given(result.getStatus()).willReturn(TopicProvisioningResult.Status.CREATED);
+		given(result.getPartitions()).willReturn(partitions);
+		return result;
+	}
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.PartitionInfo;
+
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.cloud.stream.binder.kafka.utils.DlqPartitionFunction;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
+import org.springframework.cloud.stream.provisioning.ProducerDestination;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * A {@link KafkaMessageChannelBinder} whose clients are the mock producers and consumers
+ * of {@link InMemoryTopics}, to run the bindings in-process, without a broker: the
+ * conversion of the records, the mapping of their headers, the retries and the dead
+ * letter topics work as with a broker, so that they can be tested and benchmarked on
+ * their own. The topics are provisioned with the partition count of the bindings, at
+ * least the minimum partition count of the binder, and the other topics are created on
+ * first use with the default partition count of the {@link InMemoryTopics}.
+ * <p>
+ * Transactions and the bulk provisioning of the topics are not supported.
+ *
+ * @since 3.1
+ */
+public class InMemoryKafkaBinder extends KafkaMessageChannelBinder {
+
+	public InMemoryKafkaBinder(KafkaBinderConfigurationProperties configurationProperties,
+			InMemoryTopics topics) {
+
+		this(configurationProperties, topics, null);
+	}
+
+	public InMemoryKafkaBinder(KafkaBinderConfigurationProperties configurationProperties,
+			InMemoryTopics topics, @Nullable DlqPartitionFunction dlqPartitionFunction) {
+
+		super(configurationProperties, provisioner(configurationProperties, topics), null, null, null,
+				dlqPartitionFunction);
+	}
+
+	private static InMemoryProvisioner provisioner(KafkaBinderConfigurationProperties configurationProperties,
+			InMemoryTopics topics) {
+
+		Assert.state(!StringUtils.hasText(configurationProperties.getTransaction().getTransactionIdPrefix()),
+				"Transactions are not supported by the in-memory topics");
+		return new InMemoryProvisioner(configurationProperties, topics);
+	}
+
+	/**
+	 * Return the topics of the bindings.
+	 * @return the topics.
+	 */
+	public InMemoryTopics getTopics() {
+		return ((InMemoryProvisioner) this.provisioningProvider).topics;
+	}
+
+	@Override
+	protected DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory(String transactionIdPrefix,
+			ExtendedProducerProperties<KafkaProducerProperties> producerProperties, String beanName) {
+
+		DefaultKafkaProducerFactory<byte[], byte[]> producerFactory = super.getProducerFactory(
+				transactionIdPrefix, producerProperties, beanName);
+		InMemoryProducerFactory inMemoryProducerFactory = new InMemoryProducerFactory(
+				producerFactory.getConfigurationProperties(), getTopics());
+		inMemoryProducerFactory.setBeanName(beanName);
+		return inMemoryProducerFactory;
+	}
+
+	@Override
+	protected ConsumerFactory<?, ?> createKafkaConsumerFactory(boolean anonymous, String consumerGroup,
+			ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties, String beanName) {
+
+		ConsumerFactory<?, ?> consumerFactory = super.createKafkaConsumerFactory(anonymous, consumerGroup,
+				consumerProperties, beanName);
+		InMemoryConsumerFactory inMemoryConsumerFactory = new InMemoryConsumerFactory(
+				consumerFactory.getConfigurationProperties(), getTopics());
+		inMemoryConsumerFactory.setBeanName(beanName);
+		return inMemoryConsumerFactory;
+	}
+
+	/**
+	 * Provisions the destinations of the bindings as in-memory topics.
+	 */
+	private static final class InMemoryProvisioner extends KafkaTopicProvisioner {
+
+		private final KafkaBinderConfigurationProperties configurationProperties;
+
+		private final InMemoryTopics topics;
+
+		InMemoryProvisioner(KafkaBinderConfigurationProperties configurationProperties, InMemoryTopics topics) {
+			super(configurationProperties, new KafkaProperties());
+			this.configurationProperties = configurationProperties;
+			this.topics = topics;
+			setMetadataRetryOperations(new RetryTemplate());
+		}
+
+		@Override
+		public ProducerDestination provisionProducerDestination(String name,
+				ExtendedProducerProperties<KafkaProducerProperties> properties) {
+
+			createTopic(name, properties.getPartitionCount());
+			return new ProducerDestination() {
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public String getNameForPartition(int partition) {
+					return name;
+				}
+
+			};
+		}
+
+		@Override
+		public ConsumerDestination provisionConsumerDestination(String name, String group,
+				ExtendedConsumerProperties<KafkaConsumerProperties> properties) {
+
+			if (!properties.getExtension().isDestinationIsPattern()) {
+				String[] destinations = properties.isMultiplex()
+						? StringUtils.commaDelimitedListToStringArray(name)
+						: new String[] { name };
+				for (String destination : destinations) {
+					createConsumerTopics(destination.trim(), group, properties.getExtension(),
+							properties.getInstanceCount() * properties.getConcurrency());
+				}
+			}
+			return new ConsumerDestination() {
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+			};
+		}
+
+		private void createConsumerTopics(String name, String group, KafkaConsumerProperties properties,
+				int partitionCount) {
+
+			int partitions = createTopic(name, partitionCount);
+			if (properties.isEnableDlq() && StringUtils.hasText(group)) {
+				String dlqName = StringUtils.hasText(properties.getDlqName())
+						? properties.getDlqName()
+						: "error." + name + "." + group;
+				createTopic(dlqName, properties.getDlqPartitions() != null
+						? properties.getDlqPartitions()
+						: partitions);
+			}
+		}
+
+		@Override
+		public List<PartitionInfo> getPartitionInfos(String topic) {
+			return this.topics.partitionsFor(topic);
+		}
+
+		private int createTopic(String name, int partitionCount) {
+			return this.topics.createTopic(name,
+					Math.max(partitionCount, this.configurationProperties.getMinPartitionCount()),
+					this.configurationProperties.isAutoAddPartitions());
+		}
+
+	}
+
+	/**
+	 * Creates a producer of the in-memory topics, shared by the producer templates.
+	 */
+	private static final class InMemoryProducerFactory extends DefaultKafkaProducerFactory<byte[], byte[]> {
+
+		private final Producer<byte[], byte[]> producer;
+
+		InMemoryProducerFactory(Map<String, Object> configs, InMemoryTopics topics) {
+			super(configs);
+			this.producer = topics.producer();
+		}
+
+		@Override
+		public Producer<byte[], byte[]> createProducer() {
+			return this.producer;
+		}
+
+	}
+
+	/**
+	 * Creates consumers of the in-memory topics, with the group, the offset reset
+	 * strategy and the maximum poll records of their configuration.
+	 */
+	private static final class InMemoryConsumerFactory extends DefaultKafkaConsumerFactory<byte[], byte[]> {
+
+		private final InMemoryTopics topics;
+
+		InMemoryConsumerFactory(Map<String, Object> configs, InMemoryTopics topics) {
+			super(configs);
+			this.topics = topics;
+		}
+
+		@Override
+		public Consumer<byte[], byte[]> createConsumer() {
+			return createConsumer(null, null, null, null);
+		}
+
+		@Override
+		public Consumer<byte[], byte[]> createConsumer(@Nullable String clientIdSuffix) {
+			return createConsumer(null, null, null, null);
+		}
+
+		@Override
+		public Consumer<byte[], byte[]> createConsumer(@Nullable String groupId, @Nullable String clientIdSuffix) {
+			return createConsumer(groupId, null, null, null);
+		}
+
+		@Override
+		public Consumer<byte[], byte[]> createConsumer(@Nullable String groupId, @Nullable String clientIdPrefix,
+				@Nullable String clientIdSuffix) {
+
+			return createConsumer(groupId, null, null, null);
+		}
+
+		@Override
+		public Consumer<byte[], byte[]> createConsumer(@Nullable String groupId, @Nullable String clientIdPrefix,
+				@Nullable String clientIdSuffix, @Nullable Properties properties) {
+
+			Map<String, Object> configs = new HashMap<>(getConfigurationProperties());
+			if (properties != null) {
+				for (String name : properties.stringPropertyNames()) {
+					configs.put(name, properties.getProperty(name));
+				}
+			}
+			if (StringUtils.hasText(groupId)) {
+				configs.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+			}
+			Object offsetReset = configs.getOrDefault(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+			Object maxPollRecords = configs.getOrDefault(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 500);
+			return this.topics.consumer((String) configs.get(ConsumerConfig.GROUP_ID_CONFIG),
+					OffsetResetStrategy.valueOf(offsetReset.toString().toUpperCase(Locale.ROOT)),
+					Integer.parseInt(maxPollRecords.toString()));
+		}
+
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 3.1
+ */
+public class InMemoryKafkaBinderTests {
+
+	private AnnotationConfigApplicationContext context;
+
+	private InMemoryKafkaBinder binder;
+
+	@Before
+	public void setup() throws Exception {
+		this.context = new AnnotationConfigApplicationContext(Config.class);
+		this.binder = new InMemoryKafkaBinder(new KafkaBinderConfigurationProperties(new TestKafkaProperties()),
+				new InMemoryTopics(1));
+		this.binder.setApplicationContext(this.context);
+		this.binder.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Test
+	public void testRecordsConvertedAcrossPartitions() {
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = consumerProperties();
+		consumerProperties.setConcurrency(2);
+		QueueChannel input = new QueueChannel();
+		Binding<MessageChannel> consumerBinding = this.binder.bindConsumer("in.memory.records", "group", input,
+				consumerProperties);
+		DirectChannel output = new DirectChannel();
+		Binding<MessageChannel> producerBinding = this.binder.bindProducer("in.memory.records", output,
+				new ExtendedProducerProperties<>(new KafkaProducerProperties()));
+		for (int i = 0; i < 100; i++) {
+			output.send(MessageBuilder.withPayload(("payload-" + i).getBytes())
+					.setHeader(KafkaHeaders.MESSAGE_KEY, ("key-" + i).getBytes())
+					.setHeader("index", i)
+					.build());
+		}
+		Set<String> payloads = new HashSet<>();
+		Set<Object> partitions = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			Message<?> message = input.receive(10_000);
+			assertThat(message).isNotNull();
+			String payload = new String((byte[]) message.getPayload());
+			assertThat(message.getHeaders().get("index"))
+					.isEqualTo(Integer.parseInt(payload.substring("payload-".length())));
+			payloads.add(payload);
+			partitions.add(message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION_ID));
+		}
+		assertThat(payloads).hasSize(100);
+		assertThat(partitions).containsExactlyInAnyOrder(0, 1);
+		producerBinding.unbind();
+		consumerBinding.unbind();
+	}
+
+	@Test
+	public void testFailedRecordsRetriedAndSentToDlq() throws Exception {
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = consumerProperties();
+		consumerProperties.setMaxAttempts(3);
+		consumerProperties.setBackOffInitialInterval(1);
+		consumerProperties.setBackOffMaxInterval(1);
+		consumerProperties.getExtension().setEnableDlq(true);
+		AtomicInteger attempts = new AtomicInteger();
+		DirectChannel input = new DirectChannel();
+		input.subscribe(message -> {
+			attempts.incrementAndGet();
+			throw new IllegalStateException("Handling failed");
+		});
+		Binding<MessageChannel> consumerBinding = this.binder.bindConsumer("in.memory.dlq", "group", input,
+				consumerProperties);
+		DirectChannel output = new DirectChannel();
+		Binding<MessageChannel> producerBinding = this.binder.bindProducer("in.memory.dlq", output,
+				new ExtendedProducerProperties<>(new KafkaProducerProperties()));
+		output.send(MessageBuilder.withPayload("failing".getBytes()).build());
+		List<ConsumerRecord<byte[], byte[]>> dlq = Collections.emptyList();
+		for (int i = 0; i < 100 && dlq.isEmpty(); i++) {
+			Thread.sleep(100);
+			dlq = this.binder.getTopics().records("error.in.memory.dlq.group");
+		}
+		assertThat(dlq).hasSize(1);
+		assertThat(attempts.get()).isEqualTo(3);
+		assertThat(new String(dlq.get(0).value())).isEqualTo("failing");
+		Headers headers = dlq.get(0).headers();
+		assertThat(new String(headers.lastHeader(KafkaMessageChannelBinder.X_ORIGINAL_TOPIC).value()))
+				.isEqualTo("in.memory.dlq");
+		assertThat(new String(headers.lastHeader(KafkaMessageChannelBinder.X_EXCEPTION_MESSAGE).value()))
+				.contains("Handling failed");
+		producerBinding.unbind();
+		consumerBinding.unbind();
+	}
+
+	@Test
+	public void testPartitionsRebalancedAcrossGroup() {
+		InMemoryTopics topics = new InMemoryTopics(4);
+		MockConsumer<byte[], byte[]> first = topics.consumer("group", OffsetResetStrategy.EARLIEST, 500);
+		first.subscribe(Collections.singletonList("topic"));
+		first.poll(Duration.ZERO);
+		assertThat(first.assignment()).hasSize(4);
+		MockConsumer<byte[], byte[]> second = topics.consumer("group", OffsetResetStrategy.EARLIEST, 500);
+		second.subscribe(Collections.singletonList("topic"));
+		second.poll(Duration.ZERO);
+		assertThat(second.assignment()).isEmpty();
+		first.poll(Duration.ZERO);
+		second.poll(Duration.ZERO);
+		assertThat(first.assignment()).containsExactlyInAnyOrder(new TopicPartition("topic", 0),
+				new TopicPartition("topic", 2));
+		assertThat(second.assignment()).containsExactlyInAnyOrder(new TopicPartition("topic", 1),
+				new TopicPartition("topic", 3));
+		MockProducer<byte[], byte[]> producer = topics.producer();
+		for (int i = 0; i < 8; i++) {
+			producer.send(new ProducerRecord<>("topic", i % 4, null, ("value-" + i).getBytes()));
+		}
+		assertThat(first.poll(Duration.ZERO).count()).isEqualTo(4);
+		assertThat(second.poll(Duration.ZERO).count()).isEqualTo(4);
+		first.commitSync();
+		first.close();
+		assertThat(second.poll(Duration.ZERO).count()).isZero();
+		assertThat(second.assignment()).hasSize(4);
+		producer.send(new ProducerRecord<>("topic", 0, null, "value-8".getBytes()));
+		assertThat(second.poll(Duration.ZERO).count()).isEqualTo(1);
+	}
+
+	private ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties() {
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = new ExtendedConsumerProperties<>(
+				new KafkaConsumerProperties());
+		consumerProperties.setInstanceCount(1);
+		return consumerProperties;
+	}
+
+	@Configuration
+	@EnableIntegration
+	static class Config {
+
+	}
+
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.utils.Utils;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory topics standing in for a Kafka cluster, shared by the {@link MockProducer}s
+ * and {@link MockConsumer}s they create: the records sent by the producers are appended
+ * to the partitions of the topics, which are created on first use, and polled by the
+ * consumers from the partitions assigned to them.
+ * <p>
+ * The partitions of a topic are assigned to the consumers of a group subscribed to it
+ * in the order they subscribed, each consumer taking the partitions whose number modulo
+ * the count of consumers is its rank. When a consumer joins or leaves a group, the
+ * consumers are rebalanced at their next poll: a partition is assigned to its new
+ * consumer once its previous consumer has revoked it, and is resumed from the offset
+ * committed by the group. Each partition retains a bounded number of records, beyond which the oldest
+ * ones are deleted. Transactions and pattern subscriptions are not supported.
+ *
+ * @since 3.1
+ */
+public class InMemoryTopics {
+
+	/**
+	 * The default count of records retained by each partition.
+	 */
+	public static final int DEFAULT_RETENTION = 100_000;
+
+	private static final Node NODE = new Node(0, "localhost", 9092);
+
+	private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+
+	private final Map<String, Map<TopicPartition, OffsetAndMetadata>> commits = new ConcurrentHashMap<>();
+
+	private final List<TopicConsumer> members = new ArrayList<>();
+
+	private final Map<String, Map<TopicPartition, TopicConsumer>> owners = new HashMap<>();
+
+	private final int defaultPartitions;
+
+	private final int retention;
+
+	private volatile int generation;
+
+	/**
+	 * Create an instance whose partitions retain {@link #DEFAULT_RETENTION} records.
+	 * @param defaultPartitions the partition count of the topics created on first use.
+	 */
+	public InMemoryTopics(int defaultPartitions) {
+		this(defaultPartitions, DEFAULT_RETENTION);
+	}
+
+	/**
+	 * Create an instance.
+	 * @param defaultPartitions the partition count of the topics created on first use.
+	 * @param retention the count of records retained by each partition.
+	 */
+	public InMemoryTopics(int defaultPartitions, int retention) {
+		Assert.isTrue(defaultPartitions > 0, "'defaultPartitions' must be positive");
+		Assert.isTrue(retention > 0, "'retention' must be positive");
+		this.defaultPartitions = defaultPartitions;
+		this.retention = retention;
+	}
+
+	/**
+	 * Create a topic, or add partitions to an existing topic.
+	 * @param name the name of the topic.
+	 * @param partitions the partition count.
+	 * @param addPartitions whether to add partitions to the topic if it exists with fewer
+	 * partitions.
+	 * @return the partition count of the topic.
+	 */
+	public int createTopic(String name, int partitions, boolean addPartitions) {
+		Topic topic = this.topics.computeIfAbsent(name, key -> new Topic(key, Math.max(partitions, 1)));
+		if (addPartitions && topic.addPartitions(partitions)) {
+			rebalanceGroups();
+		}
+		return topic.partitions.length;
+	}
+
+	/**
+	 * Return the partitions of a topic, creating it if needed.
+	 * @param name the name of the topic.
+	 * @return the partitions.
+	 */
+	public List<PartitionInfo> partitionsFor(String name) {
+		Partition[] partitions = topic(name).partitions;
+		List<PartitionInfo> infos = new ArrayList<>(partitions.length);
+		Node[] replicas = new Node[] { NODE };
+		for (int i = 0; i < partitions.length; i++) {
+			infos.add(new PartitionInfo(name, i, NODE, replicas, replicas));
+		}
+		return infos;
+	}
+
+	/**
+	 * Return the records retained by a topic, partition after partition.
+	 * @param name the name of the topic.
+	 * @return the records.
+	 */
+	public List<ConsumerRecord<byte[], byte[]>> records(String name) {
+		List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+		for (Partition partition : topic(name).partitions) {
+			partition.copyTo(records);
+		}
+		return records;
+	}
+
+	/**
+	 * Create a producer appending its records to the topics; the producer is thread safe
+	 * and can be shared, its records are acknowledged when they are appended and closing
+	 * it has no effect.
+	 * @return the producer.
+	 */
+	public MockProducer<byte[], byte[]> producer() {
+		return new TopicProducer();
+	}
+
+	/**
+	 * Create a consumer polling the records of the topics.
+	 * @param groupId the consumer group.
+	 * @param offsetResetStrategy the position of the consumer on the partitions the group
+	 * has not committed.
+	 * @param maxPollRecords the maximum count of records returned by a poll.
+	 * @return the consumer.
+	 */
+	public MockConsumer<byte[], byte[]> consumer(String groupId, OffsetResetStrategy offsetResetStrategy,
+			int maxPollRecords) {
+
+		Assert.hasText(groupId, "'groupId' is required");
+		Assert.isTrue(maxPollRecords > 0, "'maxPollRecords' must be positive");
+		return new TopicConsumer(groupId, offsetResetStrategy, maxPollRecords);
+	}
+
+	private Topic topic(String name) {
+		return this.topics.computeIfAbsent(name, key -> new Topic(key, this.defaultPartitions));
+	}
+
+	private Partition partition(TopicPartition topicPartition) {
+		Partition[] partitions = topic(topicPartition.topic()).partitions;
+		Assert.isTrue(topicPartition.partition() >= 0 && topicPartition.partition() < partitions.length,
+				() -> "Unknown partition " + topicPartition);
+		return partitions[topicPartition.partition()];
+	}
+
+	private synchronized void join(TopicConsumer consumer) {
+		this.members.remove(consumer);
+		this.members.add(consumer);
+		rebalanceGroups();
+	}
+
+	private synchronized void leave(TopicConsumer consumer) {
+		if (this.members.remove(consumer)) {
+			owners(consumer).values().removeIf(owner -> owner == consumer);
+			rebalanceGroups();
+		}
+	}
+
+	private synchronized Set<TopicPartition> claim(TopicConsumer consumer, Set<TopicPartition> partitions) {
+		Map<TopicPartition, TopicConsumer> owners = owners(consumer);
+		Set<TopicPartition> claimed = new HashSet<>();
+		for (TopicPartition partition : partitions) {
+			if (owners.putIfAbsent(partition, consumer) == null || owners.get(partition) == consumer) {
+				claimed.add(partition);
+			}
+		}
+		return claimed;
+	}
+
+	private synchronized void release(TopicConsumer consumer, Collection<TopicPartition> partitions) {
+		Map<TopicPartition, TopicConsumer> owners = owners(consumer);
+		for (TopicPartition partition : partitions) {
+			owners.remove(partition, consumer);
+		}
+	}
+
+	private Map<TopicPartition, TopicConsumer> owners(TopicConsumer consumer) {
+		return this.owners.computeIfAbsent(consumer.groupId, key -> new HashMap<>());
+	}
+
+	private synchronized void rebalanceGroups() {
+		this.generation++;
+	}
+
+	private synchronized Set<TopicPartition> targetAssignment(TopicConsumer consumer) {
+		Set<TopicPartition> assignment = new HashSet<>();
+		for (String name : consumer.subscription) {
+			int rank = 0;
+			int count = 0;
+			for (TopicConsumer member : this.members) {
+				if (member.groupId.equals(consumer.groupId) && member.subscription.contains(name)) {
+					if (member == consumer) {
+						rank = count;
+					}
+					count++;
+				}
+			}
+			int partitions = topic(name).partitions.length;
+			for (int partition = rank; partition < partitions; partition += count) {
+				assignment.add(new TopicPartition(name, partition));
+			}
+		}
+		return assignment;
+	}
+
+	private Map<TopicPartition, OffsetAndMetadata> commits(String groupId) {
+		return this.commits.computeIfAbsent(groupId, key -> new ConcurrentHashMap<>());
+	}
+
+	private static final class Topic {
+
+		private final String name;
+
+		private volatile Partition[] partitions;
+
+		Topic(String name, int count) {
+			this.name = name;
+			this.partitions = new Partition[0];
+			addPartitions(count);
+		}
+
+		synchronized boolean addPartitions(int count) {
+			Partition[] partitions = this.partitions;
+			if (count <= partitions.length) {
+				return false;
+			}
+			Partition[] added = new Partition[count];
+			System.arraycopy(partitions, 0, added, 0, partitions.length);
+			for (int i = partitions.length; i < count; i++) {
+				added[i] = new Partition(new TopicPartition(this.name, i));
+			}
+			this.partitions = added;
+			return true;
+		}
+
+	}
+
+	private static final class Partition {
+
+		private final TopicPartition topicPartition;
+
+		private final List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+
+		private long beginningOffset;
+
+		Partition(TopicPartition topicPartition) {
+			this.topicPartition = topicPartition;
+		}
+
+		synchronized long append(ProducerRecord<byte[], byte[]> record, long timestamp, int retention) {
+			long offset = this.beginningOffset + this.records.size();
+			byte[] key = record.key();
+			byte[] value = record.value();
+			this.records.add(new ConsumerRecord<>(this.topicPartition.topic(), this.topicPartition.partition(),
+					offset, timestamp, TimestampType.CREATE_TIME, 0L, key == null ? -1 : key.length,
+					value == null ? -1 : value.length, key, value, new RecordHeaders(record.headers().toArray())));
+			if (this.records.size() >= 2 * retention) {
+				int deleted = this.records.size() - retention;
+				this.records.subList(0, deleted).clear();
+				this.beginningOffset += deleted;
+			}
+			return offset;
+		}
+
+		synchronized long beginningOffset() {
+			return this.beginningOffset;
+		}
+
+		synchronized long endOffset() {
+			return this.beginningOffset + this.records.size();
+		}
+
+		synchronized List<ConsumerRecord<byte[], byte[]>> fetch(long offset, int maxRecords) {
+			int from = (int) (offset - this.beginningOffset);
+			int to = Math.min(this.records.size(), from + maxRecords);
+			if (from >= to) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<>(this.records.subList(from, to));
+		}
+
+		synchronized void copyTo(List<ConsumerRecord<byte[], byte[]>> records) {
+			records.addAll(this.records);
+		}
+
+	}
+
+	private final class TopicProducer extends MockProducer<byte[], byte[]> {
+
+		private final AtomicInteger nextPartition = new AtomicInteger();
+
+		TopicProducer() {
+			super(true, new ByteArraySerializer(), new ByteArraySerializer());
+		}
+
+		@Override
+		public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, @Nullable Callback callback) {
+			Partition[] partitions = topic(record.topic()).partitions;
+			int partition;
+			if (record.partition() != null) {
+				int requested = record.partition();
+				Assert.isTrue(requested >= 0 && requested < partitions.length, () -> "Invalid partition "
+						+ requested + " of topic " + record.topic() + " with " + partitions.length + " partitions");
+				partition = requested;
+			}
+			else if (record.key() != null) {
+				partition = Utils.toPositive(Utils.murmur2(record.key())) % partitions.length;
+			}
+			else {
+				partition = Utils.toPositive(this.nextPartition.getAndIncrement()) % partitions.length;
+			}
+			long timestamp = record.timestamp() != null ? record.timestamp() : System.currentTimeMillis();
+			long offset = partitions[partition].append(record, timestamp, InMemoryTopics.this.retention);
+			byte[] key = record.key();
+			byte[] value = record.value();
+			RecordMetadata metadata = new RecordMetadata(new TopicPartition(record.topic(), partition), offset, 0,
+					timestamp, 0L, key == null ? -1 : key.length, value == null ? -1 : value.length);
+			if (callback != null) {
+				callback.onCompletion(metadata, null);
+			}
+			return CompletableFuture.completedFuture(metadata);
+		}
+
+		@Override
+		public List<PartitionInfo> partitionsFor(String topic) {
+			return InMemoryTopics.this.partitionsFor(topic);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void close(Duration timeout) {
+		}
+
+	}
+
+	private final class TopicConsumer extends MockConsumer<byte[], byte[]> {
+
+		private final String groupId;
+
+		private final int maxPollRecords;
+
+		private volatile List<String> subscription = Collections.emptyList();
+
+		private ConsumerRebalanceListener listener;
+
+		private int generation = -1;
+
+		private int polls;
+
+		TopicConsumer(String groupId, OffsetResetStrategy offsetResetStrategy, int maxPollRecords) {
+			super(offsetResetStrategy);
+			this.groupId = groupId;
+			this.maxPollRecords = maxPollRecords;
+		}
+
+		@Override
+		public void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+			super.subscribe(topics, listener);
+			this.listener = listener;
+			this.subscription = new ArrayList<>(topics);
+			join(this);
+		}
+
+		@Override
+		public void unsubscribe() {
+			leave(this);
+			this.subscription = Collections.emptyList();
+			super.unsubscribe();
+		}
+
+		@Override
+		public ConsumerRecords<byte[], byte[]> poll(Duration timeout) {
+			if (this.listener != null && this.generation != InMemoryTopics.this.generation) {
+				reassign();
+			}
+			List<TopicPartition> assignment = new ArrayList<>(assignment());
+			refreshOffsets(assignment);
+			// wakeups, scheduled poll tasks and pending seeks; the records are fetched below
+			super.poll(Duration.ZERO);
+			Set<TopicPartition> paused = paused();
+			Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> fetched = new HashMap<>();
+			int remaining = this.maxPollRecords;
+			int size = assignment.size();
+			int first = this.polls++;
+			for (int i = 0; i < size && remaining > 0; i++) {
+				// start from another partition at each poll, not to starve any of them
+				TopicPartition topicPartition = assignment.get(Utils.toPositive(first + i) % size);
+				if (!paused.contains(topicPartition)) {
+					Partition partition = partition(topicPartition);
+					// the records before the beginning were deleted, as by the retention of a broker
+					long position = Math.max(position(topicPartition), partition.beginningOffset());
+					List<ConsumerRecord<byte[], byte[]>> records = partition.fetch(position, remaining);
+					if (!records.isEmpty()) {
+						fetched.put(topicPartition, records);
+						seek(topicPartition, position + records.size());
+						remaining -= records.size();
+					}
+				}
+			}
+			if (fetched.isEmpty() && !timeout.isZero()) {
+				LockSupport.parkNanos(Math.min(timeout.toNanos(), IDLE_POLL_NANOS));
+			}
+			return new ConsumerRecords<>(fetched);
+		}
+
+		@Override
+		public void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets,
+				@Nullable OffsetCommitCallback callback) {
+
+			commits(this.groupId).putAll(offsets);
+			super.commitAsync(offsets, callback);
+		}
+
+		@Override
+		public void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+			commits(this.groupId).putAll(offsets);
+			super.commitSync(offsets);
+		}
+
+		@Override
+		public Map<TopicPartition, OffsetAndMetadata> committed(Set<TopicPartition> partitions) {
+			Map<TopicPartition, OffsetAndMetadata> commits = commits(this.groupId);
+			Map<TopicPartition, OffsetAndMetadata> committed = new HashMap<>();
+			for (TopicPartition partition : partitions) {
+				OffsetAndMetadata offset = commits.get(partition);
+				if (offset != null) {
+					committed.put(partition, offset);
+				}
+			}
+			return committed;
+		}
+
+		@Override
+		public Map<TopicPartition, Long> beginningOffsets(Collection<TopicPartition> partitions) {
+			refreshOffsets(partitions);
+			return super.beginningOffsets(partitions);
+		}
+
+		@Override
+		public Map<TopicPartition, Long> endOffsets(Collection<TopicPartition> partitions) {
+			refreshOffsets(partitions);
+			return super.endOffsets(partitions);
+		}
+
+		@Override
+		public List<PartitionInfo> partitionsFor(String topic) {
+			return InMemoryTopics.this.partitionsFor(topic);
+		}
+
+		@Override
+		public void close() {
+			leave(this);
+			super.close();
+		}
+
+		@Override
+		public void close(Duration timeout) {
+			leave(this);
+			super.close(timeout);
+		}
+
+		private void reassign() {
+			int groupsGeneration = InMemoryTopics.this.generation;
+			Set<TopicPartition> current = assignment();
+			Set<TopicPartition> target = targetAssignment(this);
+			List<TopicPartition> revoked = new ArrayList<>(current);
+			revoked.removeAll(target);
+			if (!revoked.isEmpty()) {
+				this.listener.onPartitionsRevoked(revoked);
+				release(this, revoked);
+			}
+			Set<TopicPartition> assignment = claim(this, target);
+			// claim the partitions still owned by other consumers again at the next poll
+			this.generation = assignment.size() == target.size() ? groupsGeneration : -1;
+			if (assignment.equals(current)) {
+				return;
+			}
+			List<TopicPartition> assigned = new ArrayList<>(assignment);
+			assigned.removeAll(current);
+			rebalance(assignment);
+			refreshOffsets(assigned);
+			Map<TopicPartition, OffsetAndMetadata> commits = commits(this.groupId);
+			for (TopicPartition partition : assigned) {
+				OffsetAndMetadata offset = commits.get(partition);
+				if (offset != null) {
+					seek(partition, offset.offset());
+				}
+			}
+			this.listener.onPartitionsAssigned(assigned);
+		}
+
+		private void refreshOffsets(Collection<TopicPartition> partitions) {
+			Map<TopicPartition, Long> beginningOffsets = new HashMap<>();
+			Map<TopicPartition, Long> endOffsets = new HashMap<>();
+			for (TopicPartition topicPartition : partitions) {
+				Partition partition = partition(topicPartition);
+				beginningOffsets.put(topicPartition, partition.beginningOffset());
+				endOffsets.put(topicPartition, partition.endOffset());
+			}
+			updateBeginningOffsets(beginningOffsets);
+			updateEndOffsets(endOffsets);
+		}
+
+	}
+
+}
@@ -17,12 +17,15 @@
 package org.springframework.cloud.stream.binder.kafka;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListTopicsResult;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.junit.Before;
@@ -33,7 +36,7 @@ import org.mockito.MockitoAnnotations;
 
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
-import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -52,10 +55,10 @@ public class KafkaBinderHealthIndicatorTest {
 	private KafkaBinderHealthIndicator indicator;
 
 	@Mock
-	private DefaultKafkaConsumerFactory consumerFactory;
+	private KafkaTopicProvisioner provisioner;
 
 	@Mock
-	private KafkaConsumer consumer;
+	private AdminClient adminClient;
 
 	@Mock
 	private KafkaMessageChannelBinder binder;
@@ -65,53 +68,53 @@ public class KafkaBinderHealthIndicatorTest {
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
-		org.mockito.BDDMockito.given(consumerFactory.createConsumer())
-				.willReturn(consumer);
+		org.mockito.BDDMockito.given(binder.getTopicProvisioner()).willReturn(provisioner);
+		org.mockito.BDDMockito.given(provisioner.getAdminClient()).willReturn(adminClient);
 		org.mockito.BDDMockito.given(binder.getTopicsInUse()).willReturn(topicsInUse);
-		this.indicator = new KafkaBinderHealthIndicator(binder, consumerFactory);
+		this.indicator = new KafkaBinderHealthIndicator(binder);
 		this.indicator.setTimeout(10);
 	}
 
 	@Test
-	public void kafkaBinderIsUp() {
+	public void kafkaBinderIsUp() throws Exception {
 		final List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
 		topicsInUse.put(TEST_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
 				"group1-healthIndicator", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
+		org.mockito.BDDMockito.given(provisioner.getPartitionInfos(TEST_TOPIC))
 				.willReturn(partitions);
 		Health health = indicator.health();
 		assertThat(health.getStatus()).isEqualTo(Status.UP);
 	}
 
 	@Test
-	public void kafkaBinderIsUpWithRegexTopic() {
+	public void kafkaBinderIsUpWithRegexTopic() throws Exception {
 		topicsInUse.put(REGEX_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
 				"regex-healthIndicator", null, true));
 		Health health = indicator.health();
-		// verify no consumer interaction for retrieving partitions
-		org.mockito.BDDMockito.verify(consumer, Mockito.never())
-				.partitionsFor(REGEX_TOPIC);
+		// verify no provisioner interaction for retrieving partitions
+		org.mockito.BDDMockito.verify(provisioner, Mockito.never())
+				.getPartitionInfos(REGEX_TOPIC);
 		// Ensuring the normal health check returns with status "up"
 		assertThat(health.getStatus()).isEqualTo(Status.UP);
 	}
 
 	@Test
-	public void kafkaBinderIsDown() {
-		final List<PartitionInfo> partitions = partitions(new Node(-1, null, 0));
+	public void kafkaBinderIsDown() throws Exception {
 		topicsInUse.put(TEST_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
-				"group2-healthIndicator", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
-				.willReturn(partitions);
+				"group2-healthIndicator", partitions(new Node(0, null, 0)), false));
+		// the provisioner returns new partition infos, equal to the ones in use by partition only
+		org.mockito.BDDMockito.given(provisioner.getPartitionInfos(TEST_TOPIC))
+				.willReturn(partitions(new Node(-1, null, 0)));
 		Health health = indicator.health();
 		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
 	}
 
 	@Test(timeout = 5000)
-	public void kafkaBinderDoesNotAnswer() {
+	public void kafkaBinderDoesNotAnswer() throws Exception {
 		final List<PartitionInfo> partitions = partitions(new Node(-1, null, 0));
 		topicsInUse.put(TEST_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
 				"group3-healthIndicator", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
+		org.mockito.BDDMockito.given(provisioner.getPartitionInfos(TEST_TOPIC))
 				.willAnswer(invocation -> {
 					final int fiveMinutes = 1000 * 60 * 5;
 					Thread.sleep(fiveMinutes);
@@ -123,28 +126,13 @@ public class KafkaBinderHealthIndicatorTest {
 	}
 
 	@Test
-	public void createsConsumerOnceWhenInvokedMultipleTimes() {
-		final List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
-		topicsInUse.put(TEST_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
-				"group4-healthIndicator", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
-				.willReturn(partitions);
-
-		indicator.health();
-		Health health = indicator.health();
-
-		assertThat(health.getStatus()).isEqualTo(Status.UP);
-		org.mockito.Mockito.verify(this.consumerFactory).createConsumer();
-	}
-
-	@Test
-	public void consumerCreationFailsFirstTime() {
+	public void partitionRetrievalFailsFirstTime() throws Exception {
 		final List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
 		topicsInUse.put(TEST_TOPIC, new KafkaMessageChannelBinder.TopicInformation(
 				"foo-healthIndicator", partitions, false));
 
-		org.mockito.BDDMockito.given(consumerFactory.createConsumer())
-				.willThrow(KafkaException.class).willReturn(consumer);
+		org.mockito.BDDMockito.given(provisioner.getPartitionInfos(TEST_TOPIC))
+				.willThrow(KafkaException.class).willReturn(partitions);
 
 		Health health = indicator.health();
 		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
@@ -152,16 +140,27 @@ public class KafkaBinderHealthIndicatorTest {
 		health = indicator.health();
 		assertThat(health.getStatus()).isEqualTo(Status.UP);
 
-		org.mockito.Mockito.verify(this.consumerFactory, Mockito.times(2))
-				.createConsumer();
+		org.mockito.Mockito.verify(this.provisioner, Mockito.times(2))
+				.getPartitionInfos(TEST_TOPIC);
 	}
 
 	@Test
 	public void testIfNoTopicsRegisteredByTheBinderProvidesDownStatus() {
+		ListTopicsResult result = Mockito.mock(ListTopicsResult.class);
+		org.mockito.BDDMockito.given(result.names())
+				.willReturn(KafkaFuture.completedFuture(Collections.emptySet()));
+		org.mockito.BDDMockito.given(adminClient.listTopics()).willReturn(result);
 		Health health = indicator.health();
 		assertThat(health.getStatus()).isEqualTo(Status.UNKNOWN);
 	}
 
+	@Test
+	public void kafkaBinderIsDownWhenNoTopicsAndBrokerNotReachable() {
+		org.mockito.BDDMockito.given(adminClient.listTopics()).willThrow(KafkaException.class);
+		Health health = indicator.health();
+		assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+	}
+
 	private List<PartitionInfo> partitions(Node leader) {
 		List<PartitionInfo> partitions = new ArrayList<>();
 		partitions.add(new PartitionInfo(TEST_TOPIC, 0, leader, null, null));
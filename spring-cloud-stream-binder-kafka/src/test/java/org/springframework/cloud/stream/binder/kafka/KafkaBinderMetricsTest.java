@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2018 the original author or authors.
+ * Copyright 2016-2020 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,32 +17,69 @@
 package org.springframework.cloud.stream.binder.kafka;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.core.instrument.FunctionTimer;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import org.springframework.cloud.stream.binder.kafka.KafkaMessageChannelBinder.DlqInformation;
 import org.springframework.cloud.stream.binder.kafka.KafkaMessageChannelBinder.TopicInformation;
+import org.springframework.cloud.stream.binder.kafka.config.ClientFactoryCustomizer;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
-import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.cloud.stream.binder.kafka.provisioning.KafkaTopicProvisioner;
+import org.springframework.cloud.stream.binder.kafka.utils.KafkaClientMetricsUtils;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ContainerAwareErrorHandler;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.MessageHeaders;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author Henryk Konsek
@@ -56,48 +93,81 @@ public class KafkaBinderMetricsTest {
 	private KafkaBinderMetrics metrics;
 
 	@Mock
-	private DefaultKafkaConsumerFactory consumerFactory;
+	private AdminClient adminClient;
 
 	@Mock
-	private KafkaConsumer consumer;
+	private KafkaMessageChannelBinder binder;
 
 	@Mock
-	private KafkaMessageChannelBinder binder;
+	private KafkaTopicProvisioner provisioner;
+
+	private boolean failTopicDescription;
 
 	private MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
 	private Map<String, TopicInformation> topicsInUse = new HashMap<>();
 
+	private Map<String, TopicDescription> topicDescriptions = new HashMap<>();
+
+	private Map<TopicPartition, ListOffsetsResultInfo> endOffsets = new HashMap<>();
+
+	private Map<String, Map<TopicPartition, OffsetAndMetadata>> committedOffsets = new HashMap<>();
+
 	@Mock
 	private KafkaBinderConfigurationProperties kafkaBinderConfigurationProperties;
 
 	@Before
-	public void setup() {
+	public void setup() throws Exception {
 		MockitoAnnotations.initMocks(this);
-		org.mockito.BDDMockito.given(consumerFactory
-				.createConsumer(ArgumentMatchers.any(), ArgumentMatchers.any()))
-				.willReturn(consumer);
-		org.mockito.BDDMockito.given(binder.getTopicsInUse()).willReturn(topicsInUse);
-		metrics = new KafkaBinderMetrics(binder, kafkaBinderConfigurationProperties,
-				consumerFactory, null);
-		org.mockito.BDDMockito
-				.given(consumer.endOffsets(ArgumentMatchers.anyCollection()))
-				.willReturn(java.util.Collections
-						.singletonMap(new TopicPartition(TEST_TOPIC, 0), 1000L));
+		given(binder.getTopicsInUse()).willReturn(topicsInUse);
+		given(binder.getTopicProvisioner()).willReturn(provisioner);
+		metrics = new KafkaBinderMetrics(binder, kafkaBinderConfigurationProperties, null);
+		given(provisioner.getAdminClient()).willReturn(adminClient);
+		given(provisioner.describeTopics(anyCollection())).willAnswer(invocation -> {
+			if (failTopicDescription) {
+				failTopicDescription = false;
+				throw new KafkaException();
+			}
+			Map<String, TopicDescription> descriptions = new HashMap<>();
+			for (Object topic : invocation.<Collection<?>>getArgument(0)) {
+				if (topicDescriptions.containsKey(topic)) {
+					descriptions.put((String) topic, topicDescriptions.get(topic));
+				}
+			}
+			return descriptions;
+		});
+		given(adminClient.listOffsets(anyMap())).willAnswer(invocation -> {
+			Map<TopicPartition, ListOffsetsResultInfo> requested = new HashMap<>();
+			for (Object tp : invocation.<Map<?, ?>>getArgument(0).keySet()) {
+				requested.put((TopicPartition) tp, endOffsets.get(tp));
+			}
+			ListOffsetsResult result = mock(ListOffsetsResult.class);
+			given(result.all()).willReturn(KafkaFuture.completedFuture(requested));
+			return result;
+		});
+		given(adminClient.listConsumerGroupOffsets(ArgumentMatchers.anyString())).willAnswer(invocation -> {
+			Map<TopicPartition, OffsetAndMetadata> committed = committedOffsets
+					.getOrDefault(invocation.<String>getArgument(0), Collections.emptyMap());
+			ListConsumerGroupOffsetsResult result = mock(ListConsumerGroupOffsetsResult.class);
+			given(result.partitionsToOffsetAndMetadata()).willReturn(KafkaFuture.completedFuture(committed));
+			return result;
+		});
+	}
+
+	@After
+	public void tearDown() {
+		metrics.stop();
 	}
 
 	@Test
 	public void shouldIndicateLag() {
-		org.mockito.BDDMockito
-				.given(consumer.committed(ArgumentMatchers.any(TopicPartition.class)))
-				.willReturn(new OffsetAndMetadata(500));
-		List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
+		List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L);
+		committed("group1-metrics", TEST_TOPIC, 0, 500);
 		topicsInUse.put(TEST_TOPIC,
 				new TopicInformation("group1-metrics", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
-				.willReturn(partitions);
 		metrics.bindTo(meterRegistry);
-		assertThat(meterRegistry.getMeters()).hasSize(1);
+		metrics.refreshConsumerLag();
+		assertThat(meterRegistry.find(KafkaBinderMetrics.METRIC_NAME).gauges()).hasSize(1);
 		assertThat(meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group1-metrics").tag("topic", TEST_TOPIC).gauge().value())
 						.isEqualTo(500.0);
@@ -105,23 +175,14 @@ public class KafkaBinderMetricsTest {
 
 	@Test
 	public void shouldSumUpPartitionsLags() {
-		Map<TopicPartition, Long> endOffsets = new HashMap<>();
-		endOffsets.put(new TopicPartition(TEST_TOPIC, 0), 1000L);
-		endOffsets.put(new TopicPartition(TEST_TOPIC, 1), 1000L);
-		org.mockito.BDDMockito
-				.given(consumer.endOffsets(ArgumentMatchers.anyCollection()))
-				.willReturn(endOffsets);
-		org.mockito.BDDMockito
-				.given(consumer.committed(ArgumentMatchers.any(TopicPartition.class)))
-				.willReturn(new OffsetAndMetadata(500));
-		List<PartitionInfo> partitions = partitions(new Node(0, null, 0),
-				new Node(0, null, 0));
+		List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L, 1000L);
+		committed("group2-metrics", TEST_TOPIC, 0, 500);
+		committed("group2-metrics", TEST_TOPIC, 1, 500);
 		topicsInUse.put(TEST_TOPIC,
 				new TopicInformation("group2-metrics", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
-				.willReturn(partitions);
 		metrics.bindTo(meterRegistry);
-		assertThat(meterRegistry.getMeters()).hasSize(1);
+		metrics.refreshConsumerLag();
+		assertThat(meterRegistry.find(KafkaBinderMetrics.METRIC_NAME).gauges()).hasSize(1);
 		assertThat(meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group2-metrics").tag("topic", TEST_TOPIC).gauge().value())
 						.isEqualTo(1000.0);
@@ -129,29 +190,30 @@ public class KafkaBinderMetricsTest {
 
 	@Test
 	public void shouldIndicateFullLagForNotCommittedGroups() {
-		List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
+		List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L);
 		topicsInUse.put(TEST_TOPIC,
 				new TopicInformation("group3-metrics", partitions, false));
-		org.mockito.BDDMockito.given(consumer.partitionsFor(TEST_TOPIC))
-				.willReturn(partitions);
 		metrics.bindTo(meterRegistry);
-		assertThat(meterRegistry.getMeters()).hasSize(1);
+		metrics.refreshConsumerLag();
+		assertThat(meterRegistry.find(KafkaBinderMetrics.METRIC_NAME).gauges()).hasSize(1);
 		assertThat(meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group3-metrics").tag("topic", TEST_TOPIC).gauge().value())
 						.isEqualTo(1000.0);
 	}
 
 	@Test
-	public void shouldNotCalculateLagForProducerTopics() {
-		List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
+	public void shouldNotCalculateLagForProducerTopics() throws Exception {
+		List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L);
 		topicsInUse.put(TEST_TOPIC, new TopicInformation(null, partitions, false));
 		metrics.bindTo(meterRegistry);
+		metrics.refreshConsumerLag();
 		assertThat(meterRegistry.getMeters()).isEmpty();
+		verify(provisioner, times(0)).describeTopics(anyCollection());
 	}
 
 	@Test
-	public void createsConsumerOnceWhenInvokedMultipleTimes() {
-		final List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
+	public void gaugeReadsDoNotQueryTheBroker() throws Exception {
+		final List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L);
 		topicsInUse.put(TEST_TOPIC,
 				new TopicInformation("group4-metrics", partitions, false));
 
@@ -159,21 +221,25 @@ public class KafkaBinderMetricsTest {
 
 		Gauge gauge = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group4-metrics").tag("topic", TEST_TOPIC).gauge();
+		assertThat(gauge.value()).isEqualTo(0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.STALENESS_METRIC_NAME)
+				.tag("group", "group4-metrics").tag("topic", TEST_TOPIC).gauge().value()).isNaN();
+		metrics.refreshConsumerLag();
 		gauge.value();
 		assertThat(gauge.value()).isEqualTo(1000.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.STALENESS_METRIC_NAME)
+				.tag("group", "group4-metrics").tag("topic", TEST_TOPIC).gauge().value())
+						.isGreaterThanOrEqualTo(0);
 
-		org.mockito.Mockito.verify(this.consumerFactory)
-				.createConsumer(ArgumentMatchers.any(), ArgumentMatchers.any());
+		verify(provisioner).describeTopics(anyCollection());
+		verify(adminClient).listOffsets(anyMap());
 	}
 
 	@Test
-	public void consumerCreationFailsFirstTime() {
-		org.mockito.BDDMockito
-				.given(consumerFactory.createConsumer(ArgumentMatchers.any(),
-						ArgumentMatchers.any()))
-				.willThrow(KafkaException.class).willReturn(consumer);
+	public void topicDescriptionFailsFirstTime() throws Exception {
+		failTopicDescription = true;
 
-		final List<PartitionInfo> partitions = partitions(new Node(0, null, 0));
+		final List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L);
 		topicsInUse.put(TEST_TOPIC,
 				new TopicInformation("group5-metrics", partitions, false));
 
@@ -181,55 +247,323 @@ public class KafkaBinderMetricsTest {
 
 		Gauge gauge = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group5-metrics").tag("topic", TEST_TOPIC).gauge();
+		metrics.refreshConsumerLag();
 		assertThat(gauge.value()).isEqualTo(0);
+		metrics.refreshConsumerLag();
 		assertThat(gauge.value()).isEqualTo(1000.0);
 
-		org.mockito.Mockito.verify(this.consumerFactory, Mockito.times(2))
-				.createConsumer(ArgumentMatchers.any(), ArgumentMatchers.any());
+		verify(provisioner, times(2)).describeTopics(anyCollection());
 	}
 
 	@Test
-	public void createOneConsumerPerGroup() {
-		final List<PartitionInfo> partitions1 = partitions(new Node(0, null, 0));
-		final List<PartitionInfo> partitions2 = partitions(new Node(0, null, 0));
+	public void batchesRequestsAcrossTopicsAndGroups() throws Exception {
 		topicsInUse.put(TEST_TOPIC,
-				new TopicInformation("group1-metrics", partitions1, false));
+				new TopicInformation("group1-metrics", partitions(TEST_TOPIC, 1000L), false));
 		topicsInUse.put("test2",
-				new TopicInformation("group2-metrics", partitions2, false));
+				new TopicInformation("group2-metrics", partitions("test2", 50L), false));
+		topicsInUse.put("test3",
+				new TopicInformation("group2-metrics", partitions("test3", 70L), false));
+		committed("group2-metrics", "test3", 0, 60);
 
 		metrics.bindTo(meterRegistry);
-
-		KafkaConsumer consumer2 = mock(KafkaConsumer.class);
-		org.mockito.BDDMockito
-				.given(consumerFactory.createConsumer(
-						ArgumentMatchers.eq("group2-metrics"), ArgumentMatchers.any()))
-				.willReturn(consumer2);
-		org.mockito.BDDMockito
-				.given(consumer2.endOffsets(ArgumentMatchers.anyCollection()))
-				.willReturn(java.util.Collections
-						.singletonMap(new TopicPartition("test2", 0), 50L));
+		metrics.refreshConsumerLag();
 
 		Gauge gauge1 = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group1-metrics").tag("topic", TEST_TOPIC).gauge();
 		Gauge gauge2 = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
 				.tag("group", "group2-metrics").tag("topic", "test2").gauge();
-		gauge1.value();
-		gauge2.value();
+		Gauge gauge3 = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
+				.tag("group", "group2-metrics").tag("topic", "test3").gauge();
 		assertThat(gauge1.value()).isEqualTo(1000.0);
 		assertThat(gauge2.value()).isEqualTo(50.0);
+		assertThat(gauge3.value()).isEqualTo(10.0);
+
+		verify(provisioner).describeTopics(anyCollection());
+		verify(adminClient).listOffsets(anyMap());
+		verify(adminClient).listConsumerGroupOffsets(eq("group1-metrics"));
+		verify(adminClient).listConsumerGroupOffsets(eq("group2-metrics"));
+	}
+
+	@Test
+	public void lagIsCollectedInTheBackground() throws Exception {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group6-metrics", partitions(TEST_TOPIC, 1000L), false));
+		metrics.bindTo(meterRegistry);
+		metrics.start();
+		Gauge gauge = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
+				.tag("group", "group6-metrics").tag("topic", TEST_TOPIC).gauge();
+		int n = 0;
+		while (n++ < 100 && gauge.value() == 0) {
+			Thread.sleep(100);
+		}
+		assertThat(gauge.value()).isEqualTo(1000.0);
+		metrics.stop();
+		assertThat(metrics.isRunning()).isFalse();
+		// the admin client belongs to the provisioner
+		verify(adminClient, never()).close(ArgumentMatchers.any());
+	}
+
+	@Test
+	public void shouldIndicatePerPartitionLagWhenEnabled() {
+		List<PartitionInfo> partitions = partitions(TEST_TOPIC, 1000L, 1000L);
+		committed("group7-metrics", TEST_TOPIC, 0, 990);
+		committed("group7-metrics", TEST_TOPIC, 1, 10);
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group7-metrics", partitions, false));
+		metrics.bindTo(meterRegistry);
+		assertThat(meterRegistry.find(KafkaBinderMetrics.PARTITION_METRIC_NAME).gauges()).isEmpty();
 
-		org.mockito.Mockito.verify(this.consumerFactory).createConsumer(
-				ArgumentMatchers.eq("group1-metrics"), ArgumentMatchers.any());
-		org.mockito.Mockito.verify(this.consumerFactory).createConsumer(
-				ArgumentMatchers.eq("group2-metrics"), ArgumentMatchers.any());
+		metrics.setPerPartitionLag(true);
+		metrics.bindTo(meterRegistry);
+		metrics.refreshConsumerLag();
+		assertThat(meterRegistry.find(KafkaBinderMetrics.PARTITION_METRIC_NAME).gauges()).hasSize(2);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.PARTITION_METRIC_NAME)
+				.tag("group", "group7-metrics").tag("topic", TEST_TOPIC).tag("partition", "0")
+				.gauge().value()).isEqualTo(10.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.PARTITION_METRIC_NAME)
+				.tag("group", "group7-metrics").tag("topic", TEST_TOPIC).tag("partition", "1")
+				.gauge().value()).isEqualTo(990.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
+				.tag("group", "group7-metrics").tag("topic", TEST_TOPIC).gauge().value())
+						.isEqualTo(1000.0);
+	}
+
+	@Test
+	public void shouldDeriveConsumptionRateAndTimeToDrainFromSuccessiveSamples() throws Exception {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group8-metrics", partitions(TEST_TOPIC, 1000L, 1000L), false));
+		committed("group8-metrics", TEST_TOPIC, 0, 100);
+		committed("group8-metrics", TEST_TOPIC, 1, 100);
+		metrics.bindTo(meterRegistry);
+		Gauge rate = meterRegistry.get(KafkaBinderMetrics.CONSUMPTION_RATE_METRIC_NAME)
+				.tag("group", "group8-metrics").tag("topic", TEST_TOPIC).gauge();
+		Gauge timeToDrain = meterRegistry.get(KafkaBinderMetrics.TIME_TO_DRAIN_METRIC_NAME)
+				.tag("group", "group8-metrics").tag("topic", TEST_TOPIC).gauge();
+
+		metrics.refreshConsumerLag();
+		assertThat(rate.value()).isNaN();
+		assertThat(timeToDrain.value()).isNaN();
+
+		Thread.sleep(50);
+		committed("group8-metrics", TEST_TOPIC, 0, 300);
+		committed("group8-metrics", TEST_TOPIC, 1, 200);
+		metrics.refreshConsumerLag();
+		double lag = meterRegistry.get(KafkaBinderMetrics.METRIC_NAME)
+				.tag("group", "group8-metrics").tag("topic", TEST_TOPIC).gauge().value();
+		assertThat(lag).isEqualTo(1500.0);
+		// 300 messages consumed in at least 50ms
+		assertThat(rate.value()).isGreaterThan(0).isLessThanOrEqualTo(6000.0);
+		assertThat(timeToDrain.value()).isCloseTo(lag / rate.value(), within(0.001));
+
+		Thread.sleep(10);
+		metrics.refreshConsumerLag();
+		assertThat(rate.value()).isEqualTo(0.0);
+		assertThat(timeToDrain.value()).isEqualTo(Double.POSITIVE_INFINITY);
+
+		partitions(TEST_TOPIC, 300L, 200L);
+		Thread.sleep(10);
+		metrics.refreshConsumerLag();
+		assertThat(timeToDrain.value()).isEqualTo(0.0);
 	}
 
-	private List<PartitionInfo> partitions(Node... nodes) {
+	@Test
+	public void shouldIndicateDlqSends() {
+		DlqInformation dlqInformation = new DlqInformation("group9-metrics");
+		given(binder.getDlqsInUse()).willReturn(Collections.singletonMap(TEST_TOPIC, dlqInformation));
+		metrics.bindTo(meterRegistry);
+		dlqInformation.sending();
+		dlqInformation.sending();
+		dlqInformation.sending();
+		dlqInformation.sent(true, TimeUnit.MILLISECONDS.toNanos(10));
+		dlqInformation.sent(false, TimeUnit.MILLISECONDS.toNanos(30));
+
+		assertThat(meterRegistry.get(KafkaBinderMetrics.DLQ_PENDING_METRIC_NAME)
+				.tag("group", "group9-metrics").tag("topic", TEST_TOPIC).gauge().value())
+						.isEqualTo(1.0);
+		FunctionTimer send = meterRegistry.get(KafkaBinderMetrics.DLQ_SEND_METRIC_NAME)
+				.tag("group", "group9-metrics").tag("topic", TEST_TOPIC).functionTimer();
+		assertThat(send.count()).isEqualTo(2.0);
+		assertThat(send.mean(TimeUnit.MILLISECONDS)).isEqualTo(20.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.DLQ_SEND_FAILURES_METRIC_NAME)
+				.tag("group", "group9-metrics").tag("topic", TEST_TOPIC).functionCounter().count())
+						.isEqualTo(1.0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldIndicatePartitionPauses() throws Exception {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group10-metrics", partitions(TEST_TOPIC, 10L, 10L), false));
+		PartitionPausingErrorHandler pausingErrorHandler = new PartitionPausingErrorHandler(
+				(record, exception) -> 10_000L, mock(ContainerAwareErrorHandler.class));
+		given(binder.getPausingErrorHandlers())
+				.willReturn(Collections.singletonMap(TEST_TOPIC, pausingErrorHandler));
+		metrics.bindTo(meterRegistry);
+		Consumer<?, ?> consumer = mock(Consumer.class);
+
+		assertThatThrownBy(() -> pausingErrorHandler.handle(new IllegalStateException(),
+				Collections.singletonList(new ConsumerRecord<>(TEST_TOPIC, 0, 5L, null, "foo")),
+				consumer, null)).hasMessageContaining("Paused test-0");
+		Thread.sleep(20);
+
+		verify(consumer).seek(new TopicPartition(TEST_TOPIC, 0), 5L);
+		verify(consumer).pause(Collections.singleton(new TopicPartition(TEST_TOPIC, 0)));
+		FunctionTimer paused = meterRegistry.get(KafkaBinderMetrics.PARTITION_PAUSED_METRIC_NAME)
+				.tag("group", "group10-metrics").tag("topic", TEST_TOPIC).tag("partition", "0")
+				.functionTimer();
+		assertThat(paused.count()).isEqualTo(1.0);
+		assertThat(paused.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.PARTITION_PAUSED_METRIC_NAME)
+				.tag("group", "group10-metrics").tag("topic", TEST_TOPIC).tag("partition", "1")
+				.functionTimer().count()).isEqualTo(0.0);
+	}
+
+	@Test
+	public void shouldIndicatePendingAcks() throws Exception {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group11-metrics", partitions(TEST_TOPIC, 10L, 10L), false));
+		OffsetTracker offsetTracker = new OffsetTracker(1);
+		given(binder.getOffsetTrackers()).willReturn(Collections.singletonMap(TEST_TOPIC, offsetTracker));
+		metrics.bindTo(meterRegistry);
+		Consumer<?, ?> consumer = mock(Consumer.class);
+		List<Acknowledgment> acks = new ArrayList<>();
+		// offset 3 is not a record, e.g. after compaction
+		for (long offset : new long[] { 0, 1, 2, 4 }) {
+			ConsumerRecord<?, ?> record = new ConsumerRecord<>(TEST_TOPIC, 0, offset, null, "foo");
+			offsetTracker.received(record, consumer);
+			acks.add(offsetTracker.acknowledgment(record));
+		}
+		Gauge pending = meterRegistry.get(KafkaBinderMetrics.PENDING_ACKS_METRIC_NAME)
+				.tag("group", "group11-metrics").tag("topic", TEST_TOPIC).tag("partition", "0").gauge();
+		assertThat(pending.value()).isEqualTo(4.0);
+
+		acks.get(3).acknowledge();
+		acks.get(2).acknowledge();
+		acks.get(1).acknowledge();
+		assertThat(pending.value()).isEqualTo(1.0);
+		Thread.sleep(2);
+		offsetTracker.commitIfDue(consumer);
+		verify(consumer, never()).commitAsync(any(), any());
+
+		acks.get(0).acknowledge();
+		acks.get(0).acknowledge();
+		assertThat(pending.value()).isEqualTo(0.0);
+		Thread.sleep(2);
+		offsetTracker.commitIfDue(consumer);
+		verify(consumer).commitAsync(eq(Collections.singletonMap(new TopicPartition(TEST_TOPIC, 0),
+				new OffsetAndMetadata(5))), any());
+		assertThat(meterRegistry.get(KafkaBinderMetrics.PENDING_ACKS_METRIC_NAME)
+				.tag("group", "group11-metrics").tag("topic", TEST_TOPIC).tag("partition", "1")
+				.gauge().value()).isEqualTo(0.0);
+	}
+
+	@Test
+	public void shouldCountFilteredRecords() {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group12-metrics", partitions(TEST_TOPIC, 10L), false));
+		BinderHeaderMapper headerMapper = new BinderHeaderMapper();
+		RecordHeaderFilter recordFilter = new RecordHeaderFilter(
+				new SpelExpressionParser().parseExpression("headers['tenant'] == 'acme'"),
+				new StandardEvaluationContext(), headerMapper);
+		given(binder.getRecordFilters()).willReturn(Collections.singletonMap(TEST_TOPIC, recordFilter));
+		metrics.bindTo(meterRegistry);
+		for (String tenant : new String[] { "acme", "other", null, "acme", "other" }) {
+			RecordHeaders headers = new RecordHeaders();
+			if (tenant != null) {
+				headerMapper.fromHeaders(new MessageHeaders(Collections.singletonMap("tenant", tenant)), headers);
+			}
+			ConsumerRecord<Object, Object> record = new ConsumerRecord<>(TEST_TOPIC, 0, 0L, 0L, null,
+					0L, 0, 0, null, "foo", headers);
+			assertThat(recordFilter.filter(record)).isEqualTo(!"acme".equals(tenant));
+		}
+		assertThat(meterRegistry.get(KafkaBinderMetrics.FILTERED_RECORDS_METRIC_NAME)
+				.tag("group", "group12-metrics").tag("topic", TEST_TOPIC).functionCounter().count())
+				.isEqualTo(3.0);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.DELIVERED_RECORDS_METRIC_NAME)
+				.tag("group", "group12-metrics").tag("topic", TEST_TOPIC).functionCounter().count())
+				.isEqualTo(2.0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldRecordLatencies() {
+		topicsInUse.put(TEST_TOPIC,
+				new TopicInformation("group13-metrics", partitions(TEST_TOPIC, 10L), false));
+		RecordLatencies recordLatencies = new RecordLatencies(true);
+		given(binder.getRecordLatencies()).willReturn(Collections.singletonMap(TEST_TOPIC, recordLatencies));
+		metrics.setLatencyPercentiles(0.5, 0.99);
+		metrics.bindTo(meterRegistry);
+		AcknowledgingConsumerAwareMessageListener<Object, Object> listener =
+				(AcknowledgingConsumerAwareMessageListener<Object, Object>) recordLatencies.listener(
+						(AcknowledgingConsumerAwareMessageListener<Object, Object>) (record, ack, consumer) -> {
+							if ("ack".equals(record.value())) {
+								ack.acknowledge();
+							}
+						});
+		Acknowledgment acknowledgment = mock(Acknowledgment.class);
+		long timestamp = System.currentTimeMillis() - 5000;
+		listener.onMessage(new ConsumerRecord<>(TEST_TOPIC, 0, 0L, timestamp, TimestampType.CREATE_TIME,
+				0L, 0, 0, null, "ack"), acknowledgment, null);
+		listener.onMessage(new ConsumerRecord<>(TEST_TOPIC, 0, 1L, timestamp, TimestampType.CREATE_TIME,
+				0L, 0, 0, null, "noack"), acknowledgment, null);
+		verify(acknowledgment).acknowledge();
+		Timer age = meterRegistry.get(KafkaBinderMetrics.RECORD_AGE_METRIC_NAME)
+				.tag("group", "group13-metrics").tag("topic", TEST_TOPIC).timer();
+		assertThat(age.count()).isEqualTo(2);
+		assertThat(age.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(5000.0);
+		assertThat(age.takeSnapshot().percentileValues()).extracting(ValueAtPercentile::percentile)
+				.containsExactly(0.5, 0.99);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.RECORD_HANDLING_METRIC_NAME)
+				.tag("group", "group13-metrics").tag("topic", TEST_TOPIC).timer().count()).isEqualTo(2);
+		assertThat(meterRegistry.get(KafkaBinderMetrics.RECORD_ACK_METRIC_NAME)
+				.tag("group", "group13-metrics").tag("topic", TEST_TOPIC).timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldFilterClientMetrics() {
+		KafkaBinderConfigurationProperties.Metrics properties = new KafkaBinderConfigurationProperties.Metrics();
+		properties.setClientMetricsIncludes(Collections.singletonList("kafka.consumer.*"));
+		properties.setClientMetricsExcludes(Collections.singletonList("kafka.consumer.fetch.manager.bytes*"));
+		properties.setClientPartitionMetrics(false);
+		MeterRegistry registry = new SimpleMeterRegistry();
+		registry.config().meterFilter(KafkaClientMetricsUtils.meterFilter(properties));
+		List<Tag> tags = KafkaClientMetricsUtils.tags("input", TEST_TOPIC, ClientFactoryCustomizer.CONSUMER);
+		registry.counter("kafka.consumer.fetch.manager.records.consumed.total", tags);
+		registry.counter("kafka.consumer.fetch.manager.bytes.consumed.total", tags);
+		registry.counter("kafka.consumer.fetch.manager.records.lag", Tags.of(tags).and("partition", "0"));
+		registry.counter("kafka.producer.record.send.total", tags);
+		registry.counter("kafka.producer.record.send.total", "client.id", "not-a-binder-client");
+		assertThat(registry.getMeters()).extracting(meter -> meter.getId().getName()).containsExactlyInAnyOrder(
+				"kafka.consumer.fetch.manager.records.consumed.total", "kafka.producer.record.send.total");
+		assertThat(registry.get("kafka.consumer.fetch.manager.records.consumed.total")
+				.tag(KafkaBinderConfigurationProperties.Metrics.BINDING_TAG, "input")
+				.tag(KafkaBinderConfigurationProperties.Metrics.DESTINATION_TAG, TEST_TOPIC)
+				.tag(KafkaBinderConfigurationProperties.Metrics.ROLE_TAG, ClientFactoryCustomizer.CONSUMER)
+				.counter())
+				.isNotNull();
+		assertThat(registry.get("kafka.producer.record.send.total").counter().getId()
+				.getTag(KafkaBinderConfigurationProperties.Metrics.ROLE_TAG)).isNull();
+	}
+
+	private List<PartitionInfo> partitions(String topic, Long... endOffsets) {
 		List<PartitionInfo> partitions = new ArrayList<>();
-		for (int i = 0; i < nodes.length; i++) {
-			partitions.add(new PartitionInfo(TEST_TOPIC, i, nodes[i], null, null));
+		List<TopicPartitionInfo> partitionInfos = new ArrayList<>();
+		Node node = new Node(0, null, 0);
+		for (int i = 0; i < endOffsets.length; i++) {
+			partitions.add(new PartitionInfo(topic, i, node, null, null));
+			partitionInfos.add(new TopicPartitionInfo(i, node, Collections.singletonList(node),
+					Collections.singletonList(node)));
+			ListOffsetsResultInfo endOffset = mock(ListOffsetsResultInfo.class);
+			given(endOffset.offset()).willReturn(endOffsets[i]);
+			this.endOffsets.put(new TopicPartition(topic, i), endOffset);
 		}
+		this.topicDescriptions.put(topic, new TopicDescription(topic, false, partitionInfos));
 		return partitions;
 	}
 
+	private void committed(String group, String topic, int partition, long offset) {
+		this.committedOffsets.computeIfAbsent(group, (g) -> new HashMap<>())
+				.put(new TopicPartition(topic, partition), new OffsetAndMetadata(offset));
+	}
+
 }
@@ -28,17 +28,28 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.Config;
 import org.apache.kafka.clients.admin.CreateTopicsResult;
 import org.apache.kafka.clients.admin.DescribeTopicsResult;
 import org.apache.kafka.clients.admin.NewTopic;
@@ -48,11 +59,18 @@ import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicExistsException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.Headers;
@@ -89,6 +107,7 @@ import org.springframework.cloud.stream.binder.RequeueCurrentMessageException;
 import org.springframework.cloud.stream.binder.Spy;
 import org.springframework.cloud.stream.binder.TestUtils;
 import org.springframework.cloud.stream.binder.kafka.KafkaMessageChannelBinder.TopicInformation;
+import org.springframework.cloud.stream.binder.kafka.properties.HeaderEncoding;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
 import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
@@ -97,6 +116,7 @@ import org.springframework.cloud.stream.binder.kafka.utils.DlqPartitionFunction;
 import org.springframework.cloud.stream.binder.kafka.utils.KafkaTopicUtils;
 import org.springframework.cloud.stream.binding.MessageConverterConfigurer.PartitioningInterceptor;
 import org.springframework.cloud.stream.config.BindingProperties;
+import org.springframework.cloud.stream.provisioning.ConsumerDestination;
 import org.springframework.cloud.stream.provisioning.ProvisioningException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -392,6 +412,62 @@ public class KafkaBinderTests extends
 		consumerBinding.unbind();
 	}
 
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Test
+	public void testBinaryHeaderEncoding() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		producerProperties.getExtension().setHeaderEncoding(HeaderEncoding.binary);
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension()
+				.setTrustedPackages(new String[] { "org.springframework.cloud.stream.binder.kafka" });
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer("binary.headers.0",
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer("binary.headers.0",
+				"testBinaryHeaderEncoding", moduleInputChannel, consumerProperties);
+		binderBindUnbindLatency();
+
+		UUID uuid = UUID.randomUUID();
+		Message<?> message = org.springframework.integration.support.MessageBuilder
+				.withPayload("foo")
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN)
+				.setHeader("uuid", uuid)
+				.setHeader("count", 42L)
+				.setHeader("pojo", new Pojo("testing")).build();
+
+		moduleOutputChannel.send(message);
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicReference<Message<byte[]>> inboundMessageRef = new AtomicReference<>();
+		moduleInputChannel.subscribe(message1 -> {
+			try {
+				inboundMessageRef.set((Message<byte[]>) message1);
+			}
+			finally {
+				latch.countDown();
+			}
+		});
+		Assert.isTrue(latch.await(5, TimeUnit.SECONDS), "Failed to receive message");
+
+		MessageHeaders headers = inboundMessageRef.get().getHeaders();
+		Assertions.assertThat(inboundMessageRef.get().getPayload()).isEqualTo("foo".getBytes());
+		Assertions.assertThat(headers.get(MessageHeaders.CONTENT_TYPE)).isEqualTo(MimeTypeUtils.TEXT_PLAIN);
+		Assertions.assertThat(headers.get("uuid")).isEqualTo(uuid);
+		Assertions.assertThat(headers.get("count")).isEqualTo(42L);
+		Assertions.assertThat(headers.get("pojo")).isInstanceOf(Pojo.class);
+		Assertions.assertThat(((Pojo) headers.get("pojo")).field).isEqualTo("testing");
+		Assertions.assertThat(headers).doesNotContainKeys(BinderHeaderMapper.JSON_TYPES,
+				BinaryHeaderCodec.BINARY_HEADERS);
+		producerBinding.unbind();
+		consumerBinding.unbind();
+	}
+
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Test
 	public void testCustomHeaderMapper() throws Exception {
@@ -710,6 +786,93 @@ public class KafkaBinderTests extends
 		consumerBinding.unbind();
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSendAndReceiveColumnarBatch() throws Exception {
+		Binder binder = getBinder();
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		producerProperties.getExtension()
+				.setMessageKeyExpression(spelExpressionParser.parseExpression("headers['key']"));
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setBatchMode(true);
+		consumerProperties.getExtension().setColumnarBatch(true);
+		String destination = "columnarBatch." + System.currentTimeMillis() + ".0";
+		QueueChannel moduleInputChannel = new QueueChannel();
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		for (int i = 0; i < 2; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload(("foo" + i).getBytes())
+					.setHeader("key", ("key" + i).getBytes())
+					.setHeader("custom", "bar" + i)
+					.build());
+		}
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 2 && values.size() < 2; i++) {
+			Message<?> message = receive(moduleInputChannel);
+			assertThat(message).isNotNull();
+			assertThat(message.getHeaders().get(KafkaHeaders.GROUP_ID)).isEqualTo("testGroup");
+			ColumnarBatch batch = (ColumnarBatch) message.getPayload();
+			for (int j = 0; j < batch.size(); j++) {
+				int index = values.size();
+				assertThat(batch.getTopics()[j]).isEqualTo(destination);
+				assertThat(batch.getPartitions()[j]).isEqualTo(0);
+				assertThat(batch.getOffsets()[j]).isEqualTo(index);
+				assertThat(batch.getTimestamps()[j]).isGreaterThan(0);
+				assertThat(batch.getKeys()[j]).isEqualTo(("key" + index).getBytes());
+				assertThat(batch.getHeaders(j).get("custom")).isEqualTo("bar" + index);
+				assertThat(batch.getHeaders(j)).isSameAs(batch.getHeaders(j));
+				assertThat(batch.getRawHeaders(j).lastHeader("custom")).isNotNull();
+				values.add(new String((byte[]) batch.getValues()[j], StandardCharsets.UTF_8));
+			}
+		}
+		assertThat(values).containsExactly("foo0", "foo1");
+
+		producerBinding.unbind();
+		consumerBinding.unbind();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testRecordFilterExpression() throws Exception {
+		Binder binder = getBinder();
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setRecordFilterExpression(
+				spelExpressionParser.parseExpression("headers['tenant'] == 'acme'"));
+		String destination = "recordFilter." + System.currentTimeMillis() + ".0";
+		QueueChannel moduleInputChannel = new QueueChannel();
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		String[] tenants = { "other", "acme", "other", "acme" };
+		for (int i = 0; i < tenants.length; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload(("foo" + i).getBytes())
+					.setHeader("tenant", tenants[i])
+					.build());
+		}
+
+		Message<?> message = receive(moduleInputChannel);
+		assertThat(message).isNotNull();
+		assertThat(message.getPayload()).isEqualTo("foo1".getBytes());
+		message = receive(moduleInputChannel);
+		assertThat(message).isNotNull();
+		assertThat(message.getPayload()).isEqualTo("foo3".getBytes());
+		assertThat(moduleInputChannel.receive(100)).isNull();
+
+		producerBinding.unbind();
+		consumerBinding.unbind();
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	@Ignore
@@ -1416,6 +1579,814 @@ public class KafkaBinderTests extends
 		producerBinding.unbind();
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDlqSendsAreBoundedAndAcknowledgedInOrder() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setMaxAttempts(1);
+		consumerProperties.getExtension().setAutoCommitOffset(false);
+		consumerProperties.getExtension().setEnableDlq(true);
+		consumerProperties.getExtension().setDlqMaxInFlight(2);
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		FailingInvocationCountingMessageHandler handler = new FailingInvocationCountingMessageHandler(5);
+		moduleInputChannel.subscribe(handler);
+
+		String destination = "dlqInFlight." + System.currentTimeMillis() + ".0";
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		ExtendedConsumerProperties<KafkaConsumerProperties> dlqConsumerProperties = createConsumerProperties();
+		dlqConsumerProperties.setMaxAttempts(1);
+		QueueChannel dlqChannel = new QueueChannel();
+		Binding<MessageChannel> dlqConsumerBinding = binder.bindConsumer(
+				"error." + destination + ".testGroup", null, dlqChannel, dlqConsumerProperties);
+
+		for (int i = 0; i < 5; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload(("foo" + i).getBytes()).build());
+		}
+		for (int i = 0; i < 5; i++) {
+			Message<?> dlqMessage = receive(dlqChannel, 3);
+			assertThat(dlqMessage).isNotNull();
+			assertThat(dlqMessage.getPayload()).isEqualTo(("foo" + i).getBytes());
+		}
+
+		KafkaMessageChannelBinder.DlqInformation dlqInformation = ((KafkaTestBinder) binder)
+				.getCoreBinder().getDlqsInUse().get(destination);
+		assertThat(dlqInformation.getConsumerGroup()).isEqualTo("testGroup");
+		// the send callback may run after the record is received from the DLQ
+		int n = 0;
+		while (n++ < 100 && dlqInformation.getPending() > 0) {
+			Thread.sleep(100);
+		}
+		assertThat(dlqInformation.getSendCount()).isEqualTo(5);
+		assertThat(dlqInformation.getFailureCount()).isEqualTo(0);
+		assertThat(dlqInformation.getPending()).isEqualTo(0);
+		assertThat(dlqInformation.getSendTime()).isGreaterThan(0);
+		binderBindUnbindLatency();
+		dlqConsumerBinding.unbind();
+		consumerBinding.unbind();
+
+		// all the records sent to the DLQ have been acknowledged
+		QueueChannel successfulInputChannel = new QueueChannel();
+		consumerBinding = binder.bindConsumer(destination, "testGroup",
+				successfulInputChannel, consumerProperties);
+		moduleOutputChannel.send(MessageBuilder.withPayload("bar".getBytes()).build());
+		Message<?> receivedMessage = receive(successfulInputChannel);
+		assertThat(receivedMessage.getPayload()).isEqualTo("bar".getBytes());
+
+		binderBindUnbindLatency();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDlqInFlightSendsAreBoundedWithBlockingProducer() throws Exception {
+		List<Callback> callbacks = new CopyOnWriteArrayList<>();
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(false,
+				new ByteArraySerializer(), new ByteArraySerializer()) {
+
+			@Override
+			public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+					Callback callback) {
+
+				maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				callbacks.add(callback);
+				return new CompletableFuture<>();
+			}
+
+			@Override
+			public void close(Duration timeout) {
+			}
+
+		};
+		KafkaBinderConfigurationProperties configurationProperties = createConfigurationProperties();
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties,
+				new KafkaTopicProvisioner(configurationProperties, new TestKafkaProperties())) {
+
+			@Override
+			protected DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory(String transactionIdPrefix,
+					ExtendedProducerProperties<KafkaProducerProperties> producerProperties, String beanName) {
+
+				return new DefaultKafkaProducerFactory<byte[], byte[]>(Collections.emptyMap()) {
+
+					@Override
+					public Producer<byte[], byte[]> createProducer() {
+						return producer;
+					}
+
+				};
+			}
+
+		};
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setAutoCommitOffset(false);
+		consumerProperties.getExtension().setEnableDlq(true);
+		consumerProperties.getExtension().setDlqMaxInFlight(2);
+		ConsumerDestination destination = () -> "dlqBlocking";
+		TestUtils.getPropertyValue(binder, "ackModeInfo", Map.class).put(destination,
+				ContainerProperties.AckMode.MANUAL);
+		MessageHandler dlqHandler = binder.getErrorMessageHandler(destination, "testGroup", consumerProperties);
+
+		List<Long> acknowledged = new CopyOnWriteArrayList<>();
+		AtomicInteger handled = new AtomicInteger();
+		Thread sender = new Thread(() -> {
+			for (long offset = 0; offset < 5; offset++) {
+				long acknowledgedOffset = offset;
+				Message<byte[]> original = MessageBuilder.withPayload(("foo" + offset).getBytes())
+						.setHeader(KafkaHeaders.ACKNOWLEDGMENT,
+								(Acknowledgment) () -> acknowledged.add(acknowledgedOffset))
+						.build();
+				ConsumerRecord<byte[], byte[]> record = new ConsumerRecord<>("dlqBlocking", 0, offset, null,
+						original.getPayload());
+				dlqHandler.handleMessage(new ErrorMessage(new RuntimeException("fail"),
+						Collections.singletonMap(IntegrationMessageHeaderAccessor.SOURCE_DATA, record), original));
+				handled.incrementAndGet();
+			}
+		});
+		sender.start();
+
+		// the third send waits for one of the first two to complete
+		waitFor(() -> callbacks.size() == 2);
+		Thread.sleep(500);
+		assertThat(callbacks).hasSize(2);
+		assertThat(handled.get()).isEqualTo(2);
+
+		// the second record is acknowledged with the first one
+		completeDlqSend(callbacks.get(1), inFlight);
+		waitFor(() -> callbacks.size() == 3);
+		assertThat(acknowledged).isEmpty();
+		completeDlqSend(callbacks.get(0), inFlight);
+		assertThat(acknowledged).containsExactly(0L, 1L);
+		waitFor(() -> callbacks.size() == 4);
+		completeDlqSend(callbacks.get(3), inFlight);
+		waitFor(() -> callbacks.size() == 5);
+		completeDlqSend(callbacks.get(4), inFlight);
+		assertThat(acknowledged).containsExactly(0L, 1L);
+		completeDlqSend(callbacks.get(2), inFlight);
+
+		sender.join(10_000);
+		assertThat(handled.get()).isEqualTo(5);
+		assertThat(acknowledged).containsExactly(0L, 1L, 2L, 3L, 4L);
+		assertThat(maxInFlight.get()).isEqualTo(2);
+		assertThat(binder.getDlqsInUse().get("dlqBlocking").getPending()).isEqualTo(0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailedDlqSendHoldsTheLaterAcknowledgmentsOfItsPartition() throws Exception {
+		List<Callback> callbacks = new CopyOnWriteArrayList<>();
+		MockProducer<byte[], byte[]> producer = new MockProducer<byte[], byte[]>(false,
+				new ByteArraySerializer(), new ByteArraySerializer()) {
+
+			@Override
+			public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+					Callback callback) {
+
+				callbacks.add(callback);
+				return new CompletableFuture<>();
+			}
+
+			@Override
+			public void close(Duration timeout) {
+			}
+
+		};
+		KafkaBinderConfigurationProperties configurationProperties = createConfigurationProperties();
+		KafkaMessageChannelBinder binder = new KafkaMessageChannelBinder(configurationProperties,
+				new KafkaTopicProvisioner(configurationProperties, new TestKafkaProperties())) {
+
+			@Override
+			protected DefaultKafkaProducerFactory<byte[], byte[]> getProducerFactory(String transactionIdPrefix,
+					ExtendedProducerProperties<KafkaProducerProperties> producerProperties, String beanName) {
+
+				return new DefaultKafkaProducerFactory<byte[], byte[]>(Collections.emptyMap()) {
+
+					@Override
+					public Producer<byte[], byte[]> createProducer() {
+						return producer;
+					}
+
+				};
+			}
+
+		};
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setAutoCommitOffset(false);
+		consumerProperties.getExtension().setEnableDlq(true);
+		ConsumerDestination destination = () -> "dlqFailing";
+		TestUtils.getPropertyValue(binder, "ackModeInfo", Map.class).put(destination,
+				ContainerProperties.AckMode.MANUAL);
+		MessageHandler dlqHandler = binder.getErrorMessageHandler(destination, "testGroup", consumerProperties);
+
+		List<String> acknowledged = new CopyOnWriteArrayList<>();
+		BiConsumer<Integer, Long> sendToDlq = (partition, offset) -> {
+			Message<byte[]> original = MessageBuilder.withPayload(("foo" + offset).getBytes())
+					.setHeader(KafkaHeaders.ACKNOWLEDGMENT,
+							(Acknowledgment) () -> acknowledged.add(partition + "@" + offset))
+					.build();
+			ConsumerRecord<byte[], byte[]> record = new ConsumerRecord<>("dlqFailing", partition, offset, null,
+					original.getPayload());
+			dlqHandler.handleMessage(new ErrorMessage(new RuntimeException("fail"),
+					Collections.singletonMap(IntegrationMessageHeaderAccessor.SOURCE_DATA, record), original));
+		};
+		sendToDlq.accept(0, 0L);
+		sendToDlq.accept(0, 1L);
+		sendToDlq.accept(1, 0L);
+		sendToDlq.accept(0, 2L);
+		completeDlqSend(callbacks.get(0), new AtomicInteger());
+		callbacks.get(1).onCompletion(null, new TimeoutException("test"));
+		completeDlqSend(callbacks.get(2), new AtomicInteger());
+		completeDlqSend(callbacks.get(3), new AtomicInteger());
+		assertThat(acknowledged).containsExactly("0@0", "1@0");
+		assertThat(binder.getDlqsInUse().get("dlqFailing").getFailureCount()).isEqualTo(1);
+
+		// the failed record is received again
+		sendToDlq.accept(0, 1L);
+		completeDlqSend(callbacks.get(4), new AtomicInteger());
+		sendToDlq.accept(0, 2L);
+		completeDlqSend(callbacks.get(5), new AtomicInteger());
+		assertThat(acknowledged).containsExactly("0@0", "1@0", "0@1", "0@2");
+	}
+
+	private void completeDlqSend(Callback callback, AtomicInteger inFlight) {
+		inFlight.decrementAndGet();
+		callback.onCompletion(new RecordMetadata(new TopicPartition("error.dlqBlocking.testGroup", 0), 0, 0, 0,
+				0L, 0, 0), null);
+	}
+
+	private void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+		int n = 0;
+		while (n++ < 100 && !condition.get()) {
+			Thread.sleep(100);
+		}
+		assertThat(condition.get()).isTrue();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSharedProducerFactories() throws Exception {
+		KafkaBinderConfigurationProperties binderConfiguration = createConfigurationProperties();
+		binderConfiguration.setShareProducerFactories(true);
+		KafkaTestBinder binder = getBinder(binderConfiguration);
+		String topic = "sharedProducer." + System.currentTimeMillis();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		DirectChannel output1 = createBindableChannel("output1",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel output2 = createBindableChannel("output2",
+				createProducerBindingProperties(producerProperties));
+		ExtendedProducerProperties<KafkaProducerProperties> gzipProperties = createProducerProperties();
+		gzipProperties.getExtension().setCompressionType(KafkaProducerProperties.CompressionType.gzip);
+		DirectChannel output3 = createBindableChannel("output3",
+				createProducerBindingProperties(gzipProperties));
+		Binding<MessageChannel> producerBinding1 = binder.bindProducer(topic + ".1", output1,
+				producerProperties);
+		Binding<MessageChannel> producerBinding2 = binder.bindProducer(topic + ".2", output2,
+				producerProperties);
+		Binding<MessageChannel> producerBinding3 = binder.bindProducer(topic + ".3", output3,
+				gzipProperties);
+
+		Map<String, KafkaMessageChannelBinder.SharedProducerFactory> shared = binder.getCoreBinder()
+				.getSharedProducerFactories();
+		assertThat(shared).hasSize(2);
+		Object factory1 = TestUtils.getPropertyValue(producerBinding1, "lifecycle.producerFactory");
+		assertThat(TestUtils.getPropertyValue(producerBinding2, "lifecycle.producerFactory"))
+				.isSameAs(factory1);
+		assertThat(TestUtils.getPropertyValue(producerBinding3, "lifecycle.producerFactory"))
+				.isNotSameAs(factory1);
+		KafkaMessageChannelBinder.SharedProducerFactory sharedFactory = shared.values().stream()
+				.filter(candidate -> candidate.getProducerFactory() == factory1)
+				.findFirst().get();
+		assertThat(sharedFactory.getUsers()).isEqualTo(2);
+
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setMultiplex(true);
+		QueueChannel input = new QueueChannel();
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(topic + ".1," + topic + ".2",
+				"testSharedProducer", input, consumerProperties);
+		binderBindUnbindLatency();
+		output1.send(MessageBuilder.withPayload("foo".getBytes()).build());
+		output2.send(MessageBuilder.withPayload("bar".getBytes()).build());
+		Message<?> first = receive(input);
+		Message<?> second = receive(input);
+		assertThat(first).isNotNull();
+		assertThat(second).isNotNull();
+		assertThat(Arrays.asList(new String((byte[]) first.getPayload()),
+				new String((byte[]) second.getPayload()))).containsExactlyInAnyOrder("foo", "bar");
+
+		producerBinding1.unbind();
+		assertThat(sharedFactory.getUsers()).isEqualTo(1);
+		output2.send(MessageBuilder.withPayload("baz".getBytes()).build());
+		Message<?> third = receive(input);
+		assertThat(third).isNotNull();
+		assertThat(third.getPayload()).isEqualTo("baz".getBytes());
+		producerBinding2.unbind();
+		assertThat(sharedFactory.getUsers()).isEqualTo(0);
+		producerBinding3.unbind();
+		consumerBinding.unbind();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testDlqStackTraceFingerprint() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setMaxAttempts(1);
+		consumerProperties.getExtension().setEnableDlq(true);
+		String destination = "dlqFingerprint." + System.currentTimeMillis() + ".0";
+		String stackTraceTopic = destination + ".stacktraces";
+		consumerProperties.getExtension().setDlqStackTraceTopic(stackTraceTopic);
+		// the stack traces are not sent with the DLQ serializers
+		consumerProperties.getExtension().getDlqProducerProperties().getConfiguration()
+				.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		moduleInputChannel.subscribe(new FailingInvocationCountingMessageHandler(2));
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		ExtendedConsumerProperties<KafkaConsumerProperties> dlqConsumerProperties = createConsumerProperties();
+		dlqConsumerProperties.setMaxAttempts(1);
+		QueueChannel dlqChannel = new QueueChannel();
+		Binding<MessageChannel> dlqConsumerBinding = binder.bindConsumer(
+				"error." + destination + ".testGroup", null, dlqChannel, dlqConsumerProperties);
+		QueueChannel stackTraceChannel = new QueueChannel();
+		Binding<MessageChannel> stackTraceConsumerBinding = binder.bindConsumer(
+				stackTraceTopic, null, stackTraceChannel, dlqConsumerProperties);
+
+		moduleOutputChannel.send(MessageBuilder.withPayload("foo".getBytes()).build());
+		moduleOutputChannel.send(MessageBuilder.withPayload("bar".getBytes()).build());
+
+		Message<?> first = receive(dlqChannel, 3);
+		Message<?> second = receive(dlqChannel, 3);
+		assertThat(first).isNotNull();
+		assertThat(second).isNotNull();
+		assertThat(first.getHeaders()).doesNotContainKey(KafkaMessageChannelBinder.X_EXCEPTION_STACKTRACE);
+		Object fingerprint = first.getHeaders().get(KafkaMessageChannelBinder.X_EXCEPTION_FINGERPRINT);
+		assertThat(fingerprint).isNotNull();
+		assertThat(second.getHeaders().get(KafkaMessageChannelBinder.X_EXCEPTION_FINGERPRINT))
+				.isEqualTo(fingerprint);
+
+		Message<?> stackTrace = receive(stackTraceChannel, 3);
+		assertThat(stackTrace).isNotNull();
+		assertThat(new String((byte[]) stackTrace.getPayload(), StandardCharsets.UTF_8))
+				.contains("java.lang.RuntimeException: fail");
+		assertThat(stackTrace.getHeaders().get(KafkaHeaders.RECEIVED_MESSAGE_KEY)).isEqualTo(fingerprint);
+		assertThat(stackTraceChannel.receive(1000)).isNull();
+
+		ConfigResource stackTraceTopicResource = new ConfigResource(ConfigResource.Type.TOPIC, stackTraceTopic);
+		Config stackTraceTopicConfig = adminClient.describeConfigs(Collections.singletonList(stackTraceTopicResource))
+				.all().get(10, TimeUnit.SECONDS).get(stackTraceTopicResource);
+		assertThat(stackTraceTopicConfig.get(TopicConfig.CLEANUP_POLICY_CONFIG).value())
+				.isEqualTo(TopicConfig.CLEANUP_POLICY_COMPACT);
+
+		binderBindUnbindLatency();
+		stackTraceConsumerBinding.unbind();
+		dlqConsumerBinding.unbind();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	public void testRetryTopics() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setEnableDlq(true);
+		consumerProperties.getExtension().setRetryTopicDelays(
+				Arrays.asList(Duration.ofMillis(500), Duration.ofSeconds(1)));
+		String destination = "retryTopics." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		List<String> deliveries = new CopyOnWriteArrayList<>();
+		List<Long> failureTimes = new CopyOnWriteArrayList<>();
+		moduleInputChannel.subscribe(message -> {
+			String payload = new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+			deliveries.add(payload + "@" + message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC));
+			if (payload.equals("bad")) {
+				failureTimes.add(System.currentTimeMillis());
+				throw new RuntimeException("fail");
+			}
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		ExtendedConsumerProperties<KafkaConsumerProperties> dlqConsumerProperties = createConsumerProperties();
+		dlqConsumerProperties.setMaxAttempts(1);
+		QueueChannel dlqChannel = new QueueChannel();
+		Binding<MessageChannel> dlqConsumerBinding = binder.bindConsumer(
+				"error." + destination + ".testGroup", null, dlqChannel, dlqConsumerProperties);
+
+		moduleOutputChannel.send(MessageBuilder.withPayload("bad".getBytes()).build());
+		moduleOutputChannel.send(MessageBuilder.withPayload("good".getBytes()).build());
+
+		Message<?> dlqMessage = receive(dlqChannel, 10);
+		assertThat(dlqMessage).isNotNull();
+		assertThat(deliveries).containsExactly("bad@" + destination, "good@" + destination,
+				"bad@" + destination + ".testGroup.retry-500ms",
+				"bad@" + destination + ".testGroup.retry-1s");
+		assertThat(failureTimes.get(1) - failureTimes.get(0)).isGreaterThanOrEqualTo(500);
+		assertThat(failureTimes.get(2) - failureTimes.get(1)).isGreaterThanOrEqualTo(1000);
+		assertThat(dlqMessage.getPayload()).isEqualTo("bad".getBytes());
+		assertThat(dlqMessage.getHeaders().get(KafkaMessageChannelBinder.X_ORIGINAL_TOPIC))
+				.isEqualTo(destination.getBytes(StandardCharsets.UTF_8));
+		assertThat(dlqMessage.getHeaders()).doesNotContainKey(KafkaMessageChannelBinder.X_RETRY_DUE);
+
+		binderBindUnbindLatency();
+		dlqConsumerBinding.unbind();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	public void testPausePartitionOnRetry() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		producerProperties.setPartitionKeyExpression(spelExpressionParser.parseExpression("headers['p']"));
+		producerProperties.setPartitionCount(2);
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setMaxAttempts(3);
+		consumerProperties.setBackOffInitialInterval(500);
+		consumerProperties.setBackOffMultiplier(2.0);
+		consumerProperties.getExtension().setEnableDlq(true);
+		consumerProperties.getExtension().setPausePartitionOnRetry(true);
+		String destination = "pausePartitionOnRetry." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		List<String> deliveries = new CopyOnWriteArrayList<>();
+		List<Long> failureTimes = new CopyOnWriteArrayList<>();
+		CountDownLatch latch = new CountDownLatch(2);
+		moduleInputChannel.subscribe(message -> {
+			String payload = new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+			deliveries.add(payload + "@" + message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION_ID));
+			if (payload.equals("bad")) {
+				failureTimes.add(System.currentTimeMillis());
+				throw new RuntimeException("fail");
+			}
+			latch.countDown();
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		ExtendedConsumerProperties<KafkaConsumerProperties> dlqConsumerProperties = createConsumerProperties();
+		dlqConsumerProperties.setMaxAttempts(1);
+		QueueChannel dlqChannel = new QueueChannel();
+		Binding<MessageChannel> dlqConsumerBinding = binder.bindConsumer(
+				"error." + destination + ".testGroup", null, dlqChannel, dlqConsumerProperties);
+
+		moduleOutputChannel.send(MessageBuilder.withPayload("bad".getBytes()).setHeader("p", 0).build());
+		moduleOutputChannel.send(MessageBuilder.withPayload("good".getBytes()).setHeader("p", 0).build());
+		moduleOutputChannel.send(MessageBuilder.withPayload("other".getBytes()).setHeader("p", 1).build());
+
+		Message<?> dlqMessage = receive(dlqChannel, 10);
+		assertThat(dlqMessage).isNotNull();
+		assertThat(dlqMessage.getPayload()).isEqualTo("bad".getBytes());
+		assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(deliveries).filteredOn(delivery -> delivery.endsWith("@0"))
+				.containsExactly("bad@0", "bad@0", "bad@0", "good@0");
+		// the other partition is consumed while the failed record waits
+		assertThat(deliveries.indexOf("other@1")).isLessThan(deliveries.lastIndexOf("bad@0") - 1);
+		assertThat(failureTimes.get(1) - failureTimes.get(0)).isGreaterThanOrEqualTo(500);
+		assertThat(failureTimes.get(2) - failureTimes.get(1)).isGreaterThanOrEqualTo(1000);
+		PartitionPausingErrorHandler pausingErrorHandler = ((KafkaTestBinder) binder).getCoreBinder()
+				.getPausingErrorHandlers().get(destination);
+		assertThat(pausingErrorHandler.getPauseCount(new TopicPartition(destination, 0))).isEqualTo(2);
+		assertThat(pausingErrorHandler.getPausedTime(new TopicPartition(destination, 0)))
+				.isGreaterThanOrEqualTo(1500);
+		assertThat(pausingErrorHandler.getPauseCount(new TopicPartition(destination, 1))).isEqualTo(0);
+
+		binderBindUnbindLatency();
+		dlqConsumerBinding.unbind();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	public void testParallelism() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		producerProperties.getExtension()
+				.setMessageKeyExpression(spelExpressionParser.parseExpression("headers['key']"));
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setParallelism(4);
+		String destination = "parallelism." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+		Set<String> threads = ConcurrentHashMap.newKeySet();
+		AtomicInteger processing = new AtomicInteger();
+		AtomicInteger maxProcessing = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch(40);
+		moduleInputChannel.subscribe(message -> {
+			maxProcessing.accumulateAndGet(processing.incrementAndGet(), Math::max);
+			String[] payload = new String((byte[]) message.getPayload(), StandardCharsets.UTF_8).split("-");
+			received.computeIfAbsent(payload[0], key -> new CopyOnWriteArrayList<>())
+					.add(Integer.valueOf(payload[1]));
+			threads.add(Thread.currentThread().getName());
+			try {
+				Thread.sleep(20);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processing.decrementAndGet();
+			latch.countDown();
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+
+		for (int i = 0; i < 40; i++) {
+			String key = "k" + i % 4;
+			moduleOutputChannel.send(MessageBuilder.withPayload((key + "-" + i).getBytes())
+					.setHeader("key", key.getBytes()).build());
+		}
+
+		assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(received).containsOnlyKeys("k0", "k1", "k2", "k3");
+		received.forEach((key, values) -> assertThat(values).hasSize(10).isSorted());
+		assertThat(threads).hasSize(4).allMatch(name -> name.startsWith(destination + ".parallel-"));
+		assertThat(maxProcessing.get()).isGreaterThan(1);
+		TopicPartition partition = new TopicPartition(destination, 0);
+		long committed = 0;
+		for (int i = 0; i < 50 && committed < 40; i++) {
+			Thread.sleep(100);
+			committed = committedOffset("testGroup", partition);
+		}
+		assertThat(committed).isEqualTo(40);
+
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	public void testParallelismRedeliversFailedRecord() throws Exception {
+		KafkaTestBinder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setMaxAttempts(1);
+		consumerProperties.getExtension().setParallelism(2);
+		// the partition is paused as soon as a record is in flight
+		consumerProperties.getExtension().setMaxInFlightRecords(1);
+		String destination = "parallelismFailure." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		List<String> received = new CopyOnWriteArrayList<>();
+		AtomicBoolean failed = new AtomicBoolean();
+		moduleInputChannel.subscribe(message -> {
+			String payload = new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+			received.add(payload);
+			if ("foo3".equals(payload) && failed.compareAndSet(false, true)) {
+				throw new RuntimeException("fail");
+			}
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		// the failed record is not recovered, and reaches the container error handler
+		SubscribableChannel errorChannel = binder.getApplicationContext()
+				.getBean(destination + ".testGroup.errors-0", SubscribableChannel.class);
+		errorChannel.subscribe(message -> {
+			throw new RuntimeException("not recovered", ((ErrorMessage) message).getPayload());
+		});
+		for (int i = 0; i < 10; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload(("foo" + i).getBytes()).build());
+		}
+
+		TopicPartition partition = new TopicPartition(destination, 0);
+		long committed = 0;
+		for (int i = 0; i < 100 && committed < 10; i++) {
+			Thread.sleep(100);
+			committed = committedOffset("testGroup", partition);
+		}
+		assertThat(committed).isEqualTo(10);
+		assertThat(received).containsAll(IntStream.range(0, 10).mapToObj(i -> "foo" + i)
+				.collect(Collectors.toList()));
+		assertThat(received).filteredOn("foo3"::equals).hasSize(2);
+
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	public void testOutOfOrderAcks() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.getExtension().setAutoCommitOffset(false);
+		consumerProperties.getExtension().setOutOfOrderAcks(true);
+		consumerProperties.getExtension().setAckCommitInterval(100);
+		String destination = "outOfOrderAcks." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		QueueChannel moduleInputChannel = new QueueChannel();
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+
+		List<Acknowledgment> acks = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload(("foo" + i).getBytes()).build());
+			Message<?> received = receive(moduleInputChannel);
+			assertThat(received).isNotNull();
+			acks.add(received.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT, Acknowledgment.class));
+		}
+		TopicPartition partition = new TopicPartition(destination, 0);
+		OffsetTracker offsetTracker = ((KafkaTestBinder) binder).getCoreBinder().getOffsetTrackers()
+				.get(destination);
+		acks.get(4).acknowledge();
+		acks.get(2).acknowledge();
+		acks.get(1).acknowledge();
+		assertThat(offsetTracker.getPendingCount(partition)).isEqualTo(2);
+		Thread.sleep(500);
+		assertThat(committedOffset("testGroup", partition)).isEqualTo(0);
+
+		acks.get(0).acknowledge();
+		assertThat(offsetTracker.getPendingCount(partition)).isEqualTo(1);
+		long committed = 0;
+		for (int i = 0; i < 50 && committed < 3; i++) {
+			Thread.sleep(100);
+			committed = committedOffset("testGroup", partition);
+		}
+		assertThat(committed).isEqualTo(3);
+
+		acks.get(3).acknowledge();
+		for (int i = 0; i < 50 && committed < 5; i++) {
+			Thread.sleep(100);
+			committed = committedOffset("testGroup", partition);
+		}
+		assertThat(committed).isEqualTo(5);
+		assertThat(offsetTracker.getPendingCount(partition)).isEqualTo(0);
+
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void testBatchPoisonRecordIsolation() throws Exception {
+		Binder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setBatchMode(true);
+		consumerProperties.setMaxAttempts(3);
+		consumerProperties.setBackOffInitialInterval(100);
+		consumerProperties.getExtension().setEnableDlq(true);
+		consumerProperties.getExtension().setIsolatePoisonRecords(true);
+		consumerProperties.getExtension().getConfiguration().put("max.poll.records", "10");
+		String destination = "batchPoisonRecord." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		List<List<String>> batches = new CopyOnWriteArrayList<>();
+		Set<String> processed = ConcurrentHashMap.newKeySet();
+		moduleInputChannel.subscribe(message -> {
+			List<String> batch = ((List<byte[]>) message.getPayload()).stream()
+					.map(payload -> new String(payload, StandardCharsets.UTF_8))
+					.collect(Collectors.toList());
+			batches.add(batch);
+			if (batch.contains("bad")) {
+				throw new RuntimeException("fail");
+			}
+			processed.addAll(batch);
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		for (int i = 0; i < 10; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload((i == 6 ? "bad" : "foo" + i).getBytes()).build());
+		}
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		ExtendedConsumerProperties<KafkaConsumerProperties> dlqConsumerProperties = createConsumerProperties();
+		dlqConsumerProperties.setMaxAttempts(1);
+		QueueChannel dlqChannel = new QueueChannel();
+		Binding<MessageChannel> dlqConsumerBinding = binder.bindConsumer(
+				"error." + destination + ".testGroup", null, dlqChannel, dlqConsumerProperties);
+
+		Message<?> dlqMessage = receive(dlqChannel, 10);
+		assertThat(dlqMessage).isNotNull();
+		assertThat(dlqMessage.getPayload()).isEqualTo("bad".getBytes());
+		TopicPartition partition = new TopicPartition(destination, 0);
+		long committed = 0;
+		for (int i = 0; i < 50 && committed < 10; i++) {
+			Thread.sleep(100);
+			committed = committedOffset("testGroup", partition);
+		}
+		assertThat(committed).isEqualTo(10);
+		assertThat(processed).containsExactlyInAnyOrder("foo0", "foo1", "foo2", "foo3", "foo4", "foo5",
+				"foo7", "foo8", "foo9");
+		// the failed record is retried alone
+		List<List<String>> failedBatches = batches.stream().filter(batch -> batch.contains("bad"))
+				.collect(Collectors.toList());
+		assertThat(failedBatches.subList(failedBatches.size() - 3, failedBatches.size()))
+				.allMatch(batch -> batch.size() == 1);
+		assertThat(dlqChannel.receive(500)).isNull();
+
+		binderBindUnbindLatency();
+		dlqConsumerBinding.unbind();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBatchPoisonRecordIsolationIgnoredWithManualAcks() throws Exception {
+		AbstractKafkaTestBinder binder = getBinder();
+
+		ExtendedProducerProperties<KafkaProducerProperties> producerProperties = createProducerProperties();
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = createConsumerProperties();
+		consumerProperties.setBatchMode(true);
+		consumerProperties.setMaxAttempts(1);
+		consumerProperties.getExtension().setAutoCommitOffset(false);
+		consumerProperties.getExtension().setIsolatePoisonRecords(true);
+		consumerProperties.getExtension().getConfiguration().put("max.poll.records", "10");
+		String destination = "batchPoisonRecordManualAck." + System.currentTimeMillis() + ".0";
+		DirectChannel moduleOutputChannel = createBindableChannel("output",
+				createProducerBindingProperties(producerProperties));
+		DirectChannel moduleInputChannel = createBindableChannel("input",
+				createConsumerBindingProperties(consumerProperties));
+		AtomicInteger batches = new AtomicInteger();
+		moduleInputChannel.subscribe(message -> {
+			batches.incrementAndGet();
+			if (((List<byte[]>) message.getPayload()).stream()
+					.anyMatch(payload -> "bad".equals(new String(payload, StandardCharsets.UTF_8)))) {
+				throw new RuntimeException("fail");
+			}
+		});
+
+		Binding<MessageChannel> producerBinding = binder.bindProducer(destination,
+				moduleOutputChannel, producerProperties);
+		for (int i = 0; i < 10; i++) {
+			moduleOutputChannel.send(MessageBuilder.withPayload((i == 6 ? "bad" : "foo" + i).getBytes()).build());
+		}
+		Binding<MessageChannel> consumerBinding = binder.bindConsumer(destination,
+				"testGroup", moduleInputChannel, consumerProperties);
+		SubscribableChannel errorChannel = binder.getApplicationContext()
+				.getBean(destination + ".testGroup.errors-0", SubscribableChannel.class);
+		BlockingQueue<Message<?>> errors = new LinkedBlockingQueue<>();
+		errorChannel.subscribe(errors::add);
+
+		// the whole failed batch reaches the error channel, without being bisected
+		Message<?> error = errors.poll(10, TimeUnit.SECONDS);
+		assertThat(error).isInstanceOf(ErrorMessage.class);
+		assertThat(error.getPayload()).isInstanceOf(MessagingException.class);
+		Message<?> failed = ((MessagingException) error.getPayload()).getFailedMessage();
+		assertThat((List<byte[]>) failed.getPayload()).hasSize(10);
+		assertThat(batches.get()).isEqualTo(1);
+
+		binderBindUnbindLatency();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+	}
+
+	private long committedOffset(String group, TopicPartition partition) throws Exception {
+		OffsetAndMetadata offset = adminClient.listConsumerGroupOffsets(group)
+				.partitionsToOffsetAndMetadata().get().get(partition);
+		return offset == null ? 0 : offset.offset();
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void testValidateKafkaTopicName() {
 		KafkaTopicUtils.validateTopicName("foo:bar");
@@ -1591,25 +2562,35 @@ public class KafkaBinderTests extends
 				.withPayload(testPayload3.getBytes())
 				.setHeader(KafkaHeaders.TOPIC, "foo.y")
 				.build();
+		// an empty topic header is ignored
+		String testPayload4 = "foo4";
+		Message<?> message4 = org.springframework.integration.support.MessageBuilder
+				.withPayload(testPayload4.getBytes())
+				.setHeader(KafkaHeaders.TOPIC, "")
+				.build();
 
 		// Let the consumer actually bind to the producer before sending a msg
 		binderBindUnbindLatency();
 		moduleOutputChannel1.send(message1);
 		moduleOutputChannel2.send(message2);
 		moduleOutputChannel1.send(message3);
+		moduleOutputChannel1.send(message4);
 
-		Message<?>[] messages = new Message[3];
+		Message<?>[] messages = new Message[4];
 		messages[0] = receive(moduleInputChannel);
 		messages[1] = receive(moduleInputChannel);
 		messages[2] = receive(moduleInputChannel);
+		messages[3] = receive(moduleInputChannel);
 
 		assertThat(messages[0]).isNotNull();
 		assertThat(messages[1]).isNotNull();
 		assertThat(messages[1]).isNotNull();
 		assertThat(messages).extracting("payload").containsExactlyInAnyOrder(
-				testPayload1.getBytes(), testPayload2.getBytes(), testPayload3.getBytes());
+				testPayload1.getBytes(), testPayload2.getBytes(), testPayload3.getBytes(),
+				testPayload4.getBytes());
 		Arrays.asList(messages).forEach(message -> {
-			if (new String((byte[]) message.getPayload()).equals("foo1")) {
+			String payload = new String((byte[]) message.getPayload());
+			if (payload.equals("foo1") || payload.equals("foo4")) {
 				assertThat(message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC)).isEqualTo("foo.x");
 			}
 			else {
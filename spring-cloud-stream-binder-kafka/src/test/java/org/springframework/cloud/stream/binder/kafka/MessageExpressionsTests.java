@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.common.LiteralExpression;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 3.1
+ */
+public class MessageExpressionsTests {
+
+	private final SpelExpressionParser parser = new SpelExpressionParser();
+
+	private final EvaluationContext evaluationContext = new StandardEvaluationContext();
+
+	@Test
+	public void testHeaderExpressions() {
+		Message<String> message = MessageBuilder.withPayload("foo").setHeader("bar", "baz").build();
+		for (String expressionString : new String[] { "headers['bar']", " headers[ 'bar' ] ", "headers.bar" }) {
+			Expression expression = MessageExpressions.compile(this.parser.parseExpression(expressionString));
+			assertThat(expression).isInstanceOf(FunctionExpression.class);
+			assertThat(expression.getValue(this.evaluationContext, message)).isEqualTo("baz");
+		}
+		assertThat(MessageExpressions.header("qux", "default").getValue(this.evaluationContext, message))
+				.isEqualTo("default");
+		assertThat(MessageExpressions.header("qux", null).getValue(this.evaluationContext, message)).isNull();
+	}
+
+	@Test
+	public void testEmptyHeaderIsReplacedByTheDefaultValue() {
+		Message<String> message = MessageBuilder.withPayload("foo").setHeader("bar", "").build();
+		// as headers['bar'] ?: 'default'
+		assertThat(this.parser.parseExpression("headers['bar'] ?: 'default'")
+				.getValue(this.evaluationContext, message)).isEqualTo("default");
+		assertThat(MessageExpressions.header("bar", "default").getValue(this.evaluationContext, message))
+				.isEqualTo("default");
+		// as headers['bar']
+		assertThat(MessageExpressions.compile(this.parser.parseExpression("headers['bar']"))
+				.getValue(this.evaluationContext, message)).isEqualTo("");
+	}
+
+	@Test
+	public void testCompiledExpressions() {
+		Expression expression = MessageExpressions
+				.compile(this.parser.parseExpression("payload.toUpperCase() + headers['bar']"));
+		assertThat(expression).isInstanceOf(SpelExpression.class);
+		for (int i = 0; i < 10; i++) {
+			Message<String> message = MessageBuilder.withPayload("foo" + i).setHeader("bar", "baz").build();
+			assertThat(expression.getValue(this.evaluationContext, message)).isEqualTo("FOO" + i + "baz");
+		}
+		Expression literal = new LiteralExpression(UUID.randomUUID().toString());
+		assertThat(MessageExpressions.compile(literal)).isSameAs(literal);
+	}
+
+	@Test
+	public void testKeyInterceptorKeepsTheMessageIdentity() {
+		KafkaExpressionEvaluatingInterceptor interceptor = new KafkaExpressionEvaluatingInterceptor(
+				this.parser.parseExpression("payload.bytes"), this.evaluationContext);
+		Message<String> message = MessageBuilder.withPayload("foo").setHeader("bar", "baz").build();
+		Message<?> intercepted = interceptor.preSend(message, null);
+		assertThat(intercepted.getPayload()).isSameAs(message.getPayload());
+		assertThat(intercepted.getHeaders().getId()).isEqualTo(message.getHeaders().getId());
+		assertThat(intercepted.getHeaders().getTimestamp()).isEqualTo(message.getHeaders().getTimestamp());
+		assertThat(intercepted.getHeaders().get("bar")).isEqualTo("baz");
+		assertThat(intercepted.getHeaders().get(KafkaExpressionEvaluatingInterceptor.MESSAGE_KEY_HEADER))
+				.isEqualTo("foo".getBytes());
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.stream.binder.Binding;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaConsumerProperties;
+import org.springframework.cloud.stream.binder.kafka.properties.KafkaProducerProperties;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Budgets of the bytes allocated for each record by the bindings of the binder, run by
+ * the {@link InMemoryKafkaBinder}: on the consumer thread, from the poll of the records
+ * to their handling, and on the sending thread, from the message to the producer record.
+ * The records are measured once the paths are warmed up; the budgets are the measured
+ * allocations plus a small margin, so that a change allocating more for every record
+ * fails the build.
+ *
+ * @since 3.1
+ */
+public class RecordPathAllocationTests {
+
+	/*
+	 * Measured with a 256 byte payload and three headers: 2,690 to 2,750 bytes per
+	 * inbound record and 4,030 to 4,350 bytes per outbound record on Java 8 (2,530 and
+	 * 3,610 to 3,750 bytes on Java 17); the budgets are about 15% above the Java 8 ones.
+	 */
+	private static final int INBOUND_BUDGET = 3_200;
+
+	private static final int OUTBOUND_BUDGET = 5_000;
+
+	private static final int WARMUP = 20_000;
+
+	private static final int RECORDS = 20_000;
+
+	private ThreadMXBean threads;
+
+	private AnnotationConfigApplicationContext context;
+
+	private InMemoryKafkaBinder binder;
+
+	private Message<byte[]> message;
+
+	@Before
+	public void setup() throws Exception {
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean instanceof ThreadMXBean
+				&& ((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+		this.threads = (ThreadMXBean) threadMXBean;
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+		this.context = new AnnotationConfigApplicationContext(Config.class);
+		this.binder = new InMemoryKafkaBinder(new KafkaBinderConfigurationProperties(new TestKafkaProperties()),
+				new InMemoryTopics(1));
+		this.binder.setApplicationContext(this.context);
+		this.binder.afterPropertiesSet();
+		this.message = MessageBuilder.withPayload(new byte[256])
+				.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+				.setHeader("traceId", "463ac35c9f6413ad48485a3953bb6124")
+				.setHeader("spanId", "a2fb4a1d1a96d312")
+				.build();
+	}
+
+	@After
+	public void tearDown() {
+		if (this.context != null) {
+			this.context.close();
+		}
+	}
+
+	@Test
+	public void testInboundAllocationPerRecord() throws Exception {
+		AtomicLong handled = new AtomicLong();
+		long[] allocated = new long[2];
+		CountDownLatch latch = new CountDownLatch(1);
+		DirectChannel input = new DirectChannel();
+		input.subscribe(message -> {
+			long count = handled.incrementAndGet();
+			if (count == WARMUP) {
+				allocated[0] = allocatedBytes();
+			}
+			else if (count == WARMUP + RECORDS) {
+				allocated[1] = allocatedBytes();
+				latch.countDown();
+			}
+		});
+		DirectChannel output = new DirectChannel();
+		Binding<MessageChannel> producerBinding = this.binder.bindProducer("allocation.inbound", output,
+				new ExtendedProducerProperties<>(new KafkaProducerProperties()));
+		for (int i = 0; i < WARMUP + RECORDS; i++) {
+			output.send(this.message);
+		}
+		ExtendedConsumerProperties<KafkaConsumerProperties> consumerProperties = new ExtendedConsumerProperties<>(
+				new KafkaConsumerProperties());
+		consumerProperties.setInstanceCount(1);
+		Binding<MessageChannel> consumerBinding = this.binder.bindConsumer("allocation.inbound", "group", input,
+				consumerProperties);
+		assertThat(latch.await(30, TimeUnit.SECONDS)).isTrue();
+		consumerBinding.unbind();
+		producerBinding.unbind();
+		assertThat((allocated[1] - allocated[0]) / RECORDS).isLessThanOrEqualTo(INBOUND_BUDGET);
+	}
+
+	@Test
+	public void testOutboundAllocationPerRecord() {
+		DirectChannel output = new DirectChannel();
+		Binding<MessageChannel> producerBinding = this.binder.bindProducer("allocation.outbound", output,
+				new ExtendedProducerProperties<>(new KafkaProducerProperties()));
+		for (int i = 0; i < WARMUP; i++) {
+			output.send(this.message);
+		}
+		long start = allocatedBytes();
+		for (int i = 0; i < RECORDS; i++) {
+			output.send(this.message);
+		}
+		long allocated = allocatedBytes() - start;
+		producerBinding.unbind();
+		assertThat(allocated / RECORDS).isLessThanOrEqualTo(OUTBOUND_BUDGET);
+	}
+
+	private long allocatedBytes() {
+		return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Configuration
+	@EnableIntegration
+	static class Config {
+
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @since 3.1
+ */
+public class StackTracesTests {
+
+	@Test
+	public void testFullStackTrace() {
+		Exception exception = new IllegalStateException("foo", new RuntimeException("bar"));
+		assertThat(StackTraces.format(exception, null, null)).isEqualTo(StackTraces.print(exception));
+	}
+
+	@Test
+	public void testMaxFrames() {
+		Exception exception = new IllegalStateException("foo", new RuntimeException("bar"));
+		String stackTrace = StackTraces.format(exception, 2, null);
+		String[] lines = stackTrace.split(System.lineSeparator());
+		assertThat(lines[0]).isEqualTo("java.lang.IllegalStateException: foo");
+		assertThat(lines[1]).startsWith("\tat " + getClass().getName() + ".testMaxFrames");
+		assertThat(lines[2]).startsWith("\tat ");
+		assertThat(lines[3]).isEqualTo("\t... " + (exception.getStackTrace().length - 2) + " more");
+		assertThat(lines[4]).isEqualTo("Caused by: java.lang.RuntimeException: bar");
+		assertThat(lines).hasSize(8);
+	}
+
+	@Test
+	public void testMaxBytes() {
+		Exception exception = new IllegalStateException("ééé");
+		String stackTrace = StackTraces.format(exception, null, 40);
+		assertThat(stackTrace.getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(40);
+		assertThat(StackTraces.print(exception)).startsWith(stackTrace);
+
+		stackTrace = StackTraces.format(exception, null, 36);
+		assertThat(stackTrace).isEqualTo("java.lang.IllegalStateException: é");
+	}
+
+	@Test
+	public void testFingerprintIgnoresMessages() {
+		String[] fingerprints = new String[2];
+		for (int i = 0; i < 2; i++) {
+			fingerprints[i] = StackTraces.fingerprint(new IllegalStateException("foo" + i));
+		}
+		assertThat(fingerprints[0]).isEqualTo(fingerprints[1]);
+		assertThat(StackTraces.fingerprint(new IllegalStateException("foo")))
+				.isNotEqualTo(fingerprints[0]);
+	}
+
+}
@@ -19,6 +19,7 @@ package org.springframework.cloud.stream.binder.kafka.integration;
 import java.util.List;
 import java.util.Map;
 
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.binder.MeterBinder;
 import org.junit.AfterClass;
@@ -68,8 +69,9 @@ import static org.assertj.core.api.Assertions.assertThat;
  */
 @RunWith(SpringRunner.class)
 // @checkstyle:off
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "spring.cloud.stream.bindings.input.group="
-		+ KafkaBinderActuatorTests.TEST_CONSUMER_GROUP)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+		"spring.cloud.stream.bindings.input.group=" + KafkaBinderActuatorTests.TEST_CONSUMER_GROUP,
+		"spring.cloud.stream.kafka.binder.metrics.lagRefreshInterval=500ms" })
 // @checkstyle:on
 @DirtiesContext
 public class KafkaBinderActuatorTests {
@@ -99,13 +101,19 @@ public class KafkaBinderActuatorTests {
 	private KafkaTemplate<?, byte[]> kafkaTemplate;
 
 	@Test
-	public void testKafkaBinderMetricsExposed() {
-		this.kafkaTemplate.send(Sink.INPUT, null, "foo".getBytes());
+	public void testKafkaBinderMetricsExposed() throws InterruptedException {
+		for (int i = 0; i < 5; i++) {
+			this.kafkaTemplate.send(Sink.INPUT, null, "foo".getBytes());
+		}
 		this.kafkaTemplate.flush();
 
-		assertThat(this.meterRegistry.get("spring.cloud.stream.binder.kafka.offset")
-				.tag("group", TEST_CONSUMER_GROUP).tag("topic", Sink.INPUT).gauge()
-				.value()).isGreaterThan(0);
+		Gauge gauge = this.meterRegistry.get("spring.cloud.stream.binder.kafka.offset")
+				.tag("group", TEST_CONSUMER_GROUP).tag("topic", Sink.INPUT).gauge();
+		int n = 0;
+		while (n++ < 50 && gauge.value() == 0) {
+			Thread.sleep(100);
+		}
+		assertThat(gauge.value()).isGreaterThan(0);
 	}
 
 	@Test